@@ -0,0 +1,262 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.core;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Optional accounting of CPU time and allocated memory spent by dataflow nodes.
+ * When enabled, each execution batch of a node (one invocation of its task,
+ * which may call act() several times) is measured with {@link ThreadMXBean}
+ * and attributed either to the node's class or to the node instance.
+ * <p>
+ * Usage:
+ * <pre>
+ *    ActorAccounting accounting=ActorAccounting.enable(false);
+ *    ... run the program
+ *    System.out.println(accounting.report(10));
+ *    ActorAccounting.disable();
+ * </pre>
+ * When disabled, the only cost is a read of a volatile field per batch.
+ */
+public class ActorAccounting {
+    /** current accounting, null if accounting is off */
+    private static volatile ActorAccounting active;
+
+    private final ThreadMXBean threadBean=ManagementFactory.getThreadMXBean();
+    private final com.sun.management.ThreadMXBean allocBean;
+    private final boolean perInstance;
+    private final ConcurrentHashMap<Class<?>, Entry> classEntries=new ConcurrentHashMap<Class<?>, Entry>();
+    private final Map<DataflowNode, Entry> instanceEntries=new WeakHashMap<DataflowNode, Entry>();
+
+    /**
+     * @param perInstance if true, statistics is collected for each node instance,
+     *   otherwise for each node class. Per-instance mode is more expensive, as it
+     *   synchronizes on a common map.
+     */
+    public ActorAccounting(boolean perInstance) {
+        this.perInstance=perInstance;
+        if (threadBean.isThreadCpuTimeSupported() && !threadBean.isThreadCpuTimeEnabled()) {
+            threadBean.setThreadCpuTimeEnabled(true);
+        }
+        com.sun.management.ThreadMXBean ab=null;
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            ab=(com.sun.management.ThreadMXBean) threadBean;
+            if (!ab.isThreadAllocatedMemorySupported()) {
+                ab=null;
+            } else if (!ab.isThreadAllocatedMemoryEnabled()) {
+                ab.setThreadAllocatedMemoryEnabled(true);
+            }
+        }
+        allocBean=ab;
+    }
+
+    /**
+     * Starts accounting for all dataflow nodes.
+     * @return new accounting instance which collects data
+     */
+    public static ActorAccounting enable(boolean perInstance) {
+        ActorAccounting res=new ActorAccounting(perInstance);
+        active=res;
+        return res;
+    }
+
+    /**
+     * Stops accounting.
+     * @return accounting instance which was active, or null
+     */
+    public static ActorAccounting disable() {
+        ActorAccounting res=active;
+        active=null;
+        return res;
+    }
+
+    /**
+     * @return accounting instance currently collecting data, or null
+     */
+    public static ActorAccounting getActive() {
+        return active;
+    }
+
+    //========= backend - called from DataflowNode.ActorTask
+
+    long threadCpuTime() {
+        return threadBean.getCurrentThreadCpuTime();
+    }
+
+    long threadAllocatedBytes() {
+        if (allocBean==null) {
+            return 0;
+        }
+        return allocBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * attributes resources spent since the moment of sampling
+     * @param node the node which was executed
+     * @param cpuStart thread's cpu time at the start of the batch
+     * @param allocStart thread's allocated bytes at the start of the batch
+     */
+    void record(DataflowNode node, long cpuStart, long allocStart) {
+        long cpu=threadCpuTime()-cpuStart;
+        long alloc=threadAllocatedBytes()-allocStart;
+        entryFor(node).add(cpu, alloc);
+    }
+
+    private Entry entryFor(DataflowNode node) {
+        if (perInstance) {
+            synchronized (instanceEntries) {
+                Entry res=instanceEntries.get(node);
+                if (res==null) {
+                    res=new Entry(node.getClass().getName()+"@"+Integer.toHexString(System.identityHashCode(node)));
+                    instanceEntries.put(node, res);
+                }
+                return res;
+            }
+        }
+        Class<?> key=node.getClass();
+        Entry res=classEntries.get(key);
+        if (res==null) {
+            Entry newEntry=new Entry(key.getName());
+            res=classEntries.putIfAbsent(key, newEntry);
+            if (res==null) {
+                res=newEntry;
+            }
+        }
+        return res;
+    }
+
+    //========= reports
+
+    /**
+     * @return all collected entries, in no particular order
+     */
+    public List<Entry> getEntries() {
+        ArrayList<Entry> res=new ArrayList<Entry>();
+        if (perInstance) {
+            synchronized (instanceEntries) {
+                res.addAll(instanceEntries.values());
+            }
+        } else {
+            res.addAll(classEntries.values());
+        }
+        return res;
+    }
+
+    /**
+     * @param n max number of entries to return
+     * @return entries which consumed most CPU time, in descending order
+     */
+    public List<Entry> topByCpuTime(int n) {
+        return top(n, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry e1, Entry e2) {
+                return compareLongs(e2.getCpuTime(), e1.getCpuTime());
+            }
+        });
+    }
+
+    /**
+     * @param n max number of entries to return
+     * @return entries which allocated most memory, in descending order
+     */
+    public List<Entry> topByAllocatedBytes(int n) {
+        return top(n, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry e1, Entry e2) {
+                return compareLongs(e2.getAllocatedBytes(), e1.getAllocatedBytes());
+            }
+        });
+    }
+
+    private List<Entry> top(int n, Comparator<Entry> comparator) {
+        List<Entry> entries=getEntries();
+        Collections.sort(entries, comparator);
+        if (entries.size()>n) {
+            entries=new ArrayList<Entry>(entries.subList(0, n));
+        }
+        return entries;
+    }
+
+    static int compareLongs(long x, long y) {
+        return (x < y) ? -1 : ((x == y) ? 0 : 1);
+    }
+
+    /**
+     * @param n max number of entries in each section
+     * @return human-readable report with top consumers of CPU and memory
+     */
+    public String report(int n) {
+        StringBuilder sb=new StringBuilder();
+        sb.append("top ").append(n).append(" by cpu time:\n");
+        for (Entry e: topByCpuTime(n)) {
+            sb.append("  ").append(e).append('\n');
+        }
+        sb.append("top ").append(n).append(" by allocated bytes:\n");
+        for (Entry e: topByAllocatedBytes(n)) {
+            sb.append("  ").append(e).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Resources consumed by a node class or node instance.
+     */
+    public static class Entry {
+        private final String name;
+        private final AtomicLong batches=new AtomicLong();
+        private final AtomicLong cpuTime=new AtomicLong();
+        private final AtomicLong allocatedBytes=new AtomicLong();
+
+        Entry(String name) {
+            this.name = name;
+        }
+
+        void add(long cpu, long alloc) {
+            batches.incrementAndGet();
+            cpuTime.addAndGet(cpu);
+            allocatedBytes.addAndGet(alloc);
+        }
+
+        /** @return node class name, or class name with identity hash for per-instance accounting */
+        public String getName() {
+            return name;
+        }
+
+        /** @return number of measured execution batches */
+        public long getBatches() {
+            return batches.get();
+        }
+
+        /** @return CPU time, nanoseconds */
+        public long getCpuTime() {
+            return cpuTime.get();
+        }
+
+        /** @return allocated memory, bytes; 0 if JVM does not support allocation measurement */
+        public long getAllocatedBytes() {
+            return allocatedBytes.get();
+        }
+
+        @Override
+        public String toString() {
+            return name+": batches="+getBatches()+" cpu="+getCpuTime()/1000+"us alloc="+getAllocatedBytes()+"b";
+        }
+    }
+}
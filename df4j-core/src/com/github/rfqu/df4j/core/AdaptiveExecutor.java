@@ -0,0 +1,180 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.core;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread pool which keeps the number of running (not blocked) threads
+ * close to the target parallelism.
+ * <p>
+ * Tasks which are going to block should announce it with {@link #beginBlocking()}
+ * and {@link #endBlocking()}, or with {@link #managedBlock(ManagedBlocker)}.
+ * When a worker thread blocks, the pool starts a compensating thread,
+ * so queued tasks are not starved and dependent tasks cannot deadlock the pool.
+ * When the worker unblocks, the pool shrinks back as excess threads become idle.
+ * {@link CallbackFuture#get()} announces blocking automatically.
+ * Calls from threads which do not belong to an AdaptiveExecutor have no effect.
+ */
+public class AdaptiveExecutor extends ThreadPoolExecutor implements NodeRegistry.Introspectable {
+    /** default limit of compensating threads */
+    public static final int MAX_COMPENSATION=256;
+
+    private static final ThreadLocal<AdaptiveExecutor> currentExecutor=new ThreadLocal<AdaptiveExecutor>();
+
+    private final int parallelism;
+    private final AtomicInteger blocked=new AtomicInteger();
+    private final AtomicLong compensations=new AtomicLong();
+
+    /**
+     * @param parallelism target number of running threads
+     * @param maxCompensation max number of threads added to compensate blocked ones
+     * @param threadFactory factory to create worker threads
+     */
+    public AdaptiveExecutor(int parallelism, int maxCompensation, ThreadFactory threadFactory) {
+        super(parallelism, parallelism+maxCompensation, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        this.parallelism=parallelism;
+        setThreadFactory(new WorkerThreadFactory(threadFactory));
+    }
+
+    public AdaptiveExecutor(int parallelism, ThreadFactory threadFactory) {
+        this(parallelism, MAX_COMPENSATION, threadFactory);
+    }
+
+    /**
+     * Announces that the current thread is going to block.
+     * Must be followed by {@link #endBlocking()}.
+     */
+    public static void beginBlocking() {
+        AdaptiveExecutor executor=currentExecutor.get();
+        if (executor!=null) {
+            executor.blocked.incrementAndGet();
+            executor.compensations.incrementAndGet();
+            executor.adjust();
+        }
+    }
+
+    /**
+     * Announces that the current thread is not blocked anymore.
+     */
+    public static void endBlocking() {
+        AdaptiveExecutor executor=currentExecutor.get();
+        if (executor!=null) {
+            executor.blocked.decrementAndGet();
+            executor.adjust();
+        }
+    }
+
+    /**
+     * Blocks until the blocker is released, compensating the blocked thread.
+     * The same contract as {@link java.util.concurrent.ForkJoinPool.ManagedBlocker}.
+     */
+    public static void managedBlock(ManagedBlocker blocker) throws InterruptedException {
+        if (blocker.isReleasable()) {
+            return;
+        }
+        beginBlocking();
+        try {
+            while (!blocker.isReleasable() && !blocker.block()) {
+            }
+        } finally {
+            endBlocking();
+        }
+    }
+
+    /**
+     * sets the core pool size to parallelism plus number of blocked threads.
+     * Increasing starts new threads if there are queued tasks;
+     * decreasing makes excess threads terminate when idle.
+     */
+    private synchronized void adjust() {
+        int target=parallelism+blocked.get();
+        if (target>getMaximumPoolSize()) {
+            target=getMaximumPoolSize();
+        }
+        if (target!=getCorePoolSize()) {
+            setCorePoolSize(target);
+        }
+    }
+
+    //========= metrics
+
+    /**
+     * @return target number of running threads
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @return number of worker threads which announced blocking
+     */
+    public int getBlockedCount() {
+        return blocked.get();
+    }
+
+    /**
+     * @return total number of announced blockings since the executor was created
+     */
+    public long getCompensationCount() {
+        return compensations.get();
+    }
+
+    @Override
+    public String getStateDescription() {
+        return "parallelism="+parallelism+" pool="+getPoolSize()+" blocked="+getBlockedCount()
+            +" active="+getActiveCount()+" queue="+getQueue().size()
+            +" compensations="+getCompensationCount();
+    }
+
+    /**
+     * A way to block which the executor can compensate.
+     */
+    public interface ManagedBlocker {
+        /**
+         * Possibly blocks the current thread.
+         * @return true if no additional blocking is necessary
+         */
+        boolean block() throws InterruptedException;
+
+        /**
+         * @return true if blocking is unnecessary
+         */
+        boolean isReleasable();
+    }
+
+    /**
+     * marks created threads as workers of this executor
+     */
+    private class WorkerThreadFactory implements ThreadFactory {
+        private final ThreadFactory threadFactory;
+
+        WorkerThreadFactory(ThreadFactory threadFactory) {
+            this.threadFactory = threadFactory;
+        }
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            return threadFactory.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    currentExecutor.set(AdaptiveExecutor.this);
+                    r.run();
+                }
+            });
+        }
+    }
+}
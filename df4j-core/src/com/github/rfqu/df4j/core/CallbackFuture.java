@@ -86,10 +86,27 @@ public class CallbackFuture<T> implements Callback<T>, Future<T> {
      * @throws CancellationException if this Future was cancelled
      */
     @Override
-    public synchronized T get() throws InterruptedException, ExecutionException {
-        while (!_hasValue) {
-            wait();
+    public T get() throws InterruptedException, ExecutionException {
+        if (!_hasValue) {
+            // may resize the pool: not under the lock
+            AdaptiveExecutor.beginBlocking();
+            try {
+                synchronized (this) {
+                    while (!_hasValue) {
+                        wait();
+                    }
+                }
+            } finally {
+                AdaptiveExecutor.endBlocking();
+            }
         }
+        return getValue();
+    }
+
+    /**
+     * @return received message, when it has arrived
+     */
+    private T getValue() throws ExecutionException {
         if (value!=null) {
             return value;
         } else if (exc!=null){
@@ -121,16 +138,25 @@ public class CallbackFuture<T> implements Callback<T>, Future<T> {
      * @throws ExecutionException if failure was sent.
      * @throws CancellationException if this Future was cancelled
      */
-    public synchronized T get(long timeoutMillis) throws InterruptedException, ExecutionException, TimeoutException {
-        long endTime=System.currentTimeMillis()+timeoutMillis;
-        while (!_hasValue) {
-            long duration=(endTime-System.currentTimeMillis());
-            if (duration<=0) {
-                throw new TimeoutException();
+    public T get(long timeoutMillis) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!_hasValue) {
+            long endTime=System.currentTimeMillis()+timeoutMillis;
+            AdaptiveExecutor.beginBlocking();
+            try {
+                synchronized (this) {
+                    while (!_hasValue) {
+                        long duration=(endTime-System.currentTimeMillis());
+                        if (duration<=0) {
+                            throw new TimeoutException();
+                        }
+                        wait(duration);            
+                    }
+                }
+            } finally {
+                AdaptiveExecutor.endBlocking();
             }
-            wait(duration);            
         }
-        return get();
+        return getValue();
     }
     
     /**
@@ -96,7 +96,7 @@ public class DFContext  {
     
     protected Executor newDefaultExecutor() {
         int nThreads=Runtime.getRuntime().availableProcessors();
-        return newFixedThreadPool(nThreads);
+        return newAdaptiveThreadPool(nThreads);
     }   
     
     protected Executor newSingleThreadExecutor() {
@@ -114,6 +114,11 @@ public class DFContext  {
         return (ThreadPoolExecutor) Executors.newCachedThreadPool(tf);
     }
     
+    protected AdaptiveExecutor newAdaptiveThreadPool(int parallelism) {
+        ContextThreadFactory tf = new ContextThreadFactory(dfprefix);
+        return new AdaptiveExecutor(parallelism, tf);
+    }
+    
     /** 
      * Do it on your own risk.
      * Good practice is that your executor should spread this context on its threads.
@@ -135,6 +140,16 @@ public class DFContext  {
         context._setCurrentExecutor(executor);
     }
     
+    /**
+     * Sets a pool which adds threads while its workers are blocked.
+     * @see AdaptiveExecutor
+     */
+    public static void setAdaptiveThreadPool(int parallelism) {
+        DFContext context=getCurrentContext();
+        Executor executor = context.newAdaptiveThreadPool(parallelism);
+        context._setCurrentExecutor(executor);
+    }
+    
     public static void setCachedThreadPool() {
         DFContext context=getCurrentContext();
         Executor executor = context.newCachedThreadPool();
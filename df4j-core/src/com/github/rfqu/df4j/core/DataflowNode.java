@@ -9,6 +9,7 @@
  */
 package com.github.rfqu.df4j.core;
 
+import java.util.ArrayDeque;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Queue;
@@ -33,13 +34,21 @@ public abstract class DataflowNode extends Link {
     private int readyPins=0;  // mask with 1 for all ready pins
     private final Task task; 
     private boolean fired=false; // true when this actor runs
+    private int tracedTokens=0; // number of tokens carrying trace context
+    private volatile long lastActTime=0; // set only when NodeRegistry is enabled
     
     public DataflowNode(Executor executor) {
         task=new ActorTask(executor);
+        if (NodeRegistry.isEnabled()) {
+            NodeRegistry.register(this);
+        }
     }
 
     public DataflowNode() {
         task=new ActorTask();
+        if (NodeRegistry.isEnabled()) {
+            NodeRegistry.register(this);
+        }
     }
 
     public  void postFailure(Throwable exc) {
@@ -77,6 +86,23 @@ public abstract class DataflowNode extends Link {
     public Executor getExecutor() {
         return task.executor;
     }
+
+    /**
+     * @return state of this node, for introspection
+     */
+    NodeRegistry.NodeInfo getNodeInfo() {
+        lock.lock();
+        try {
+            int tokens=0;
+            for (Pin pin=head; pin!=null; pin=pin.next) {
+                tokens+=pin.tokenCount();
+            }
+            return new NodeRegistry.NodeInfo(NodeRegistry.nameOf(this), pinMask, readyPins,
+                    tokens, fired, exc!=null, lastActTime);
+        } finally {
+          lock.unlock();
+        }
+    }
     
     //========= backend
     
@@ -101,6 +127,36 @@ public abstract class DataflowNode extends Link {
         }
         return allReady();
     }
+
+    /**
+     * Extracts trace context attached to the current tokens, if any.
+     * Called under lock.
+     */
+    private TraceContext takeTrace() {
+        if (tracedTokens==0) {
+            return null;
+        }
+        for (Pin pin=head; pin!=null; pin=pin.next) {
+            TraceContext res=pin.takeTrace();
+            if (res!=null) {
+                return res;
+            }
+        }
+        return null;
+    }
+
+    private void invokeAct(TraceContext trace) {
+        if (trace==null && !Tracer.isEnabled()) {
+            act();
+            return;
+        }
+        TraceContext prev=Tracer.beginAct(trace);
+        try {
+            act();
+        } finally {
+            Tracer.endAct(trace, prev);
+        }
+    }
     
     //====================== inner classes
     
@@ -116,13 +172,32 @@ public abstract class DataflowNode extends Link {
             super(executor);
         }
 
-        /** loops while all pins are ready
-         */
         @Override
         public void run() {
+            if (NodeRegistry.isEnabled()) {
+                lastActTime=System.currentTimeMillis();
+            }
+            ActorAccounting accounting=ActorAccounting.getActive();
+            if (accounting==null) {
+                runBatch();
+                return;
+            }
+            long cpuStart=accounting.threadCpuTime();
+            long allocStart=accounting.threadAllocatedBytes();
+            try {
+                runBatch();
+            } finally {
+                accounting.record(DataflowNode.this, cpuStart, allocStart);
+            }
+        }
+
+        /** loops while all pins are ready
+         */
+        private void runBatch() {
             //System.out.println("ActorTask run");
             execLoop:
             try {
+                TraceContext trace;
                 // the loop slightly unrolled to have only one
                 // synchronized statement in the loop
                 lock.lock();
@@ -130,10 +205,11 @@ public abstract class DataflowNode extends Link {
                     if (exc!=null) {
                         break execLoop; // fired remains true, preventing subsequent execution
                     }
+                    trace=takeTrace();
                 } finally {
                   lock.unlock();
                 }
-                act();
+                invokeAct(trace);
                 for (;;) {
                     lock.lock();
                     try {
@@ -145,11 +221,12 @@ public abstract class DataflowNode extends Link {
                         if (exc!=null) {
                             break execLoop; // fired remains true, preventing subsequent execution
                         }
+                        trace=takeTrace();
                     }
                     finally {
                       lock.unlock();
                     }
-                    act();
+                    invokeAct(trace);
                 }
             } catch (Throwable e) {
                 exc=e;
@@ -217,7 +294,20 @@ public abstract class DataflowNode extends Link {
          * Should return quickly, as is called from the actor's synchronized block.
          */
         protected abstract void consume();
-        
+
+        /**
+         * @return trace context attached to the current token, if any
+         */
+        TraceContext takeTrace() {
+            return null;
+        }
+
+        /**
+         * @return number of tokens stored in this pin, for introspection
+         */
+        int tokenCount() {
+            return 0;
+        }
     }
 
     /**
@@ -314,6 +404,11 @@ public abstract class DataflowNode extends Link {
             }
         }
 
+        @Override
+        int tokenCount() {
+            return count;
+        }
+
         @Override
         protected void consume() {
             if (count==0) {
@@ -326,6 +421,22 @@ public abstract class DataflowNode extends Link {
         }
     }
 
+    /**
+     * trace context of a sampled token in the queue of an {@link Input}
+     */
+    static class QueuedTrace {
+        final Object token;
+        /** number of tokens queued before this one */
+        final long seq;
+        final TraceContext trace;
+
+        QueuedTrace(Object token, long seq, TraceContext trace) {
+            this.token=token;
+            this.seq=seq;
+            this.trace=trace;
+        }
+    }
+
     /**
      * Token storage with standard Port<T> interface.
      * By default, it has place for only one token.
@@ -336,6 +447,17 @@ public abstract class DataflowNode extends Link {
         T value=null;
         boolean pushback=false; // if true, do not consume
         private boolean closeRequested=false;
+        /**
+         * trace contexts of sampled tokens in the queue, in queue order, created on demand.
+         * Unsampled tokens take no entry. An entry is matched by the sequence number
+         * of the token, as the same object may be queued several times (e.g. a cached boxed value).
+         * Contexts follow the tokens of FIFO queues; those of tokens polled out of order are dropped.
+         */
+        private ArrayDeque<QueuedTrace> traces;
+        /** numbers of tokens queued and polled so far */
+        private long queuedCount=0, polledCount=0;
+        /** trace context of the current token, moved out of traces when it becomes current */
+        private TraceContext valueTrace;
 
         @Override
         public void post(T token) {
@@ -348,11 +470,20 @@ public abstract class DataflowNode extends Link {
                 if (closeRequested) {
                     throw new IllegalStateException("closed already");
                 }
+                TraceContext trace=null;
+                if (Tracer.isEnabled()) {
+                    trace=Tracer.onPost(DataflowNode.this);
+                }
                 if (value==null) {
                     value=token;
+                    setValueTrace(trace);
                     doFire=turnOn();
                 } else {
                     add(token);
+                    long seq=queuedCount++;
+                    if (trace!=null) {
+                        queueTrace(token, seq, trace);
+                    }
                     return; // is On already
                 }
             } finally {
@@ -395,6 +526,77 @@ public abstract class DataflowNode extends Link {
             }
         }
 
+        /**
+         * remembers the trace context of a sampled token,
+         * to be found when the token becomes current
+         */
+        private void queueTrace(T token, long seq, TraceContext trace) {
+            if (traces==null) {
+                traces=new ArrayDeque<QueuedTrace>();
+            }
+            traces.add(new QueuedTrace(token, seq, trace));
+            tracedTokens++;
+        }
+
+        /**
+         * @return trace context of the polled token, if it was sampled;
+         *    drops contexts of tokens which were polled out of order
+         */
+        private TraceContext pollTrace(T token, long seq) {
+            while (!traces.isEmpty()) {
+                QueuedTrace head=traces.peek();
+                if (head.seq>seq) {
+                    return null;
+                }
+                traces.poll();
+                tracedTokens--; // counted again by setValueTrace
+                if (head.seq==seq && head.token==token) {
+                    return head.trace;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * removes the next token from the storage and makes it current,
+         * with its trace context. Called under lock on every path which advances the current token,
+         * so that contexts of tokens which are not processed by act() do not stay behind.
+         */
+        private T pollNext() {
+            T res=poll();
+            TraceContext trace=null;
+            if (res!=null) {
+                long seq=polledCount++;
+                if (traces!=null) {
+                    trace=pollTrace(res, seq);
+                }
+            }
+            setValueTrace(trace);
+            return res;
+        }
+
+        private void setValueTrace(TraceContext trace) {
+            if (valueTrace!=null) {
+                tracedTokens--;
+            }
+            valueTrace=trace;
+            if (trace!=null) {
+                tracedTokens++;
+            }
+        }
+
+        @Override
+        int tokenCount() {
+            return value==null?0:1;
+        }
+
+        @Override
+        TraceContext takeTrace() {
+            TraceContext res=valueTrace;
+            setValueTrace(null);
+            return res;
+        }
+
         /**
          * saves passed token
          * @param newToken
@@ -409,7 +611,51 @@ public abstract class DataflowNode extends Link {
 
         /** look ahead */
         public T getNext() {
-            return value=poll();
+            lock.lock();
+            try {
+                return value=pollNext();
+            } finally {
+              lock.unlock();
+            }
+        }
+
+        /**
+         * Copies queued tokens which follow the current one, without removing them.
+         * Allows act() to process several tokens at once, e.g. to gather
+         * buffers of queued write requests into one system call.
+         * Called while the node is not running, e.g. after {@link #takeDirect()},
+         * copies the current token too, as it follows the one taken.
+         * @param dst array to copy tokens to
+         * @param offset position in dst to start from
+         * @return number of copied tokens, limited by the free space in dst
+         */
+        public int copyQueued(T[] dst, int offset) {
+            return 0;
+        }
+
+        /**
+         * Removes the current token, if the node is not running.
+         * Lets a callback process tokens directly, in the order act() would process them,
+         * while the node waits on another pin: e.g. an I/O completion handler
+         * which starts the next queued request before it releases the channel.
+         * Trace context of the token taken this way is dropped.
+         * @return the removed token, or null if there are no tokens or the node is running
+         */
+        public T takeDirect() {
+            lock.lock();
+            try {
+                if (fired || pushback || value==null) {
+                    return null;
+                }
+                T res=value;
+                value=pollNext();
+                if (value==null && !closeRequested) {
+                    turnOff();
+                }
+                return res;
+            } finally {
+              lock.unlock();
+            }
         }
 
         /**
@@ -425,9 +671,14 @@ public abstract class DataflowNode extends Link {
 
 				@Override
 				public T next() {
-					T res=value;
-					value=poll();
-					return res;
+					lock.lock();
+					try {
+						T res=value;
+						value=pollNext();
+						return res;
+					} finally {
+						lock.unlock();
+					}
 				}
 
 				@Override
@@ -453,6 +704,7 @@ public abstract class DataflowNode extends Link {
         protected void pushback(T value) {
             pushback=true;
             this.value=value;
+            setValueTrace(null);
         }
 
         @Override
@@ -463,7 +715,7 @@ public abstract class DataflowNode extends Link {
                 return; 
             }
             boolean wasNull=(value==null);
-            value = poll();
+            value = pollNext();
             if (value!=null) {
                 return; // continue processing
             }
@@ -523,6 +775,31 @@ public abstract class DataflowNode extends Link {
 		public T poll() {
             return queue.poll();
         }
+
+        @Override
+        public int copyQueued(T[] dst, int offset) {
+            lock.lock();
+            try {
+                int k=offset;
+                if (!fired && value!=null && k<dst.length) {
+                    dst[k++]=value;
+                }
+                for (T token: queue) {
+                    if (k==dst.length) {
+                        break;
+                    }
+                    dst[k++]=token;
+                }
+                return k-offset;
+            } finally {
+              lock.unlock();
+            }
+        }
+
+        @Override
+        int tokenCount() {
+            return super.tokenCount()+queue.size();
+        }
     }
 
     /**
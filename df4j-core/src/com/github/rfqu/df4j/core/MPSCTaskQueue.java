@@ -0,0 +1,89 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.core;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free multi-producer single-consumer queue of tasks.
+ * Tasks are linked through their own field, so no wrapper objects are allocated.
+ * A task may be in at most one such queue at a time; dataflow nodes
+ * guarantee this, as they do not submit themselves until they finish running.
+ * <p>
+ * {@link #add(Task)} may be called from any thread;
+ * {@link #poll()} only from the single consumer thread.
+ * Producers swap the tail with one atomic operation, and then link the previous tail
+ * to the new task; until the link is set, the consumer may see the queue as not empty
+ * but fail to poll the task, and should retry later.
+ */
+public class MPSCTaskQueue {
+    /** placeholder which is in the queue when it is empty */
+    private final Task stub=new Task(null) {
+        @Override
+        public void run() {
+        }
+    };
+    /** last added task; modified by producers */
+    private final AtomicReference<Task> tail=new AtomicReference<Task>(stub);
+    /** first task; modified by consumer only */
+    private Task head=stub;
+
+    /**
+     * Adds task at the end of the queue. Can be called from any thread.
+     */
+    public void add(Task task) {
+        task.nextTask=null;
+        Task prev=tail.getAndSet(task);
+        prev.nextTask=task;
+    }
+
+    /**
+     * Removes the first task. Must be called from the consumer thread only.
+     * @return the first task, or null if the queue is empty or the first task
+     *   is not linked yet
+     */
+    public Task poll() {
+        Task first=head;
+        Task next=first.nextTask;
+        if (first==stub) {
+            if (next==null) {
+                return null;
+            }
+            head=next;
+            first=next;
+            next=next.nextTask;
+        }
+        if (next!=null) {
+            head=next;
+            first.nextTask=null;
+            return first;
+        }
+        if (first!=tail.get()) {
+            return null; // a producer is between swapping the tail and linking
+        }
+        add(stub);
+        next=first.nextTask;
+        if (next!=null) {
+            head=next;
+            first.nextTask=null;
+            return first;
+        }
+        return null;
+    }
+
+    /**
+     * Can be called from any thread. The result is exact only when
+     * called from the consumer thread and no tasks are added concurrently.
+     * @return true if there are no tasks added and not yet polled
+     */
+    public boolean isEmpty() {
+        return tail.get()==stub;
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Optional registry of live dataflow nodes, for runtime introspection.
+ * Nodes created while the registry is enabled are registered with weak references,
+ * so the registry does not prevent them from being garbage collected.
+ * <p>
+ * {@link #snapshot()} lists state of each registered node
+ * (ready pins vs all pins, queued tokens, fired state, time of last act),
+ * and state of executors the nodes run on and of other registered resources,
+ * e.g. selector threads. Taking a snapshot locks each node for a short time,
+ * so it is cheap enough to be run periodically.
+ */
+public class NodeRegistry {
+    private static volatile boolean enabled=false;
+    private static final WeakHashMap<DataflowNode, Boolean> nodes=new WeakHashMap<DataflowNode, Boolean>();
+    private static final WeakHashMap<Object, Boolean> resources=new WeakHashMap<Object, Boolean>();
+
+    /**
+     * An executor or other resource which can describe its state.
+     */
+    public interface Introspectable {
+        /**
+         * @return short human-readable description of the current state
+         */
+        String getStateDescription();
+    }
+
+    /**
+     * Starts registration of newly created nodes.
+     * Nodes created before are not registered.
+     */
+    public static void enable() {
+        enabled=true;
+    }
+
+    /**
+     * Stops registration of new nodes and clears the registry.
+     */
+    public static void disable() {
+        enabled=false;
+        synchronized (nodes) {
+            nodes.clear();
+        }
+        synchronized (resources) {
+            resources.clear();
+        }
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Registers an executor or other resource, to be included in snapshots.
+     * If the resource implements {@link Introspectable}, its state description
+     * is included. Has no effect if the registry is disabled.
+     */
+    public static void registerResource(Object resource) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (resources) {
+            resources.put(resource, Boolean.TRUE);
+        }
+    }
+
+    static void register(DataflowNode node) {
+        synchronized (nodes) {
+            nodes.put(node, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * @return state of all live registered nodes and their executors
+     */
+    public static Snapshot snapshot() {
+        ArrayList<DataflowNode> nodeList;
+        synchronized (nodes) {
+            nodeList=new ArrayList<DataflowNode>(nodes.keySet());
+        }
+        ArrayList<Object> resourceList;
+        synchronized (resources) {
+            resourceList=new ArrayList<Object>(resources.keySet());
+        }
+        Snapshot res=new Snapshot();
+        IdentityHashMap<Object, Boolean> seen=new IdentityHashMap<Object, Boolean>();
+        for (DataflowNode node: nodeList) {
+            res.nodes.add(node.getNodeInfo());
+            Executor executor=node.getExecutor();
+            if (executor!=null && seen.put(executor, Boolean.TRUE)==null) {
+                res.executors.add(new ResourceInfo(executor));
+            }
+        }
+        for (Object resource: resourceList) {
+            if (seen.put(resource, Boolean.TRUE)==null) {
+                res.executors.add(new ResourceInfo(resource));
+            }
+        }
+        return res;
+    }
+
+    static String nameOf(Object obj) {
+        String name=obj.getClass().getName();
+        return name.substring(name.lastIndexOf('.')+1)+"@"+Integer.toHexString(System.identityHashCode(obj));
+    }
+
+    /**
+     * State of a dataflow node at the moment of snapshot.
+     */
+    public static class NodeInfo {
+        public final String name;
+        /** mask with 1 for all existing pins */
+        public final int pinMask;
+        /** mask with 1 for all ready pins */
+        public final int readyPins;
+        /** number of tokens stored in all pins */
+        public final int queuedTokens;
+        /** true when the node is running or is submitted to its executor */
+        public final boolean fired;
+        /** true when the node has failed and would not run anymore */
+        public final boolean failed;
+        /** System.currentTimeMillis() at the start of the last execution batch, 0 if never run */
+        public final long lastActTime;
+
+        NodeInfo(String name, int pinMask, int readyPins, int queuedTokens,
+                boolean fired, boolean failed, long lastActTime)
+        {
+            this.name = name;
+            this.pinMask = pinMask;
+            this.readyPins = readyPins;
+            this.queuedTokens = queuedTokens;
+            this.fired = fired;
+            this.failed = failed;
+            this.lastActTime = lastActTime;
+        }
+
+        @Override
+        public String toString() {
+            return name+" pins="+Integer.toBinaryString(readyPins)+"/"+Integer.toBinaryString(pinMask)
+                +" queued="+queuedTokens+" fired="+fired+(failed?" failed":"")
+                +" lastAct="+lastActTime;
+        }
+    }
+
+    /**
+     * State of an executor or other resource at the moment of snapshot.
+     */
+    public static class ResourceInfo {
+        public final String name;
+        public final String state;
+
+        ResourceInfo(Object resource) {
+            name=nameOf(resource);
+            if (resource instanceof Introspectable) {
+                state=((Introspectable) resource).getStateDescription();
+            } else if (resource instanceof ThreadPoolExecutor) {
+                ThreadPoolExecutor tpe=(ThreadPoolExecutor) resource;
+                state="pool="+tpe.getPoolSize()+" active="+tpe.getActiveCount()
+                    +" queue="+tpe.getQueue().size()+" completed="+tpe.getCompletedTaskCount();
+            } else {
+                state="";
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name+" "+state;
+        }
+    }
+
+    public static class Snapshot {
+        public final long time=System.currentTimeMillis();
+        public final List<NodeInfo> nodes=new ArrayList<NodeInfo>();
+        public final List<ResourceInfo> executors=new ArrayList<ResourceInfo>();
+
+        /**
+         * @param minQueued threshold of queued tokens
+         * @return nodes which have at least minQueued tokens, most loaded first
+         */
+        public List<NodeInfo> backedUp(int minQueued) {
+            ArrayList<NodeInfo> res=new ArrayList<NodeInfo>();
+            for (NodeInfo node: nodes) {
+                if (node.queuedTokens>=minQueued) {
+                    res.add(node);
+                }
+            }
+            Collections.sort(res, new Comparator<NodeInfo>() {
+                @Override
+                public int compare(NodeInfo n1, NodeInfo n2) {
+                    return n2.queuedTokens-n1.queuedTokens;
+                }
+            });
+            return res;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb=new StringBuilder();
+            sb.append("nodes: ").append(nodes.size()).append('\n');
+            for (NodeInfo node: nodes) {
+                sb.append("  ").append(node).append('\n');
+            }
+            sb.append("executors: ").append(executors.size()).append('\n');
+            for (ResourceInfo executor: executors) {
+                sb.append("  ").append(executor).append('\n');
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -20,12 +20,15 @@ public class Request<T extends Request<T, R>, R> extends Link {
     protected R result=null;
     protected Throwable exc=null;
     protected Port<T> replyTo=null;
+    /** trace context of the sender, to continue the trace when replying */
+    private TraceContext trace=null;
 
     public Request() {
     }
 
     public Request(Port<T> replyTo) {
         this.replyTo = replyTo;
+        this.trace = Tracer.current();
     }
 
     /** reinitialize
@@ -35,6 +38,7 @@ public class Request<T extends Request<T, R>, R> extends Link {
         result = null;
         exc = null;
         replyTo=null;
+        trace=null;
     }
 
     /** 
@@ -47,7 +51,20 @@ public class Request<T extends Request<T, R>, R> extends Link {
         Port<T> replyToLoc = replyTo;
         if (replyToLoc != null) {
             replyTo=null; // avoid memory leak
-            replyToLoc.post((T) this);
+            TraceContext traceLoc = trace;
+            trace=null;
+            if (traceLoc == null || Tracer.current() != null) {
+                // replied from a traced act, or the request was not traced
+                replyToLoc.post((T) this);
+                return;
+            }
+            // replied from a thread without trace context, e.g. an I/O thread
+            TraceContext prev=Tracer.swap(traceLoc);
+            try {
+                replyToLoc.post((T) this);
+            } finally {
+                Tracer.swap(prev);
+            }
         }
     }
 
@@ -73,6 +90,7 @@ public class Request<T extends Request<T, R>, R> extends Link {
             replyTo.post((T) this);
         } else {
             this.replyTo = replyTo;
+            this.trace = Tracer.current();
         }
     }
 
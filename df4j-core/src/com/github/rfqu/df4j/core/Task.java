@@ -25,6 +25,8 @@ import java.util.concurrent.Executor;
  */
 public abstract class Task extends Link implements Runnable {
     protected final Executor executor;
+    /** link in {@link MPSCTaskQueue}, independent of the Link fields */
+    volatile Task nextTask;
 
     public Task(Executor executor) {
         this.executor = executor;
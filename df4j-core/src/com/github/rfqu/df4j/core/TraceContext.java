@@ -0,0 +1,85 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.core;
+
+/**
+ * Identifies one hop of a sampled message flow.
+ * A hop is a delivery of a message to a dataflow node.
+ * Contexts are immutable and form a chain from the hop to the root of the trace,
+ * so that the path of a message through the dataflow graph can be restored.
+ * Only class and identity hash of the node are kept, so contexts do not
+ * prevent nodes from being garbage collected.
+ */
+public final class TraceContext {
+    private final long traceId;
+    private final TraceContext parent;
+    private final Class<?> hopClass;
+    private final int hopId;
+
+    TraceContext(long traceId, TraceContext parent, Object hop) {
+        this.traceId = traceId;
+        this.parent = parent;
+        if (hop==null) {
+            hopClass=null;
+            hopId=0;
+        } else {
+            hopClass=hop.getClass();
+            hopId=System.identityHashCode(hop);
+        }
+    }
+
+    public long getTraceId() {
+        return traceId;
+    }
+
+    /**
+     * @return context of the hop which sent the message, or null for the root
+     */
+    public TraceContext getParent() {
+        return parent;
+    }
+
+    /**
+     * @return simple class name of the node, or "root" for the root context
+     */
+    public String getHopClassName() {
+        if (hopClass==null) {
+            return "root";
+        }
+        String name=hopClass.getName();
+        return name.substring(name.lastIndexOf('.')+1);
+    }
+
+    /**
+     * @return class name and identity hash of the node, or "root" for the root context
+     */
+    public String getHopName() {
+        if (hopClass==null) {
+            return "root";
+        }
+        return getHopClassName()+"@"+Integer.toHexString(hopId);
+    }
+
+    /**
+     * @return hop class names from the root to this hop, separated by ';'
+     *  (the "folded stack" format used to build flame graphs)
+     */
+    public String getPath() {
+        if (parent==null) {
+            return getHopClassName();
+        }
+        return parent.getPath()+";"+getHopClassName();
+    }
+
+    @Override
+    public String toString() {
+        return "trace "+traceId+" "+getHopName();
+    }
+}
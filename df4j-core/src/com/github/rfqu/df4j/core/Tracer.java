@@ -0,0 +1,368 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Sampled tracing of message flow across dataflow nodes.
+ * <p>
+ * When enabled, every n-th message posted to a node input from a thread
+ * without trace context starts a new trace. The trace context travels with
+ * the message, is set as the thread's current context while the receiving node acts,
+ * and so is propagated to all messages posted from the act() method,
+ * including replies sent by {@link Request} to its <code>replyTo</code> port.
+ * <p>
+ * For each hop, enqueue, dequeue (act start) and act end timestamps are recorded
+ * into a lock-free ring buffer. Recorded events can be exported as
+ * Chrome trace events (timeline view) or as folded stacks (flame graphs).
+ * <p>
+ * When disabled, the cost is a read of a volatile field per message and per act.
+ */
+public class Tracer {
+    public static final int ENQUEUE=0;
+    public static final int DEQUEUE=1;
+    public static final int ACT_END=2;
+
+    private static volatile TraceBuffer buffer;
+    private static volatile int sampleRate=1;
+    private static final AtomicLong traceIds=new AtomicLong();
+
+    private static final ThreadLocal<ThreadState> threadState=new ThreadLocal<ThreadState>() {
+        @Override
+        protected ThreadState initialValue() {
+            return new ThreadState();
+        }
+    };
+
+    /**
+     * Starts tracing.
+     * @param capacity size of the ring buffer, in events; rounded up to a power of 2
+     * @param sampleRate every sampleRate-th message starts new trace; 0 means
+     *   traces are started explicitly with {@link #startTrace()} only
+     */
+    public static void enable(int capacity, int sampleRate) {
+        Tracer.sampleRate=sampleRate;
+        buffer=new TraceBuffer(capacity);
+    }
+
+    public static void disable() {
+        buffer=null;
+    }
+
+    public static boolean isEnabled() {
+        return buffer!=null;
+    }
+
+    /**
+     * @return trace context of the current thread, or null
+     */
+    public static TraceContext current() {
+        if (buffer==null) {
+            return null;
+        }
+        return threadState.get().current;
+    }
+
+    /**
+     * Starts new trace on the current thread, regardless of sampling.
+     * Messages posted from the current thread until {@link #endTrace()}
+     * belong to the new trace.
+     * @return new root context, or null if tracing is disabled
+     */
+    public static TraceContext startTrace() {
+        if (buffer==null) {
+            return null;
+        }
+        TraceContext res=new TraceContext(traceIds.incrementAndGet(), null, null);
+        threadState.get().current=res;
+        return res;
+    }
+
+    /**
+     * Detaches the current thread from its trace.
+     */
+    public static void endTrace() {
+        if (buffer==null) {
+            return;
+        }
+        threadState.get().current=null;
+    }
+
+    //========= backend
+
+    /**
+     * Called when a token is posted to a node's pin.
+     * @return context of the new hop, or null if the token is not traced
+     */
+    static TraceContext onPost(DataflowNode node) {
+        TraceBuffer buf=buffer;
+        if (buf==null) {
+            return null;
+        }
+        ThreadState state=threadState.get();
+        TraceContext parent=state.current;
+        if (parent==null) {
+            int rate=sampleRate;
+            if (rate<=0) {
+                return null;
+            }
+            if (--state.countdown>0) {
+                return null;
+            }
+            state.countdown=rate;
+            parent=new TraceContext(traceIds.incrementAndGet(), null, null);
+        }
+        TraceContext hop=new TraceContext(parent.getTraceId(), parent, node);
+        buf.record(ENQUEUE, hop);
+        return hop;
+    }
+
+    /**
+     * Called before act(). Sets hop as the current context.
+     * @param hop the context of the act, may be null
+     * @return previous current context
+     */
+    static TraceContext beginAct(TraceContext hop) {
+        ThreadState state=threadState.get();
+        TraceContext prev=state.current;
+        state.current=hop;
+        TraceBuffer buf=buffer;
+        if (hop!=null && buf!=null) {
+            buf.record(DEQUEUE, hop);
+        }
+        return prev;
+    }
+
+    /**
+     * Called after act(). Restores previous current context.
+     */
+    static void endAct(TraceContext hop, TraceContext prev) {
+        TraceBuffer buf=buffer;
+        if (hop!=null && buf!=null) {
+            buf.record(ACT_END, hop);
+        }
+        threadState.get().current=prev;
+    }
+
+    /**
+     * Sets the current context without recording events.
+     * @return previous current context
+     */
+    static TraceContext swap(TraceContext context) {
+        ThreadState state=threadState.get();
+        TraceContext prev=state.current;
+        state.current=context;
+        return prev;
+    }
+
+    //========= export
+
+    /**
+     * @return copy of the events currently in the ring buffer, oldest first
+     */
+    public static List<Event> getEvents() {
+        TraceBuffer buf=buffer;
+        if (buf==null) {
+            return new ArrayList<Event>();
+        }
+        return buf.snapshot();
+    }
+
+    /**
+     * Writes recorded acts in the Chrome trace event format (JSON),
+     * viewable with chrome://tracing and similar timeline viewers.
+     * Each act is a complete event on the thread where it ran;
+     * its arguments contain trace id, path, and time spent in the input queue.
+     */
+    public static void exportTimeline(Appendable out) throws IOException {
+        Map<TraceContext, Hop> hops=collectHops();
+        long base=Long.MAX_VALUE;
+        for (Hop hop: hops.values()) {
+            if (hop.dequeue!=0 && hop.dequeue<base) {
+                base=hop.dequeue;
+            }
+        }
+        out.append("{\"traceEvents\":[");
+        boolean first=true;
+        for (Map.Entry<TraceContext, Hop> entry: hops.entrySet()) {
+            TraceContext context=entry.getKey();
+            Hop hop=entry.getValue();
+            if (hop.dequeue==0 || hop.actEnd==0) {
+                continue; // incomplete
+            }
+            if (!first) {
+                out.append(',');
+            }
+            first=false;
+            out.append("\n{\"name\":\"").append(context.getHopName())
+               .append("\",\"ph\":\"X\",\"pid\":1,\"tid\":").append(Long.toString(hop.threadId))
+               .append(",\"ts\":").append(Long.toString((hop.dequeue-base)/1000))
+               .append(",\"dur\":").append(Long.toString((hop.actEnd-hop.dequeue)/1000))
+               .append(",\"args\":{\"trace\":").append(Long.toString(context.getTraceId()))
+               .append(",\"path\":\"").append(context.getPath()).append('"');
+            if (hop.enqueue!=0) {
+                out.append(",\"queuedUs\":").append(Long.toString((hop.dequeue-hop.enqueue)/1000));
+            }
+            out.append("}}");
+        }
+        out.append("\n]}\n");
+    }
+
+    /**
+     * Writes recorded acts in the folded stack format:
+     * each line contains the path of node classes from the root of the trace
+     * and the total act time in microseconds.
+     * Suitable as input for flame graph generators.
+     */
+    public static void exportFolded(Appendable out) throws IOException {
+        Map<TraceContext, Hop> hops=collectHops();
+        LinkedHashMap<String, long[]> paths=new LinkedHashMap<String, long[]>();
+        for (Map.Entry<TraceContext, Hop> entry: hops.entrySet()) {
+            Hop hop=entry.getValue();
+            if (hop.dequeue==0 || hop.actEnd==0) {
+                continue;
+            }
+            String path=entry.getKey().getPath();
+            long[] sum=paths.get(path);
+            if (sum==null) {
+                sum=new long[1];
+                paths.put(path, sum);
+            }
+            sum[0]+=(hop.actEnd-hop.dequeue)/1000;
+        }
+        for (Map.Entry<String, long[]> entry: paths.entrySet()) {
+            out.append(entry.getKey()).append(' ').append(Long.toString(entry.getValue()[0])).append('\n');
+        }
+    }
+
+    private static Map<TraceContext, Hop> collectHops() {
+        IdentityHashMap<TraceContext, Hop> hops=new IdentityHashMap<TraceContext, Hop>();
+        for (Event event: getEvents()) {
+            Hop hop=hops.get(event.context);
+            if (hop==null) {
+                hop=new Hop();
+                hops.put(event.context, hop);
+            }
+            switch (event.kind) {
+            case ENQUEUE:
+                hop.enqueue=event.time;
+                break;
+            case DEQUEUE:
+                hop.dequeue=event.time;
+                hop.threadId=event.threadId;
+                break;
+            case ACT_END:
+                hop.actEnd=event.time;
+                break;
+            }
+        }
+        return hops;
+    }
+
+    /** timestamps of one hop */
+    private static class Hop {
+        long enqueue, dequeue, actEnd, threadId;
+    }
+
+    private static class ThreadState {
+        TraceContext current;
+        int countdown;
+    }
+
+    /**
+     * Recorded event.
+     */
+    public static class Event {
+        /** one of {@link Tracer#ENQUEUE}, {@link Tracer#DEQUEUE}, {@link Tracer#ACT_END} */
+        public final int kind;
+        public final TraceContext context;
+        /** System.nanoTime() at the moment of the event */
+        public final long time;
+        public final long threadId;
+
+        Event(int kind, TraceContext context, long time, long threadId) {
+            this.kind = kind;
+            this.context = context;
+            this.time = time;
+            this.threadId = threadId;
+        }
+
+        @Override
+        public String toString() {
+            return context+" kind="+kind+" time="+time+" thread="+threadId;
+        }
+    }
+
+    /**
+     * Fixed-size ring buffer. Writers claim slots with an atomic counter;
+     * each slot has a stamp which is negative while the slot is written,
+     * so readers can skip slots being overwritten.
+     */
+    static class TraceBuffer {
+        private final int mask;
+        private final AtomicLong index=new AtomicLong();
+        private final AtomicLongArray stamps;
+        private final int[] kinds;
+        private final TraceContext[] contexts;
+        private final long[] times;
+        private final long[] threadIds;
+
+        TraceBuffer(int capacity) {
+            int size=1;
+            while (size<capacity) {
+                size<<=1;
+            }
+            mask=size-1;
+            stamps=new AtomicLongArray(size);
+            kinds=new int[size];
+            contexts=new TraceContext[size];
+            times=new long[size];
+            threadIds=new long[size];
+        }
+
+        void record(int kind, TraceContext context) {
+            long seq=index.getAndIncrement();
+            int slot=(int)(seq&mask);
+            stamps.set(slot, -(seq+1)); // writing
+            kinds[slot]=kind;
+            contexts[slot]=context;
+            times[slot]=System.nanoTime();
+            threadIds[slot]=Thread.currentThread().getId();
+            stamps.lazySet(slot, seq+1); // committed
+        }
+
+        List<Event> snapshot() {
+            long end=index.get();
+            long start=Math.max(0, end-mask-1);
+            ArrayList<Event> res=new ArrayList<Event>((int)(end-start));
+            for (long seq=start; seq<end; seq++) {
+                int slot=(int)(seq&mask);
+                long stamp=stamps.get(slot);
+                if (stamp!=seq+1) {
+                    continue; // not committed yet, or overwritten
+                }
+                Event event=new Event(kinds[slot], contexts[slot], times[slot], threadIds[slot]);
+                if (stamps.get(slot)!=stamp) {
+                    continue; // overwritten while reading
+                }
+                res.add(event);
+            }
+            return res;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ActorAccountingTest {
+
+    /** allocates a lot */
+    static class Allocator extends Actor<Integer> {
+        CallbackFuture<Integer> done=new CallbackFuture<Integer>();
+        int sum;
+
+        Allocator(Executor executor) {
+            super(executor);
+        }
+
+        @Override
+        protected void act(Integer message) throws Exception {
+            int[] garbage=new int[message];
+            sum+=garbage.length;
+        }
+
+        @Override
+        protected void complete() throws Exception {
+            done.post(sum);
+        }
+    }
+
+    /** does almost nothing */
+    static class Idler extends Actor<Integer> {
+        CallbackFuture<Integer> done=new CallbackFuture<Integer>();
+
+        Idler(Executor executor) {
+            super(executor);
+        }
+
+        @Override
+        protected void act(Integer message) throws Exception {
+        }
+
+        @Override
+        protected void complete() throws Exception {
+            done.post(0);
+        }
+    }
+
+    /** runs batches one by one, so that a task submitted after a batch runs after it is recorded */
+    ExecutorService executor=Executors.newSingleThreadExecutor();
+
+    @After
+    public void disable() {
+        ActorAccounting.disable();
+        executor.shutdown();
+    }
+
+    /** waits until batches started before are recorded */
+    void awaitBatches() throws InterruptedException, ExecutionException {
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get();
+    }
+
+    @Test
+    public void perClassTest() throws InterruptedException, ExecutionException {
+        ActorAccounting accounting=ActorAccounting.enable(false);
+        Allocator allocator=new Allocator(executor);
+        Idler idler=new Idler(executor);
+        for (int k=0; k<1000; k++) {
+            allocator.post(10000);
+            idler.post(k);
+        }
+        allocator.close();
+        idler.close();
+        allocator.done.get();
+        idler.done.get();
+        awaitBatches();
+        List<ActorAccounting.Entry> top=accounting.topByAllocatedBytes(1);
+        assertEquals(1, top.size());
+        if (top.get(0).getAllocatedBytes()>0) { // allocation measurement supported
+            assertEquals(Allocator.class.getName(), top.get(0).getName());
+        }
+        assertEquals(2, accounting.getEntries().size());
+        String report=accounting.report(5);
+        assertTrue(report, report.startsWith("top 5 by cpu time:\n"));
+        assertTrue(report, report.contains("top 5 by allocated bytes:\n  "+top.get(0).getName()+": batches="));
+        assertTrue(report, report.contains("  "+Idler.class.getName()+": batches="));
+    }
+
+    @Test
+    public void perInstanceTest() throws InterruptedException, ExecutionException {
+        ActorAccounting accounting=ActorAccounting.enable(true);
+        Idler idler1=new Idler(executor);
+        Idler idler2=new Idler(executor);
+        idler1.post(1);
+        idler2.post(2);
+        idler1.close();
+        idler2.close();
+        idler1.done.get();
+        idler2.done.get();
+        awaitBatches();
+        assertEquals(2, accounting.getEntries().size());
+        for (ActorAccounting.Entry e: accounting.getEntries()) {
+            assertTrue(e.getBatches()>0);
+        }
+    }
+
+    public static void main(String args[]) throws InterruptedException, ExecutionException {
+        ActorAccountingTest nt = new ActorAccountingTest();
+        nt.perClassTest();
+        nt.disable();
+        nt.perInstanceTest();
+        nt.disable();
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+public class AdaptiveExecutorTest {
+
+    /**
+     * A task on a single-threaded pool waits for a task submitted after it.
+     * Without compensation, this would deadlock.
+     */
+    @Test
+    public void blockingTest() throws InterruptedException, ExecutionException, TimeoutException {
+        final AdaptiveExecutor executor=new AdaptiveExecutor(1, Executors.defaultThreadFactory());
+        final CallbackFuture<Integer> inner=new CallbackFuture<Integer>();
+        final CallbackFuture<Integer> outer=new CallbackFuture<Integer>();
+        final int[] blockedWhileWaiting=new int[1];
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        blockedWhileWaiting[0]=executor.getBlockedCount();
+                        inner.post(1);
+                    }
+                });
+                try {
+                    outer.post(inner.get()+1);
+                } catch (Exception e) {
+                    outer.postFailure(e);
+                }
+            }
+        });
+        assertEquals(Integer.valueOf(2), outer.get(1000));
+        assertEquals(1, blockedWhileWaiting[0]);
+        assertEquals(0, executor.getBlockedCount());
+        assertEquals(1, executor.getCompensationCount());
+        assertEquals(1, executor.getParallelism());
+        assertEquals(1, executor.getCorePoolSize());
+        assertTrue(executor.getLargestPoolSize()>=2);
+        executor.shutdown();
+    }
+
+    /**
+     * Blocking outside of the pool has no effect.
+     */
+    @Test
+    public void foreignThreadTest() throws InterruptedException {
+        AdaptiveExecutor executor=new AdaptiveExecutor(2, Executors.defaultThreadFactory());
+        final boolean[] released=new boolean[1];
+        AdaptiveExecutor.managedBlock(new AdaptiveExecutor.ManagedBlocker() {
+            @Override
+            public boolean block() {
+                released[0]=true;
+                return true;
+            }
+
+            @Override
+            public boolean isReleasable() {
+                return released[0];
+            }
+        });
+        assertTrue(released[0]);
+        assertEquals(0, executor.getCompensationCount());
+        assertEquals(2, executor.getCorePoolSize());
+        executor.shutdown();
+    }
+
+    public static void main(String args[]) throws Exception {
+        AdaptiveExecutorTest nt = new AdaptiveExecutorTest();
+        nt.blockingTest();
+        nt.foreignThreadTest();
+    }
+}
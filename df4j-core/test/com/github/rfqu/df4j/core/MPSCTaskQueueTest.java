@@ -0,0 +1,104 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class MPSCTaskQueueTest {
+
+    static class NumTask extends Task {
+        final int producer;
+        final int num;
+
+        NumTask(int producer, int num) {
+            super(null);
+            this.producer = producer;
+            this.num = num;
+        }
+
+        @Override
+        public void run() {
+        }
+    }
+
+    @Test
+    public void singleThreadTest() {
+        MPSCTaskQueue q=new MPSCTaskQueue();
+        assertTrue(q.isEmpty());
+        assertNull(q.poll());
+        NumTask t1=new NumTask(0, 1);
+        NumTask t2=new NumTask(0, 2);
+        q.add(t1);
+        assertFalse(q.isEmpty());
+        assertSame(t1, q.poll());
+        assertTrue(q.isEmpty());
+        assertNull(q.poll());
+        q.add(t1);
+        q.add(t2);
+        assertSame(t1, q.poll());
+        q.add(t1); // reused after polled
+        assertSame(t2, q.poll());
+        assertSame(t1, q.poll());
+        assertNull(q.poll());
+        assertTrue(q.isEmpty());
+    }
+
+    /**
+     * tasks of each producer are polled in order, none lost
+     */
+    @Test
+    public void multiProducerTest() throws InterruptedException {
+        final int nProducers=4;
+        final int nTasks=100000;
+        final MPSCTaskQueue q=new MPSCTaskQueue();
+        Thread[] producers=new Thread[nProducers];
+        for (int p=0; p<nProducers; p++) {
+            final int producer=p;
+            producers[p]=new Thread() {
+                @Override
+                public void run() {
+                    for (int k=0; k<nTasks; k++) {
+                        q.add(new NumTask(producer, k));
+                    }
+                }
+            };
+            producers[p].start();
+        }
+        int[] expected=new int[nProducers];
+        int received=0;
+        while (received<nProducers*nTasks) {
+            NumTask task=(NumTask) q.poll();
+            if (task==null) {
+                Thread.yield();
+                continue;
+            }
+            assertEquals(expected[task.producer], task.num);
+            expected[task.producer]++;
+            received++;
+        }
+        for (Thread producer: producers) {
+            producer.join();
+        }
+        assertNull(q.poll());
+        assertTrue(q.isEmpty());
+    }
+
+    public static void main(String args[]) throws Exception {
+        MPSCTaskQueueTest nt = new MPSCTaskQueueTest();
+        nt.singleThreadTest();
+        nt.multiProducerTest();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class NodeRegistryTest {
+
+    /** does not run until unlocked */
+    static class Stuck extends Actor<Integer> {
+        Lockup gate=new Lockup();
+        CallbackFuture<Integer> done=new CallbackFuture<Integer>();
+
+        Stuck(Executor executor) {
+            super(executor);
+        }
+
+        @Override
+        protected void act(Integer message) throws Exception {
+            if (message==0) {
+                done.post(0);
+            }
+        }
+    }
+
+    /** runs the node's batches one by one, so that a task submitted after a batch runs after it ends */
+    ThreadPoolExecutor executor=new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+
+    @After
+    public void disable() {
+        NodeRegistry.disable();
+        executor.shutdown();
+    }
+
+    @Test
+    public void snapshotTest() throws InterruptedException, ExecutionException {
+        NodeRegistry.enable();
+        Stuck stuck=new Stuck(executor);
+        for (int k=10; k>=0; k--) {
+            stuck.post(k);
+        }
+        NodeRegistry.Snapshot snapshot=NodeRegistry.snapshot();
+        List<NodeRegistry.NodeInfo> backedUp=snapshot.backedUp(10);
+        assertEquals(1, backedUp.size());
+        NodeRegistry.NodeInfo info=backedUp.get(0);
+        assertEquals(11, info.queuedTokens);
+        assertEquals(3, info.pinMask);
+        assertFalse(info.fired);
+        assertEquals(0, info.lastActTime);
+        assertEquals(1, snapshot.executors.size());
+        String report=snapshot.toString();
+        assertTrue(report, report.contains("NodeRegistryTest$Stuck@"));
+        assertTrue(report, report.contains(" queued=11 fired=false"));
+        assertTrue(report, report.contains("ThreadPoolExecutor@"));
+        assertTrue(report, report.contains(" pool=0 active=0 queue=0"));
+
+        stuck.gate.on();
+        stuck.done.get();
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get(); // the batch has finished
+        info=NodeRegistry.snapshot().nodes.get(0);
+        assertEquals(0, info.queuedTokens);
+        assertTrue(info.lastActTime>0);
+    }
+
+    public static void main(String args[]) throws Exception {
+        NodeRegistryTest nt = new NodeRegistryTest();
+        nt.snapshotTest();
+        nt.disable();
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.rfqu.df4j.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+/**
+ * tests that tokens taken directly, while the node waits on another pin,
+ * keep the order and the closing signal of the input
+ */
+public class TakeDirectTest {
+
+    /** an actor which processes a message only when a permit is available */
+    static class Gated extends Actor<Integer> {
+        Semafor permit=new Semafor();
+        ArrayList<Integer> processed=new ArrayList<Integer>();
+        boolean completed=false;
+
+        Gated() {
+            super(null);
+        }
+
+        @Override
+        protected void act(Integer message) throws Exception {
+            processed.add(message);
+        }
+
+        @Override
+        protected void complete() throws Exception {
+            completed=true;
+        }
+    }
+
+    @Test
+    public void orderTest() {
+        Gated node=new Gated();
+        for (int k=0; k<4; k++) {
+            node.post(k);
+        }
+        assertEquals(0, node.input.takeDirect().intValue());
+        // the token after the taken one is copied too
+        Integer[] copied=new Integer[4];
+        assertEquals(3, node.input.copyQueued(copied, 0));
+        assertEquals(1, copied[0].intValue());
+        assertEquals(1, node.input.takeDirect().intValue());
+        node.permit.up();
+        node.permit.up();
+        // the rest is processed by the node in order
+        assertEquals(2, node.processed.size());
+        assertEquals(2, node.processed.get(0).intValue());
+        assertEquals(3, node.processed.get(1).intValue());
+        assertNull(node.input.takeDirect());
+    }
+
+    @Test
+    public void closeTest() {
+        Gated node=new Gated();
+        node.post(1);
+        node.close();
+        assertEquals(1, node.input.takeDirect().intValue());
+        assertNull(node.input.takeDirect());
+        assertFalse(node.completed);
+        // the closing signal is left to the node
+        node.permit.up();
+        assertTrue(node.completed);
+        assertTrue(node.processed.isEmpty());
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class TracerTest {
+
+    /** passes messages to the next actor */
+    static class Relay extends Actor<Integer> {
+        Port<Integer> next;
+
+        Relay(Port<Integer> next) {
+            this.next = next;
+        }
+
+        @Override
+        protected void act(Integer message) throws Exception {
+            next.post(message+1);
+        }
+    }
+
+    static class Req extends Request<Req, Integer> {
+    }
+
+    /** serves requests */
+    static class Server extends Actor<Req> {
+        @Override
+        protected void act(Req request) throws Exception {
+            request.post(1);
+        }
+    }
+
+    /** sends request to the server and passes the reply to the sink */
+    static class Client extends Actor<Req> {
+        Server server;
+        CallbackFuture<Integer> sink;
+
+        Client(Server server, CallbackFuture<Integer> sink) {
+            this.server = server;
+            this.sink = sink;
+        }
+
+        @Override
+        protected void act(Req request) throws Exception {
+            if (request.isDone()) {
+                sink.post(request.getResult());
+            } else {
+                request.setListener(this);
+                server.post(request);
+            }
+        }
+    }
+
+    /**
+     * records the trace id current in act(), 0 if none;
+     * the first act waits for release, so that next messages are queued
+     */
+    static class Recorder extends Actor<Integer> {
+        final CountDownLatch started=new CountDownLatch(1);
+        final CountDownLatch release=new CountDownLatch(1);
+        final LinkedBlockingQueue<Long> traceIds=new LinkedBlockingQueue<Long>();
+        boolean drain;
+
+        Recorder() {
+        }
+
+        Recorder(Executor executor) {
+            super(executor);
+        }
+
+        @Override
+        protected void act(Integer message) throws Exception {
+            TraceContext context=Tracer.current();
+            traceIds.add(context==null? 0L: context.getTraceId());
+            started.countDown();
+            release.await();
+            if (drain) {
+                // takes the queued messages without acting on them
+                for (Iterator<Integer> it=input.iterator(); it.hasNext();) {
+                    it.next();
+                }
+            }
+        }
+
+        long take() throws InterruptedException {
+            return traceIds.poll(2, TimeUnit.SECONDS);
+        }
+    }
+
+    @After
+    public void disable() {
+        Tracer.disable();
+    }
+
+    @Test
+    public void chainTest() throws InterruptedException, ExecutionException, IOException {
+        Tracer.enable(1024, 1);
+        CallbackFuture<Integer> sink=new CallbackFuture<Integer>();
+        Relay r2=new Relay(sink);
+        Relay r1=new Relay(r2);
+        r1.post(0);
+        assertEquals(Integer.valueOf(2), sink.get());
+        Thread.sleep(100); // let the last act end
+        HashSet<Long> traceIds=new HashSet<Long>();
+        int acts=0;
+        for (Tracer.Event e: Tracer.getEvents()) {
+            traceIds.add(e.context.getTraceId());
+            if (e.kind==Tracer.ACT_END) {
+                acts++;
+            }
+        }
+        assertEquals(1, traceIds.size());
+        assertEquals(2, acts);
+        StringBuilder folded=new StringBuilder();
+        Tracer.exportFolded(folded);
+        assertTrue(folded.toString().contains("root;TracerTest$Relay;TracerTest$Relay "));
+        StringBuilder timeline=new StringBuilder();
+        Tracer.exportTimeline(timeline);
+        assertTrue(timeline.toString().contains("\"ph\":\"X\""));
+    }
+
+    @Test
+    public void replyTest() throws InterruptedException, ExecutionException, IOException {
+        Tracer.enable(1024, 0);
+        CallbackFuture<Integer> sink=new CallbackFuture<Integer>();
+        Client client=new Client(new Server(), sink);
+        Tracer.startTrace();
+        client.post(new Req());
+        Tracer.endTrace();
+        assertEquals(Integer.valueOf(1), sink.get());
+        Thread.sleep(100);
+        StringBuilder folded=new StringBuilder();
+        Tracer.exportFolded(folded);
+        assertTrue(folded.toString(), folded.toString().contains("root;TracerTest$Client;TracerTest$Server;TracerTest$Client "));
+    }
+
+    /**
+     * tests that the same object queued several times
+     * keeps the trace context of each occurrence
+     */
+    @Test
+    public void sameTokenTest() throws InterruptedException {
+        Tracer.enable(1024, 0);
+        Recorder recorder=new Recorder();
+        Integer token=Integer.valueOf(7);
+        long first=Tracer.startTrace().getTraceId();
+        recorder.post(token);
+        Tracer.endTrace();
+        recorder.started.await();
+        recorder.post(token);
+        long third=Tracer.startTrace().getTraceId();
+        recorder.post(token);
+        Tracer.endTrace();
+        recorder.release.countDown();
+        assertEquals(first, recorder.take());
+        assertEquals(0, recorder.take());
+        assertEquals(third, recorder.take());
+    }
+
+    /**
+     * tests that trace contexts of tokens taken without act() do not stay behind
+     */
+    @Test
+    public void drainTest() throws InterruptedException, ExecutionException {
+        Tracer.enable(1024, 0);
+        // a task submitted after the batch runs after it ends
+        ExecutorService executor=Executors.newSingleThreadExecutor();
+        Recorder recorder=new Recorder(executor);
+        recorder.drain=true;
+        Integer token=Integer.valueOf(7);
+        long first=Tracer.startTrace().getTraceId();
+        recorder.post(token);
+        recorder.started.await();
+        recorder.post(token);
+        Tracer.endTrace();
+        recorder.release.countDown();
+        assertEquals(first, recorder.take());
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get();
+        recorder.post(token);
+        assertEquals(0, recorder.take());
+        executor.shutdown();
+    }
+
+    public static void main(String args[]) throws Exception {
+        TracerTest nt = new TracerTest();
+        nt.chainTest();
+        nt.disable();
+        nt.replyTest();
+        nt.disable();
+    }
+}
@@ -0,0 +1,106 @@
+package com.github.rfqu.df4j.nio.bench;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.github.rfqu.df4j.core.Callback;
+import com.github.rfqu.df4j.nio.AsyncChannelFactory;
+import com.github.rfqu.df4j.nio.AsyncServerSocketChannel;
+import com.github.rfqu.df4j.nio.AsyncSocketChannel;
+
+/**
+ * Measures how many connections per second a server socket accepts
+ * during a connection storm, with one listening socket and with several
+ * listening sockets bound with SO_REUSEPORT.
+ * Client threads connect and disconnect with blocking sockets as fast as they can.
+ * <p>
+ * Arguments: number of client threads, connections per thread, max number of listening sockets.
+ */
+public class AcceptRateBenchmark {
+    static PrintStream out=System.out;
+    static final InetSocketAddress addr=new InetSocketAddress("localhost", 9994);
+
+    final AsyncChannelFactory factory;
+
+    public AcceptRateBenchmark(AsyncChannelFactory factory) {
+        this.factory=factory;
+    }
+
+    /**
+     * @return accepted connections per second
+     */
+    public double measure(int acceptors, int nClients, final int connsPerClient) throws Exception {
+        int total=nClients*connsPerClient;
+        final CountDownLatch accepted=new CountDownLatch(total);
+        AsyncServerSocketChannel server=factory.newAsyncServerSocketChannel(addr, new Callback<AsyncSocketChannel>() {
+            @Override
+            public void post(AsyncSocketChannel channel) {
+                channel.close();
+                accepted.countDown();
+            }
+
+            @Override
+            public void postFailure(Throwable exc) {
+                exc.printStackTrace();
+            }
+        }, acceptors);
+        try {
+            server.up(total);
+            Thread[] clients=new Thread[nClients];
+            long start=System.nanoTime();
+            for (int k=0; k<nClients; k++) {
+                clients[k]=new Thread() {
+                    @Override
+                    public void run() {
+                        for (int c=0; c<connsPerClient; c++) {
+                            try {
+                                Socket socket=new Socket(addr.getAddress(), addr.getPort());
+                                socket.close();
+                            } catch (IOException e) {
+                                e.printStackTrace();
+                                return;
+                            }
+                        }
+                    }
+                };
+                clients[k].start();
+            }
+            if (!accepted.await(60, TimeUnit.SECONDS)) {
+                out.println("timeout: accepted "+(total-accepted.getCount())+" of "+total);
+            }
+            long elapsed=System.nanoTime()-start;
+            for (Thread client: clients) {
+                client.join();
+            }
+            return (total-accepted.getCount())*1e9/elapsed;
+        } finally {
+            server.close();
+        }
+    }
+
+    public void run(String[] args) throws Exception {
+        int nClients=args.length>0? Integer.parseInt(args[0]): 8;
+        int connsPerClient=args.length>1? Integer.parseInt(args[1]): 2000;
+        int maxAcceptors=args.length>2? Integer.parseInt(args[2]): Runtime.getRuntime().availableProcessors();
+        out.println("factory="+factory.getClass().getSimpleName()+" clients="+nClients+" connections/client="+connsPerClient);
+        measure(1, nClients, connsPerClient/10); // warm up
+        for (int acceptors=1; acceptors<=maxAcceptors; acceptors*=2) {
+            double rate;
+            try {
+                rate=measure(acceptors, nClients, connsPerClient);
+            } catch (UnsupportedOperationException e) {
+                out.println("acceptors="+acceptors+": SO_REUSEPORT not supported");
+                break;
+            }
+            out.printf("acceptors=%d: %.0f connections/s%n", acceptors, rate);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new AcceptRateBenchmark(AsyncChannelFactory.getCurrentAsyncChannelFactory()).run(args);
+    }
+}
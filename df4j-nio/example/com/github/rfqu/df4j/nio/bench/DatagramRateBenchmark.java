@@ -0,0 +1,125 @@
+package com.github.rfqu.df4j.nio.bench;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.rfqu.df4j.core.Port;
+import com.github.rfqu.df4j.nio.AsyncChannelFactory;
+import com.github.rfqu.df4j.nio.AsyncDatagramChannel;
+import com.github.rfqu.df4j.nio.DatagramIORequest;
+import com.github.rfqu.df4j.nio.HeapBufferPool;
+
+/**
+ * Measures how many datagrams per second an {@link AsyncDatagramChannel} receives.
+ * A sender thread sends datagrams with a blocking channel as fast as it can;
+ * the receiving channel keeps a window of receive requests without buffers,
+ * each of them posted again as soon as its datagram is consumed.
+ * Datagrams dropped by the kernel when the receiver lags behind are reported as lost.
+ * <p>
+ * Arguments: number of datagrams, datagram size, number of receive requests.
+ */
+public class DatagramRateBenchmark {
+    static PrintStream out=System.out;
+    static final InetSocketAddress addr=new InetSocketAddress("localhost", 9993);
+
+    final AsyncChannelFactory factory;
+
+    public DatagramRateBenchmark(AsyncChannelFactory factory) {
+        this.factory=factory;
+    }
+
+    public void measure(final int total, final int size, int window) throws Exception {
+        AsyncDatagramChannel receiver=factory.newAsyncDatagramChannel(addr);
+        HeapBufferPool pool=new HeapBufferPool(size, window);
+        receiver.setBufferPool(pool);
+        Consumer consumer=new Consumer(receiver);
+        for (int k=0; k<window; k++) {
+            consumer.receive(new Request());
+        }
+        Thread sender=new Thread() {
+            @Override
+            public void run() {
+                try {
+                    DatagramChannel channel=DatagramChannel.open();
+                    ByteBuffer buf=ByteBuffer.allocate(size);
+                    for (int k=0; k<total; k++) {
+                        buf.clear();
+                        buf.putInt(0, k);
+                        channel.send(buf, addr);
+                    }
+                    channel.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        long start=System.nanoTime();
+        sender.start();
+        sender.join();
+        // wait for the datagrams still in the socket's buffer
+        long received=consumer.received.get();
+        for (;;) {
+            Thread.sleep(100);
+            long r=consumer.received.get();
+            if (r==received) {
+                break;
+            }
+            received=r;
+        }
+        long elapsed=consumer.lastTime-start;
+        receiver.close();
+        out.printf("size=%d window=%d: %.0f datagrams/s, lost %.1f%%%n", size, window,
+                received*1e9/elapsed, (total-received)*100.0/total);
+    }
+
+    public void run(String[] args) throws Exception {
+        int total=args.length>0? Integer.parseInt(args[0]): 1000000;
+        int size=args.length>1? Integer.parseInt(args[1]): 64;
+        int window=args.length>2? Integer.parseInt(args[2]): 256;
+        out.println("factory="+factory.getClass().getSimpleName()+" datagrams="+total);
+        measure(total/10, size, window); // warm up
+        for (int w=1; w<=window; w*=16) {
+            measure(total, size, w);
+        }
+    }
+
+    static class Request extends DatagramIORequest<Request> {
+    }
+
+    /**
+     * counts received datagrams and reposts the request
+     */
+    static class Consumer implements Port<Request> {
+        final AsyncDatagramChannel channel;
+        final AtomicLong received=new AtomicLong();
+        volatile long lastTime;
+
+        Consumer(AsyncDatagramChannel channel) {
+            this.channel=channel;
+        }
+
+        @Override
+        public void post(Request request) {
+            if (request.getExc()!=null) {
+                return; // channel closed
+            }
+            request.releaseBuffer();
+            lastTime=System.nanoTime();
+            received.incrementAndGet();
+            receive(request);
+        }
+
+        void receive(Request request) {
+            channel.receive(request);
+            request.setListener(this);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new DatagramRateBenchmark(AsyncChannelFactory.getCurrentAsyncChannelFactory()).run(args);
+    }
+}
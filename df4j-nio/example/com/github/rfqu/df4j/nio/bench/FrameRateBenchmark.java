@@ -0,0 +1,100 @@
+package com.github.rfqu.df4j.nio.bench;
+
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.github.rfqu.df4j.core.Actor;
+import com.github.rfqu.df4j.core.Callback;
+import com.github.rfqu.df4j.nio.AsyncChannelFactory;
+import com.github.rfqu.df4j.nio.AsyncServerSocketChannel;
+import com.github.rfqu.df4j.nio.AsyncSocketChannel;
+import com.github.rfqu.df4j.nio.FrameCodec;
+import com.github.rfqu.df4j.nio.FramedChannel;
+import com.github.rfqu.df4j.nio.LengthFieldFrameCodec;
+import com.github.rfqu.df4j.nio.SharedBuffer;
+
+/**
+ * Measures how many length-prefixed frames per second a {@link FramedChannel} receives.
+ * The sender writes frames with a framed channel, keeping a window of frames
+ * not received yet; the receiver keeps a number of reads in flight.
+ * Frames are smaller than pooled buffers, so most of them are posted as slices,
+ * and some span two reads and are copied.
+ * <p>
+ * Arguments: number of frames, payload size, max number of reads in flight.
+ */
+public class FrameRateBenchmark {
+    static PrintStream out=System.out;
+    static final InetSocketAddress addr=new InetSocketAddress("localhost", 9994);
+    static final int WINDOW=1024;
+
+    final AsyncChannelFactory factory;
+
+    public FrameRateBenchmark(AsyncChannelFactory factory) {
+        this.factory=factory;
+    }
+
+    public void measure(int total, int size, int readsInFlight) throws Exception {
+        final ArrayBlockingQueue<AsyncSocketChannel> accepted=new ArrayBlockingQueue<AsyncSocketChannel>(1);
+        AsyncServerSocketChannel server=factory.newAsyncServerSocketChannel(addr, new Callback<AsyncSocketChannel>() {
+            @Override
+            public void post(AsyncSocketChannel channel) {
+                accepted.add(channel);
+            }
+
+            @Override
+            public void postFailure(Throwable exc) {
+            }
+        });
+        server.up();
+        FrameCodec codec=new LengthFieldFrameCodec(size);
+        AsyncSocketChannel client=factory.newAsyncSocketChannel(addr);
+        Consumer consumer=new Consumer();
+        FramedChannel receiver=new FramedChannel(accepted.poll(5, TimeUnit.SECONDS), codec, consumer, readsInFlight);
+        FramedChannel sender=new FramedChannel(client, codec, new Consumer());
+        ByteBuffer payload=ByteBuffer.allocate(size);
+        long start=System.nanoTime();
+        for (int k=0; k<total; k++) {
+            consumer.window.acquire();
+            sender.write(new SharedBuffer(payload.duplicate(), null));
+        }
+        consumer.window.acquire(WINDOW);
+        long elapsed=System.nanoTime()-start;
+        sender.close();
+        receiver.close();
+        server.close();
+        out.printf("size=%d reads=%d: %.0f frames/s, %.1f MB/s%n", size, readsInFlight,
+                total*1e9/elapsed, total*(long) size*1e3/elapsed);
+    }
+
+    public void run(String[] args) throws Exception {
+        int total=args.length>0? Integer.parseInt(args[0]): 1000000;
+        int size=args.length>1? Integer.parseInt(args[1]): 100;
+        int maxReads=args.length>2? Integer.parseInt(args[2]): 4;
+        out.println("factory="+factory.getClass().getSimpleName()+" frames="+total);
+        measure(total/10, size, 2); // warm up
+        for (int r=1; r<=maxReads; r*=2) {
+            measure(total, size, r);
+        }
+    }
+
+    /**
+     * releases received frames, and lets the sender write more
+     */
+    static class Consumer extends Actor<SharedBuffer> {
+        final Semaphore window=new Semaphore(WINDOW);
+
+        @Override
+        protected void act(SharedBuffer payload) {
+            payload.release();
+            window.release();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new FrameRateBenchmark(AsyncChannelFactory.getCurrentAsyncChannelFactory()).run(args);
+    }
+}
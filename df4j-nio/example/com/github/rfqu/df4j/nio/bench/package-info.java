@@ -0,0 +1,6 @@
+/**
+ * Benchmarks of the I/O layer.
+ * Running them requires that an implementation of {@link com.github.rfqu.df4j.nio.AsyncChannelFactory}
+ * be present in the classpath; subclasses in df4j-nio1 and df4j-nio2 select the backend explicitly.
+ */
+package com.github.rfqu.df4j.nio.bench;
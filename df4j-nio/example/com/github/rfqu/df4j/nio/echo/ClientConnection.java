@@ -1,7 +1,7 @@
 package com.github.rfqu.df4j.nio.echo;
 
 import java.io.IOException;
-import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -11,6 +11,7 @@ import com.github.rfqu.df4j.core.Callback;
 import com.github.rfqu.df4j.core.Promise;
 import com.github.rfqu.df4j.core.Timer;
 import com.github.rfqu.df4j.nio.AsyncSocketChannel;
+import com.github.rfqu.df4j.nio.BufferPool;
 import com.github.rfqu.df4j.nio.SocketIORequest;
 import com.github.rfqu.df4j.testutil.DoubleValue;
 
@@ -33,13 +34,13 @@ class ClientConnection
     int count2endWrite=0;
     int count3endRead=0;
 
-    public ClientConnection(EchoServerTest echoServerTest, InetSocketAddress addr, int rounds) throws IOException {
+    public ClientConnection(EchoServerTest echoServerTest, SocketAddress addr, int rounds) throws IOException {
         this.echoServerTest = echoServerTest;
         this.timer = echoServerTest.timer;
         this.rounds=new AtomicLong(rounds);
         channel=echoServerTest.asyncChannelFactory.newAsyncSocketChannel(addr);
-        ByteBuffer buffer = ByteBuffer.allocate(EchoServerGlobTest.BUF_SIZE);
-        request=new CliRequest(buffer);
+        request=new CliRequest();
+        request.bindBuffer(BufferPool.getCurrentBufferPool(), EchoServerGlobTest.BUF_SIZE);
 //        channel.read(request, endRead1, timeout);
         request.post(0);
         request.setListener(startWrite);
@@ -97,6 +98,7 @@ class ClientConnection
             if (rounds.get()==0) {
 //                System.out.println("SocketIORequest finished id="+id);
                 channel.close();
+                request.releaseBuffer();
                 DoubleValue avg = new DoubleValue(((double)sum)/count3endRead);
                 echoServerTest.clientFinished(ClientConnection.this, avg);
 //                System.out.println("clients="+echoServerTest.clients.size());
@@ -123,8 +125,7 @@ class ClientConnection
         long start;
         int data;
 
-        public CliRequest(ByteBuffer buf) {
-            super(buf);
+        public CliRequest() {
         }
 
         void checkData() {
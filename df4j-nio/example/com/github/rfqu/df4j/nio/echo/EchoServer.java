@@ -26,7 +26,7 @@ public class EchoServer extends ActorVariable<AsyncSocketChannel> implements Clo
     public static final int defaultPort = 9993;
     public static final int BUF_SIZE = 128;
 
-    AsyncChannelFactory asyncChannelFactory=AsyncChannelFactory.getCurrentAsyncChannelFactory();
+    AsyncChannelFactory asyncChannelFactory;
     AtomicInteger ids = new AtomicInteger(); // for DEBUG
     SocketAddress addr;
     AsyncServerSocketChannel assch;
@@ -36,6 +36,11 @@ public class EchoServer extends ActorVariable<AsyncSocketChannel> implements Clo
     /** listeners to the closing event */
 
     public EchoServer(SocketAddress addr, int maxConn) throws IOException {
+        this(AsyncChannelFactory.getCurrentAsyncChannelFactory(), addr, maxConn);
+    }
+
+    public EchoServer(AsyncChannelFactory asyncChannelFactory, SocketAddress addr, int maxConn) throws IOException {
+        this.asyncChannelFactory = asyncChannelFactory;
         this.addr = addr;
         assch = asyncChannelFactory.newAsyncServerSocketChannel(addr, this);
         assch.up(maxConn);
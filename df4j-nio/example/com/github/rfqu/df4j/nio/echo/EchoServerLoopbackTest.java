@@ -0,0 +1,20 @@
+package com.github.rfqu.df4j.nio.echo;
+
+import com.github.rfqu.df4j.nio.LoopbackChannelFactory;
+
+/**
+ *  Runs tests with {@EchoServer} connected to clients through in-memory channels,
+ *  to measure the library without the kernel.
+ *  Can be run as Junit tests or as java application.
+ */
+public class EchoServerLoopbackTest extends EchoServerLocTest {
+    { t.asyncChannelFactory=new LoopbackChannelFactory();
+    }
+
+    public static void main(String[] args) throws Exception {
+        EchoServerLoopbackTest t=new EchoServerLoopbackTest();
+        t.mediumTest();
+        t.heavyTest();
+    }
+
+}
@@ -3,6 +3,7 @@ package com.github.rfqu.df4j.nio.echo;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.util.HashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -27,7 +28,7 @@ public class EchoServerTest {
     static PrintStream err=System.err;
 
     AsyncChannelFactory asyncChannelFactory=AsyncChannelFactory.getCurrentAsyncChannelFactory();
-	InetSocketAddress iaddr = new InetSocketAddress("localhost", EchoServer.defaultPort);
+	SocketAddress iaddr = new InetSocketAddress("localhost", EchoServer.defaultPort);
 	int numclients;
     int rounds; // per client
 	Timer timer;
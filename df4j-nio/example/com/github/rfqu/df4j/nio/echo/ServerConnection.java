@@ -3,6 +3,7 @@ package com.github.rfqu.df4j.nio.echo;
 import java.nio.ByteBuffer;
 
 import com.github.rfqu.df4j.nio.AsyncSocketChannel;
+import com.github.rfqu.df4j.nio.BufferPool;
 import com.github.rfqu.df4j.nio.SocketIORequest;
 
 class ServerConnection {
@@ -19,8 +20,9 @@ class ServerConnection {
         this.echoServer = echoServer;
         this.channel=channel;
         this.id=echoServer.ids.addAndGet(1);
-        buffer = ByteBuffer.allocate(EchoServer.BUF_SIZE);
-        request = new SerRequest(buffer);
+        request = new SerRequest();
+        request.bindBuffer(BufferPool.getCurrentBufferPool(), EchoServer.BUF_SIZE);
+        buffer = request.getBuffer();
         channel.read(request);
         request.setListener(endRead);
     }
@@ -54,6 +56,7 @@ class ServerConnection {
 
         @Override
 		public void closed(SerRequest request) {//throws IOException {
+            request.releaseBuffer();
             ServerConnection.this.close();
         }
     };
@@ -68,14 +71,14 @@ class ServerConnection {
 
         @Override
 		public void closed(SerRequest request) {//throws IOException {
+            request.releaseBuffer();
             ServerConnection.this.close();
         }
     };
 
     static class SerRequest extends SocketIORequest<SerRequest> {
 
-        public SerRequest(ByteBuffer buf) {
-            super(buf);
+        public SerRequest() {
         }
     }
 }
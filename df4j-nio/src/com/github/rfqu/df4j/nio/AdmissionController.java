@@ -0,0 +1,260 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.nio;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+import com.github.rfqu.df4j.core.Callback;
+import com.github.rfqu.df4j.core.NodeRegistry;
+import com.github.rfqu.df4j.core.Timer;
+
+/**
+ * Accept policy for an {@link AsyncServerSocketChannel}, which keeps the server
+ * from accepting more connections than it can serve.
+ * <p>
+ * The controller is the acceptor of the server socket: it grants accept permits
+ * itself, and passes admitted connections to the application's acceptor.
+ * A connection is admitted while all configured limits hold:
+ * number of live connections, queue depth of an executor, and used heap memory.
+ * Over the limits, the controller either
+ * <br>- {@link #ACCEPT_AND_CLOSE}: keeps accepting, and closes new connections at once, or
+ * <br>- {@link #PAUSE}: stops granting permits, so that clients wait in the listen backlog,
+ *   until a connection is closed or, for queue and memory limits, until the next check.
+ * <p>
+ * The application must not call {@link AsyncServerSocketChannel#up(int)} itself.
+ * <pre><code>AdmissionController ac=new AdmissionController(acceptor, AdmissionController.PAUSE);
+ * ac.setMaxConnections(1000);
+ * ac.start(factory.newAsyncServerSocketChannel(addr, ac));
+ * </code></pre>
+ */
+public class AdmissionController implements Callback<AsyncSocketChannel>, NodeRegistry.Introspectable {
+    /** over the limits, accept connections and close them at once */
+    public static final int ACCEPT_AND_CLOSE=0;
+    /** over the limits, stop accepting */
+    public static final int PAUSE=1;
+    /** how often queue and memory limits are checked while paused, ms */
+    public static final long DEFAULT_RECHECK_PERIOD=10;
+
+    private final Callback<AsyncSocketChannel> acceptor;
+    private final int mode;
+    private AsyncServerSocketChannel server;
+    private int maxConnections=Integer.MAX_VALUE;
+    private ThreadPoolExecutor executor;
+    private int maxQueueDepth=Integer.MAX_VALUE;
+    private long memoryBudget=Long.MAX_VALUE;
+    private long recheckPeriod=DEFAULT_RECHECK_PERIOD;
+
+    /** granted permits not used yet */
+    private int permits=0;
+    private int liveConnections=0;
+    private boolean paused=false;
+    private boolean recheckScheduled=false;
+    private long acceptedCount=0;
+    private long rejectedCount=0;
+    private long pauseCount=0;
+
+    private final Callback<AsyncSocketChannel> closeListener=new Callback<AsyncSocketChannel>() {
+        @Override
+        public void post(AsyncSocketChannel channel) {
+            connectionClosed();
+        }
+
+        @Override
+        public void postFailure(Throwable exc) {
+            connectionClosed();
+        }
+    };
+
+    private final Runnable recheck=new Runnable() {
+        @Override
+        public void run() {
+            synchronized (AdmissionController.this) {
+                recheckScheduled=false;
+            }
+            grant();
+        }
+    };
+
+    /**
+     * @param acceptor receives admitted connections
+     * @param mode {@link #ACCEPT_AND_CLOSE} or {@link #PAUSE}
+     */
+    public AdmissionController(Callback<AsyncSocketChannel> acceptor, int mode) {
+        if (mode!=ACCEPT_AND_CLOSE && mode!=PAUSE) {
+            throw new IllegalArgumentException("mode="+mode);
+        }
+        this.acceptor=acceptor;
+        this.mode=mode;
+        NodeRegistry.registerResource(this);
+    }
+
+    public synchronized void setMaxConnections(int maxConnections) {
+        this.maxConnections=maxConnections;
+    }
+
+    /**
+     * limits the number of tasks waiting in the executor's queue
+     */
+    public synchronized void setMaxQueueDepth(ThreadPoolExecutor executor, int maxQueueDepth) {
+        this.executor=executor;
+        this.maxQueueDepth=maxQueueDepth;
+    }
+
+    /**
+     * limits used heap memory, as reported by {@link Runtime}
+     */
+    public synchronized void setMemoryBudget(long bytes) {
+        this.memoryBudget=bytes;
+    }
+
+    public synchronized void setRecheckPeriod(long millis) {
+        this.recheckPeriod=millis;
+    }
+
+    /**
+     * starts accepting connections
+     * @param server the server socket with this controller as acceptor
+     */
+    public void start(AsyncServerSocketChannel server) {
+        synchronized (this) {
+            this.server=server;
+        }
+        grant();
+    }
+
+    /**
+     * @return true if all limits hold
+     */
+    private boolean isAdmissible() {
+        if (liveConnections>=maxConnections) {
+            return false;
+        }
+        if (executor!=null && executor.getQueue().size()>=maxQueueDepth) {
+            return false;
+        }
+        if (memoryBudget!=Long.MAX_VALUE) {
+            Runtime rt=Runtime.getRuntime();
+            if (rt.totalMemory()-rt.freeMemory()>=memoryBudget) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * keeps one permit granted, unless paused
+     */
+    void grant() {
+        AsyncServerSocketChannel server;
+        boolean schedule=false;
+        boolean up=false;
+        synchronized (this) {
+            server=this.server;
+            if (server==null || server.isClosed() || permits>0) {
+                return;
+            }
+            if (mode==PAUSE && !isAdmissible()) {
+                if (!paused) {
+                    paused=true;
+                    pauseCount++;
+                }
+                if (liveConnections<maxConnections && !recheckScheduled) {
+                    // only a closed connection would resume a connection limit
+                    recheckScheduled=true;
+                    schedule=true;
+                }
+            } else {
+                paused=false;
+                permits++;
+                up=true;
+            }
+        }
+        if (schedule) {
+            Timer.getCurrentTimer().schedule(recheck, recheckPeriod);
+        }
+        if (up) {
+            try {
+                server.up(1);
+            } catch (IllegalStateException e) {
+                // closed concurrently
+            }
+        }
+    }
+
+    void connectionClosed() {
+        synchronized (this) {
+            liveConnections--;
+        }
+        grant();
+    }
+
+    /** new connection accepted */
+    @Override
+    public void post(AsyncSocketChannel channel) {
+        boolean admitted;
+        synchronized (this) {
+            permits--;
+            admitted=isAdmissible();
+            if (admitted) {
+                liveConnections++;
+                acceptedCount++;
+            } else {
+                rejectedCount++;
+            }
+        }
+        if (admitted) {
+            channel.addCloseListener(closeListener);
+            acceptor.post(channel);
+        } else {
+            channel.close();
+        }
+        grant();
+    }
+
+    /** accept failed */
+    @Override
+    public void postFailure(Throwable exc) {
+        synchronized (this) {
+            permits--;
+        }
+        acceptor.postFailure(exc);
+        grant();
+    }
+
+    public synchronized int getLiveConnections() {
+        return liveConnections;
+    }
+
+    public synchronized long getAcceptedCount() {
+        return acceptedCount;
+    }
+
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * @return how many times accepting was paused
+     */
+    public synchronized long getPauseCount() {
+        return pauseCount;
+    }
+
+    public synchronized boolean isPaused() {
+        return paused;
+    }
+
+    @Override
+    public synchronized String getStateDescription() {
+        return "AdmissionController mode="+(mode==PAUSE? "PAUSE": "ACCEPT_AND_CLOSE")
+            +" live="+liveConnections+" accepted="+acceptedCount+" rejected="+rejectedCount
+            +" pauses="+pauseCount+(paused? " paused": "");
+    }
+}
@@ -10,21 +10,60 @@ import com.github.rfqu.df4j.core.DFContext.ItemKey;
 public abstract class AsyncChannelFactory {
     public abstract AsyncServerSocketChannel newAsyncServerSocketChannel(SocketAddress addr, Callback<AsyncSocketChannel> callback) throws IOException;
 
+    /**
+     * Opens a server socket with several listening sockets bound to the same address
+     * with SO_REUSEPORT, so that connections are accepted in parallel.
+     * @param acceptors number of listening sockets; 1 means a plain server socket
+     * @throws UnsupportedOperationException if the backend or the system
+     *    does not support several listening sockets
+     */
+    public AsyncServerSocketChannel newAsyncServerSocketChannel(SocketAddress addr, Callback<AsyncSocketChannel> callback,
+            int acceptors) throws IOException
+    {
+        if (acceptors==1) {
+            return newAsyncServerSocketChannel(addr, callback);
+        }
+        throw new UnsupportedOperationException("acceptors="+acceptors);
+    }
+
     public abstract AsyncSocketChannel newAsyncSocketChannel(SocketAddress addr) throws IOException;
 
+    /**
+     * @return true if channels can be opened with Unix domain socket addresses,
+     *    made with {@link UnixDomainSockets#newAddress(String)}, for communication
+     *    on the same host without the TCP/IP stack
+     */
+    public boolean isUnixDomainSupported() {
+        return false;
+    }
+
+    /**
+     * Opens a datagram channel.
+     * @param addr local address to bind to; null means an ephemeral port on the wildcard address
+     * @throws UnsupportedOperationException if the backend does not support datagrams
+     */
+    public AsyncDatagramChannel newAsyncDatagramChannel(SocketAddress addr) throws IOException {
+        throw new UnsupportedOperationException("datagrams");
+    }
+
     //--------------------- context
     
-    /** implementations */
+    /** implementations, in order of preference */
     static final String[] factoryClassNames={"com.github.rfqu.df4j.nio.AsyncChannelFactory2",
-            "com.github.rfqu.df4j.nio.AsyncChannelFactory1"
+            "com.github.rfqu.df4j.nio.AsyncChannelFactory1",
+            "com.github.rfqu.df4j.nio.AsyncChannelFactory3"
     };
+    /** system property with the class name of the implementation to use */
+    public static final String FACTORY_PROPERTY="df4j.nio.factory";
     
     private static final ItemKey<AsyncChannelFactory> AsyncChannelFactorydKey
         = DFContext.getCurrentContext().new ItemKey<AsyncChannelFactory>()
     {
         @Override
         protected AsyncChannelFactory initialValue(DFContext context) {
-            for (String factoryClassName: factoryClassNames) {
+            String chosen=System.getProperty(FACTORY_PROPERTY);
+            String[] names=chosen==null? factoryClassNames: new String[]{chosen};
+            for (String factoryClassName: names) {
                 Class<?> factoryClass;
                 try {
                     factoryClass = Class.forName(factoryClassName);
@@ -43,7 +82,15 @@ public abstract class AsyncChannelFactory {
         
     };
     
+    /**
+     * @return the factory set for the current context; by default, the implementation
+     *    named by the system property "df4j.nio.factory", or the first one found in the classpath
+     */
     public static AsyncChannelFactory getCurrentAsyncChannelFactory() {
         return AsyncChannelFactorydKey.get();
     }
+
+    public static void setCurrentAsyncChannelFactory(AsyncChannelFactory factory) {
+        AsyncChannelFactorydKey.set(factory);
+    }
  }
\ No newline at end of file
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.nio;
+
+import java.net.SocketAddress;
+import java.util.concurrent.Executor;
+
+import com.github.rfqu.df4j.core.Callback;
+import com.github.rfqu.df4j.core.CallbackPromise;
+import com.github.rfqu.df4j.core.StreamPort;
+import com.github.rfqu.df4j.ext.ActorLQ;
+
+/**
+ * Asynchronously sends and receives datagrams, handling queues of {@link DatagramIORequest}s,
+ * as {@link AsyncSocketChannel} does for streams.
+ * <p>
+ * Internally, manages 2 actors: one for receive requests and one for send requests.
+ * Each receive request gets one datagram. When datagrams arrive, queued receive requests
+ * are served one after another until there are no more datagrams, so that many receive requests
+ * without buffers, which borrow buffers from the pool only for the datagrams received,
+ * sustain high packet rates.
+ */
+public abstract class AsyncDatagramChannel implements StreamPort<DatagramIORequest<?>> {
+    /** signals that the channel is closed */
+    private final CallbackPromise<AsyncDatagramChannel> closeEvent = new CallbackPromise<AsyncDatagramChannel>();
+    private boolean closeEventPosted = false;
+    /** receive requests queue */
+    protected RequestQueue receiver;
+    /** send requests queue */
+    protected RequestQueue sender;
+    protected volatile boolean closed = false;
+    /** buffers for receive requests posted without a buffer; null means the context's pool */
+    protected volatile BufferPool bufferPool;
+    /** updated by the receiving actor only */
+    protected volatile long receivedCount=0;
+    /** updated by the sending actor only */
+    protected volatile long sentCount=0;
+
+    /**
+     * @return the address the channel is bound to
+     */
+    public abstract SocketAddress getLocalAddress();
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @param listener is notified once, when the channel is closed
+     */
+    public <R extends Callback<AsyncDatagramChannel>> R addCloseListener(R listener) {
+        closeEvent.addListener(listener);
+        return listener;
+    }
+
+    /**
+     * notifies close listeners; called by implementations when the channel is closed.
+     * Subsequent calls have no effect.
+     */
+    protected void postCloseEvent() {
+        synchronized (closeEvent) {
+            if (closeEventPosted) {
+                return;
+            }
+            closeEventPosted = true;
+        }
+        closeEvent.post(this);
+    }
+
+    public BufferPool getBufferPool() {
+        BufferPool pool=bufferPool;
+        return pool==null? BufferPool.getCurrentBufferPool(): pool;
+    }
+
+    /**
+     * sets the pool for receive requests posted without a buffer
+     */
+    public void setBufferPool(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * @return number of datagrams received
+     */
+    public long getReceivedCount() {
+        return receivedCount;
+    }
+
+    /**
+     * @return number of datagrams sent
+     */
+    public long getSentCount() {
+        return sentCount;
+    }
+
+    // ================== StreamPort I/O interface
+
+    @Override
+    public void post(DatagramIORequest<?> request) {
+        (request.isReadOp() ? receiver : sender).post(request);
+    }
+
+    // ================== conventional I/O interface
+
+    public <R extends DatagramIORequest<R>> void send(R request, SocketAddress target) {
+        request.prepareSend(target);
+        post(request);
+    }
+
+    public <R extends DatagramIORequest<R>> void receive(R request) {
+        request.prepareReceive();
+        post(request);
+    }
+
+    public abstract class RequestQueue extends ActorLQ<DatagramIORequest<?>> {
+
+        public RequestQueue(Executor executor) {
+            super(executor);
+        }
+
+        public abstract void resume();
+
+        @Override
+        public synchronized void post(DatagramIORequest<?> request) {
+            if (!isAcceptable(request)) {
+                request.postFailure(new IllegalArgumentException());
+                return;
+            }
+            super.post(request);
+        }
+
+        /**
+         * @return true if the request has a single buffer with space to receive to or data to send,
+         *    or it is a receive request to be bound to a pooled buffer
+         */
+        protected boolean isAcceptable(DatagramIORequest<?> request) {
+            if (request.isVectored()) {
+                return false;
+            }
+            if (!request.isBound()) {
+                return request.isReadOp();
+            }
+            return request.hasRemaining();
+        }
+    }
+}
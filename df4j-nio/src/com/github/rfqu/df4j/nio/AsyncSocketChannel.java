@@ -34,6 +34,9 @@ public abstract class AsyncSocketChannel extends Link
 {
 	/** for client-side socket: signals connection completion */
 	protected final CallbackPromise<AsyncSocketChannel> connEvent = new CallbackPromise<AsyncSocketChannel>();
+	/** signals that the channel is closed */
+	private final CallbackPromise<AsyncSocketChannel> closeEvent = new CallbackPromise<AsyncSocketChannel>();
+	private boolean closeEventPosted = false;
 	/** read requests queue */
 	protected RequestQueue reader;
 	/** write requests queue */
@@ -41,6 +44,8 @@ public abstract class AsyncSocketChannel extends Link
 	/** closes channel */
 	protected Completer completer = new Completer();
 	protected volatile boolean closed = false;
+	/** buffers for read requests posted without a buffer; null means the context's pool */
+	protected volatile BufferPool bufferPool;
 
 	public <R extends Callback<AsyncSocketChannel>> R addConnListener(R listener) {
 		connEvent.addListener(listener);
@@ -51,6 +56,40 @@ public abstract class AsyncSocketChannel extends Link
 		return closed;
 	}
 
+	/**
+	 * @param listener is notified once, when the channel is closed
+	 */
+	public <R extends Callback<AsyncSocketChannel>> R addCloseListener(R listener) {
+		closeEvent.addListener(listener);
+		return listener;
+	}
+
+	/**
+	 * notifies close listeners; called by implementations when the channel is closed.
+	 * Subsequent calls have no effect.
+	 */
+	protected void postCloseEvent() {
+		synchronized (closeEvent) {
+			if (closeEventPosted) {
+				return;
+			}
+			closeEventPosted = true;
+		}
+		closeEvent.post(this);
+	}
+
+	public BufferPool getBufferPool() {
+		BufferPool pool=bufferPool;
+		return pool==null? BufferPool.getCurrentBufferPool(): pool;
+	}
+
+	/**
+	 * sets the pool for read requests posted without a buffer
+	 */
+	public void setBufferPool(BufferPool bufferPool) {
+		this.bufferPool = bufferPool;
+	}
+
 	// ================== StreamPort I/O interface
 
 	@Override
@@ -90,12 +129,23 @@ public abstract class AsyncSocketChannel extends Link
         
         @Override
         public synchronized void post(SocketIORequest<?> request) {
-            if (!request.getBuffer().hasRemaining()) {
+            if (!isAcceptable(request)) {
                 request.postFailure(new IllegalArgumentException());
                 return;
             }
             super.post(request);
         }
+
+        /**
+         * @return true if the request has space to read to or data to write,
+         *    or it is a read request to be bound to a pooled buffer
+         */
+        protected boolean isAcceptable(SocketIORequest<?> request) {
+            if (!request.isBound()) {
+                return request.isReadOp();
+            }
+            return request.hasRemaining();
+        }
  	}
 
 	/**
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.nio;
+
+import java.nio.ByteBuffer;
+
+import com.github.rfqu.df4j.core.DFContext;
+import com.github.rfqu.df4j.core.DFContext.ItemKey;
+
+/**
+ * Source of I/O buffers shared by many requests.
+ * Requests borrow buffers with {@link IORequest#bindBuffer(BufferPool)}
+ * and return them with {@link IORequest#releaseBuffer()}.
+ * Channels also borrow buffers from a pool for requests posted without a buffer
+ * (see {@link SocketIORequest#SocketIORequest()}), so that idle connections
+ * do not keep buffers of their own. Implementations must be thread-safe.
+ */
+public abstract class BufferPool {
+    public static final int DEFAULT_BUFFER_SIZE=4096;
+    public static final int DEFAULT_MAX_CACHED=1024;
+
+    /**
+     * @return a cleared buffer of at least {@link #getBufferSize()} bytes
+     */
+    public abstract ByteBuffer take();
+
+    /**
+     * @return a cleared buffer of at least minSize bytes
+     * @throws IllegalArgumentException if the pool has no buffers of that size
+     */
+    public ByteBuffer take(int minSize) {
+        if (minSize>getBufferSize()) {
+            throw new IllegalArgumentException("minSize="+minSize);
+        }
+        return take();
+    }
+
+    /**
+     * returns a buffer taken from this pool
+     */
+    public abstract void release(ByteBuffer buffer);
+
+    /**
+     * @return size of buffers returned by {@link #take()}
+     */
+    public abstract int getBufferSize();
+
+    //--------------------- context
+
+    private static ItemKey<BufferPool> bufferPoolKey
+        = DFContext.getCurrentContext().new ItemKey<BufferPool>()
+    {
+        @Override
+        protected BufferPool initialValue(DFContext context) {
+            return new DirectBufferPool();
+        }
+    };
+
+    /**
+     * @return the pool used by channels which have no pool of their own
+     */
+    public static BufferPool getCurrentBufferPool() {
+        return bufferPoolKey.get();
+    }
+
+    public static void setCurrentBufferPool(BufferPool pool) {
+        bufferPoolKey.set(pool);
+    }
+}
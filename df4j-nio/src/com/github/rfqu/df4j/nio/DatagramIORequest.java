@@ -0,0 +1,71 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.nio;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Request to send or to receive one datagram.
+ * Carries the address of the peer: the destination of a sent datagram,
+ * or the source of a received one.
+ * A received datagram which does not fit into the buffer is truncated.
+ */
+public class DatagramIORequest<R extends DatagramIORequest<R>>
+  extends IORequest<R>
+{
+    private SocketAddress address;
+
+    /**
+     * creates a receive request without a buffer.
+     * A buffer is borrowed from the channel's {@link BufferPool}
+     * only when a datagram arrives, and must be returned with {@link #releaseBuffer()}
+     * after the data are consumed.
+     */
+    public DatagramIORequest() {
+        super((ByteBuffer) null);
+    }
+
+    public DatagramIORequest(ByteBuffer buf) {
+        super(buf);
+    }
+
+    /**
+     * prepares to send the data put into the buffer
+     * @param target destination of the datagram
+     */
+    public void prepareSend(SocketAddress target) {
+        if (target==null) {
+            throw new NullPointerException();
+        }
+        prepareWrite();
+        this.address=target;
+    }
+
+    /**
+     * prepares to receive a datagram from any source
+     */
+    public void prepareReceive() {
+        prepareRead();
+        this.address=null;
+    }
+
+    /**
+     * @return destination of a sent datagram, or source of a received datagram
+     */
+    public SocketAddress getAddress() {
+        return address;
+    }
+
+    /** backend method: sets the source of the received datagram */
+    public void setAddress(SocketAddress address) {
+        this.address = address;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.nio;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * Frames which end with a delimiter, such as a line feed.
+ * The delimiter is not a part of the payload.
+ * Bytes scanned for the delimiter are not scanned again when more data arrive.
+ */
+public class DelimiterFrameCodec extends FrameCodec {
+    private final byte[] delimiter;
+    private final int maxPayloadLength;
+    private final ByteBuffer trailer;
+
+    /**
+     * @param delimiter ends each frame; must not occur in payloads
+     * @param maxPayloadLength longer frames are rejected
+     */
+    public DelimiterFrameCodec(byte[] delimiter, int maxPayloadLength) {
+        if (delimiter.length==0) {
+            throw new IllegalArgumentException("empty delimiter");
+        }
+        if (maxPayloadLength<0 || maxPayloadLength>Integer.MAX_VALUE-delimiter.length) {
+            throw new IllegalArgumentException("maxPayloadLength="+maxPayloadLength);
+        }
+        this.delimiter=delimiter.clone();
+        this.maxPayloadLength=maxPayloadLength;
+        trailer=ByteBuffer.wrap(this.delimiter).asReadOnlyBuffer();
+    }
+
+    /**
+     * lines ending with "\n"; a "\r" before it is also stripped from the payload
+     */
+    public static DelimiterFrameCodec lines(int maxPayloadLength) {
+        return new LineFrameCodec(maxPayloadLength);
+    }
+
+    @Override
+    public int frameLength(ByteBuffer buf, int scanned) throws ProtocolException {
+        int pos=buf.position();
+        int available=buf.remaining();
+        int dlen=delimiter.length;
+        byte first=delimiter[0];
+        // the delimiter may start in the scanned bytes and end in the new ones
+        int k=Math.max(0, scanned-dlen+1);
+        search:
+        for (int last=available-dlen; k<=last; k++) {
+            if (buf.get(pos+k)!=first) {
+                continue;
+            }
+            for (int j=1; j<dlen; j++) {
+                if (buf.get(pos+k+j)!=delimiter[j]) {
+                    continue search;
+                }
+            }
+            checkFrameLength(k+dlen);
+            return k+dlen;
+        }
+        // the delimiter cannot end within max frame length
+        if (available>=getMaxFrameLength()) {
+            throw new ProtocolException("no delimiter within "+getMaxFrameLength()+" bytes");
+        }
+        return -1;
+    }
+
+    @Override
+    public int getMaxFrameLength() {
+        return maxPayloadLength+delimiter.length;
+    }
+
+    @Override
+    public int trailerLength(ByteBuffer frame) {
+        return delimiter.length;
+    }
+
+    @Override
+    public ByteBuffer encodeHeader(int payloadLength) throws ProtocolException {
+        checkFrameLength(payloadLength+(long) delimiter.length);
+        return null;
+    }
+
+    @Override
+    public ByteBuffer encodeTrailer() {
+        return trailer.duplicate();
+    }
+
+    static class LineFrameCodec extends DelimiterFrameCodec {
+
+        LineFrameCodec(int maxPayloadLength) {
+            // room for the optional "\r"
+            super(new byte[]{'\n'}, maxPayloadLength+1);
+        }
+
+        @Override
+        public int trailerLength(ByteBuffer frame) {
+            int end=frame.limit();
+            if (frame.remaining()>=2 && frame.get(end-2)=='\r') {
+                return 2;
+            }
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,376 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.nio;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.rfqu.df4j.core.NodeRegistry;
+
+/**
+ * Pool of direct buffers in size classes.
+ * <p>
+ * Size classes are powers of two between the min and max size. Buffers of a class
+ * are slices of large direct slabs, allocated when the class runs out of buffers,
+ * and never freed. Socket channels read and write direct buffers without copying them
+ * into temporary direct buffers, as they do with heap buffers.
+ * <p>
+ * Each thread keeps a small cache of released buffers per class, so that
+ * a thread which takes and releases buffers does not touch shared queues.
+ * Buffers cached by threads which have terminated go back to the shared queue
+ * when a class runs out of buffers, so short-lived threads do not leak them.
+ * Buffers larger than the max size are allocated directly and not pooled.
+ * <p>
+ * In debug mode (constructor parameter, or system property "df4j.bufferpool.debug"),
+ * the pool remembers where each buffer was taken. Releasing a buffer twice, or a buffer
+ * not taken from this pool, throws {@link IllegalStateException}, and buffers
+ * dropped without being released are reported as leaks when they are garbage collected.
+ */
+public class DirectBufferPool extends BufferPool implements NodeRegistry.Introspectable {
+    public static final int DEFAULT_MIN_SIZE=128;
+    public static final int DEFAULT_MAX_SIZE=64*1024;
+    public static final int DEFAULT_SLAB_SIZE=1024*1024;
+    public static final int DEFAULT_THREAD_CACHE_SIZE=32;
+
+    private final SizeClass[] classes;
+    private final int minShift;
+    private final int maxSize;
+    private final int slabSize;
+    private final int threadCacheSize;
+    private final int bufferSize;
+    private final AtomicLong slabBytes=new AtomicLong();
+    private final AtomicLong borrowedCount=new AtomicLong();
+    private final LeakDetector leakDetector;
+
+    /**
+     * @param minSize size of the smallest class, rounded up to a power of two
+     * @param maxSize size of the largest class, rounded up to a power of two
+     * @param slabSize bytes allocated at once for a class
+     * @param threadCacheSize max number of buffers of a class cached by a thread
+     * @param debug track buffers to detect leaks and double releases
+     */
+    public DirectBufferPool(int minSize, int maxSize, int slabSize, int threadCacheSize, boolean debug) {
+        if (minSize<=0 || maxSize<minSize) {
+            throw new IllegalArgumentException("minSize="+minSize+" maxSize="+maxSize);
+        }
+        minShift=log2(minSize);
+        int maxShift=log2(maxSize);
+        this.maxSize=1<<maxShift;
+        this.slabSize=slabSize;
+        this.threadCacheSize=threadCacheSize;
+        classes=new SizeClass[maxShift-minShift+1];
+        for (int k=0; k<classes.length; k++) {
+            classes[k]=new SizeClass(1<<(minShift+k));
+        }
+        bufferSize=classFor(Math.min(Math.max(DEFAULT_BUFFER_SIZE, minSize), this.maxSize)).size;
+        leakDetector=debug? new LeakDetector(): null;
+        NodeRegistry.registerResource(this);
+    }
+
+    public DirectBufferPool() {
+        this(DEFAULT_MIN_SIZE, DEFAULT_MAX_SIZE, DEFAULT_SLAB_SIZE, DEFAULT_THREAD_CACHE_SIZE,
+                Boolean.getBoolean("df4j.bufferpool.debug"));
+    }
+
+    /** @return log2 of size rounded up to a power of two */
+    private static int log2(int size) {
+        return 32-Integer.numberOfLeadingZeros(size-1);
+    }
+
+    private SizeClass classFor(int size) {
+        int shift=log2(Math.max(size, 1));
+        if (shift<minShift) {
+            shift=minShift;
+        }
+        return classes[shift-minShift];
+    }
+
+    @Override
+    public ByteBuffer take() {
+        return take(bufferSize);
+    }
+
+    /**
+     * @return a cleared direct buffer; its capacity is minSize rounded up to a size class
+     * @throws IllegalArgumentException if minSize is negative
+     */
+    @Override
+    public ByteBuffer take(int minSize) {
+        if (minSize<0) {
+            throw new IllegalArgumentException("minSize="+minSize);
+        }
+        ByteBuffer buffer;
+        if (minSize>maxSize) {
+            buffer=ByteBuffer.allocateDirect(minSize);
+        } else {
+            buffer=classFor(minSize).take();
+            buffer.clear();
+        }
+        borrowedCount.incrementAndGet();
+        if (leakDetector!=null) {
+            leakDetector.taken(buffer);
+        }
+        return buffer;
+    }
+
+    @Override
+    public void release(ByteBuffer buffer) {
+        if (leakDetector!=null) {
+            leakDetector.released(buffer);
+        }
+        borrowedCount.decrementAndGet();
+        int capacity=buffer.capacity();
+        if (capacity>maxSize) {
+            return; // not pooled
+        }
+        SizeClass sizeClass=classFor(capacity);
+        if (sizeClass.size!=capacity || !buffer.isDirect()) {
+            throw new IllegalArgumentException("buffer not taken from this pool");
+        }
+        sizeClass.release(buffer);
+    }
+
+    @Override
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return bytes allocated for slabs
+     */
+    public long getSlabBytes() {
+        return slabBytes.get();
+    }
+
+    /**
+     * @return number of buffers taken and not yet released
+     */
+    public long getBorrowedCount() {
+        return borrowedCount.get();
+    }
+
+    public boolean isDebug() {
+        return leakDetector!=null;
+    }
+
+    /**
+     * Reports buffers garbage collected without being released.
+     * Called also on each take and release in debug mode.
+     * @return number of leaks detected so far; 0 if not in debug mode
+     */
+    public long checkLeaks() {
+        if (leakDetector==null) {
+            return 0;
+        }
+        return leakDetector.poll();
+    }
+
+    @Override
+    public String getStateDescription() {
+        return "DirectBufferPool slabBytes="+slabBytes.get()+" borrowed="+borrowedCount.get()
+            +(leakDetector==null? "": " leaks="+leakDetector.poll());
+    }
+
+    /**
+     * Buffers of the same size.
+     */
+    class SizeClass {
+        final int size;
+        final ConcurrentLinkedQueue<ByteBuffer> free=new ConcurrentLinkedQueue<ByteBuffer>();
+        /** caches of all threads, to reclaim buffers cached by terminated threads */
+        final ConcurrentLinkedQueue<ThreadCache> caches=new ConcurrentLinkedQueue<ThreadCache>();
+        final ThreadLocal<ThreadCache> cache=new ThreadLocal<ThreadCache>() {
+            @Override
+            protected ThreadCache initialValue() {
+                ThreadCache local=new ThreadCache(threadCacheSize);
+                if (threadCacheSize>0) {
+                    caches.add(local);
+                }
+                return local;
+            }
+        };
+
+        SizeClass(int size) {
+            this.size=size;
+        }
+
+        ByteBuffer take() {
+            ThreadCache local=cache.get();
+            if (local.count>0) {
+                ByteBuffer buffer=local.buffers[--local.count];
+                local.buffers[local.count]=null;
+                return buffer;
+            }
+            ByteBuffer buffer=free.poll();
+            if (buffer!=null) {
+                return buffer;
+            }
+            if (reclaim()) {
+                buffer=free.poll();
+                if (buffer!=null) {
+                    return buffer;
+                }
+            }
+            return allocateSlab();
+        }
+
+        /**
+         * moves buffers cached by terminated threads to the shared queue
+         * @return true if any buffers were moved
+         */
+        private boolean reclaim() {
+            boolean reclaimed=false;
+            for (ThreadCache local: caches) {
+                if (local.isOwnerAlive() || !caches.remove(local)) {
+                    continue; // in use, or reclaimed by another thread
+                }
+                for (int k=0; k<local.count; k++) {
+                    free.add(local.buffers[k]);
+                    local.buffers[k]=null;
+                    reclaimed=true;
+                }
+                local.count=0;
+            }
+            return reclaimed;
+        }
+
+        void release(ByteBuffer buffer) {
+            ThreadCache local=cache.get();
+            if (local.count==local.buffers.length) {
+                // move half of the cache to the shared queue, to keep some for the next releases
+                int half=local.count/2;
+                for (int k=half; k<local.count; k++) {
+                    free.add(local.buffers[k]);
+                    local.buffers[k]=null;
+                }
+                local.count=half;
+            }
+            if (local.buffers.length==0) {
+                free.add(buffer);
+                return;
+            }
+            local.buffers[local.count++]=buffer;
+        }
+
+        /**
+         * @return the first buffer of a new slab; the rest go to the shared queue
+         */
+        private ByteBuffer allocateSlab() {
+            int count=Math.max(1, slabSize/size);
+            ByteBuffer slab=ByteBuffer.allocateDirect(count*size);
+            slabBytes.addAndGet(slab.capacity());
+            ByteBuffer first=null;
+            for (int k=0; k<count; k++) {
+                slab.limit(k*size+size);
+                slab.position(k*size);
+                ByteBuffer buffer=slab.slice();
+                if (first==null) {
+                    first=buffer;
+                } else {
+                    free.add(buffer);
+                }
+            }
+            return first;
+        }
+    }
+
+    static class ThreadCache {
+        final ByteBuffer[] buffers;
+        int count=0;
+        /** the thread which uses this cache; its termination makes the buffers visible to others */
+        final WeakReference<Thread> owner=new WeakReference<Thread>(Thread.currentThread());
+
+        ThreadCache(int size) {
+            buffers=new ByteBuffer[size];
+        }
+
+        boolean isOwnerAlive() {
+            Thread thread=owner.get();
+            return thread!=null && thread.isAlive();
+        }
+    }
+
+    /**
+     * Tracks borrowed buffers by identity, without keeping them reachable.
+     */
+    static class LeakDetector {
+        private final ReferenceQueue<ByteBuffer> queue=new ReferenceQueue<ByteBuffer>();
+        /** references by identity hash code, chained on collisions */
+        private final HashMap<Integer, Tracked> tracked=new HashMap<Integer, Tracked>();
+        private long leaks=0;
+
+        synchronized void taken(ByteBuffer buffer) {
+            poll();
+            Integer key=System.identityHashCode(buffer);
+            Tracked ref=new Tracked(buffer, queue, key);
+            ref.next=tracked.get(key);
+            tracked.put(key, ref);
+        }
+
+        synchronized void released(ByteBuffer buffer) {
+            poll();
+            Integer key=System.identityHashCode(buffer);
+            Tracked prev=null;
+            for (Tracked ref=tracked.get(key); ref!=null; prev=ref, ref=ref.next) {
+                if (ref.get()==buffer) {
+                    unlink(prev, ref);
+                    ref.clear();
+                    return;
+                }
+            }
+            throw new IllegalStateException("buffer released twice, or not taken from this pool");
+        }
+
+        private void unlink(Tracked prev, Tracked ref) {
+            if (prev!=null) {
+                prev.next=ref.next;
+            } else if (ref.next!=null) {
+                tracked.put(ref.key, ref.next);
+            } else {
+                tracked.remove(ref.key);
+            }
+        }
+
+        synchronized long poll() {
+            for (;;) {
+                Tracked leaked=(Tracked) queue.poll();
+                if (leaked==null) {
+                    return leaks;
+                }
+                Tracked prev=null;
+                for (Tracked ref=tracked.get(leaked.key); ref!=null; prev=ref, ref=ref.next) {
+                    if (ref==leaked) {
+                        unlink(prev, ref);
+                        leaks++;
+                        System.err.println("DirectBufferPool: buffer was not released");
+                        leaked.trace.printStackTrace();
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    static class Tracked extends WeakReference<ByteBuffer> {
+        final Integer key;
+        /** where the buffer was taken */
+        final Throwable trace=new Throwable("taken at");
+        Tracked next;
+
+        Tracked(ByteBuffer buffer, ReferenceQueue<ByteBuffer> queue, Integer key) {
+            super(buffer, queue);
+            this.key=key;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.nio;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * Frames of the same length, without header and trailer.
+ */
+public class FixedLengthFrameCodec extends FrameCodec {
+    private final int frameLength;
+
+    public FixedLengthFrameCodec(int frameLength) {
+        if (frameLength<=0) {
+            throw new IllegalArgumentException("frameLength="+frameLength);
+        }
+        this.frameLength=frameLength;
+    }
+
+    @Override
+    public int frameLength(ByteBuffer buf, int scanned) {
+        return frameLength;
+    }
+
+    @Override
+    public int getMaxFrameLength() {
+        return frameLength;
+    }
+
+    @Override
+    public ByteBuffer encodeHeader(int payloadLength) throws ProtocolException {
+        if (payloadLength!=frameLength) {
+            throw new ProtocolException("payload length "+payloadLength+" != "+frameLength);
+        }
+        return null;
+    }
+}
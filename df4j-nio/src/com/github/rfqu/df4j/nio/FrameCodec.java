@@ -0,0 +1,83 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.nio;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * Finds frame boundaries in a byte stream, and frames payloads to be written.
+ * A frame on the wire is a header, a payload and a trailer;
+ * any of them may be empty.
+ * <p>
+ * Codecs keep no state between calls, so one codec can serve many channels.
+ * Methods must not change position and limit of the buffers passed to them.
+ * @see FramedChannel
+ */
+public abstract class FrameCodec {
+
+    /**
+     * Finds the end of the frame which starts at the position of the buffer.
+     * Called again with more bytes, until the frame length is known.
+     * @param buf the beginning of the frame, from position to limit
+     * @param scanned number of bytes at the beginning of the frame
+     *     examined by the previous calls for this frame, so that they are not scanned again
+     * @return length of the frame on the wire, which may be larger than the bytes available,
+     *     or -1 if the length is not known yet
+     * @throws ProtocolException if the frame is malformed, or longer than {@link #getMaxFrameLength()}
+     */
+    public abstract int frameLength(ByteBuffer buf, int scanned) throws ProtocolException;
+
+    /**
+     * @return max length of a frame on the wire, including header and trailer
+     */
+    public abstract int getMaxFrameLength();
+
+    /**
+     * @param frame the whole frame, from position to limit
+     * @return number of bytes before the payload
+     */
+    public int headerLength(ByteBuffer frame) {
+        return 0;
+    }
+
+    /**
+     * @param frame the whole frame, from position to limit
+     * @return number of bytes after the payload
+     */
+    public int trailerLength(ByteBuffer frame) {
+        return 0;
+    }
+
+    /**
+     * @return the header of a frame with the payload, ready to be read; null if there is no header
+     * @throws ProtocolException if the payload cannot be framed, e.g. it is too long
+     */
+    public ByteBuffer encodeHeader(int payloadLength) throws ProtocolException {
+        return null;
+    }
+
+    /**
+     * @return the trailer of frames, ready to be read; null if there is no trailer.
+     *    The caller may change position and limit of the buffer, but not its content.
+     */
+    public ByteBuffer encodeTrailer() {
+        return null;
+    }
+
+    /**
+     * checks the length of a frame, for subclasses
+     */
+    protected void checkFrameLength(long frameLength) throws ProtocolException {
+        if (frameLength>getMaxFrameLength()) {
+            throw new ProtocolException("frame too long: "+frameLength+" > "+getMaxFrameLength());
+        }
+    }
+}
@@ -0,0 +1,383 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.nio;
+
+import java.io.EOFException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+
+import com.github.rfqu.df4j.core.Actor;
+import com.github.rfqu.df4j.core.Callback;
+import com.github.rfqu.df4j.core.CallbackPromise;
+import com.github.rfqu.df4j.core.Port;
+import com.github.rfqu.df4j.core.StreamPort;
+
+/**
+ * Turns the byte stream of an {@link AsyncSocketChannel} into a stream of frames,
+ * delimited by a {@link FrameCodec}, and writes frames to it.
+ * <p>
+ * Several read requests without buffers are kept in flight, so that
+ * the channel has a pooled buffer to read into as soon as data arrive.
+ * Received buffers are parsed incrementally, in the order of reads,
+ * as the channel completes reads in the order they are posted.
+ * The payload of a frame which lies within one buffer is posted to the frame port
+ * as a slice of that buffer, without copying; only a frame which spans
+ * several reads is copied into a buffer of its own.
+ * Each posted payload holds a reference to its buffer, which the consumer must release:
+ * <pre><code>class Consumer extends Actor&lt;SharedBuffer&gt; {
+ *     protected void act(SharedBuffer payload) {
+ *         ... payload.getBuffer() ...
+ *         payload.release();
+ *     }
+ * }
+ * </code></pre>
+ * When the peer closes the connection, or the channel fails, the frame port is closed,
+ * and close listeners are notified.
+ * <p>
+ * Frames are written with gathering writes of header, payload and trailer,
+ * so payloads are not copied either.
+ */
+public class FramedChannel {
+    public static final int DEFAULT_READS_IN_FLIGHT=2;
+
+    private final AsyncSocketChannel channel;
+    private final FrameCodec codec;
+    private final StreamPort<SharedBuffer> frames;
+    private final CallbackPromise<FramedChannel> closeEvent = new CallbackPromise<FramedChannel>();
+    private final Parser parser;
+    private final Port<FrameWrite> writeListener=new WriteListener();
+    /** guarded by this */
+    private boolean closed=false;
+
+    /**
+     * starts reading frames
+     * @param channel connected or connecting channel
+     * @param codec finds frame boundaries
+     * @param frames receives payloads of the frames
+     * @param readsInFlight number of read requests posted to the channel at a time
+     */
+    public FramedChannel(AsyncSocketChannel channel, FrameCodec codec, StreamPort<SharedBuffer> frames, int readsInFlight) {
+        if (readsInFlight<1) {
+            throw new IllegalArgumentException("readsInFlight="+readsInFlight);
+        }
+        this.channel=channel;
+        this.codec=codec;
+        this.frames=frames;
+        parser=new Parser();
+        for (int k=0; k<readsInFlight; k++) {
+            read(new FrameRead());
+        }
+    }
+
+    public FramedChannel(AsyncSocketChannel channel, FrameCodec codec, StreamPort<SharedBuffer> frames) {
+        this(channel, codec, frames, DEFAULT_READS_IN_FLIGHT);
+    }
+
+    public AsyncSocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * @param listener is notified once, when the frame stream ends;
+     *    fails if it ended with an error, e.g. a malformed frame
+     */
+    public <R extends Callback<FramedChannel>> R addCloseListener(R listener) {
+        closeEvent.addListener(listener);
+        return listener;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Writes a frame with the payload, from its position to its limit.
+     * Takes over the reference to the payload, which is released when the frame is written.
+     * Use <code>new SharedBuffer(buffer, null)</code> to write a buffer which is not shared.
+     * @throws ProtocolException if the codec cannot frame the payload
+     * @throws IllegalStateException if the channel is closed
+     */
+    public void write(SharedBuffer payload) throws ProtocolException {
+        ByteBuffer data=payload.getBuffer().slice();
+        ByteBuffer header;
+        try {
+            header=codec.encodeHeader(data.remaining());
+        } catch (ProtocolException e) {
+            payload.release();
+            throw e;
+        }
+        ByteBuffer trailer=codec.encodeTrailer();
+        ByteBuffer[] bufs=new ByteBuffer[3];
+        int n=0;
+        if (header!=null) {
+            bufs[n++]=header;
+        }
+        bufs[n++]=data;
+        if (trailer!=null) {
+            bufs[n++]=trailer;
+        }
+        for (int k=0; k<n; k++) {
+            // prepareWrite flips the buffers
+            bufs[k].position(bufs[k].limit());
+        }
+        FrameWrite request=new FrameWrite(bufs, n, payload);
+        try {
+            channel.write(request);
+        } catch (IllegalStateException e) {
+            payload.release();
+            throw e;
+        }
+        request.setListener(writeListener);
+    }
+
+    /**
+     * closes the channel; the frame port is closed, and frames not received completely are lost
+     */
+    public void close() {
+        finish(null);
+    }
+
+    private void read(FrameRead request) {
+        channel.read(request);
+        request.setListener(parser);
+    }
+
+    private void finish(Throwable exc) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed=true;
+            // under the lock, so that the parser does not post frames after it
+            frames.close();
+        }
+        channel.close();
+        if (exc==null) {
+            closeEvent.post(this);
+        } else {
+            closeEvent.postFailure(exc);
+        }
+    }
+
+    static class FrameRead extends SocketIORequest<FrameRead> {
+    }
+
+    static class FrameWrite extends SocketIORequest<FrameWrite> {
+        final SharedBuffer payload;
+
+        FrameWrite(ByteBuffer[] bufs, int length, SharedBuffer payload) {
+            super(bufs, 0, length);
+            this.payload=payload;
+        }
+    }
+
+    class WriteListener implements Port<FrameWrite> {
+        @Override
+        public void post(FrameWrite request) {
+            request.payload.release();
+            Throwable exc=request.getExc();
+            if (exc!=null) {
+                finish(exc);
+            }
+        }
+    }
+
+    /**
+     * Parses received buffers, in the order of reads.
+     */
+    class Parser extends Actor<FrameRead> {
+        /** the frame which spans reads, in write mode; null if none */
+        private ByteBuffer partial;
+        /** the pool of partial, null if it is not pooled */
+        private BufferPool partialPool;
+        /** length of the partial frame, -1 if not known yet */
+        private int partialLength;
+        /** bytes of the partial frame examined by the codec */
+        private int scanned;
+
+        @Override
+        protected void act(FrameRead request) throws Exception {
+            if (FramedChannel.this.isClosed()) {
+                // reads in flight complete after close
+                request.releaseBuffer();
+                releaseAll();
+                return;
+            }
+            if (!process(request)) {
+                releaseAll();
+            }
+        }
+
+        /**
+         * @return false if the channel is closed
+         */
+        private boolean process(FrameRead request) {
+            Throwable exc=request.getExc();
+            if (exc!=null) {
+                finish(exc);
+                return false;
+            }
+            if (request.getResult()==-1) {
+                finish(partial==null? null: new EOFException("connection closed within a frame"));
+                return false;
+            }
+            SharedBuffer chunk=request.detachBuffer();
+            try {
+                parse(chunk);
+            } catch (ProtocolException e) {
+                finish(e);
+                return false;
+            } finally {
+                chunk.release();
+            }
+            if (FramedChannel.this.isClosed()) {
+                return false;
+            }
+            readNext(request);
+            return true;
+        }
+
+        private void parse(SharedBuffer chunk) throws ProtocolException {
+            ByteBuffer buf=chunk.getBuffer();
+            while (buf.hasRemaining()) {
+                if (partial!=null) {
+                    appendPartial(buf);
+                    continue;
+                }
+                int length=codec.frameLength(buf, 0);
+                if (length>=0 && length<=buf.remaining()) {
+                    // the whole frame is in the buffer
+                    int start=buf.position();
+                    deliver(chunk, start, length);
+                    buf.position(start+length);
+                    continue;
+                }
+                // the frame continues in the following reads
+                partialLength=length;
+                if (length>=0) {
+                    startPartial(length);
+                } else {
+                    int capacity=Math.max(buf.remaining()*2, channel.getBufferPool().getBufferSize());
+                    startPartial(Math.min(capacity, codec.getMaxFrameLength()));
+                }
+                scanned=buf.remaining();
+                partial.put(buf);
+            }
+        }
+
+        /**
+         * copies bytes of the partial frame, and delivers it when complete
+         */
+        private void appendPartial(ByteBuffer buf) throws ProtocolException {
+            if (partialLength<0 && !partial.hasRemaining()) {
+                growPartial(Math.min(partial.limit()*2L, codec.getMaxFrameLength()));
+            }
+            int n=Math.min(partial.remaining(), buf.remaining());
+            if (partialLength>=0) {
+                n=Math.min(n, partialLength-partial.position());
+            }
+            ByteBuffer src=buf.duplicate();
+            src.limit(src.position()+n);
+            partial.put(src);
+            buf.position(buf.position()+n);
+            if (partialLength<0) {
+                ByteBuffer frame=partial.duplicate();
+                frame.flip();
+                partialLength=codec.frameLength(frame, scanned);
+                scanned=partial.position();
+                if (partialLength<0) {
+                    return;
+                }
+                if (partialLength<partial.position()) {
+                    // bytes of the following frames were copied: give them back
+                    buf.position(buf.position()-(partial.position()-partialLength));
+                    partial.position(partialLength);
+                } else if (partialLength>partial.limit()) {
+                    growPartial(partialLength);
+                }
+            }
+            if (partial.position()==partialLength) {
+                SharedBuffer frame=new SharedBuffer(partial, partialPool);
+                partial=null;
+                partialPool=null;
+                deliver(frame, 0, partialLength);
+                frame.release();
+            }
+        }
+
+        private void startPartial(int capacity) {
+            BufferPool pool=channel.getBufferPool();
+            if (capacity<=pool.getBufferSize()) {
+                partial=pool.take(capacity);
+                partialPool=pool;
+            } else {
+                partial=ByteBuffer.allocate(capacity);
+                partialPool=null;
+            }
+            partial.limit(capacity);
+        }
+
+        private void growPartial(long capacity) throws ProtocolException {
+            if (capacity<=partial.limit()) {
+                // max frame length reached
+                codec.checkFrameLength(capacity+1);
+            }
+            ByteBuffer old=partial;
+            BufferPool oldPool=partialPool;
+            startPartial((int) capacity);
+            old.flip();
+            partial.put(old);
+            if (oldPool!=null) {
+                oldPool.release(old);
+            }
+        }
+
+        /**
+         * posts the payload of a complete frame
+         */
+        private void deliver(SharedBuffer buffer, int start, int length) {
+            ByteBuffer frame=buffer.getBuffer().duplicate();
+            frame.limit(start+length);
+            frame.position(start);
+            int header=codec.headerLength(frame);
+            int trailer=codec.trailerLength(frame);
+            SharedBuffer payload=buffer.retainedSlice(start+header, length-header-trailer);
+            synchronized (FramedChannel.this) {
+                if (!closed) {
+                    frames.post(payload);
+                    return;
+                }
+            }
+            payload.release();
+        }
+
+        private void readNext(FrameRead request) {
+            try {
+                read(request);
+            } catch (IllegalStateException e) {
+                // the channel is closed already; the reads in flight,
+                // e.g. one which got end of stream, are handled first
+                request.setListener(this);
+                request.postFailure(new AsynchronousCloseException());
+            }
+        }
+
+        private void releaseAll() {
+            if (partial!=null) {
+                if (partialPool!=null) {
+                    partialPool.release(partial);
+                }
+                partial=null;
+                partialPool=null;
+            }
+        }
+    }
+}
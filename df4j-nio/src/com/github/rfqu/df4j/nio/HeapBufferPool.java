@@ -0,0 +1,76 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.nio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of heap buffers of the same size.
+ * Released buffers are cached up to a limit, the rest are left to the garbage collector.
+ */
+public class HeapBufferPool extends BufferPool {
+    private final int bufferSize;
+    private final int maxCached;
+    private final ConcurrentLinkedQueue<ByteBuffer> cache=new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicInteger cachedCount=new AtomicInteger();
+    private final AtomicInteger borrowedCount=new AtomicInteger();
+
+    /**
+     * @param bufferSize size of each buffer
+     * @param maxCached max number of released buffers kept for reuse
+     */
+    public HeapBufferPool(int bufferSize, int maxCached) {
+        this.bufferSize=bufferSize;
+        this.maxCached=maxCached;
+    }
+
+    @Override
+    public ByteBuffer take() {
+        borrowedCount.incrementAndGet();
+        ByteBuffer buffer=cache.poll();
+        if (buffer==null) {
+            return ByteBuffer.allocate(bufferSize);
+        }
+        cachedCount.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    @Override
+    public void release(ByteBuffer buffer) {
+        borrowedCount.decrementAndGet();
+        if (cachedCount.incrementAndGet()>maxCached) {
+            cachedCount.decrementAndGet();
+            return;
+        }
+        cache.add(buffer);
+    }
+
+    @Override
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return number of buffers taken and not yet released
+     */
+    public int getBorrowedCount() {
+        return borrowedCount.get();
+    }
+
+    /**
+     * @return number of released buffers kept for reuse
+     */
+    public int getCachedCount() {
+        return cachedCount.get();
+    }
+}
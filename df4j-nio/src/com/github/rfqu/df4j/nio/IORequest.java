@@ -13,27 +13,55 @@ package com.github.rfqu.df4j.nio;
 
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.InterruptedByTimeoutException;
 
 import com.github.rfqu.df4j.core.Request;
 
 /**
  * Request for an I/O operation.
+ * Holds either a single buffer, or a range of a buffer array (vectored request),
+ * which is read with a scattering read and written with a gathering write,
+ * e.g. to send a header and a body without copying them into one buffer.
  * @param <T> actual type of the request, after subclassing.
  */
 public class IORequest<T extends IORequest<T>> extends Request<T, Integer> {
     protected ByteBuffer buffer;
+    /** buffers of a vectored request, null otherwise */
+    protected ByteBuffer[] buffers;
+    protected int offset;
+    protected int length;
     private boolean inRead;
     private boolean inTrans=false;
+    /** the pool the buffer was borrowed from, null if the buffer is owned by the request */
+    private BufferPool bufferPool;
+    /** the shared buffer referenced by the request, null if none */
+    private SharedBuffer sharedBuffer;
+    /** return the borrowed buffer when a write completes */
+    private boolean releaseOnWrite=false;
 
 	public IORequest(ByteBuffer buffer) {
 		this.buffer = buffer;
 	}
 
+    /**
+     * creates a vectored request
+     * @param buffers the buffer array
+     * @param offset first buffer to use
+     * @param length number of buffers to use
+     */
+    public IORequest(ByteBuffer[] buffers, int offset, int length) {
+        setBuffers(buffers, offset, length);
+    }
+
+    public IORequest(ByteBuffer[] buffers) {
+        this(buffers, 0, buffers.length);
+    }
+
     public void prepareRead() {
         super.reset();
         this.inRead=true;
-        buffer.clear();
-        if (buffer.remaining()==0) {
+        clear();
+        if (isBound() && !hasRemaining()) {
             throw new IllegalArgumentException("no free space in the buffer");
         }
     }
@@ -41,14 +69,27 @@ public class IORequest<T extends IORequest<T>> extends Request<T, Integer> {
     public void prepareWrite() {
         super.reset();
         this.inRead=false;
-        buffer.flip();
-        if (buffer.remaining()==0) {
+        if (!isBound()) {
+            throw new IllegalArgumentException("no buffer to write");
+        }
+        if (buffers==null) {
+            buffer.flip();
+        } else {
+            for (int k=offset; k<offset+length; k++) {
+                buffers[k].flip();
+            }
+        }
+        if (!hasRemaining()) {
             throw new IllegalArgumentException("no free space in the buffer");
         }
     }
 
     public void clear() {
-        if (buffer!=null) {
+        if (buffers!=null) {
+            for (int k=offset; k<offset+length; k++) {
+                buffers[k].clear();
+            }
+        } else if (buffer!=null) {
             buffer.clear();
         }
     }
@@ -67,23 +108,198 @@ public class IORequest<T extends IORequest<T>> extends Request<T, Integer> {
         } else {
             if (exc instanceof AsynchronousCloseException) {
                 handler.closed(r);
-// TODO                
-//            } else if (exc instanceof InterruptedByTimeoutException) {
-//                handler.timedOut(r);
+            } else if (exc instanceof InterruptedByTimeoutException) {
+                handler.timedOut(r);
             } else {
                 handler.failed(exc, r);
             }
         }
     }    
 
+    /**
+     * sets a buffer owned by the request.
+     * A borrowed buffer is not returned to its pool: call {@link #releaseBuffer()} before.
+     */
     public void setBuffer(ByteBuffer buf) {
         this.buffer = buf;
+        this.buffers = null;
+        this.bufferPool = null;
+        this.sharedBuffer = null;
+    }
+
+    /**
+     * sets a shared buffer, usually a slice, to be written.
+     * The request takes over one reference, which is released by {@link #releaseBuffer()},
+     * or when the write completes if {@link #setReleaseOnWrite(boolean)} is set.
+     * The request writes the bytes between the position and limit of the shared buffer,
+     * through a slice of them, so the position of the shared buffer is left as it is.
+     */
+    public void setBuffer(SharedBuffer shared) {
+        ByteBuffer data=shared.getBuffer().slice();
+        data.position(data.limit()); // after the data, as prepareWrite() flips it
+        setBuffer(data);
+        this.sharedBuffer = shared;
+    }
+
+    /**
+     * Passes the buffer, with the data read, to the caller as a shared buffer,
+     * and leaves the request without a buffer. A borrowed buffer returns to its pool
+     * when all references to the shared buffer are released.
+     * @return the shared buffer, holding one reference
+     */
+    public SharedBuffer detachBuffer() {
+        if (buffers!=null) {
+            throw new IllegalStateException("vectored request");
+        }
+        if (buffer==null) {
+            throw new IllegalStateException("no buffer");
+        }
+        SharedBuffer res=sharedBuffer;
+        if (res==null) {
+            res=new SharedBuffer(buffer, bufferPool);
+        }
+        buffer=null;
+        bufferPool=null;
+        sharedBuffer=null;
+        return res;
     }
 
+    /**
+     * @return the buffer of a single-buffer request, null for a vectored request
+     */
     public ByteBuffer getBuffer() {
         return buffer;
     }
 
+    /**
+     * makes this request vectored
+     */
+    public void setBuffers(ByteBuffer[] buffers, int offset, int length) {
+        if (offset<0 || length<=0 || offset+length>buffers.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        this.buffer = null;
+        this.buffers = buffers;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * binds a buffer borrowed from the pool; also called by channels
+     * for read requests posted without a buffer
+     */
+    public void bindBuffer(BufferPool pool) {
+        setBuffer(pool.take());
+        bufferPool=pool;
+    }
+
+    /**
+     * binds a buffer of at least minSize bytes borrowed from the pool
+     */
+    public void bindBuffer(BufferPool pool, int minSize) {
+        setBuffer(pool.take(minSize));
+        bufferPool=pool;
+    }
+
+    /**
+     * @return true if the buffer is borrowed from a pool, or is a shared buffer
+     */
+    public boolean isBorrowed() {
+        return bufferPool!=null || sharedBuffer!=null;
+    }
+
+    /**
+     * returns the borrowed buffer to its pool, and leaves the request without a buffer.
+     * Does nothing if the buffer is not borrowed.
+     */
+    public void releaseBuffer() {
+        SharedBuffer shared=sharedBuffer;
+        if (shared!=null) {
+            sharedBuffer=null;
+            buffer=null;
+            shared.release();
+            return;
+        }
+        BufferPool pool=bufferPool;
+        if (pool==null) {
+            return;
+        }
+        ByteBuffer buf=buffer;
+        bufferPool=null;
+        buffer=null;
+        pool.release(buf);
+    }
+
+    /**
+     * @param releaseOnWrite if true, the borrowed buffer is returned to its pool
+     *    when a write completes, before listeners are notified
+     */
+    public void setReleaseOnWrite(boolean releaseOnWrite) {
+        this.releaseOnWrite = releaseOnWrite;
+    }
+
+    /**
+     * @return false if the request has neither a buffer nor buffers;
+     *    such a read request gets a buffer from the channel's pool when data arrive
+     */
+    public boolean isBound() {
+        return buffer!=null || buffers!=null;
+    }
+
+    public boolean isVectored() {
+        return buffers!=null;
+    }
+
+    /**
+     * @return buffer array of a vectored request, null otherwise
+     */
+    public ByteBuffer[] getBuffers() {
+        return buffers;
+    }
+
+    /**
+     * @return index of the first buffer used by a vectored request
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return number of buffers used by a vectored request
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return true if there is space to read to, or data to write
+     */
+    public boolean hasRemaining() {
+        if (buffers==null) {
+            return buffer.hasRemaining();
+        }
+        for (int k=offset; k<offset+length; k++) {
+            if (buffers[k].hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return number of bytes to read or to write
+     */
+    public long remaining() {
+        if (buffers==null) {
+            return buffer.remaining();
+        }
+        long res=0;
+        for (int k=offset; k<offset+length; k++) {
+            res+=buffers[k].remaining();
+        }
+        return res;
+    }
+
     public boolean isReadOp() {
         return inRead;
     }
@@ -98,16 +314,28 @@ public class IORequest<T extends IORequest<T>> extends Request<T, Integer> {
 //        System.err.println(" IORequest.completed "+state+" rid="+rid);
         if (inRead) {
             //System.out.println("channel read completed id="+id);
-            buffer.flip();
+            if (buffers!=null) {
+                for (int k=offset; k<offset+length; k++) {
+                    buffers[k].flip();
+                }
+            } else if (buffer!=null) {
+                buffer.flip();
+            }
         } else {
         	//System.out.println("channel write completed id="+id);
-            buffer.clear();
+            clear();
+            if (releaseOnWrite) {
+                releaseBuffer();
+            }
         }
         inTrans=false;
         super.post(result);
 	}
 
     public synchronized void postFailure(Throwable exc) {
+        if (!inRead && releaseOnWrite) {
+            releaseBuffer();
+        }
         inTrans=false;
         super.postFailure(exc);
     }
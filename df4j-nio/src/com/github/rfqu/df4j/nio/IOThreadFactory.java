@@ -0,0 +1,63 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.nio;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.rfqu.df4j.core.DFContext;
+
+/**
+ * Creates the threads which channel backends run I/O on, outside of the context's executor.
+ * The threads run with the {@link DFContext} of the thread which created the factory,
+ * so that actors created and fired by I/O code use the context's executor.
+ * They are daemon threads named after a prefix, or are made by another factory,
+ * e.g. of virtual threads.
+ */
+public class IOThreadFactory implements ThreadFactory {
+    private final DFContext context=DFContext.getCurrentContext();
+    /** makes the threads; null for named daemon threads */
+    private final ThreadFactory factory;
+    private final String prefix;
+    private final AtomicInteger count=new AtomicInteger();
+
+    /**
+     * creates daemon threads named prefix-1, prefix-2 and so on
+     */
+    public IOThreadFactory(String prefix) {
+        this.factory=null;
+        this.prefix=prefix;
+    }
+
+    /**
+     * @param factory makes the threads; the context is set by this factory
+     */
+    public IOThreadFactory(ThreadFactory factory) {
+        this.factory=factory;
+        this.prefix=null;
+    }
+
+    @Override
+    public Thread newThread(final Runnable r) {
+        Runnable task=new Runnable() {
+            @Override
+            public void run() {
+                DFContext.setCurrentContext(context);
+                r.run();
+            }
+        };
+        if (factory!=null) {
+            return factory.newThread(task);
+        }
+        Thread thread=new Thread(task, prefix+"-"+count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
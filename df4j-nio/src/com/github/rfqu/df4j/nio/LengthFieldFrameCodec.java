@@ -0,0 +1,94 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.nio;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * Frames which start with the length of the payload,
+ * as an unsigned big-endian integer of 1, 2 or 4 bytes.
+ */
+public class LengthFieldFrameCodec extends FrameCodec {
+    private final int fieldLength;
+    private final int maxPayloadLength;
+
+    /**
+     * @param fieldLength length of the length field: 1, 2 or 4 bytes
+     * @param maxPayloadLength longer frames are rejected
+     */
+    public LengthFieldFrameCodec(int fieldLength, int maxPayloadLength) {
+        if (fieldLength!=1 && fieldLength!=2 && fieldLength!=4) {
+            throw new IllegalArgumentException("fieldLength="+fieldLength);
+        }
+        long maxField=fieldLength==4? Integer.MAX_VALUE-4: (1L<<(8*fieldLength))-1;
+        if (maxPayloadLength<0 || maxPayloadLength>maxField) {
+            throw new IllegalArgumentException("maxPayloadLength="+maxPayloadLength);
+        }
+        this.fieldLength=fieldLength;
+        this.maxPayloadLength=maxPayloadLength;
+    }
+
+    /**
+     * 4-byte length field
+     */
+    public LengthFieldFrameCodec(int maxPayloadLength) {
+        this(4, maxPayloadLength);
+    }
+
+    @Override
+    public int frameLength(ByteBuffer buf, int scanned) throws ProtocolException {
+        if (buf.remaining()<fieldLength) {
+            return -1;
+        }
+        int pos=buf.position();
+        long length;
+        switch (fieldLength) {
+        case 1:
+            length=buf.get(pos)&0xFF;
+            break;
+        case 2:
+            length=buf.getShort(pos)&0xFFFF;
+            break;
+        default:
+            length=buf.getInt(pos)&0xFFFFFFFFL;
+        }
+        checkFrameLength(fieldLength+length);
+        return fieldLength+(int) length;
+    }
+
+    @Override
+    public int getMaxFrameLength() {
+        return fieldLength+maxPayloadLength;
+    }
+
+    @Override
+    public int headerLength(ByteBuffer frame) {
+        return fieldLength;
+    }
+
+    @Override
+    public ByteBuffer encodeHeader(int payloadLength) throws ProtocolException {
+        checkFrameLength(fieldLength+(long) payloadLength);
+        ByteBuffer header=ByteBuffer.allocate(fieldLength);
+        switch (fieldLength) {
+        case 1:
+            header.put((byte) payloadLength);
+            break;
+        case 2:
+            header.putShort((short) payloadLength);
+            break;
+        default:
+            header.putInt(payloadLength);
+        }
+        header.flip();
+        return header;
+    }
+}
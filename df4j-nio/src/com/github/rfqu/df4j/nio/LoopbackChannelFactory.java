@@ -0,0 +1,105 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.nio;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.ConnectException;
+import java.net.SocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.github.rfqu.df4j.core.Callback;
+
+/**
+ * Connects channels within the JVM through in-memory ring buffers, without the kernel.
+ * Addresses are only names in this factory: a client connects to the server socket
+ * opened by the same factory with an equal address.
+ * Useful to benchmark and stress-test protocols at memory speed.
+ * Not used by default; select it with {@link #setCurrentAsyncChannelFactory(AsyncChannelFactory)}
+ * or the system property {@value AsyncChannelFactory#FACTORY_PROPERTY}.
+ */
+public class LoopbackChannelFactory extends AsyncChannelFactory {
+    public static final int DEFAULT_CAPACITY=64*1024;
+
+    private final int capacity;
+    private final ConcurrentHashMap<SocketAddress, LoopbackServerSocketChannel> servers
+        =new ConcurrentHashMap<SocketAddress, LoopbackServerSocketChannel>();
+
+    /**
+     * @param capacity size of the ring buffer for each direction of a connection, in bytes
+     */
+    public LoopbackChannelFactory(int capacity) {
+        if (capacity<=0) {
+            throw new IllegalArgumentException("capacity="+capacity);
+        }
+        this.capacity=capacity;
+    }
+
+    public LoopbackChannelFactory() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @throws BindException if a server socket of this factory is bound to the address
+     */
+    @Override
+    public AsyncServerSocketChannel newAsyncServerSocketChannel
+       (SocketAddress addr, Callback<AsyncSocketChannel> callback)
+            throws IOException
+    {
+        if (addr==null) {
+            throw new NullPointerException();
+        }
+        LoopbackServerSocketChannel server=new LoopbackServerSocketChannel(this, addr, callback);
+        if (servers.putIfAbsent(addr, server)!=null) {
+            throw new BindException("Address already in use: "+addr);
+        }
+        return server;
+    }
+
+    /**
+     * there is no kernel accept queue to spread, so several acceptors
+     * are served by one backlog
+     */
+    @Override
+    public AsyncServerSocketChannel newAsyncServerSocketChannel
+       (SocketAddress addr, Callback<AsyncSocketChannel> callback, int acceptors)
+            throws IOException
+    {
+        if (acceptors<=0) {
+            throw new IllegalArgumentException("acceptors="+acceptors);
+        }
+        return newAsyncServerSocketChannel(addr, callback);
+    }
+
+    /**
+     * The connection completes at once, or fails with {@link ConnectException}
+     * if no server socket is bound to the address.
+     */
+    @Override
+    public AsyncSocketChannel newAsyncSocketChannel(SocketAddress addr) throws IOException {
+        LoopbackSocketChannel channel=new LoopbackSocketChannel(capacity);
+        LoopbackServerSocketChannel server=servers.get(addr);
+        if (server==null || !server.connect(channel)) {
+            channel.refused(new ConnectException("Connection refused: "+addr));
+        } else {
+            channel.connected();
+        }
+        return channel;
+    }
+
+    void unbind(SocketAddress addr, LoopbackServerSocketChannel server) {
+        servers.remove(addr, server);
+    }
+}
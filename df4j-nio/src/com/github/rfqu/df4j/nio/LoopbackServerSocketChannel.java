@@ -0,0 +1,111 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.nio;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.ArrayDeque;
+
+import com.github.rfqu.df4j.core.Callback;
+
+/**
+ * Server socket of {@link LoopbackChannelFactory}, bound to an address in the factory only.
+ * <p>
+ * As with a kernel backlog, a client connects at once, and may write before its connection
+ * is accepted. Server-side channels wait in the backlog until accept permits are granted
+ * with {@link #up(int)}.
+ */
+public class LoopbackServerSocketChannel extends AsyncServerSocketChannel {
+    private final LoopbackChannelFactory factory;
+    /** connected server-side channels, not yet accepted */
+    private final ArrayDeque<LoopbackSocketChannel> backlog=new ArrayDeque<LoopbackSocketChannel>();
+    private volatile boolean closed=false;
+
+    LoopbackServerSocketChannel(LoopbackChannelFactory factory, SocketAddress addr,
+            Callback<AsyncSocketChannel> acceptor) throws IOException
+    {
+        super(addr, acceptor);
+        this.factory=factory;
+    }
+
+    @Override
+    public void up(int delta) {
+        if (delta<0) {
+            throw new IllegalArgumentException();
+        }
+        if (isClosed()) {
+            throw new IllegalStateException();
+        }
+        synchronized (this) {
+            maxConn+=delta;
+        }
+        dispatch();
+    }
+
+    /**
+     * connects the client to a new server-side channel in the backlog
+     * @return false if this server socket is closed
+     */
+    boolean connect(LoopbackSocketChannel client) {
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            backlog.add(new LoopbackSocketChannel(client));
+        }
+        dispatch();
+        return true;
+    }
+
+    /** passes channels from the backlog to the acceptor while there are permits */
+    private void dispatch() {
+        for (;;) {
+            LoopbackSocketChannel accepted;
+            synchronized (this) {
+                if (maxConn==0 || backlog.isEmpty()) {
+                    return;
+                }
+                maxConn--;
+                accepted=backlog.poll();
+            }
+            acceptor.post(accepted);
+        }
+    }
+
+    public synchronized int getBacklogSize() {
+        return backlog.size();
+    }
+
+    /**
+     * unbinds the address; connections in the backlog are closed
+     */
+    @Override
+    public void close() {
+        LoopbackSocketChannel[] pending;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed=true;
+            pending=backlog.toArray(new LoopbackSocketChannel[backlog.size()]);
+            backlog.clear();
+        }
+        factory.unbind(addr, this);
+        for (LoopbackSocketChannel channel: pending) {
+            channel.close();
+        }
+        closeEvent.post(addr);
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+}
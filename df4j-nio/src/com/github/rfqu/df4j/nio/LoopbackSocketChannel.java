@@ -0,0 +1,387 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.InterruptedByTimeoutException;
+
+import com.github.rfqu.df4j.core.DFContext;
+import com.github.rfqu.df4j.core.Timer;
+
+/**
+ * Socket channel connected to its peer in the same JVM through two in-memory ring buffers,
+ * one per direction. No system calls are made, so that protocols can be profiled
+ * without the kernel's TCP stack.
+ * <p>
+ * As in other implementations, requests are queued by 2 actors, one for reading requests
+ * and one for writing requests. A read completes as soon as some data are available,
+ * possibly filling the buffers partially; a write completes when all its data
+ * are copied into the ring buffer, waiting for the peer to read when the ring buffer is full.
+ * Closing the channel signals end of stream to the peer's reads, and makes the peer's writes fail.
+ */
+public class LoopbackSocketChannel extends AsyncSocketChannel {
+    /** data from the peer */
+    private final Pipe inbound;
+    /** data to the peer */
+    private final Pipe outbound;
+
+    /**
+     * for client-side socket: creates both ring buffers.
+     * Requests are executed after {@link #connected()}.
+     * @param capacity size of each ring buffer in bytes
+     */
+    LoopbackSocketChannel(int capacity) {
+        reader = new ReaderQueue();
+        writer = new WriterQueue();
+        inbound=new Pipe(capacity);
+        outbound=new Pipe(capacity);
+        inbound.reader=(LoopbackQueue) reader;
+        outbound.writer=(LoopbackQueue) writer;
+    }
+
+    /**
+     * for server-side socket: shares the ring buffers of the client, crosswise
+     */
+    LoopbackSocketChannel(LoopbackSocketChannel client) {
+        reader = new ReaderQueue();
+        writer = new WriterQueue();
+        inbound=client.outbound;
+        outbound=client.inbound;
+        inbound.reader=(LoopbackQueue) reader;
+        outbound.writer=(LoopbackQueue) writer;
+        connected();
+    }
+
+    void connected() {
+        reader.resume();
+        writer.resume();
+        connEvent.post(this);
+    }
+
+    /** connection failed: there is no server at the address */
+    void refused(IOException exc) {
+        connEvent.postFailure(exc);
+        close();
+    }
+
+    /**
+     * @return number of bytes written by the peer and not yet read
+     */
+    public int available() {
+        return inbound.available();
+    }
+
+    /**
+     * disallows subsequent posts of requests; already posted requests
+     * fail with {@link AsynchronousCloseException}.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        reader.close();
+        writer.close();
+        inbound.closeInput();
+        outbound.closeOutput();
+        // let queued requests fail
+        reader.resume();
+        writer.resume();
+        postCloseEvent();
+    }
+
+    //===================== inner classes
+
+    /**
+     * Ring buffer with one reading queue and one writing queue.
+     * A queue which finds nothing to do turns its network lock off under the ring buffer's lock,
+     * and is turned on by the other side after the ring buffer changes.
+     */
+    static class Pipe {
+        private final byte[] ring;
+        /** position of the first byte to read */
+        private int head=0;
+        private int count=0;
+        /** the writing side is closed: end of stream after the data */
+        private boolean shutdown=false;
+        /** the reading side is closed: writes fail */
+        private boolean broken=false;
+        LoopbackQueue reader;
+        LoopbackQueue writer;
+        private boolean readerWaiting=false;
+        private boolean writerWaiting=false;
+
+        Pipe(int capacity) {
+            if (capacity<=0) {
+                throw new IllegalArgumentException("capacity="+capacity);
+            }
+            ring=new byte[capacity];
+        }
+
+        synchronized int available() {
+            return count;
+        }
+
+        /**
+         * copies available data into the request's buffers
+         * @return number of bytes read; 0 if the reader has to wait, -1 at end of stream
+         */
+        int read(SocketIORequest<?> request) {
+            int numRead=0;
+            LoopbackQueue wake=null;
+            synchronized (this) {
+                if (count==0) {
+                    if (shutdown || broken) {
+                        return -1;
+                    }
+                    readerWaiting=true;
+                    reader.netOff();
+                    return 0;
+                }
+                if (request.isVectored()) {
+                    ByteBuffer[] bufs=request.getBuffers();
+                    for (int k=request.getOffset(); k<request.getOffset()+request.getLength() && count>0; k++) {
+                        numRead+=get(bufs[k]);
+                    }
+                } else {
+                    numRead=get(request.getBuffer());
+                }
+                if (writerWaiting) {
+                    writerWaiting=false;
+                    wake=writer;
+                }
+            }
+            if (wake!=null) {
+                wake.resume();
+            }
+            return numRead;
+        }
+
+        /**
+         * copies data of the request into the free space
+         * @return number of bytes written, the writer has to wait if the request has data left
+         * @throws IOException if the reading side is closed
+         */
+        int write(SocketIORequest<?> request) throws IOException {
+            int numWrit=0;
+            LoopbackQueue wake=null;
+            synchronized (this) {
+                if (broken) {
+                    throw new IOException("Connection reset by peer");
+                }
+                if (request.isVectored()) {
+                    ByteBuffer[] bufs=request.getBuffers();
+                    for (int k=request.getOffset(); k<request.getOffset()+request.getLength() && count<ring.length; k++) {
+                        numWrit+=put(bufs[k]);
+                    }
+                } else {
+                    numWrit=put(request.getBuffer());
+                }
+                if (request.hasRemaining()) {
+                    writerWaiting=true;
+                    writer.netOff();
+                }
+                if (numWrit>0 && readerWaiting) {
+                    readerWaiting=false;
+                    wake=reader;
+                }
+            }
+            if (wake!=null) {
+                wake.resume();
+            }
+            return numWrit;
+        }
+
+        private int get(ByteBuffer dst) {
+            int n=Math.min(count, dst.remaining());
+            int first=Math.min(n, ring.length-head);
+            dst.put(ring, head, first);
+            dst.put(ring, 0, n-first);
+            head=(head+n)%ring.length;
+            count-=n;
+            return n;
+        }
+
+        private int put(ByteBuffer src) {
+            int n=Math.min(ring.length-count, src.remaining());
+            int tail=(head+count)%ring.length;
+            int first=Math.min(n, ring.length-tail);
+            src.get(ring, tail, first);
+            src.get(ring, 0, n-first);
+            count+=n;
+            return n;
+        }
+
+        /** the writing side is closed; the reader gets the rest of data, then end of stream */
+        void closeOutput() {
+            LoopbackQueue wake=null;
+            synchronized (this) {
+                shutdown=true;
+                if (readerWaiting) {
+                    readerWaiting=false;
+                    wake=reader;
+                }
+            }
+            if (wake!=null) {
+                wake.resume();
+            }
+        }
+
+        /** the reading side is closed; data are discarded and the writer fails */
+        void closeInput() {
+            LoopbackQueue wake=null;
+            synchronized (this) {
+                broken=true;
+                count=0;
+                if (writerWaiting) {
+                    writerWaiting=false;
+                    wake=writer;
+                }
+            }
+            if (wake!=null) {
+                wake.resume();
+            }
+        }
+    }
+
+    abstract class LoopbackQueue extends RequestQueue {
+        /** is on when the ring buffer may have data or space */
+        private final Lockup net=new Lockup();
+        /** the timed request which waits for the peer */
+        private SocketIORequest<?> timedRequest;
+        /** identifies the timeout of timedRequest; timeouts of served requests are ignored */
+        private volatile long timerStamp=0;
+        /** set when the timeout of timedRequest expired */
+        private volatile boolean timedOut=false;
+
+        public LoopbackQueue() {
+            super(DFContext.getCurrentExecutor());
+        }
+
+        @Override
+        public void resume() {
+            net.on();
+        }
+
+        /** called by the ring buffer, under its lock */
+        void netOff() {
+            net.off();
+        }
+
+        @Override
+        protected void act(SocketIORequest<?> request) {
+            if (closed) {
+                request.postFailure(new AsynchronousCloseException());
+                return;
+            }
+            if (timedOut && request==timedRequest) {
+                timedRequest=null;
+                timedOut=false;
+                request.postFailure(new InterruptedByTimeoutException());
+                return;
+            }
+            if (!serve(request)) {
+                if (timedRequest!=null) {
+                    timedRequest=null;
+                    timerStamp++;
+                }
+                return;
+            }
+            if (request.isTimed() && request!=timedRequest) {
+                timedRequest=request;
+                timedOut=false;
+                final long stamp=++timerStamp;
+                Timer.getCurrentTimer().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (stamp==timerStamp) {
+                            // let act() fail the waiting request
+                            timedOut=true;
+                            resume();
+                        }
+                    }
+                }, request.getTimeout());
+            }
+            pushback();
+        }
+
+        /**
+         * tries to execute the request
+         * @return true if the request waits for the peer
+         */
+        abstract boolean serve(SocketIORequest<?> request);
+    }
+
+    class ReaderQueue extends LoopbackQueue {
+
+        /**
+         * A request without a buffer gets a pooled buffer only for the time of the read attempt,
+         * and keeps it only if some data are read.
+         */
+        @Override
+        boolean serve(SocketIORequest<?> request) {
+            boolean lateBound=!request.isBound();
+            if (lateBound) {
+                request.bindBuffer(getBufferPool());
+            }
+            int numRead=inbound.read(request);
+            if (lateBound && numRead<=0) {
+                request.releaseBuffer();
+            }
+            if (numRead==0) {
+                return true;
+            }
+            request.post(numRead);
+            if (numRead==-1) {
+                LoopbackSocketChannel.this.close();
+            }
+            return false;
+        }
+
+        @Override
+        protected void complete() throws Exception {
+            completer.getReaderFinished().up();
+        }
+    }
+
+    class WriterQueue extends LoopbackQueue {
+        /** bytes of the head request written so far */
+        private int written=0;
+
+        @Override
+        boolean serve(SocketIORequest<?> request) {
+            try {
+                written+=outbound.write(request);
+            } catch (IOException exc) {
+                written=0;
+                request.postFailure(exc);
+                LoopbackSocketChannel.this.close();
+                return false;
+            }
+            if (request.hasRemaining()) {
+                return true;
+            }
+            int numWrit=written;
+            written=0;
+            request.post(numWrit);
+            return false;
+        }
+
+        @Override
+        protected void complete() throws Exception {
+            completer.getWriterFinished().up();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.nio;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Access to the SO_REUSEPORT socket option, which lets several listening sockets
+ * bind the same address; the kernel spreads incoming connections over them.
+ * The option appeared in Java 9 and is supported on Linux and some other systems,
+ * so it is looked up by reflection.
+ */
+public class ReusePort {
+    /** java.net.StandardSocketOptions.SO_REUSEPORT, or null */
+    private static final Object option;
+    /** java.nio.channels.NetworkChannel.setOption */
+    private static final Method setOption;
+
+    static {
+        Object opt=null;
+        Method method=null;
+        try {
+            Class<?> optionClass=Class.forName("java.net.SocketOption");
+            method=Class.forName("java.nio.channels.NetworkChannel").getMethod("setOption", optionClass, Object.class);
+            opt=Class.forName("java.net.StandardSocketOptions").getField("SO_REUSEPORT").get(null);
+        } catch (Exception e) {
+            opt=null;
+        }
+        option=opt;
+        setOption=method;
+    }
+
+    /**
+     * @return true if the runtime knows the option;
+     *   the operating system still may not support it
+     */
+    public static boolean isAvailable() {
+        return option!=null;
+    }
+
+    /**
+     * Sets SO_REUSEPORT on a channel before it is bound.
+     * @param channel a {@link java.nio.channels.NetworkChannel}
+     * @throws UnsupportedOperationException if the runtime or the system does not support the option
+     */
+    public static void enable(Object channel) throws IOException {
+        if (option==null) {
+            throw new UnsupportedOperationException("SO_REUSEPORT");
+        }
+        try {
+            setOption.invoke(channel, option, Boolean.TRUE);
+        } catch (InvocationTargetException e) {
+            Throwable cause=e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        } catch (Exception e) {
+            throw new UnsupportedOperationException("SO_REUSEPORT", e);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.nio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reference-counted buffer, which can be passed to several actors without copying.
+ * <p>
+ * A shared buffer starts with one reference, owned by its creator.
+ * Each reference is released exactly once with {@link #release()};
+ * {@link #retain()} adds a reference to be passed to another owner.
+ * When the last reference is released, the buffer returns to its pool, if any.
+ * <p>
+ * Slices made with {@link #retainedSlice(int, int)} are read-only views
+ * with their own position and limit, which share the reference count of the buffer
+ * they were sliced from: a slice holds one reference, and releasing the slice
+ * releases that reference. So a received frame can be parsed, and its payload
+ * passed on as a slice, while the request's buffer returns to the pool
+ * only when all the slices are released.
+ * <pre><code>SharedBuffer frame=request.detachBuffer();
+ * for (Port&lt;SharedBuffer&gt; consumer: consumers) {
+ *     consumer.post(frame.retainedSlice());
+ * }
+ * frame.release();
+ * </code></pre>
+ * A slice can be written to a socket with {@link IORequest#setBuffer(SharedBuffer)}.
+ */
+public class SharedBuffer {
+    private final ByteBuffer buffer;
+    /** the buffer holding the reference count; this for a root buffer */
+    private final SharedBuffer root;
+    private final BufferPool pool;
+    private final AtomicInteger refCount;
+
+    /**
+     * @param buffer the buffer to share
+     * @param pool the pool the buffer is borrowed from, or null if the buffer is not pooled
+     */
+    public SharedBuffer(ByteBuffer buffer, BufferPool pool) {
+        this.buffer=buffer;
+        this.root=this;
+        this.pool=pool;
+        this.refCount=new AtomicInteger(1);
+    }
+
+    /** creates a slice */
+    private SharedBuffer(SharedBuffer root, ByteBuffer view) {
+        this.buffer=view;
+        this.root=root;
+        this.pool=null;
+        this.refCount=null;
+    }
+
+    /**
+     * @return the buffer; read-only for slices
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return number of references not released yet, counting also references held by slices
+     */
+    public int getRefCount() {
+        return root.refCount.get();
+    }
+
+    /**
+     * adds a reference
+     * @return this
+     * @throws IllegalStateException if all references are released already
+     */
+    public SharedBuffer retain() {
+        AtomicInteger count=root.refCount;
+        for (;;) {
+            int current=count.get();
+            if (current==0) {
+                throw new IllegalStateException("buffer released already");
+            }
+            if (count.compareAndSet(current, current+1)) {
+                return this;
+            }
+        }
+    }
+
+    /**
+     * releases a reference; the last one returns the buffer to its pool
+     * @throws IllegalStateException if all references are released already
+     */
+    public void release() {
+        AtomicInteger count=root.refCount;
+        for (;;) {
+            int current=count.get();
+            if (current==0) {
+                throw new IllegalStateException("buffer released already");
+            }
+            if (count.compareAndSet(current, current-1)) {
+                if (current==1 && root.pool!=null) {
+                    root.pool.release(root.buffer);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param index position of the first byte of the slice, relative to this buffer
+     * @param length number of bytes in the slice
+     * @return a read-only view of the bytes, which holds a new reference
+     */
+    public SharedBuffer retainedSlice(int index, int length) {
+        if (index<0 || length<0 || index+length>buffer.capacity()) {
+            throw new IndexOutOfBoundsException("index="+index+" length="+length);
+        }
+        ByteBuffer view=buffer.asReadOnlyBuffer();
+        view.limit(index+length);
+        view.position(index);
+        retain();
+        return new SharedBuffer(root, view.slice());
+    }
+
+    /**
+     * @return a read-only view of the remaining bytes, which holds a new reference
+     */
+    public SharedBuffer retainedSlice() {
+        return retainedSlice(buffer.position(), buffer.remaining());
+    }
+}
@@ -22,10 +22,31 @@ public class SocketIORequest<R extends SocketIORequest<R>>
 	private long timeout; // milliseconds
 	private boolean timed;
 
+    /**
+     * creates a read request without a buffer.
+     * A buffer is borrowed from the channel's {@link BufferPool}
+     * only when data arrive, and must be returned with {@link #releaseBuffer()}
+     * after the data are consumed.
+     */
+    public SocketIORequest() {
+        super((ByteBuffer) null);
+    }
+
     public SocketIORequest(ByteBuffer buf) {
         super(buf);
     }
 
+    /**
+     * creates a vectored request
+     */
+    public SocketIORequest(ByteBuffer[] bufs, int offset, int length) {
+        super(bufs, offset, length);
+    }
+
+    public SocketIORequest(ByteBuffer[] bufs) {
+        super(bufs);
+    }
+
     @Override
     public void prepareRead() {
         prepareRead(0);
@@ -36,15 +57,21 @@ public class SocketIORequest<R extends SocketIORequest<R>>
         prepareWrite(0);
     }
 
+    /**
+     * @param timeout milliseconds; 0 means no timeout
+     */
     public void prepareRead(long timeout) {
         super.prepareRead();
-        setTimed(false);
+        setTimed(timeout>0);
         this.setTimeout(timeout);
     }
 
+    /**
+     * @param timeout milliseconds; 0 means no timeout
+     */
     public void prepareWrite(long timeout) {
         super.prepareWrite();
-        setTimed(false);
+        setTimed(timeout>0);
         this.setTimeout(timeout);
     }
 
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
+
+import com.github.rfqu.df4j.core.Callback;
+
+/**
+ * Opens channels of another factory, secured with TLS by {@link SslSocketChannel}s.
+ * Client channels run the handshake in client mode, accepted channels in server mode.
+ */
+public class SslChannelFactory extends AsyncChannelFactory {
+    private final AsyncChannelFactory factory;
+    private final SSLContext context;
+
+    /**
+     * @param factory opens the underlying channels
+     * @param context creates engines for the channels
+     */
+    public SslChannelFactory(AsyncChannelFactory factory, SSLContext context) {
+        this.factory=factory;
+        this.context=context;
+    }
+
+    public AsyncChannelFactory getFactory() {
+        return factory;
+    }
+
+    @Override
+    public AsyncServerSocketChannel newAsyncServerSocketChannel(SocketAddress addr, Callback<AsyncSocketChannel> callback) throws IOException {
+        return factory.newAsyncServerSocketChannel(addr, new Acceptor(callback));
+    }
+
+    @Override
+    public AsyncServerSocketChannel newAsyncServerSocketChannel(SocketAddress addr, Callback<AsyncSocketChannel> callback,
+            int acceptors) throws IOException
+    {
+        return factory.newAsyncServerSocketChannel(addr, new Acceptor(callback), acceptors);
+    }
+
+    @Override
+    public AsyncSocketChannel newAsyncSocketChannel(SocketAddress addr) throws IOException {
+        AsyncSocketChannel channel=factory.newAsyncSocketChannel(addr);
+        try {
+            return new SslSocketChannel(channel, createEngine(addr, true));
+        } catch (SSLException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean isUnixDomainSupported() {
+        return factory.isUnixDomainSupported();
+    }
+
+    /**
+     * creates an engine for a channel; may be overridden to configure protocols and cipher suites
+     * @param peer address of the server for client channels, null for accepted channels
+     * @param clientMode true for client channels
+     */
+    protected SSLEngine createEngine(SocketAddress peer, boolean clientMode) {
+        SSLEngine engine;
+        if (peer instanceof InetSocketAddress) {
+            InetSocketAddress iaddr=(InetSocketAddress) peer;
+            engine=context.createSSLEngine(iaddr.getHostString(), iaddr.getPort());
+        } else {
+            engine=context.createSSLEngine();
+        }
+        engine.setUseClientMode(clientMode);
+        return engine;
+    }
+
+    /**
+     * wraps accepted channels
+     */
+    class Acceptor implements Callback<AsyncSocketChannel> {
+        private final Callback<AsyncSocketChannel> callback;
+
+        Acceptor(Callback<AsyncSocketChannel> callback) {
+            this.callback=callback;
+        }
+
+        @Override
+        public void post(AsyncSocketChannel channel) {
+            SslSocketChannel sslChannel;
+            try {
+                sslChannel=new SslSocketChannel(channel, createEngine(null, false));
+            } catch (SSLException e) {
+                channel.close();
+                callback.postFailure(e);
+                return;
+            }
+            callback.post(sslChannel);
+        }
+
+        @Override
+        public void postFailure(Throwable exc) {
+            callback.postFailure(exc);
+        }
+    }
+}
@@ -0,0 +1,868 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.nio;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.InterruptedByTimeoutException;
+import java.util.concurrent.Executor;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLEngineResult.Status;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLHandshakeException;
+
+import com.github.rfqu.df4j.core.Callback;
+import com.github.rfqu.df4j.core.CallbackPromise;
+import com.github.rfqu.df4j.core.DFContext;
+import com.github.rfqu.df4j.core.Port;
+
+/**
+ * Secures an {@link AsyncSocketChannel} with TLS, using an {@link SSLEngine}.
+ * Read requests get decrypted data, and data of write requests are encrypted
+ * before they are written to the underlying channel.
+ * <p>
+ * The handshake starts when the channel is created and runs asynchronously;
+ * requests posted meanwhile wait until it is finished. Delegated tasks of the engine,
+ * such as certificate checks, run on the executor of the context,
+ * so that they do not hold I/O threads.
+ * <p>
+ * Encrypted data pass through direct buffers taken from a pool, one per direction.
+ * Records are decrypted straight into the buffers of read requests; only a record
+ * which does not fit into the request is decrypted into an intermediate buffer,
+ * and copied into the following requests.
+ * <p>
+ * Closing the channel sends close_notify to the peer, then closes the underlying channel.
+ */
+public class SslSocketChannel extends AsyncSocketChannel {
+    /** max time to send close_notify before the underlying channel is closed, ms */
+    static final long CLOSE_TIMEOUT=1000;
+    private static final ByteBuffer EMPTY=ByteBuffer.allocate(0);
+
+    private final AsyncSocketChannel channel;
+    private final SSLEngine engine;
+    /** buffers for encrypted data */
+    private final BufferPool netPool;
+    /** runs delegated tasks */
+    private final Executor executor;
+    private final CallbackPromise<AsyncSocketChannel> handshakeEvent = new CallbackPromise<AsyncSocketChannel>();
+    private final Handshaker handshaker=new Handshaker();
+    private volatile boolean handshaking=true;
+    /** failure of the engine, reported to the requests which fail after it */
+    private volatile Throwable failure;
+
+    /** encrypted data from the peer, in read mode; null if not taken yet */
+    private ByteBuffer netIn;
+    /** decrypted data which did not fit into read requests, in read mode */
+    private ByteBuffer appIn;
+    private final NetRequest netRead=new NetRequest();
+    /** guarded by this */
+    private boolean netReading=false;
+    private volatile boolean netEof=false;
+    private volatile Throwable netReadExc;
+
+    /** encrypted data to the peer, in write mode; null if not taken yet */
+    private ByteBuffer netOut;
+    private final NetRequest netWrite=new NetRequest();
+    /** guarded by this */
+    private boolean netWriting=false;
+    private volatile Throwable netWriteExc;
+    /** posted to the writer to send handshake data, when the reader needs it */
+    private final NetRequest wrapToken=new NetRequest();
+    /** guarded by wrapToken */
+    private boolean wrapTokenQueued=false;
+    /** the writer cannot continue until the reader unwraps handshake data */
+    private volatile boolean writerWaitsUnwrap=false;
+
+    /**
+     * @param channel the underlying channel; closed when this channel is closed
+     * @param engine engine in client or server mode
+     * @param netPool pool of buffers for encrypted data;
+     *    it must provide buffers of {@link javax.net.ssl.SSLSession#getPacketBufferSize()}
+     */
+    public SslSocketChannel(AsyncSocketChannel channel, SSLEngine engine, BufferPool netPool) throws SSLException {
+        this.channel=channel;
+        this.engine=engine;
+        this.netPool=netPool;
+        executor=DFContext.getCurrentExecutor();
+        reader = new ReaderQueue();
+        writer = new WriterQueue();
+        channel.addConnListener(new Callback<AsyncSocketChannel>() {
+            @Override
+            public void post(AsyncSocketChannel message) {
+                connEvent.post(SslSocketChannel.this);
+            }
+
+            @Override
+            public void postFailure(Throwable exc) {
+                failure=exc;
+                connEvent.postFailure(exc);
+                close();
+            }
+        });
+        channel.addCloseListener(new Callback<AsyncSocketChannel>() {
+            @Override
+            public void post(AsyncSocketChannel message) {
+                close();
+            }
+
+            @Override
+            public void postFailure(Throwable exc) {
+            }
+        });
+        engine.beginHandshake();
+        handshaker.step();
+    }
+
+    /**
+     * encrypted data pass through buffers of the context's pool
+     */
+    public SslSocketChannel(AsyncSocketChannel channel, SSLEngine engine) throws SSLException {
+        this(channel, engine, BufferPool.getCurrentBufferPool());
+    }
+
+    /**
+     * @param listener is notified when the handshake is finished,
+     *    or fails if the handshake failed or the channel was closed before
+     */
+    public <R extends Callback<AsyncSocketChannel>> R addHandshakeListener(R listener) {
+        handshakeEvent.addListener(listener);
+        return listener;
+    }
+
+    public AsyncSocketChannel getChannel() {
+        return channel;
+    }
+
+    public SSLEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * disallows subsequent posts of requests; already posted requests
+     * fail with {@link AsynchronousCloseException}, or with the failure of the handshake.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        if (handshaking) {
+            handshakeEvent.postFailure(closedException());
+        }
+        reader.close();
+        writer.close();
+        sendCloseNotify();
+        // let queued requests fail
+        reader.resume();
+        writer.resume();
+        postCloseEvent();
+    }
+
+    private Throwable closedException() {
+        Throwable exc=failure;
+        return exc==null? new AsynchronousCloseException(): exc;
+    }
+
+    private void failed(Throwable exc) {
+        if (failure==null) {
+            failure=exc;
+        }
+        close();
+    }
+
+    //===================== encrypted data
+
+    /**
+     * Reads encrypted data after those in netIn.
+     * Must be the last action of the caller, as the completion may run at once.
+     */
+    private void startNetRead(long timeout) {
+        synchronized (this) {
+            if (netIn==null) {
+                netIn=netPool.take(engine.getSession().getPacketBufferSize());
+                netIn.limit(0);
+            }
+            netIn.compact();
+            if (!netIn.hasRemaining()) {
+                // a record larger than the buffer
+                ByteBuffer larger=netPool.take(netIn.capacity()*2);
+                netIn.flip();
+                larger.put(netIn);
+                netPool.release(netIn);
+                netIn=larger;
+            }
+            netRead.setBuffer(netIn.slice());
+            netIn.flip();
+            netReading=true;
+        }
+        try {
+            channel.read(netRead, timeout);
+        } catch (IllegalStateException e) {
+            // the underlying channel is closed
+            netRead.postFailure(new AsynchronousCloseException());
+        }
+        netRead.setListener(netReadListener);
+    }
+
+    private final Port<NetRequest> netReadListener=new Port<NetRequest>() {
+        @Override
+        public void post(NetRequest request) {
+            synchronized (SslSocketChannel.this) {
+                netReading=false;
+                if (closed) {
+                    releaseReadBuffers();
+                    return;
+                }
+                Throwable exc=request.getExc();
+                if (exc!=null) {
+                    netReadExc=exc;
+                } else if (request.getResult()==-1) {
+                    netEof=true;
+                } else {
+                    netIn.limit(netIn.limit()+request.getResult());
+                }
+            }
+            if (handshaking) {
+                handshaker.step();
+            } else {
+                reader.resume();
+            }
+        }
+    };
+
+    /**
+     * Writes encrypted data from netOut.
+     * Must be called under the lock of the engine, so that records are written in the order they are made,
+     * and be the last action of the caller, as the completion may run at once.
+     */
+    private void startNetWrite(long timeout) {
+        synchronized (this) {
+            netWriting=true;
+        }
+        netWrite.setBuffer(netOut);
+        try {
+            channel.write(netWrite, timeout);
+        } catch (IllegalStateException e) {
+            netWrite.postFailure(new AsynchronousCloseException());
+        }
+        netWrite.setListener(netWriteListener);
+    }
+
+    private final Port<NetRequest> netWriteListener=new Port<NetRequest>() {
+        @Override
+        public void post(NetRequest request) {
+            synchronized (SslSocketChannel.this) {
+                netWriting=false;
+                if (closed) {
+                    releaseWriteBuffers();
+                    return;
+                }
+                netWriteExc=request.getExc();
+            }
+            if (handshaking) {
+                handshaker.step();
+            } else {
+                writer.resume();
+            }
+        }
+    };
+
+    private synchronized ByteBuffer takeNetOut() {
+        if (netOut==null) {
+            netOut=netPool.take(engine.getSession().getPacketBufferSize());
+        }
+        return netOut;
+    }
+
+    /** returns buffers to the pool, unless a read is in progress */
+    private synchronized void releaseReadBuffers() {
+        if (netReading) {
+            return;
+        }
+        if (netIn!=null) {
+            netPool.release(netIn);
+            netIn=null;
+        }
+        if (appIn!=null) {
+            netPool.release(appIn);
+            appIn=null;
+        }
+    }
+
+    /** returns the buffer to the pool, unless a write is in progress */
+    private synchronized void releaseWriteBuffers() {
+        if (netWriting || netOut==null) {
+            return;
+        }
+        netPool.release(netOut);
+        netOut=null;
+    }
+
+    /**
+     * Sends close_notify after the records already written,
+     * and closes the underlying channel when it is sent.
+     */
+    private void sendCloseNotify() {
+        final ByteBuffer buf=netPool.take(engine.getSession().getPacketBufferSize());
+        NetRequest request=new NetRequest();
+        synchronized (engine) {
+            engine.closeOutbound();
+            try {
+                while (!engine.isOutboundDone()) {
+                    SSLEngineResult res=engine.wrap(EMPTY, buf);
+                    if (res.getStatus()!=Status.OK || res.bytesProduced()==0) {
+                        break;
+                    }
+                }
+            } catch (SSLException e) {
+                buf.clear();
+            }
+            if (buf.position()==0) {
+                netPool.release(buf);
+                channel.close();
+                return;
+            }
+            request.setBuffer(buf);
+            try {
+                channel.write(request, CLOSE_TIMEOUT);
+            } catch (IllegalStateException e) {
+                request.postFailure(new AsynchronousCloseException());
+            }
+        }
+        request.setListener(new Port<NetRequest>() {
+            @Override
+            public void post(NetRequest request) {
+                netPool.release(buf);
+                channel.close();
+            }
+        });
+    }
+
+    /**
+     * runs delegated tasks of the engine on the executor, then the continuation
+     */
+    private void runDelegatedTasks(final Runnable then) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Runnable task;
+                while ((task=engine.getDelegatedTask())!=null) {
+                    task.run();
+                }
+                then.run();
+            }
+        });
+    }
+
+    private final Runnable wrapRequester=new Runnable() {
+        @Override
+        public void run() {
+            requestWrap();
+        }
+    };
+
+    /**
+     * asks the writer to send handshake data
+     */
+    private void requestWrap() {
+        synchronized (wrapToken) {
+            if (wrapTokenQueued || closed) {
+                return;
+            }
+            wrapTokenQueued=true;
+        }
+        try {
+            writer.post(wrapToken);
+        } catch (IllegalStateException e) {
+            // closed concurrently
+        }
+    }
+
+    //===================== inner classes
+
+    /** request to the underlying channel */
+    static class NetRequest extends SocketIORequest<NetRequest> {
+    }
+
+    /**
+     * Runs the initial handshake, one step at a time: each step ends with a read or write
+     * of the underlying channel, or with delegated tasks, whose completion calls the next step.
+     */
+    class Handshaker implements Runnable {
+
+        /** called after delegated tasks */
+        @Override
+        public void run() {
+            step();
+        }
+
+        void step() {
+            try {
+                synchronized (SslSocketChannel.this) {
+                    if (closed) {
+                        releaseReadBuffers();
+                        releaseWriteBuffers();
+                        return;
+                    }
+                    if (netReadExc!=null) {
+                        throw netReadExc;
+                    }
+                    if (netWriteExc!=null) {
+                        throw netWriteExc;
+                    }
+                }
+                for (;;) {
+                    switch (engine.getHandshakeStatus()) {
+                    case NEED_TASK:
+                        runDelegatedTasks(this);
+                        return;
+                    case NEED_WRAP:
+                        if (wrap()) {
+                            return;
+                        }
+                        break;
+                    case FINISHED:
+                    case NOT_HANDSHAKING:
+                        finished();
+                        return;
+                    default: // NEED_UNWRAP
+                        if (!unwrap()) {
+                            return;
+                        }
+                    }
+                }
+            } catch (Throwable exc) {
+                // close() notifies handshake listeners
+                failed(exc);
+            }
+        }
+
+        /**
+         * @return true if a write is started
+         */
+        private boolean wrap() throws SSLException {
+            synchronized (engine) {
+                ByteBuffer out=takeNetOut();
+                SSLEngineResult res=engine.wrap(EMPTY, out);
+                if (res.getStatus()==Status.BUFFER_OVERFLOW && out.position()==0) {
+                    throw new SSLException("packet buffer too small: "+out.capacity());
+                }
+                if (res.getStatus()==Status.OK && engine.getHandshakeStatus()==HandshakeStatus.NEED_WRAP) {
+                    return false; // more handshake data into the same buffer
+                }
+                if (out.position()==0) {
+                    if (res.getStatus()==Status.CLOSED) {
+                        throw new SSLHandshakeException("engine closed");
+                    }
+                    return false;
+                }
+                startNetWrite(0);
+                return true;
+            }
+        }
+
+        /**
+         * @return false if a read is started
+         */
+        private boolean unwrap() throws SSLException {
+            if (netIn!=null && netIn.hasRemaining()) {
+                if (appIn==null) {
+                    appIn=netPool.take(engine.getSession().getApplicationBufferSize());
+                    appIn.limit(0);
+                }
+                appIn.compact();
+                SSLEngineResult res;
+                try {
+                    res=engine.unwrap(netIn, appIn);
+                } finally {
+                    appIn.flip();
+                }
+                switch (res.getStatus()) {
+                case OK:
+                    return true;
+                case CLOSED:
+                    throw new SSLHandshakeException("closed by peer");
+                case BUFFER_OVERFLOW:
+                    throw new SSLException("application buffer too small: "+appIn.capacity());
+                default: // BUFFER_UNDERFLOW: read the rest of the record
+                }
+            }
+            if (netEof) {
+                throw new SSLHandshakeException("connection closed by peer");
+            }
+            startNetRead(0);
+            return false;
+        }
+
+        private void finished() {
+            synchronized (SslSocketChannel.this) {
+                if (netOut!=null && netOut.position()==0) {
+                    netPool.release(netOut);
+                    netOut=null;
+                }
+                handshaking=false;
+            }
+            handshakeEvent.post(SslSocketChannel.this);
+            reader.resume();
+            writer.resume();
+        }
+    }
+
+    abstract class SslQueue extends RequestQueue {
+        /** is on when the underlying channel is not busy */
+        protected final Lockup net=new Lockup();
+
+        public SslQueue() {
+            super(DFContext.getCurrentExecutor());
+        }
+
+        @Override
+        public void resume() {
+            net.on();
+        }
+
+        /** waits for the continuation of the head request */
+        protected void suspend() {
+            net.off();
+            pushback();
+        }
+
+        /** resumes the queue after delegated tasks */
+        protected final Runnable resumer=new Runnable() {
+            @Override
+            public void run() {
+                resume();
+            }
+        };
+    }
+
+    class ReaderQueue extends SslQueue {
+
+        @Override
+        protected void act(SocketIORequest<?> request) {
+            if (closed) {
+                request.postFailure(closedException());
+                releaseReadBuffers();
+                return;
+            }
+            Throwable exc=netReadExc;
+            if (exc!=null) {
+                netReadExc=null;
+                request.postFailure(exc);
+                if (!(exc instanceof InterruptedByTimeoutException)) {
+                    SslSocketChannel.this.close();
+                }
+                return;
+            }
+            boolean lateBound=!request.isBound();
+            if (lateBound) {
+                request.bindBuffer(getBufferPool());
+            }
+            int numRead;
+            try {
+                numRead=serve(request);
+            } catch (SSLException e) {
+                if (lateBound) {
+                    request.releaseBuffer();
+                }
+                request.postFailure(e);
+                failed(e);
+                return;
+            }
+            if (lateBound && numRead<=0) {
+                request.releaseBuffer();
+            }
+            if (numRead==0) {
+                return; // waits
+            }
+            request.post(numRead);
+            if (numRead==-1) {
+                SslSocketChannel.this.close();
+            }
+        }
+
+        /**
+         * Decrypts records into the request, until it is full or there are no more records.
+         * @return number of bytes read; 0 if the request waits, -1 at end of stream
+         */
+        private int serve(SocketIORequest<?> request) throws SSLException {
+            if (appIn!=null && appIn.hasRemaining()) {
+                // the rest of a record which did not fit into the previous request
+                return copy(appIn, request);
+            }
+            int numRead=0;
+            for (;;) {
+                HandshakeStatus hs=engine.getHandshakeStatus();
+                if (hs==HandshakeStatus.NEED_TASK) {
+                    if (numRead>0) {
+                        return numRead;
+                    }
+                    suspend();
+                    runDelegatedTasks(resumer);
+                    return 0;
+                }
+                if (hs==HandshakeStatus.NEED_WRAP) {
+                    requestWrap();
+                }
+                if (netIn==null || !netIn.hasRemaining()) {
+                    break;
+                }
+                SSLEngineResult res=unwrap(request);
+                numRead+=res.bytesProduced();
+                if (res.bytesConsumed()>0 && writerWaitsUnwrap) {
+                    writerWaitsUnwrap=false;
+                    writer.resume();
+                }
+                Status status=res.getStatus();
+                if (status==Status.OK) {
+                    if (!request.hasRemaining()) {
+                        return numRead;
+                    }
+                } else if (status==Status.BUFFER_OVERFLOW) {
+                    if (numRead>0) {
+                        return numRead;
+                    }
+                    res=unwrapLarge();
+                    if (res.bytesConsumed()>0 && writerWaitsUnwrap) {
+                        writerWaitsUnwrap=false;
+                        writer.resume();
+                    }
+                    status=res.getStatus();
+                    if (status==Status.OK) {
+                        if (appIn.hasRemaining()) {
+                            return copy(appIn, request);
+                        }
+                        continue; // a record without application data, e.g. a session ticket
+                    } else if (status==Status.CLOSED) {
+                        return -1;
+                    }
+                    break; // BUFFER_UNDERFLOW
+                } else if (status==Status.CLOSED) {
+                    // close_notify from the peer
+                    return numRead>0? numRead: -1;
+                } else { // BUFFER_UNDERFLOW
+                    break;
+                }
+            }
+            // no complete records
+            if (numRead>0) {
+                return numRead;
+            }
+            if (netEof) {
+                return -1;
+            }
+            suspend();
+            startNetRead(request.isTimed()? request.getTimeout(): 0);
+            return 0;
+        }
+
+        private SSLEngineResult unwrap(SocketIORequest<?> request) throws SSLException {
+            if (request.isVectored()) {
+                return engine.unwrap(netIn, request.getBuffers(), request.getOffset(), request.getLength());
+            }
+            return engine.unwrap(netIn, request.getBuffer());
+        }
+
+        /**
+         * decrypts a record which does not fit into the request into appIn
+         */
+        private SSLEngineResult unwrapLarge() throws SSLException {
+            synchronized (SslSocketChannel.this) {
+                if (appIn==null) {
+                    appIn=netPool.take(engine.getSession().getApplicationBufferSize());
+                }
+            }
+            appIn.clear();
+            SSLEngineResult res;
+            try {
+                res=engine.unwrap(netIn, appIn);
+            } finally {
+                appIn.flip();
+            }
+            if (res.getStatus()==Status.BUFFER_OVERFLOW) {
+                throw new SSLException("application buffer too small: "+appIn.capacity());
+            }
+            return res;
+        }
+
+        /**
+         * copies decrypted data into the buffers of the request
+         */
+        private int copy(ByteBuffer src, SocketIORequest<?> request) {
+            int n=0;
+            if (request.isVectored()) {
+                ByteBuffer[] bufs=request.getBuffers();
+                for (int k=request.getOffset(); k<request.getOffset()+request.getLength() && src.hasRemaining(); k++) {
+                    n+=put(src, bufs[k]);
+                }
+            } else {
+                n=put(src, request.getBuffer());
+            }
+            return n;
+        }
+
+        private int put(ByteBuffer src, ByteBuffer dst) {
+            int n=Math.min(src.remaining(), dst.remaining());
+            int limit=src.limit();
+            src.limit(src.position()+n);
+            dst.put(src);
+            src.limit(limit);
+            return n;
+        }
+
+        @Override
+        protected void complete() throws Exception {
+            releaseReadBuffers();
+            completer.getReaderFinished().up();
+        }
+    }
+
+    class WriterQueue extends SslQueue {
+        /** bytes of the head request encrypted so far */
+        private int written=0;
+
+        /**
+         * also accepts the token which asks to send handshake data
+         */
+        @Override
+        protected boolean isAcceptable(SocketIORequest<?> request) {
+            return request==wrapToken || super.isAcceptable(request);
+        }
+
+        @Override
+        protected void act(SocketIORequest<?> request) {
+            if (closed) {
+                written=0;
+                if (request!=wrapToken) {
+                    request.postFailure(closedException());
+                }
+                releaseWriteBuffers();
+                return;
+            }
+            Throwable exc=netWriteExc;
+            if (exc!=null) {
+                // the stream is broken, as a part of a record may have been written
+                netWriteExc=null;
+                written=0;
+                if (request!=wrapToken) {
+                    request.postFailure(exc);
+                }
+                SslSocketChannel.this.close();
+                return;
+            }
+            try {
+                if (request==wrapToken) {
+                    synchronized (wrapToken) {
+                        wrapTokenQueued=false;
+                    }
+                    wrapHandshake();
+                } else {
+                    serve(request);
+                }
+            } catch (SSLException e) {
+                written=0;
+                if (request!=wrapToken) {
+                    request.postFailure(e);
+                }
+                failed(e);
+            }
+        }
+
+        /**
+         * sends handshake data, without waiting for the write to complete
+         */
+        private void wrapHandshake() throws SSLException {
+            synchronized (engine) {
+                ByteBuffer out=takeNetOut();
+                while (engine.getHandshakeStatus()==HandshakeStatus.NEED_WRAP) {
+                    SSLEngineResult res=engine.wrap(EMPTY, out);
+                    if (res.getStatus()!=Status.OK) {
+                        break;
+                    }
+                }
+                if (engine.getHandshakeStatus()==HandshakeStatus.NEED_TASK) {
+                    // continue with a new token, so that the tasks do not resume a busy writer
+                    runDelegatedTasks(wrapRequester);
+                }
+                if (out.position()>0) {
+                    net.off();
+                    startNetWrite(0);
+                }
+            }
+        }
+
+        private void serve(SocketIORequest<?> request) throws SSLException {
+            if (!request.hasRemaining()) {
+                // all data are written
+                int numWrit=written;
+                written=0;
+                releaseWriteBuffers();
+                request.post(numWrit);
+                return;
+            }
+            if (engine.getHandshakeStatus()==HandshakeStatus.NEED_TASK) {
+                suspend();
+                runDelegatedTasks(resumer);
+                return;
+            }
+            synchronized (engine) {
+                ByteBuffer out=takeNetOut();
+                while (request.hasRemaining()) {
+                    SSLEngineResult res=wrap(request, out);
+                    written+=res.bytesConsumed();
+                    Status status=res.getStatus();
+                    if (status==Status.CLOSED) {
+                        throw new SSLException("engine closed");
+                    }
+                    if (status==Status.BUFFER_OVERFLOW) {
+                        if (out.position()==0) {
+                            throw new SSLException("packet buffer too small: "+out.capacity());
+                        }
+                        break; // write, and continue after
+                    }
+                    if (res.bytesConsumed()==0 && res.bytesProduced()==0) {
+                        break; // handshake in progress
+                    }
+                }
+                if (out.position()>0) {
+                    suspend();
+                    startNetWrite(request.isTimed()? request.getTimeout(): 0);
+                    return;
+                }
+            }
+            // nothing to write: the engine waits for handshake data from the peer
+            suspend();
+            writerWaitsUnwrap=true;
+            if (engine.getHandshakeStatus()!=HandshakeStatus.NEED_UNWRAP) {
+                writerWaitsUnwrap=false;
+                resume();
+            }
+        }
+
+        private SSLEngineResult wrap(SocketIORequest<?> request, ByteBuffer out) throws SSLException {
+            if (request.isVectored()) {
+                return engine.wrap(request.getBuffers(), request.getOffset(), request.getLength(), out);
+            }
+            return engine.wrap(request.getBuffer(), out);
+        }
+
+        @Override
+        protected void complete() throws Exception {
+            releaseWriteBuffers();
+            completer.getWriterFinished().up();
+        }
+    }
+}
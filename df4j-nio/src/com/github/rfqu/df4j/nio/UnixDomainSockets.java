@@ -0,0 +1,187 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.nio;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.SocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Access to Unix domain sockets, for communication between processes on the same host
+ * without the TCP/IP stack. Socket channels of the UNIX protocol family appeared
+ * in Java 16, so they are looked up by reflection.
+ * <p>
+ * Such channels have no {@link java.net.Socket} adaptor and no TCP options.
+ * The socket file is created by bind, and is not removed when the channel is closed:
+ * server sockets remove it with {@link #deleteSocketFile(SocketAddress)}.
+ */
+public class UnixDomainSockets {
+    /** java.net.UnixDomainSocketAddress, or null */
+    private static final Class<?> addressClass;
+    /** UnixDomainSocketAddress.of(String) */
+    private static final Method of;
+    /** UnixDomainSocketAddress.getPath() */
+    private static final Method getPath;
+    /** java.net.StandardProtocolFamily.UNIX */
+    private static final Object unix;
+    /** SocketChannel.open(ProtocolFamily) */
+    private static final Method openSocket;
+    /** ServerSocketChannel.open(ProtocolFamily) */
+    private static final Method openServerSocket;
+    /** NetworkChannel.bind(SocketAddress) */
+    private static final Method bind;
+    /** NetworkChannel.getLocalAddress() */
+    private static final Method getLocalAddress;
+
+    static {
+        Class<?> cls=null;
+        Method ofMethod=null, pathMethod=null, socketMethod=null, serverMethod=null, bindMethod=null, localMethod=null;
+        Object family=null;
+        try {
+            cls=Class.forName("java.net.UnixDomainSocketAddress");
+            ofMethod=cls.getMethod("of", String.class);
+            pathMethod=cls.getMethod("getPath");
+            Class<?> familyClass=Class.forName("java.net.ProtocolFamily");
+            family=Class.forName("java.net.StandardProtocolFamily").getField("UNIX").get(null);
+            socketMethod=SocketChannel.class.getMethod("open", familyClass);
+            serverMethod=ServerSocketChannel.class.getMethod("open", familyClass);
+            Class<?> networkChannel=Class.forName("java.nio.channels.NetworkChannel");
+            bindMethod=networkChannel.getMethod("bind", SocketAddress.class);
+            localMethod=networkChannel.getMethod("getLocalAddress");
+        } catch (Exception e) {
+            cls=null;
+        }
+        addressClass=cls;
+        of=ofMethod;
+        getPath=pathMethod;
+        unix=family;
+        openSocket=socketMethod;
+        openServerSocket=serverMethod;
+        bind=bindMethod;
+        getLocalAddress=localMethod;
+    }
+
+    /**
+     * @return true if the runtime supports Unix domain socket channels;
+     *   the operating system still may not support them
+     */
+    public static boolean isAvailable() {
+        return addressClass!=null;
+    }
+
+    /**
+     * @param path of the socket file
+     * @return a java.net.UnixDomainSocketAddress
+     * @throws UnsupportedOperationException if the runtime does not support Unix domain sockets
+     */
+    public static SocketAddress newAddress(String path) {
+        checkAvailable();
+        return (SocketAddress) invoke(of, null, path);
+    }
+
+    /**
+     * @return true if the address is a Unix domain socket address
+     */
+    public static boolean isUnixDomain(SocketAddress addr) {
+        return addressClass!=null && addressClass.isInstance(addr);
+    }
+
+    /**
+     * @return true if the channel is a Unix domain socket channel
+     */
+    public static boolean isUnixDomain(SocketChannel channel) throws IOException {
+        if (addressClass==null) {
+            return false;
+        }
+        return addressClass.isInstance(invokeIO(getLocalAddress, channel));
+    }
+
+    /**
+     * @return path of the socket file of a Unix domain socket address
+     */
+    public static String getPath(SocketAddress addr) {
+        if (!isUnixDomain(addr)) {
+            throw new IllegalArgumentException("not a Unix domain socket address: "+addr);
+        }
+        return invoke(getPath, addr).toString();
+    }
+
+    /**
+     * @return an unconnected Unix domain socket channel in blocking mode
+     */
+    public static SocketChannel openSocketChannel() throws IOException {
+        checkAvailable();
+        return (SocketChannel) invokeIO(openSocket, null, unix);
+    }
+
+    /**
+     * opens a Unix domain server socket channel and binds it, which creates the socket file
+     * @return the bound channel in blocking mode
+     */
+    public static ServerSocketChannel openServerSocketChannel(SocketAddress addr) throws IOException {
+        checkAvailable();
+        ServerSocketChannel channel=(ServerSocketChannel) invokeIO(openServerSocket, null, unix);
+        try {
+            invokeIO(bind, channel, addr);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * removes the socket file of the address, if it exists
+     */
+    public static void deleteSocketFile(SocketAddress addr) {
+        new File(getPath(addr)).delete();
+    }
+
+    private static void checkAvailable() {
+        if (addressClass==null) {
+            throw new UnsupportedOperationException("Unix domain sockets");
+        }
+    }
+
+    private static Object invoke(Method method, Object target, Object... args) {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            Throwable cause=e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (IllegalAccessException e) {
+            throw new UnsupportedOperationException("Unix domain sockets", e);
+        }
+    }
+
+    private static Object invokeIO(Method method, Object target, Object... args) throws IOException {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            Throwable cause=e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        } catch (IllegalAccessException e) {
+            throw new UnsupportedOperationException("Unix domain sockets", e);
+        }
+    }
+}
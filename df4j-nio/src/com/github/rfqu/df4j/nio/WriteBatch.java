@@ -0,0 +1,199 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.nio;
+
+import java.nio.ByteBuffer;
+
+import com.github.rfqu.df4j.core.DataflowNode;
+
+/**
+ * Write requests of a writer queue, collected for one gathering write.
+ * <p>
+ * The first request is the one being served by the queue (the head);
+ * the rest are requests queued after it, which stay in the queue.
+ * A gathering write may write some of the following requests completely
+ * or partially; the batch remembers how many bytes were written for each of them,
+ * and when such a request becomes the head, it is completed with its own byte count,
+ * without a system call if it is written already.
+ * Vectored requests contribute all their buffers.
+ * <p>
+ * Not thread-safe: must be used by the writer queue's act() and its completion handlers only.
+ */
+public class WriteBatch {
+    /** max number of requests in one gathering write */
+    public static final int MAX_REQUESTS=64;
+    /** max number of buffers in one gathering write, unless the head request has more */
+    public static final int MAX_BUFFERS=64;
+
+    private final SocketIORequest<?>[] requests=new SocketIORequest<?>[MAX_REQUESTS];
+    /** requests copied from the queue, before they are matched with requests */
+    private final SocketIORequest<?>[] queued=new SocketIORequest<?>[MAX_REQUESTS];
+    /** bytes written for each request so far */
+    private final long[] written=new long[MAX_REQUESTS];
+    /** bytes remaining in each request before the last write */
+    private final long[] remaining=new long[MAX_REQUESTS];
+    private int size=0;
+    /** buffers of all requests, in order */
+    private ByteBuffer[] buffers=new ByteBuffer[MAX_BUFFERS];
+    private int bufferCount=0;
+
+    /**
+     * Makes the request the head of the batch.
+     * Requests before it, which were removed from the queue
+     * without completing them here (e.g. failed on timeout), are dropped.
+     */
+    public void setHead(SocketIORequest<?> head) {
+        int k=0;
+        while (k<size && requests[k]!=head) {
+            k++;
+        }
+        if (k==size) {
+            clear();
+            requests[0]=head;
+            written[0]=0;
+            size=1;
+        } else if (k>0) {
+            shift(k);
+        }
+    }
+
+    /**
+     * Collects the requests queued after the head, and their buffers.
+     * @return number of requests in the batch
+     */
+    public int collect(DataflowNode.Input<SocketIORequest<?>> input) {
+        int count=1+input.copyQueued(queued, 1);
+        for (int k=1; k<count; k++) {
+            SocketIORequest<?> request=queued[k];
+            queued[k]=null;
+            if (k>=size || requests[k]!=request) {
+                requests[k]=request;
+                written[k]=0;
+            }
+        }
+        for (int k=count; k<size; k++) {
+            requests[k]=null;
+        }
+        size=count;
+        // flatten buffers; the head is always included completely
+        clearBuffers();
+        addBuffers(requests[0]);
+        for (int k=1; k<size; k++) {
+            SocketIORequest<?> request=requests[k];
+            int n=request.isVectored()? request.getLength(): 1;
+            if (bufferCount+n>buffers.length) {
+                for (int j=k; j<size; j++) {
+                    requests[j]=null;
+                }
+                size=k;
+                break;
+            }
+            addBuffers(request);
+        }
+        return size;
+    }
+
+    private void addBuffers(SocketIORequest<?> request) {
+        if (!request.isVectored()) {
+            ensureCapacity(1);
+            buffers[bufferCount++]=request.getBuffer();
+            return;
+        }
+        int length=request.getLength();
+        ensureCapacity(length);
+        System.arraycopy(request.getBuffers(), request.getOffset(), buffers, bufferCount, length);
+        bufferCount+=length;
+    }
+
+    private void ensureCapacity(int n) {
+        if (bufferCount+n<=buffers.length) {
+            return;
+        }
+        ByteBuffer[] newBuffers=new ByteBuffer[bufferCount+n];
+        System.arraycopy(buffers, 0, newBuffers, 0, bufferCount);
+        buffers=newBuffers;
+    }
+
+    private void clearBuffers() {
+        for (int k=0; k<bufferCount; k++) {
+            buffers[k]=null;
+        }
+        bufferCount=0;
+    }
+
+    /**
+     * @return buffers of the collected requests, valid in the range [0, bufferCount())
+     */
+    public ByteBuffer[] getBuffers() {
+        return buffers;
+    }
+
+    public int bufferCount() {
+        return bufferCount;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** remembers remaining bytes before a write */
+    public void beforeWrite() {
+        for (int k=0; k<size; k++) {
+            remaining[k]=requests[k].remaining();
+        }
+    }
+
+    /** accounts bytes written to each request */
+    public void afterWrite() {
+        for (int k=0; k<size; k++) {
+            written[k]+=remaining[k]-requests[k].remaining();
+        }
+    }
+
+    /**
+     * @return true if all bytes of the head request are written
+     */
+    public boolean isHeadWritten() {
+        return !requests[0].hasRemaining();
+    }
+
+    /**
+     * Removes the head from the batch and completes it with its byte count.
+     */
+    public void completeHead() {
+        SocketIORequest<?> head=requests[0];
+        long count=written[0];
+        shift(1);
+        head.post((int) count);
+    }
+
+    /** forgets all requests */
+    public void clear() {
+        for (int k=0; k<size; k++) {
+            requests[k]=null;
+        }
+        size=0;
+        clearBuffers();
+    }
+
+    /**
+     * removes first n requests; buffers are collected again before the next write
+     */
+    private void shift(int n) {
+        int rest=size-n;
+        System.arraycopy(requests, n, requests, 0, rest);
+        System.arraycopy(written, n, written, 0, rest);
+        for (int k=rest; k<size; k++) {
+            requests[k]=null;
+        }
+        size=rest;
+        clearBuffers();
+    }
+}
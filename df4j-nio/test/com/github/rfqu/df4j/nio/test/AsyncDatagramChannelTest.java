@@ -0,0 +1,148 @@
+package com.github.rfqu.df4j.nio.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.github.rfqu.df4j.core.Port;
+import com.github.rfqu.df4j.nio.AsyncChannelFactory;
+import com.github.rfqu.df4j.nio.AsyncDatagramChannel;
+import com.github.rfqu.df4j.nio.DatagramIORequest;
+import com.github.rfqu.df4j.nio.HeapBufferPool;
+
+public abstract class AsyncDatagramChannelTest {
+    static final int BUF_SIZE = 128;
+    static final InetSocketAddress local9995 = new InetSocketAddress("localhost", 9995);
+
+    AsyncChannelFactory asyncrSocketFactory;
+
+    /**
+     * tests that a datagram is received with the sender's address
+     */
+    @Test
+    public void sendReceive() throws Exception {
+        AsyncDatagramChannel server=asyncrSocketFactory.newAsyncDatagramChannel(local9995);
+        AsyncDatagramChannel client=asyncrSocketFactory.newAsyncDatagramChannel(new InetSocketAddress("localhost", 0));
+        Listener serverListener=new Listener(1);
+        Listener clientListener=new Listener(1);
+        DatagramRequest serreq=new DatagramRequest(ByteBuffer.allocate(BUF_SIZE));
+        server.receive(serreq);
+        serreq.setListener(serverListener);
+
+        DatagramRequest clreq=new DatagramRequest(ByteBuffer.allocate(BUF_SIZE));
+        clreq.getBuffer().putLong(777);
+        client.send(clreq, local9995);
+        clreq.setListener(clientListener);
+        assertEquals(clreq, clientListener.take());
+        assertEquals(Integer.valueOf(8), clreq.getResult());
+
+        assertEquals(serreq, serverListener.take());
+        assertEquals(Integer.valueOf(8), serreq.getResult());
+        assertEquals(777, serreq.getBuffer().getLong());
+        assertEquals(((InetSocketAddress) client.getLocalAddress()).getPort(),
+                ((InetSocketAddress) serreq.getAddress()).getPort());
+        assertEquals(1, client.getSentCount());
+        assertEquals(1, server.getReceivedCount());
+
+        client.close();
+        server.close();
+    }
+
+    /**
+     * tests that queued receive requests without buffers get pooled buffers,
+     * one datagram each, in order
+     */
+    @Test
+    public void batchedReceive() throws Exception {
+        final int nDatagrams=100;
+        AsyncDatagramChannel server=asyncrSocketFactory.newAsyncDatagramChannel(local9995);
+        AsyncDatagramChannel client=asyncrSocketFactory.newAsyncDatagramChannel(new InetSocketAddress("localhost", 0));
+        HeapBufferPool pool=new HeapBufferPool(BUF_SIZE, 4);
+        server.setBufferPool(pool);
+        Listener serverListener=new Listener(nDatagrams);
+        for (int k=0; k<nDatagrams; k++) {
+            DatagramRequest serreq=new DatagramRequest();
+            server.receive(serreq);
+            serreq.setListener(serverListener);
+        }
+        Listener clientListener=new Listener(nDatagrams);
+        for (int k=0; k<nDatagrams; k++) {
+            DatagramRequest clreq=new DatagramRequest(ByteBuffer.allocate(8));
+            clreq.getBuffer().putLong(k);
+            client.send(clreq, local9995);
+            clreq.setListener(clientListener);
+            // the receiver must keep up: do not overflow the socket's receive buffer
+            if (k%10==9) {
+                Thread.sleep(1);
+            }
+        }
+        for (int k=0; k<nDatagrams; k++) {
+            DatagramRequest serreq=serverListener.take();
+            assertNotNull("datagram "+k+" lost", serreq);
+            assertEquals(Integer.valueOf(8), serreq.getResult());
+            assertEquals(k, serreq.getBuffer().getLong());
+            assertTrue(serreq.isBorrowed());
+            serreq.releaseBuffer();
+        }
+        assertEquals(0, pool.getBorrowedCount());
+
+        client.close();
+        server.close();
+    }
+
+    /**
+     * tests that a pending receive request fails when the channel is closed,
+     * and that the address can be bound again
+     */
+    @Test
+    public void closePending() throws Exception {
+        AsyncDatagramChannel server=asyncrSocketFactory.newAsyncDatagramChannel(local9995);
+        Listener serverListener=new Listener(1);
+        DatagramRequest serreq=new DatagramRequest(ByteBuffer.allocate(BUF_SIZE));
+        server.receive(serreq);
+        serreq.setListener(serverListener);
+        Thread.sleep(50);
+        server.close();
+        assertEquals(serreq, serverListener.take());
+        assertTrue(String.valueOf(serreq.getExc()), serreq.getExc() instanceof AsynchronousCloseException);
+        assertTrue(server.isClosed());
+
+        server=asyncrSocketFactory.newAsyncDatagramChannel(local9995);
+        server.close();
+    }
+
+    static class DatagramRequest extends DatagramIORequest<DatagramRequest> {
+
+        public DatagramRequest() {
+        }
+
+        public DatagramRequest(ByteBuffer buf) {
+            super(buf);
+        }
+    }
+
+    static class Listener implements Port<DatagramRequest> {
+        final ArrayBlockingQueue<DatagramRequest> finished;
+
+        Listener(int capacity) {
+            finished=new ArrayBlockingQueue<DatagramRequest>(capacity);
+        }
+
+        DatagramRequest take() throws InterruptedException {
+            return finished.poll(2, TimeUnit.SECONDS);
+        }
+
+        @Override
+        public void post(DatagramRequest request) {
+            finished.add(request);
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package com.github.rfqu.df4j.nio.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
@@ -9,15 +12,20 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 
 import com.github.rfqu.df4j.core.Callback;
 import com.github.rfqu.df4j.core.CallbackFuture;
 import com.github.rfqu.df4j.core.Port;
+import com.github.rfqu.df4j.nio.AdmissionController;
 import com.github.rfqu.df4j.nio.AsyncChannelFactory;
 import com.github.rfqu.df4j.nio.AsyncServerSocketChannel;
 import com.github.rfqu.df4j.nio.AsyncSocketChannel;
+import com.github.rfqu.df4j.nio.HeapBufferPool;
+import com.github.rfqu.df4j.nio.IOCallback;
+import com.github.rfqu.df4j.nio.ReusePort;
 import com.github.rfqu.df4j.nio.SocketIORequest;
 
 public abstract class AsyncServerSocketChannelTest {
@@ -88,6 +96,315 @@ public abstract class AsyncServerSocketChannelTest {
         server.close();
     }
 
+    /**
+     * tests that many small writes queued at once are completed
+     * each with its own byte count, and arrive in order
+     */
+    @Test
+    public void pipelinedWrites() throws Exception {
+        final int nReqs=10;
+        Server server=new Server(local9990);
+        server.assch.up();
+
+        Connection clconn = newConnection(local9990);
+        Connection serconn = server.allConns.take();
+        MyRequest[] clreqs=new MyRequest[nReqs];
+        for (int k=0; k<nReqs; k++) {
+            MyRequest clreq=new MyRequest();
+            clreq.clear();
+            clreq.buff.putLong(k);
+            clreqs[k]=clreq;
+        }
+        for (int k=0; k<nReqs; k++) {
+            clconn.write(clreqs[k]);
+        }
+        for (int k=0; k<nReqs; k++) {
+            MyRequest clreq=clconn.finishedRequests.take();
+            assertEquals(Integer.valueOf(8), clreq.getResult());
+        }
+        ByteBuffer received=ByteBuffer.allocate(nReqs*8);
+        while (received.hasRemaining()) {
+            MyRequest serreq=new MyRequest();
+            serconn.read(serreq);
+            assertEquals(serreq, serconn.finishedRequests.take());
+            received.put(serreq.buff);
+        }
+        received.flip();
+        for (int k=0; k<nReqs; k++) {
+            assertEquals(k, received.getLong());
+        }
+
+        clconn.conn.close();
+        server.close();
+    }
+
+    /**
+     * tests that read requests queued at once are served in order,
+     * as each completion starts the next queued read
+     */
+    @Test
+    public void pipelinedReads() throws Exception {
+        final int nReqs=8;
+        Server server=new Server(local9990);
+        server.assch.up();
+
+        Connection clconn = newConnection(local9990);
+        Connection serconn = server.allConns.take();
+        MyRequest[] serreqs=new MyRequest[nReqs];
+        for (int k=0; k<nReqs; k++) {
+            serreqs[k]=new MyRequest(ByteBuffer.allocate(8));
+            serconn.read(serreqs[k]);
+        }
+        for (int k=0; k<nReqs; k++) {
+            MyRequest clreq=new MyRequest();
+            clreq.clear();
+            clreq.buff.putLong(k);
+            clconn.write(clreq);
+            assertEquals(clreq, clconn.finishedRequests.take());
+            MyRequest serreq=serconn.finishedRequests.take();
+            assertEquals(serreqs[k], serreq);
+            assertEquals(Integer.valueOf(8), serreq.getResult());
+            assertEquals(k, serreq.getBuffer().getLong());
+        }
+
+        clconn.conn.close();
+        server.close();
+    }
+
+    /**
+     * tests that reads of data which have arrived already are completed in order,
+     * also when each read completes as soon as it is started
+     */
+    @Test
+    public void pipelinedReadsOfAvailableData() throws Exception {
+        final int nReqs=8;
+        Server server=new Server(local9990);
+        server.assch.up();
+
+        Connection clconn = newConnection(local9990);
+        Connection serconn = server.allConns.take();
+        MyRequest clreq=new MyRequest(ByteBuffer.allocate(nReqs*8));
+        for (int k=0; k<nReqs; k++) {
+            clreq.buff.putLong(k);
+        }
+        clconn.write(clreq);
+        assertEquals(clreq, clconn.finishedRequests.take());
+        Thread.sleep(100); // let the data arrive
+
+        final ArrayBlockingQueue<MyRequest> posted=new ArrayBlockingQueue<MyRequest>(nReqs);
+        for (int k=0; k<nReqs; k++) {
+            MyRequest serreq=new MyRequest(ByteBuffer.allocate(8)) {
+                @Override
+                public synchronized void post(Integer result) {
+                    posted.add(this);
+                    super.post(result);
+                }
+            };
+            serconn.read(serreq);
+        }
+        for (int k=0; k<nReqs; k++) {
+            MyRequest serreq=posted.poll(2, TimeUnit.SECONDS);
+            assertEquals(Integer.valueOf(8), serreq.getResult());
+            assertEquals(k, serreq.getBuffer().getLong());
+        }
+
+        clconn.conn.close();
+        server.close();
+    }
+
+    /**
+     * tests that a header and a body are written with one gathering write
+     * and read with one scattering read
+     */
+    @Test
+    public void vectoredRequests() throws Exception {
+        Server server=new Server(local9990);
+        server.assch.up();
+
+        Connection clconn = newConnection(local9990);
+        Connection serconn = server.allConns.take();
+        ByteBuffer body=ByteBuffer.allocate(12);
+        MyRequest clreq=new MyRequest(new ByteBuffer[]{ByteBuffer.allocate(4), body});
+        clreq.clear();
+        clreq.getBuffers()[0].putInt(12);
+        body.putLong(1).putInt(2);
+        clconn.write(clreq);
+        assertEquals(clreq, clconn.finishedRequests.take());
+        assertEquals(Integer.valueOf(16), clreq.getResult());
+
+        ByteBuffer[] serbufs={ByteBuffer.allocate(1), ByteBuffer.allocate(4), ByteBuffer.allocate(12)};
+        MyRequest serreq=new MyRequest(serbufs, 1, 2);
+        serconn.read(serreq);
+        assertEquals(serreq, serconn.finishedRequests.take());
+        assertEquals(Integer.valueOf(16), serreq.getResult());
+        assertEquals(0, serbufs[0].position()); // out of range, not used
+        assertEquals(12, serbufs[1].getInt());
+        assertEquals(1, serbufs[2].getLong());
+        assertEquals(2, serbufs[2].getInt());
+
+        clconn.conn.close();
+        server.close();
+    }
+
+    /**
+     * tests that a read request without a buffer gets a pooled buffer with the data
+     */
+    @Test
+    public void lateBoundRead() throws Exception {
+        Server server=new Server(local9990);
+        server.assch.up();
+
+        Connection clconn = newConnection(local9990);
+        Connection serconn = server.allConns.take();
+        HeapBufferPool pool=new HeapBufferPool(BUF_SIZE, 4);
+        serconn.conn.setBufferPool(pool);
+        MyRequest serreq=new MyRequest((ByteBuffer) null);
+        serconn.read(serreq);
+
+        MyRequest clreq=new MyRequest();
+        clreq.clear();
+        clreq.buff.putLong(7);
+        clconn.write(clreq);
+        assertEquals(clreq, clconn.finishedRequests.take());
+
+        assertEquals(serreq, serconn.finishedRequests.take());
+        assertEquals(Integer.valueOf(8), serreq.getResult());
+        assertTrue(serreq.isBorrowed());
+        assertEquals(7, serreq.getBuffer().getLong());
+        serreq.releaseBuffer();
+        assertNull(serreq.getBuffer());
+        assertEquals(0, pool.getBorrowedCount());
+
+        clconn.conn.close();
+        server.close();
+    }
+
+    /**
+     * tests that connections are accepted by several listening sockets bound with SO_REUSEPORT
+     */
+    @Test
+    public void reusePortAccept() throws Exception {
+        if (!ReusePort.isAvailable()) {
+            return;
+        }
+        final int nConns=8;
+        Server server;
+        try {
+            server=new Server(local9990, 4);
+        } catch (UnsupportedOperationException e) {
+            return; // not supported by the system
+        }
+        server.assch.up(nConns);
+
+        Connection[] clconns=new Connection[nConns];
+        for (int k=0; k<nConns; k++) {
+            clconns[k]=newConnection(local9990);
+        }
+        for (int k=0; k<nConns; k++) {
+            assertNotNull(server.allConns.poll(2, TimeUnit.SECONDS));
+        }
+        assertTrue(server.allOpened);
+
+        for (int k=0; k<nConns; k++) {
+            clconns[k].conn.close();
+        }
+        server.close();
+    }
+
+    /**
+     * tests that accepting pauses at the connection limit, and resumes when a connection is closed
+     */
+    @Test
+    public void admissionPause() throws Exception {
+        Server server=new Server(local9990, AdmissionController.PAUSE, 2);
+        Connection[] clconns=new Connection[3];
+        for (int k=0; k<3; k++) {
+            clconns[k]=newConnection(local9990);
+        }
+        Connection serconn=server.allConns.poll(2, TimeUnit.SECONDS);
+        assertNotNull(serconn);
+        assertNotNull(server.allConns.poll(2, TimeUnit.SECONDS));
+        assertNull(server.allConns.poll(200, TimeUnit.MILLISECONDS));
+        assertTrue(server.admission.isPaused());
+        assertEquals(2, server.admission.getLiveConnections());
+
+        serconn.conn.close();
+        assertNotNull(server.allConns.poll(2, TimeUnit.SECONDS));
+        assertEquals(3, server.admission.getAcceptedCount());
+        assertEquals(0, server.admission.getRejectedCount());
+        assertTrue(server.admission.getPauseCount()>=1);
+
+        for (int k=0; k<3; k++) {
+            clconns[k].conn.close();
+        }
+        server.close();
+    }
+
+    /**
+     * tests that connections over the limit are accepted and closed at once
+     */
+    @Test
+    public void admissionReject() throws Exception {
+        Server server=new Server(local9990, AdmissionController.ACCEPT_AND_CLOSE, 1);
+        Connection clconn1=newConnection(local9990);
+        assertNotNull(server.allConns.poll(2, TimeUnit.SECONDS));
+        Connection clconn2=newConnection(local9990);
+        long deadline=System.currentTimeMillis()+2000;
+        while (server.admission.getRejectedCount()==0 && System.currentTimeMillis()<deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, server.admission.getRejectedCount());
+        assertEquals(1, server.admission.getAcceptedCount());
+        assertFalse(server.admission.isPaused());
+        assertNull(server.allConns.poll());
+
+        clconn1.conn.close();
+        clconn2.conn.close();
+        server.close();
+    }
+
+    /**
+     * tests that a read request with timeout expires when no data arrive
+     */
+    @Test
+    public void readTimeout() throws Exception {
+        Server server=new Server(local9990);
+        server.assch.up();
+
+        Connection clconn = newConnection(local9990);
+        Connection serconn = server.allConns.take();
+        MyRequest serreq=new MyRequest();
+        long start=System.currentTimeMillis();
+        serconn.read(serreq, 100);
+        assertEquals(serreq, serconn.finishedRequests.poll(2, TimeUnit.SECONDS));
+        long elapsed=System.currentTimeMillis()-start;
+        assertTrue("elapsed="+elapsed, elapsed>=90);
+        final boolean[] timedOut={false};
+        serreq.toIOCallback(new IOCallback<MyRequest>() {
+            @Override
+            public void completed(int result, MyRequest request) {
+            }
+
+            @Override
+            public void timedOut(MyRequest request) {
+                timedOut[0]=true;
+            }
+
+            @Override
+            public void closed(MyRequest request) {
+            }
+
+            @Override
+            public void failed(Throwable exc, MyRequest request) {
+                exc.printStackTrace();
+            }
+        });
+        assertTrue(timedOut[0]);
+
+        clconn.conn.close();
+        server.close();
+    }
+
     static class MyRequest extends SocketIORequest<MyRequest> {
         ByteBuffer buff;
         
@@ -95,11 +412,28 @@ public abstract class AsyncServerSocketChannelTest {
             super(ByteBuffer.allocate(BUF_SIZE));
             buff=super.getBuffer();
         }
+
+        /**
+         * @param buffer null for a request bound to a pooled buffer late
+         */
+        public MyRequest(ByteBuffer buffer) {
+            super(buffer);
+            buff=buffer;
+        }
+
+        public MyRequest(ByteBuffer[] buffers) {
+            super(buffers);
+        }
+
+        public MyRequest(ByteBuffer[] buffers, int offset, int length) {
+            super(buffers, offset, length);
+        }
     
     }
     
     class Server implements Callback<AsyncSocketChannel> {        
         AsyncServerSocketChannel assch;    
+        AdmissionController admission;
         ArrayBlockingQueue<Connection> allConns=new ArrayBlockingQueue<Connection>(10);
         int channelCounter=0;
         boolean allOpened=true;
@@ -107,6 +441,18 @@ public abstract class AsyncServerSocketChannelTest {
         public Server(InetSocketAddress addr) throws IOException {
             assch=asyncrSocketFactory.newAsyncServerSocketChannel(addr, this);
         }
+
+        public Server(InetSocketAddress addr, int acceptors) throws IOException {
+            assch=asyncrSocketFactory.newAsyncServerSocketChannel(addr, this, acceptors);
+        }
+
+        /** accepting is controlled by admission */
+        public Server(InetSocketAddress addr, int mode, int maxConnections) throws IOException {
+            admission=new AdmissionController(this, mode);
+            admission.setMaxConnections(maxConnections);
+            assch=asyncrSocketFactory.newAsyncServerSocketChannel(addr, admission);
+            admission.start(assch);
+        }
         
         @Override
         public void post(AsyncSocketChannel channel) {
@@ -148,6 +494,11 @@ public abstract class AsyncServerSocketChannelTest {
             request.setListener(this);
         }
 
+        public void read(MyRequest request, long timeout) {
+            conn.read(request, timeout);
+            request.setListener(this);
+        }
+
         public void write(MyRequest request) {
             conn.write(request);
             request.setListener(this);
@@ -0,0 +1,137 @@
+package com.github.rfqu.df4j.nio.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import com.github.rfqu.df4j.nio.DirectBufferPool;
+import com.github.rfqu.df4j.nio.SocketIORequest;
+
+public class DirectBufferPoolTest {
+
+    @Test
+    public void sizeClassTest() {
+        DirectBufferPool pool=new DirectBufferPool(128, 4096, 64*1024, 4, false);
+        ByteBuffer b1=pool.take(100);
+        assertEquals(128, b1.capacity());
+        assertTrue(b1.isDirect());
+        ByteBuffer b2=pool.take(129);
+        assertEquals(256, b2.capacity());
+        assertEquals(4096, pool.take().capacity());
+        ByteBuffer big=pool.take(10000);
+        assertEquals(10000, big.capacity()); // not pooled
+        assertEquals(4, pool.getBorrowedCount());
+        pool.release(big);
+        pool.release(b2);
+        pool.release(b1);
+        // the same thread gets its released buffers back
+        assertSame(b1, pool.take(128));
+        assertSame(b2, pool.take(200));
+        // slabs of small classes are shared
+        assertEquals(64*1024*3, pool.getSlabBytes());
+    }
+
+    @Test
+    public void threadCacheOverflowTest() {
+        DirectBufferPool pool=new DirectBufferPool(128, 128, 128*16, 4, false);
+        ByteBuffer[] bufs=new ByteBuffer[16];
+        for (int k=0; k<bufs.length; k++) {
+            bufs[k]=pool.take(128);
+            bufs[k].putInt(k);
+        }
+        for (int k=0; k<bufs.length; k++) {
+            pool.release(bufs[k]);
+        }
+        for (int k=0; k<bufs.length; k++) {
+            ByteBuffer b=pool.take(128);
+            assertEquals(0, b.position()); // cleared
+        }
+        assertEquals(128*16, pool.getSlabBytes());
+        assertEquals(16, pool.getBorrowedCount());
+    }
+
+    /**
+     * tests that buffers cached by a terminated thread are reused, without a new slab
+     */
+    @Test
+    public void terminatedThreadTest() throws InterruptedException {
+        final DirectBufferPool pool=new DirectBufferPool(128, 128, 128*4, 4, false);
+        Thread thread=new Thread() {
+            @Override
+            public void run() {
+                ByteBuffer[] bufs=new ByteBuffer[4];
+                for (int k=0; k<bufs.length; k++) {
+                    bufs[k]=pool.take(128);
+                }
+                for (int k=0; k<bufs.length; k++) {
+                    pool.release(bufs[k]);
+                }
+            }
+        };
+        thread.start();
+        thread.join();
+        for (int k=0; k<4; k++) {
+            pool.take(128);
+        }
+        assertEquals(128*4, pool.getSlabBytes());
+    }
+
+    @Test
+    public void zeroSizeTest() {
+        DirectBufferPool pool=new DirectBufferPool(128, 4096, 64*1024, 4, false);
+        assertEquals(128, pool.take(0).capacity());
+        try {
+            pool.take(-1);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void doubleReleaseTest() {
+        DirectBufferPool pool=new DirectBufferPool(128, 4096, 64*1024, 4, true);
+        ByteBuffer b=pool.take();
+        pool.release(b);
+        try {
+            pool.release(b);
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    @Test
+    public void leakTest() throws InterruptedException {
+        DirectBufferPool pool=new DirectBufferPool(128, 4096, 64*1024, 4, true);
+        pool.release(pool.take()); // not a leak
+        pool.take(); // dropped
+        for (int k=0; k<50 && pool.checkLeaks()==0; k++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(1, pool.checkLeaks());
+    }
+
+    @Test
+    public void requestTest() {
+        DirectBufferPool pool=new DirectBufferPool(128, 4096, 64*1024, 4, true);
+        Req request=new Req();
+        request.bindBuffer(pool, 512);
+        assertEquals(512, request.getBuffer().capacity());
+        assertTrue(request.isBorrowed());
+        request.setReleaseOnWrite(true);
+        request.getBuffer().putInt(1);
+        request.prepareWrite();
+        request.post(4);
+        assertNull(request.getBuffer());
+        assertEquals(0, pool.getBorrowedCount());
+    }
+
+    static class Req extends SocketIORequest<Req> {
+    }
+}
@@ -0,0 +1,237 @@
+package com.github.rfqu.df4j.nio.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.EOFException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.rfqu.df4j.core.Actor;
+import com.github.rfqu.df4j.core.Callback;
+import com.github.rfqu.df4j.core.CallbackFuture;
+import com.github.rfqu.df4j.core.Port;
+import com.github.rfqu.df4j.nio.AsyncServerSocketChannel;
+import com.github.rfqu.df4j.nio.AsyncSocketChannel;
+import com.github.rfqu.df4j.nio.DelimiterFrameCodec;
+import com.github.rfqu.df4j.nio.FixedLengthFrameCodec;
+import com.github.rfqu.df4j.nio.FrameCodec;
+import com.github.rfqu.df4j.nio.FramedChannel;
+import com.github.rfqu.df4j.nio.HeapBufferPool;
+import com.github.rfqu.df4j.nio.LengthFieldFrameCodec;
+import com.github.rfqu.df4j.nio.LoopbackChannelFactory;
+import com.github.rfqu.df4j.nio.SharedBuffer;
+import com.github.rfqu.df4j.nio.SocketIORequest;
+
+/**
+ * runs framed channels over in-memory channels with small buffers,
+ * so that frames span several reads
+ */
+public class FramedChannelTest {
+    static final InetSocketAddress local9996 = new InetSocketAddress("localhost", 9996);
+    static final String END="<end>";
+
+    LoopbackChannelFactory factory=new LoopbackChannelFactory(256);
+    HeapBufferPool pool=new HeapBufferPool(64, 16);
+    AsyncServerSocketChannel server;
+    LinkedBlockingQueue<AsyncSocketChannel> accepted=new LinkedBlockingQueue<AsyncSocketChannel>();
+    AsyncSocketChannel client;
+    AsyncSocketChannel served;
+
+    @Before
+    public void connect() throws Exception {
+        server=factory.newAsyncServerSocketChannel(local9996, new Callback<AsyncSocketChannel>() {
+            @Override
+            public void post(AsyncSocketChannel channel) {
+                accepted.add(channel);
+            }
+
+            @Override
+            public void postFailure(Throwable exc) {
+            }
+        });
+        server.up();
+        client=factory.newAsyncSocketChannel(local9996);
+        served=accepted.poll(2, TimeUnit.SECONDS);
+        served.setBufferPool(pool);
+    }
+
+    @After
+    public void close() {
+        client.close();
+        server.close();
+    }
+
+    /**
+     * tests that length-prefixed frames of various sizes, written with a framed channel,
+     * are received in order, and pooled buffers return when payloads are released
+     */
+    @Test
+    public void lengthField() throws Exception {
+        final int nFrames=200;
+        FrameCodec codec=new LengthFieldFrameCodec(2, 1000);
+        Frames frames=new Frames();
+        FramedChannel receiver=new FramedChannel(served, codec, frames, 3);
+        FramedChannel sender=new FramedChannel(client, codec, new Frames());
+        for (int k=0; k<nFrames; k++) {
+            sender.write(new SharedBuffer(ByteBuffer.wrap(payload(k).getBytes()), null));
+        }
+        for (int k=0; k<nFrames; k++) {
+            assertEquals(payload(k), frames.take());
+        }
+        sender.close();
+        assertEquals(END, frames.take());
+        receiver.addCloseListener(new CallbackFuture<FramedChannel>()).get(2, TimeUnit.SECONDS);
+        assertEquals(0, pool.getBorrowedCount());
+    }
+
+    /** payloads up to 300 bytes, longer than pooled buffers, and empty */
+    static String payload(int k) {
+        StringBuilder sb=new StringBuilder();
+        for (int j=0; j<k*7%300; j++) {
+            sb.append((char) ('a'+(k+j)%26));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * tests that lines end with "\n" or "\r\n", also when the delimiter is split between reads
+     */
+    @Test
+    public void lines() throws Exception {
+        Frames frames=new Frames();
+        FramedChannel receiver=new FramedChannel(served, DelimiterFrameCodec.lines(200), frames);
+        write("first\r", "\nsecond\n", "", "thi", "rd\r\n\n", "a long line, longer than a pooled buffer of 64 bytes,",
+                " spans several reads\n");
+        assertEquals("first", frames.take());
+        assertEquals("second", frames.take());
+        assertEquals("third", frames.take());
+        assertEquals("", frames.take());
+        assertEquals("a long line, longer than a pooled buffer of 64 bytes, spans several reads", frames.take());
+        client.close();
+        assertEquals(END, frames.take());
+        receiver.addCloseListener(new CallbackFuture<FramedChannel>()).get(2, TimeUnit.SECONDS);
+        assertEquals(0, pool.getBorrowedCount());
+    }
+
+    /**
+     * tests that fixed-size frames are cut out of writes of other sizes
+     */
+    @Test
+    public void fixedLength() throws Exception {
+        Frames frames=new Frames();
+        new FramedChannel(served, new FixedLengthFrameCodec(5), frames);
+        write("abc", "de012", "3456789", "ABCDE");
+        assertEquals("abcde", frames.take());
+        assertEquals("01234", frames.take());
+        assertEquals("56789", frames.take());
+        assertEquals("ABCDE", frames.take());
+    }
+
+    /**
+     * tests that a line longer than allowed fails the channel
+     */
+    @Test
+    public void tooLong() throws Exception {
+        Frames frames=new Frames();
+        FramedChannel receiver=new FramedChannel(served, DelimiterFrameCodec.lines(16), frames);
+        write("short\n", "0123456789", "0123456789\n");
+        assertEquals("short", frames.take());
+        assertEquals(END, frames.take());
+        assertFailed(receiver, ProtocolException.class);
+        assertTrue(served.isClosed());
+    }
+
+    /**
+     * tests that end of stream within a frame fails the channel
+     */
+    @Test
+    public void truncated() throws Exception {
+        Frames frames=new Frames();
+        FramedChannel receiver=new FramedChannel(served, new LengthFieldFrameCodec(4, 1000), frames);
+        ByteBuffer buf=ByteBuffer.allocate(10);
+        buf.putInt(100);
+        buf.putInt(7);
+        write(buf);
+        client.close();
+        assertEquals(END, frames.take());
+        assertFailed(receiver, EOFException.class);
+    }
+
+    static void assertFailed(FramedChannel channel, Class<?> excClass) throws Exception {
+        try {
+            channel.addCloseListener(new CallbackFuture<FramedChannel>()).get(2, TimeUnit.SECONDS);
+            fail("not failed");
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), excClass.isInstance(e.getCause()));
+        }
+    }
+
+    void write(String... parts) throws InterruptedException {
+        for (String part: parts) {
+            if (part.length()==0) {
+                continue; // empty requests are not accepted
+            }
+            ByteBuffer buf=ByteBuffer.allocate(part.length());
+            buf.put(part.getBytes());
+            write(buf);
+        }
+    }
+
+    /**
+     * writes and waits, so that the data are not lost when the client is closed
+     */
+    void write(ByteBuffer buf) throws InterruptedException {
+        MyRequest request=new MyRequest(buf);
+        final LinkedBlockingQueue<MyRequest> written=new LinkedBlockingQueue<MyRequest>();
+        client.write(request);
+        request.setListener(new Port<MyRequest>() {
+            @Override
+            public void post(MyRequest request) {
+                written.add(request);
+            }
+        });
+        assertEquals(request, written.poll(2, TimeUnit.SECONDS));
+        assertEquals(null, request.getExc());
+    }
+
+    static class MyRequest extends SocketIORequest<MyRequest> {
+        MyRequest(ByteBuffer buf) {
+            super(buf);
+        }
+    }
+
+    /**
+     * collects payloads as strings, and releases them
+     */
+    static class Frames extends Actor<SharedBuffer> {
+        LinkedBlockingQueue<String> received=new LinkedBlockingQueue<String>();
+
+        @Override
+        protected void act(SharedBuffer payload) {
+            ByteBuffer buf=payload.getBuffer();
+            byte[] bytes=new byte[buf.remaining()];
+            buf.get(bytes);
+            received.add(new String(bytes));
+            payload.release();
+        }
+
+        @Override
+        protected void complete() {
+            received.add(END);
+        }
+
+        String take() throws InterruptedException {
+            return received.poll(2, TimeUnit.SECONDS);
+        }
+    }
+}
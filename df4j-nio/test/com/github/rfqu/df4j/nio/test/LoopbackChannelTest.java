@@ -0,0 +1,109 @@
+package com.github.rfqu.df4j.nio.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+import com.github.rfqu.df4j.core.CallbackFuture;
+import com.github.rfqu.df4j.nio.AsyncSocketChannel;
+import com.github.rfqu.df4j.nio.LoopbackChannelFactory;
+import com.github.rfqu.df4j.nio.LoopbackSocketChannel;
+
+/**
+ * runs the socket tests with in-memory channels, and tests what depends on the ring buffer
+ */
+public class LoopbackChannelTest extends AsyncServerSocketChannelTest {
+    {asyncrSocketFactory=new LoopbackChannelFactory(BUF_SIZE*8);
+    }
+
+    /**
+     * tests that a write larger than the ring buffer is read in parts
+     */
+    @Test
+    public void partialReads() throws Exception {
+        asyncrSocketFactory=new LoopbackChannelFactory(BUF_SIZE/4);
+        Server server=new Server(local9990);
+        server.assch.up();
+
+        Connection clconn = newConnection(local9990);
+        Connection serconn = server.allConns.take();
+        MyRequest clreq=new MyRequest();
+        clreq.clear();
+        for (int k=0; k<BUF_SIZE/8; k++) {
+            clreq.buff.putLong(k);
+        }
+        clconn.write(clreq);
+        long next=0;
+        int reads=0;
+        while (next<BUF_SIZE/8) {
+            MyRequest serreq=new MyRequest();
+            serconn.read(serreq);
+            assertEquals(serreq, serconn.finishedRequests.take());
+            int numRead=serreq.getResult();
+            assertTrue(numRead<=BUF_SIZE/4);
+            assertEquals(0, numRead%8);
+            while (serreq.buff.hasRemaining()) {
+                assertEquals(next++, serreq.buff.getLong());
+            }
+            reads++;
+        }
+        assertTrue(reads>=4);
+        assertEquals(clreq, clconn.finishedRequests.take());
+        assertEquals(Integer.valueOf(BUF_SIZE), clreq.getResult());
+
+        clconn.conn.close();
+        server.close();
+    }
+
+    /**
+     * tests that data written before close are read, followed by end of stream
+     */
+    @Test
+    public void peerClose() throws Exception {
+        Server server=new Server(local9990);
+        server.assch.up();
+
+        Connection clconn = newConnection(local9990);
+        Connection serconn = server.allConns.take();
+        MyRequest clreq=new MyRequest();
+        clreq.clear();
+        clreq.buff.putLong(5);
+        clconn.write(clreq);
+        assertEquals(clreq, clconn.finishedRequests.take());
+        clconn.conn.close();
+
+        MyRequest serreq=new MyRequest();
+        serconn.read(serreq);
+        assertEquals(serreq, serconn.finishedRequests.take());
+        assertEquals(Integer.valueOf(8), serreq.getResult());
+        assertEquals(0, ((LoopbackSocketChannel) serconn.conn).available());
+        serreq=new MyRequest();
+        serconn.read(serreq);
+        assertEquals(serreq, serconn.finishedRequests.take());
+        assertEquals(Integer.valueOf(-1), serreq.getResult());
+        serconn.conn.addCloseListener(new CallbackFuture<AsyncSocketChannel>()).get();
+
+        server.close();
+    }
+
+    /**
+     * tests that connection fails when no server socket is bound to the address
+     */
+    @Test
+    public void refused() throws Exception {
+        Connection clconn = newConnection(new InetSocketAddress("localhost", 9991));
+        try {
+            clconn.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ConnectException);
+        }
+        assertTrue(clconn.conn.isClosed());
+    }
+}
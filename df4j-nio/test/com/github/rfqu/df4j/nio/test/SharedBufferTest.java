@@ -0,0 +1,133 @@
+package com.github.rfqu.df4j.nio.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+
+import org.junit.Test;
+
+import com.github.rfqu.df4j.nio.DirectBufferPool;
+import com.github.rfqu.df4j.nio.SharedBuffer;
+import com.github.rfqu.df4j.nio.SocketIORequest;
+
+public class SharedBufferTest {
+
+    static class MyRequest extends SocketIORequest<MyRequest> {
+    }
+
+    @Test
+    public void refCountTest() {
+        DirectBufferPool pool=new DirectBufferPool(128, 4096, 64*1024, 4, true);
+        SharedBuffer shared=new SharedBuffer(pool.take(128), pool);
+        assertEquals(1, shared.getRefCount());
+        shared.retain();
+        assertEquals(2, shared.getRefCount());
+        shared.release();
+        assertEquals(1, pool.getBorrowedCount());
+        shared.release();
+        assertEquals(0, shared.getRefCount());
+        assertEquals(0, pool.getBorrowedCount());
+        try {
+            shared.release();
+            fail("released twice");
+        } catch (IllegalStateException e) {
+        }
+        try {
+            shared.retain();
+            fail("retained after release");
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    @Test
+    public void sliceTest() {
+        DirectBufferPool pool=new DirectBufferPool(128, 4096, 64*1024, 4, true);
+        SharedBuffer shared=new SharedBuffer(pool.take(128), pool);
+        ByteBuffer buf=shared.getBuffer();
+        for (int k=0; k<8; k++) {
+            buf.put((byte) k);
+        }
+        buf.flip();
+        buf.get(); // header
+        SharedBuffer payload=shared.retainedSlice();
+        SharedBuffer part=shared.retainedSlice(2, 3);
+        assertEquals(3, shared.getRefCount());
+        assertEquals(3, payload.getRefCount());
+        assertEquals(7, payload.getBuffer().remaining());
+        assertEquals(1, payload.getBuffer().get(0));
+        assertEquals(3, part.getBuffer().remaining());
+        assertEquals(2, part.getBuffer().get());
+        assertEquals(1, part.getBuffer().position()); // own position
+        assertEquals(0, payload.getBuffer().position());
+        try {
+            payload.getBuffer().put(0, (byte) 0);
+            fail("slice is writable");
+        } catch (ReadOnlyBufferException e) {
+        }
+        // slices of slices share the same count
+        SharedBuffer sub=part.retainedSlice(1, 1);
+        assertEquals(3, sub.getBuffer().get());
+        assertEquals(4, shared.getRefCount());
+
+        shared.release();
+        part.release();
+        sub.release();
+        assertEquals(1, pool.getBorrowedCount()); // payload still holds the buffer
+        payload.release();
+        assertEquals(0, pool.getBorrowedCount());
+        assertEquals(0, pool.checkLeaks());
+    }
+
+    @Test
+    public void requestTest() {
+        DirectBufferPool pool=new DirectBufferPool(128, 4096, 64*1024, 4, true);
+        MyRequest reader=new MyRequest();
+        reader.bindBuffer(pool, 128);
+        reader.prepareRead();
+        reader.getBuffer().put(new byte[]{1, 2, 3, 4});
+        reader.post(4);
+        SharedBuffer shared=reader.detachBuffer();
+        assertFalse(reader.isBound());
+        assertFalse(reader.isBorrowed());
+        assertEquals(4, shared.getBuffer().remaining());
+
+        // fan out to two writers
+        MyRequest[] writers={new MyRequest(), new MyRequest()};
+        for (MyRequest writer: writers) {
+            writer.setBuffer(shared.retainedSlice());
+            writer.setReleaseOnWrite(true);
+            assertTrue(writer.isBorrowed());
+            writer.prepareWrite();
+            assertEquals(4, writer.remaining());
+        }
+        shared.release();
+        assertEquals(1, pool.getBorrowedCount());
+        writers[0].getBuffer().position(4);
+        writers[0].post(4);
+        assertFalse(writers[0].isBound());
+        assertEquals(1, pool.getBorrowedCount());
+        writers[1].postFailure(new Exception());
+        assertEquals(0, pool.getBorrowedCount());
+        assertEquals(0, pool.checkLeaks());
+    }
+
+    /**
+     * tests that a request writes the bytes from the position of the shared buffer,
+     * and leaves that position as it is
+     */
+    @Test
+    public void writeFromPositionTest() {
+        SharedBuffer shared=new SharedBuffer(ByteBuffer.wrap(new byte[]{0, 1, 2, 3}), null);
+        shared.getBuffer().get(); // header
+        MyRequest writer=new MyRequest();
+        writer.setBuffer(shared);
+        writer.prepareWrite();
+        assertEquals(3, writer.remaining());
+        assertEquals(1, writer.getBuffer().get());
+        assertEquals(1, shared.getBuffer().position());
+    }
+}
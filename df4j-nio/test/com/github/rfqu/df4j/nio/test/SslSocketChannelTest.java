@@ -0,0 +1,146 @@
+package com.github.rfqu.df4j.nio.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
+
+import org.junit.Test;
+
+import com.github.rfqu.df4j.core.CallbackFuture;
+import com.github.rfqu.df4j.nio.AsyncSocketChannel;
+import com.github.rfqu.df4j.nio.LoopbackChannelFactory;
+import com.github.rfqu.df4j.nio.SslChannelFactory;
+import com.github.rfqu.df4j.nio.SslSocketChannel;
+import com.github.rfqu.df4j.nio.testutil.TestSslContext;
+
+/**
+ * runs the socket tests with TLS over in-memory channels, and tests what depends on TLS
+ */
+public class SslSocketChannelTest extends AsyncServerSocketChannelTest {
+    {asyncrSocketFactory=new SslChannelFactory(new LoopbackChannelFactory(), sslContext());
+    }
+
+    static SSLContext sslContext() {
+        try {
+            return TestSslContext.get();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * tests that both sides finish the handshake before data are exchanged
+     */
+    @Test
+    public void handshake() throws Exception {
+        Server server=new Server(local9990);
+        server.assch.up();
+
+        Connection clconn = newConnection(local9990);
+        Connection serconn = server.allConns.take();
+        SslSocketChannel client=(SslSocketChannel) clconn.conn;
+        SslSocketChannel served=(SslSocketChannel) serconn.conn;
+        client.addHandshakeListener(new CallbackFuture<AsyncSocketChannel>()).get(2, TimeUnit.SECONDS);
+        served.addHandshakeListener(new CallbackFuture<AsyncSocketChannel>()).get(2, TimeUnit.SECONDS);
+        assertEquals(client.getEngine().getSession().getCipherSuite(), served.getEngine().getSession().getCipherSuite());
+
+        clconn.conn.close();
+        server.close();
+    }
+
+    /**
+     * tests that data larger than a record are encrypted in several records,
+     * and read with requests of other sizes
+     */
+    @Test
+    public void largeTransfer() throws Exception {
+        final int size=100000;
+        Server server=new Server(local9990);
+        server.assch.up();
+
+        Connection clconn = newConnection(local9990);
+        Connection serconn = server.allConns.take();
+        ByteBuffer data=ByteBuffer.allocate(size);
+        for (int k=0; k<size/4; k++) {
+            data.putInt(k);
+        }
+        MyRequest clreq=new MyRequest(data);
+        clconn.write(clreq);
+
+        ByteBuffer received=ByteBuffer.allocate(size);
+        while (received.hasRemaining()) {
+            MyRequest serreq=new MyRequest(ByteBuffer.allocate(5000));
+            serconn.read(serreq);
+            assertEquals(serreq, serconn.finishedRequests.poll(2, TimeUnit.SECONDS));
+            assertTrue(String.valueOf(serreq.getExc()), serreq.getExc()==null && serreq.getResult()>0);
+            received.put(serreq.getBuffer());
+        }
+        received.flip();
+        for (int k=0; k<size/4; k++) {
+            assertEquals(k, received.getInt());
+        }
+        assertEquals(clreq, clconn.finishedRequests.poll(2, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(size), clreq.getResult());
+
+        clconn.conn.close();
+        server.close();
+    }
+
+    /**
+     * tests that the peer's reads get end of stream after close_notify
+     */
+    @Test
+    public void closeNotify() throws Exception {
+        Server server=new Server(local9990);
+        server.assch.up();
+
+        Connection clconn = newConnection(local9990);
+        Connection serconn = server.allConns.take();
+        MyRequest serreq=new MyRequest();
+        serconn.read(serreq);
+        // the server writes a session ticket after the handshake; let it be written
+        ((SslSocketChannel) serconn.conn).addHandshakeListener(new CallbackFuture<AsyncSocketChannel>()).get();
+        clconn.conn.close();
+        assertEquals(serreq, serconn.finishedRequests.poll(2, TimeUnit.SECONDS));
+        assertEquals(String.valueOf(serreq.getExc()), Integer.valueOf(-1), serreq.getResult());
+        serconn.conn.addCloseListener(new CallbackFuture<AsyncSocketChannel>()).get(2, TimeUnit.SECONDS);
+
+        server.close();
+    }
+
+    /**
+     * tests that a client which does not trust the server's certificate
+     * fails the handshake, and its requests fail
+     */
+    @Test
+    public void untrustedServer() throws Exception {
+        LoopbackChannelFactory loopback=new LoopbackChannelFactory();
+        asyncrSocketFactory=new SslChannelFactory(loopback, sslContext());
+        Server server=new Server(local9990);
+        server.assch.up();
+        // the default trust store does not know the test certificate
+        asyncrSocketFactory=new SslChannelFactory(loopback, SSLContext.getDefault());
+        Connection clconn = newConnection(local9990);
+        MyRequest clreq=new MyRequest();
+        clconn.read(clreq);
+        try {
+            ((SslSocketChannel) clconn.conn).addHandshakeListener(new CallbackFuture<AsyncSocketChannel>()).get(2, TimeUnit.SECONDS);
+            fail("handshake succeeded");
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof SSLException);
+        }
+        assertEquals(clreq, clconn.finishedRequests.poll(2, TimeUnit.SECONDS));
+        assertNotNull(clreq.getExc());
+        assertTrue(clconn.conn.isClosed());
+
+        server.close();
+    }
+}
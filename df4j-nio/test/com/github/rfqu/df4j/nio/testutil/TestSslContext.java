@@ -0,0 +1,41 @@
+package com.github.rfqu.df4j.nio.testutil;
+
+import java.io.InputStream;
+import java.security.KeyStore;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * SSL context with a self-signed certificate for "localhost", trusted by itself.
+ * The key store testkeys.p12 was made with
+ * <pre>
+ * keytool -genkeypair -alias df4j -keyalg EC -groupname secp256r1 -validity 36500 -dname CN=localhost
+ *     -ext SAN=dns:localhost,ip:127.0.0.1 -storetype PKCS12 -storepass df4jtest -keystore testkeys.p12
+ * </pre>
+ */
+public class TestSslContext {
+    static final char[] PASSWORD="df4jtest".toCharArray();
+    private static SSLContext context;
+
+    public static synchronized SSLContext get() throws Exception {
+        if (context==null) {
+            KeyStore keys=KeyStore.getInstance("PKCS12");
+            InputStream in=TestSslContext.class.getResourceAsStream("testkeys.p12");
+            try {
+                keys.load(in, PASSWORD);
+            } finally {
+                in.close();
+            }
+            KeyManagerFactory kmf=KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            kmf.init(keys, PASSWORD);
+            TrustManagerFactory tmf=TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            tmf.init(keys);
+            SSLContext res=SSLContext.getInstance("TLS");
+            res.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+            context=res;
+        }
+        return context;
+    }
+}
@@ -0,0 +1,14 @@
+package com.github.rfqu.df4j.nio.bench;
+
+import com.github.rfqu.df4j.nio.AsyncChannelFactory1;
+
+/**
+ * Runs {@link DatagramRateBenchmark} with the Selector-based backend.
+ */
+public class DatagramRateBenchmark1 {
+
+    public static void main(String[] args) throws Exception {
+        new DatagramRateBenchmark(new AsyncChannelFactory1()).run(args);
+    }
+
+}
@@ -1,10 +1,14 @@
 package com.github.rfqu.df4j.nio.echo;
 
+import com.github.rfqu.df4j.nio.AsyncChannelFactory1;
+
 /**
  *  Runs tests with {@EchoServer2} launched in the same JVM.
  *  Can be run as Junit tests or as java application.
  */
 public class EchoServerLocTest1 extends EchoServerLocTest {
+    { t.asyncChannelFactory=new AsyncChannelFactory1();
+    }
 
     public static void main(String[] args) throws Exception {
         EchoServerLocTest.main(args);
@@ -0,0 +1,23 @@
+package com.github.rfqu.df4j.nio.echo;
+
+import com.github.rfqu.df4j.nio.AsyncChannelFactory1;
+import com.github.rfqu.df4j.nio.SslChannelFactory;
+import com.github.rfqu.df4j.nio.testutil.TestSslContext;
+
+/**
+ *  Runs tests with {@EchoServer} launched in the same JVM, over TLS on the Selector-based backend.
+ *  Can be run as Junit tests or as java application.
+ */
+public class EchoServerSslTest1 extends EchoServerLocTest {
+
+    public EchoServerSslTest1() throws Exception {
+        t.asyncChannelFactory=new SslChannelFactory(new AsyncChannelFactory1(), TestSslContext.get());
+    }
+
+    public static void main(String[] args) throws Exception {
+        EchoServerSslTest1 t=new EchoServerSslTest1();
+        t.mediumTest();
+        t.heavyTest();
+    }
+
+}
@@ -0,0 +1,35 @@
+package com.github.rfqu.df4j.nio.echo;
+
+import java.io.File;
+
+import com.github.rfqu.df4j.nio.AsyncChannelFactory1;
+import com.github.rfqu.df4j.nio.UnixDomainSockets;
+
+/**
+ *  Runs tests with {@EchoServer} launched in the same JVM, connected through a Unix domain socket.
+ *  Can be run as Junit tests or as java application; does nothing on runtimes without Unix domain sockets.
+ */
+public class EchoServerUnixTest1 extends EchoServerLocTest {
+    { t.asyncChannelFactory=new AsyncChannelFactory1();
+      if (UnixDomainSockets.isAvailable()) {
+          File file=new File(System.getProperty("java.io.tmpdir"), "df4j-echo.sock");
+          file.delete(); // left by a killed run
+          t.iaddr=UnixDomainSockets.newAddress(file.getPath());
+      }
+    }
+
+    @Override
+    public void localTest(int maxConn, int numclients, int rounds) throws Exception {
+        if (!UnixDomainSockets.isAvailable()) {
+            return;
+        }
+        super.localTest(maxConn, numclients, rounds);
+    }
+
+    public static void main(String[] args) throws Exception {
+        EchoServerUnixTest1 t=new EchoServerUnixTest1();
+        t.mediumTest();
+        t.heavyTest();
+    }
+
+}
@@ -17,9 +17,42 @@ public class AsyncChannelFactory1 extends AsyncChannelFactory {
         return new AsyncServerSocketChannel1(addr, callback);
     }
 
+    /**
+     * listening sockets are served by threads of the current {@link SelectorThreadPool}
+     */
+    @Override
+    public AsyncServerSocketChannel newAsyncServerSocketChannel
+       (SocketAddress addr, Callback<AsyncSocketChannel> callback, int acceptors)
+            throws IOException
+    {
+        if (acceptors==1) {
+            return new AsyncServerSocketChannel1(addr, callback);
+        }
+        if (UnixDomainSockets.isUnixDomain(addr)) {
+            throw new UnsupportedOperationException("acceptors="+acceptors+" for a Unix domain socket");
+        }
+        return new ReusePortServerSocketChannel1(addr, callback, acceptors);
+    }
+
     @Override
     public AsyncSocketChannel newAsyncSocketChannel(SocketAddress addr) throws IOException {
         return new AsyncSocketChannel1(addr);
     }
 
+    /**
+     * datagram channels are served by threads of the current {@link SelectorThreadPool}
+     */
+    @Override
+    public AsyncDatagramChannel newAsyncDatagramChannel(SocketAddress addr) throws IOException {
+        return new AsyncDatagramChannel1(addr);
+    }
+
+    /**
+     * Unix domain sockets are served by selector threads as TCP sockets, if the runtime supports them
+     */
+    @Override
+    public boolean isUnixDomainSupported() {
+        return UnixDomainSockets.isAvailable();
+    }
+
 }
\ No newline at end of file
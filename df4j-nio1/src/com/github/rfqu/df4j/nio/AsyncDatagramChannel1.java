@@ -0,0 +1,274 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.nio;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+
+/**
+ * Asynchronously sends and receives datagrams using {@link java.nio.channels.Selector}.
+ * <p>
+ * Both request queues run on the selector thread of the channel. When the selector reports
+ * that datagrams arrived, the receiving actor serves queued receive requests in one batch,
+ * until the channel has no more datagrams; only then the channel is registered
+ * for the next readiness event.
+ */
+public class AsyncDatagramChannel1 extends AsyncDatagramChannel {
+    /** all selector operations and request queues of this channel run on this thread */
+    private final SelectorThread selectorThread;
+    private final DatagramChannel channel;
+    private final SocketAddress localAddress;
+    private final SelectorListener selectorListener=new SelectorListener();
+    /** registration at the selector thread, cached to avoid lookups; null until registered */
+    private SelectionKey key;
+    /** interest ops set in the key; accessed on the selector thread only */
+    private int interestOps=0;
+
+    /**
+     * @param addr local address; null means an ephemeral port on the wildcard address
+     */
+    public AsyncDatagramChannel1(SocketAddress addr) throws IOException {
+        this(addr, SelectorThreadPool.getCurrentSelectorThreadPool().next());
+    }
+
+    /**
+     * @param addr local address; null means an ephemeral port on the wildcard address
+     * @param selectorThread thread to serve the channel
+     */
+    public AsyncDatagramChannel1(SocketAddress addr, SelectorThread selectorThread) throws IOException {
+        this.selectorThread=selectorThread;
+        channel=DatagramChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.socket().bind(addr);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        localAddress=channel.socket().getLocalSocketAddress();
+        selectorThread.channelOpened();
+        receiver = new ReceiverQueue();
+        sender = new SenderQueue();
+        receiver.resume();
+        sender.resume();
+    }
+
+    @Override
+    public SocketAddress getLocalAddress() {
+        return localAddress;
+    }
+
+    public DatagramChannel getChannel() {
+        return channel;
+    }
+
+    public SelectorThread getSelectorThread() {
+        return selectorThread;
+    }
+
+    /**
+     * disallows subsequent posts of requests; already posted requests
+     * fail with {@link AsynchronousCloseException}.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        selectorThread.channelClosed();
+        receiver.close();
+        sender.close();
+        try {
+            selectorThread.close(channel);
+        } finally {
+            // let queued requests fail
+            ((RequestQueue1) receiver).netOn();
+            ((RequestQueue1) sender).netOn();
+            postCloseEvent();
+        }
+    }
+
+    /**
+     * Sets interest in the selector operation.
+     * Does not touch the key if the interest is set already.
+     */
+    void interestOn(int op) throws ClosedChannelException {
+        if ((interestOps&op)!=0) {
+            return;
+        }
+        interestOps|=op;
+        if (key==null || !key.isValid()) {
+            key=selectorThread.registerNow(channel, interestOps, selectorListener);
+        } else {
+            key.interestOps(interestOps);
+        }
+    }
+
+    void interestOff(int op) {
+        if ((interestOps&op)==0) {
+            return;
+        }
+        interestOps&=~op;
+        if (key!=null && key.isValid()) {
+            key.interestOps(interestOps);
+        }
+    }
+
+    //===================== inner classes
+
+    abstract class RequestQueue1 extends RequestQueue {
+        /** is on when the channel may be ready */
+        Lockup net=new Lockup();
+        /** mirrors the state of net */
+        volatile boolean netReady=false;
+
+        public RequestQueue1() {
+            super(selectorThread);
+        }
+
+        void netOn() {
+            netReady=true;
+            net.on();
+        }
+
+        /**
+         * Called when the channel is ready for the operation.
+         * As in {@link AsyncSocketChannel1}, the interest is left set,
+         * and is switched off only if the previous readiness is still not consumed.
+         */
+        @Override
+        public void resume() {
+            if (netReady) {
+                interestOff(getSelectionKeyOp());
+            } else {
+                netOn();
+            }
+        }
+
+        /**
+         * puts request back into queue, and orders to wait next signal from selector
+         */
+        void waitNetwork() throws ClosedChannelException {
+            netReady=false;
+            net.off(); // do not react on next request
+            interestOn(getSelectionKeyOp());  // until selector notifies
+            pushback();
+        }
+
+        @Override
+        protected void act(DatagramIORequest<?> request) {
+            if (closed) {
+                request.postFailure(new AsynchronousCloseException());
+                return;
+            }
+            try {
+                serve(request);
+            } catch (IOException exc) {
+                request.postFailure(exc);
+            }
+        }
+
+        /**
+         * tries to execute the request, or calls {@link #waitNetwork()}
+         */
+        abstract void serve(DatagramIORequest<?> request) throws IOException;
+
+        abstract int getSelectionKeyOp();
+    }
+
+    class ReceiverQueue extends RequestQueue1 {
+        int getSelectionKeyOp() {
+            return SelectionKey.OP_READ;
+        }
+
+        /**
+         * A request without a buffer gets a pooled buffer only for the time of the receive attempt,
+         * and keeps it only if a datagram is received.
+         */
+        @Override
+        void serve(DatagramIORequest<?> request) throws IOException {
+            boolean lateBound=!request.isBound();
+            if (lateBound) {
+                request.bindBuffer(getBufferPool());
+            }
+            ByteBuffer buf=request.getBuffer();
+            int start=buf.position();
+            SocketAddress source;
+            try {
+                source=channel.receive(buf);
+            } catch (IOException exc) {
+                if (lateBound) {
+                    request.releaseBuffer();
+                }
+                throw exc;
+            }
+            if (source==null) {
+                // no more datagrams
+                if (lateBound) {
+                    request.releaseBuffer();
+                }
+                waitNetwork();
+                return;
+            }
+            receivedCount++;
+            request.setAddress(source);
+            request.post(buf.position()-start);
+        }
+
+        @Override
+        protected void complete() throws Exception {
+        }
+    }
+
+    class SenderQueue extends RequestQueue1 {
+        int getSelectionKeyOp() {
+            return SelectionKey.OP_WRITE;
+        }
+
+        /**
+         * a datagram is sent entirely, or not at all when the socket's send buffer is full
+         */
+        @Override
+        void serve(DatagramIORequest<?> request) throws IOException {
+            int numSent=channel.send(request.getBuffer(), request.getAddress());
+            if (numSent==0) {
+                waitNetwork();
+                return;
+            }
+            sentCount++;
+            request.post(numSent);
+        }
+
+        @Override
+        protected void complete() throws Exception {
+        }
+    }
+
+    class SelectorListener implements SelectorEventListener {
+        /** called on selector thread */
+        @Override
+        public void onSelectorEvent(SelectionKey key) {
+            if (key.isValid() && key.isReadable()) {
+                receiver.resume();
+            }
+            if (key.isValid() && key.isWritable()) {
+                sender.resume();
+            }
+        }
+    }
+}
@@ -29,13 +29,33 @@ public class AsyncServerSocketChannel1 extends AsyncServerSocketChannel
  {
     private ServerSocketChannel channel;
     private SelectorThread selectorThread;
+    /** selector threads to serve accepted channels */
+    private SelectorThreadPool workers;
+    /** the protocol family of accepted channels */
+    private final boolean unixDomain;
 
     public AsyncServerSocketChannel1(SocketAddress addr, Callback<AsyncSocketChannel> acceptor) throws IOException {
+        this(addr, acceptor, SelectorThreadPool.getCurrentSelectorThreadPool());
+    }
+
+    /**
+     * @param addr an inet address, or a Unix domain socket address
+     * @param workers accepted channels are assigned to selector threads of this pool
+     */
+    public AsyncServerSocketChannel1(SocketAddress addr, Callback<AsyncSocketChannel> acceptor,
+            SelectorThreadPool workers) throws IOException
+    {
         super(addr, acceptor);
+        this.workers=workers;
         selectorThread = SelectorThread.getCurrentSelectorThread();
-        channel = ServerSocketChannel.open();
+        unixDomain=UnixDomainSockets.isUnixDomain(addr);
+        if (unixDomain) {
+            channel = UnixDomainSockets.openServerSocketChannel(addr);
+        } else {
+            channel = ServerSocketChannel.open();
+            channel.socket().bind(addr);
+        }
         channel.configureBlocking(false);
-        channel.socket().bind(addr);
     }
 
     /**
@@ -82,7 +102,7 @@ public class AsyncServerSocketChannel1 extends AsyncServerSocketChannel
                 if (sch==null) {
                     break;
                 }
-                acceptor.post(new AsyncSocketChannel1(sch));
+                acceptor.post(new AsyncSocketChannel1(sch, workers.next(), unixDomain));
             } catch (IOException e) {
                 acceptor.postFailure(e);
             }
@@ -95,8 +115,8 @@ public class AsyncServerSocketChannel1 extends AsyncServerSocketChannel
         // first repeat attempt to connect, as some time passed
         // since previous attempt, and there was no registration
         boolean allAccepted=tryAccept();
-        if (allAccepted) {
-            return; // 
+        if (allAccepted || channel==null) {
+            return; // or closed meanwhile
         }
         // now register to listen accept requests
         try {
@@ -114,14 +134,25 @@ public class AsyncServerSocketChannel1 extends AsyncServerSocketChannel
     }
 
 //    @Override
-    public synchronized void close() {
+    public void close() {
+        ServerSocketChannel ch;
+        synchronized (this) {
+            ch=channel;
+            if (ch==null) {
+                return;
+            }
+            channel = null;
+        }
         try {
-            channel.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+            // not under the lock: the selector thread may wait for it in onSelectorEvent
+            selectorThread.close(ch);
+        } finally {
+            if (unixDomain) {
+                // so that the address can be bound again
+                UnixDomainSockets.deleteSocketFile(addr);
+            }
+            closeEvent.post(addr);
         }
-        channel = null;
-        closeEvent.post(addr);
     }
 
     public boolean isClosed() {
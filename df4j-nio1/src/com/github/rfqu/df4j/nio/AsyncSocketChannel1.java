@@ -14,8 +14,9 @@ package com.github.rfqu.df4j.nio;
 
 import java.io.IOException;
 import java.net.SocketAddress;
-import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
 import java.nio.channels.ClosedChannelException;
+import java.nio.channels.InterruptedByTimeoutException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 
@@ -34,14 +35,16 @@ import com.github.rfqu.df4j.nio.SocketIORequest;
  * the read/write methods.
  */
 public class AsyncSocketChannel1 extends AsyncSocketChannel {
-	private SelectorThread selectorThread = SelectorThread
-			.getCurrentSelectorThread();
+	/** all selector operations and request queues of this channel run on this thread */
+	private final SelectorThread selectorThread;
 	protected volatile SocketChannel socketChannel;
+	/** true for a Unix domain socket, which has no TCP options; known when the channel is opened or accepted */
+	private final boolean unixDomain;
 	private final SelectorListener selectorListener=new SelectorListener();
-    {
-        reader = new ReaderQueue();
-        writer = new WriterQueue();
-    }
+	/** registration at the selector thread, cached to avoid lookups; null until registered */
+	private SelectionKey key;
+	/** interest ops set in the key; accessed on the selector thread only */
+	private int interestOps=0;
    
     /**
 	 * for server-side socket
@@ -50,12 +53,42 @@ public class AsyncSocketChannel1 extends AsyncSocketChannel {
 	 * @throws IOException
 	 */
 	public AsyncSocketChannel1(SocketChannel channel) throws IOException {
+		this(channel, SelectorThreadPool.getCurrentSelectorThreadPool().next());
+	}
+
+    /**
+	 * for server-side socket; the protocol family is looked up with a system call
+	 * 
+	 * @param channel accepted socket
+	 * @param selectorThread thread to serve the channel
+	 * @throws IOException
+	 */
+	public AsyncSocketChannel1(SocketChannel channel, SelectorThread selectorThread) throws IOException {
+		this(channel, selectorThread, UnixDomainSockets.isUnixDomain(channel));
+	}
+
+    /**
+	 * for server-side socket accepted by a listening socket of known protocol family
+	 * 
+	 * @param channel accepted socket
+	 * @param selectorThread thread to serve the channel
+	 * @param unixDomain true if the channel is a Unix domain socket channel
+	 * @throws IOException
+	 */
+	public AsyncSocketChannel1(SocketChannel channel, SelectorThread selectorThread, boolean unixDomain) throws IOException {
+		this.selectorThread=selectorThread;
+		this.unixDomain=unixDomain;
+        reader = new ReaderQueue();
+        writer = new WriterQueue();
 		init(channel);
+		selectorThread.channelOpened(); // counted when set up successfully
 	}
 
 	void init(SocketChannel channel) throws IOException {
         channel.configureBlocking(false);
-	    channel.socket().setTcpNoDelay(true);
+        if (!unixDomain) {
+            channel.socket().setTcpNoDelay(true);
+        }
 	    socketChannel = channel;
 		reader.resume();
 		writer.resume();
@@ -71,9 +104,29 @@ public class AsyncSocketChannel1 extends AsyncSocketChannel {
 	 * @throws IOException
 	 */
 	public AsyncSocketChannel1(final SocketAddress addr) throws IOException {
+		this(addr, SelectorThreadPool.getCurrentSelectorThreadPool().next());
+	}
+
+	/**
+	 * for client-side socket, served by the given selector thread
+	 * 
+	 * @throws IOException
+	 */
+	public AsyncSocketChannel1(final SocketAddress addr, SelectorThread selectorThread) throws IOException {
+		this.selectorThread=selectorThread;
+		this.unixDomain=UnixDomainSockets.isUnixDomain(addr);
+        reader = new ReaderQueue();
+        writer = new WriterQueue();
 		// Create a non-blocking socket channel
-		final SocketChannel channel = SocketChannel.open();
-		channel.configureBlocking(false);
+		final SocketChannel channel = unixDomain?
+		        UnixDomainSockets.openSocketChannel(): SocketChannel.open();
+		try {
+		    channel.configureBlocking(false);
+		} catch (IOException e) {
+		    channel.close();
+		    throw e;
+		}
+		selectorThread.channelOpened(); // counted when set up successfully
 		selectorThread.execute(new Task(){
             @Override
             public void run() {
@@ -84,22 +137,39 @@ public class AsyncSocketChannel1 extends AsyncSocketChannel {
                         init(channel);
                     } else {
                         // Kick off connection establishment
-                        selectorThread.registerNow(channel, SelectionKey.OP_CONNECT,
+                        key=selectorThread.registerNow(channel, SelectionKey.OP_CONNECT,
                                 selectorListener);
+                        interestOps=SelectionKey.OP_CONNECT;
                     }
                 } catch (IOException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
+                    connectFailed(channel, e);
                 }
             }
          });
 	}
 
+	/**
+	 * connection failed: the socket is closed, and connection listeners get the failure
+	 */
+	void connectFailed(SocketChannel channel, IOException e) {
+	    try {
+	        channel.close(); // not set as socketChannel yet
+	    } catch (IOException e1) {
+	        e1.printStackTrace();
+	    }
+	    close();
+	    connEvent.postFailure(e);
+	}
+
 	public <R extends Callback<AsyncSocketChannel>> R addConnListener(R listener) {
 		connEvent.addListener(listener);
 		return listener;
 	}
 
+	public SelectorThread getSelectorThread() {
+		return selectorThread;
+	}
+
 	// ================== StreamPort I/O interface
 
 	/**
@@ -108,13 +178,17 @@ public class AsyncSocketChannel1 extends AsyncSocketChannel {
 	 */
 	@Override
 	public void close() {
-	    if (closed) {
-	        return;
+	    synchronized (this) {
+	        if (closed) {
+	            return;
+	        }
+	        closed = true;
 	    }
-		closed = true;
+		selectorThread.channelClosed();
 		reader.close();
 		writer.close();
 		if (socketChannel==null) { // this may happen if connection rejected
+		    postCloseEvent();
 		    return;
 		}
         try {
@@ -124,17 +198,36 @@ public class AsyncSocketChannel1 extends AsyncSocketChannel {
             e.printStackTrace();
         } finally {
             socketChannel=null;
+            postCloseEvent();
         }
 	}
 
 	// ===================== inner classes
 
+    /**
+     * Sets interest in the selector operation.
+     * Does not touch the key if the interest is set already.
+     */
     void interestOn(int op) throws ClosedChannelException {
-        selectorThread.registerNow(socketChannel, op, selectorListener);
+        if ((interestOps&op)!=0) {
+            return;
+        }
+        interestOps|=op;
+        if (key==null || !key.isValid()) {
+            key=selectorThread.registerNow(socketChannel, interestOps, selectorListener);
+        } else {
+            key.interestOps(interestOps);
+        }
     }
 
-    void interestOff(int op) throws ClosedChannelException {
-        selectorThread.interestOff(socketChannel, op);
+    void interestOff(int op) {
+        if ((interestOps&op)==0) {
+            return;
+        }
+        interestOps&=~op;
+        if (key!=null && key.isValid()) {
+            key.interestOps(interestOps);
+        }
     }
 
     abstract class RequestQueue1 extends RequestQueue {
@@ -145,18 +238,46 @@ public class AsyncSocketChannel1 extends AsyncSocketChannel {
 
         /** is on when resources from network are available */
 	    Lockup net=new Lockup();
+	    /** mirrors the state of net */
+	    volatile boolean netReady=false;
+	    /** the timed request which waits for the network */
+	    SocketIORequest<?> timedRequest;
+	    /** set when the timeout of timedRequest expired */
+	    boolean timedOut=false;
+	    /** expiration of timedRequest, scheduled at the selector thread */
+	    final DeadlineQueue.Deadline deadline=new DeadlineQueue.Deadline() {
+	        @Override
+	        void expired() {
+	            // let act() fail the waiting request
+	            timedOut=true;
+	            netOn();
+	        }
+	    };
 
-        public void resume() {
+        void netOn() {
+            netReady=true;
             net.on();
-            try {
+        }
+
+        /**
+         * Called when the channel is ready for the operation.
+         * The interest is left set, so that a reader or writer which drains
+         * the channel and has to wait again does not change the key.
+         * Only if the previous readiness is still not consumed, there is
+         * nobody to serve the channel, and the interest is switched off,
+         * to stop the selector from reporting the same readiness again.
+         */
+        public void resume() {
+            if (netReady) {
                 interestOff(getSelectionKeyOp());
-            } catch (ClosedChannelException e) {
+            } else {
+                netOn();
             }
         }
 
         @Override
         public synchronized void post(SocketIORequest<?> request) {
-            if (!request.getBuffer().hasRemaining()) {
+            if (!isAcceptable(request)) {
                 request.postFailure(new IllegalArgumentException());
                 return;
             }
@@ -165,10 +286,47 @@ public class AsyncSocketChannel1 extends AsyncSocketChannel {
         
         /** called when a request could not be executed immediately */
         void interestOn() throws ClosedChannelException {
+            netReady=false;
             net.off(); // do not react on next request
             AsyncSocketChannel1.this.interestOn(getSelectionKeyOp());  // until selector notifies
         }
 
+        /**
+         * puts request back into queue, and orders to wait next signal from selector.
+         * Starts the timeout when a timed request waits for the first time.
+         */
+        void waitNetwork(SocketIORequest<?> request) throws ClosedChannelException {
+            if (request.isTimed() && request!=timedRequest) {
+                timedRequest=request;
+                selectorThread.schedule(deadline, request.getTimeout());
+            }
+            interestOn();
+            pushback();
+        }
+
+        @Override
+        protected void act(SocketIORequest<?> request) {
+            if (timedOut && request==timedRequest) {
+                timedRequest=null;
+                timedOut=false;
+                request.postFailure(new InterruptedByTimeoutException());
+                return;
+            }
+            boolean waiting=serve(request);
+            if (!waiting && timedRequest!=null) {
+                // the timed request is served
+                selectorThread.cancel(deadline);
+                timedRequest=null;
+                timedOut=false;
+            }
+        }
+
+        /**
+         * tries to execute the request
+         * @return true if the request waits for the network
+         */
+        abstract boolean serve(SocketIORequest<?> request);
+
         abstract int getSelectionKeyOp(); 
  	}
 
@@ -177,36 +335,57 @@ public class AsyncSocketChannel1 extends AsyncSocketChannel {
             return SelectionKey.OP_READ;
         }
 	    /**
+	     * A request without a buffer gets a pooled buffer only for the time of the read attempt,
+	     * and keeps it only if some data are read.
 	     * @param request
-	     * @throws ClosedChannelException 
 	     */
 		@Override
-        public void act(SocketIORequest<?> request) {
-            ByteBuffer readBuffer = request.getBuffer();
+        boolean serve(SocketIORequest<?> request) {
+            boolean lateBound=!request.isBound();
+            if (lateBound) {
+                request.bindBuffer(getBufferPool());
+            }
             // Attempt to read off the channel
             int numRead;
+            SocketChannel ch=socketChannel;
             try {
-                numRead = socketChannel.read(readBuffer);
+                if (ch==null) {
+                    // closed while requests were queued
+                    throw new AsynchronousCloseException();
+                }
+                if (request.isVectored()) {
+                    // scattering read
+                    numRead = (int) ch.read(request.getBuffers(), request.getOffset(), request.getLength());
+                } else {
+                    numRead = ch.read(request.getBuffer());
+                }
             } catch (IOException exc) {
+                if (lateBound) {
+                    request.releaseBuffer();
+                }
                 request.postFailure(exc);
                 close(); // what TODO with the remaining requests?
-                return;
+                return false;
+            }
+            if (lateBound && numRead<=0) {
+                // nothing to hand over to the request
+                request.releaseBuffer();
             }
             if (numRead == -1) {
                 // Remote entity shut the socket down cleanly. Do the
                 // same from our end and cancel the channel.
                 request.post(-1); // TODO define how to signal end of stream
                 close(); // what TODO with the remaining requests?
-            } else if (!request.getBuffer().hasRemaining()) {
-                // buffer is full;
+            } else if (request.isBound() && !request.hasRemaining()) {
+                // buffers are full;
                 request.post(numRead);
             } else if (numRead == 0) {
                 // no data available, put request back into queue,
                 // and order to wait next signal from selector,
                 // then repeat attempt to read to the same buffer
                 try {
-                    interestOn();
-                    pushback();
+                    waitNetwork(request);
+                    return true;
                 } catch (ClosedChannelException e) {
                     request.postFailure(e);
                     close(); // what TODO with the remaining requests?
@@ -214,6 +393,7 @@ public class AsyncSocketChannel1 extends AsyncSocketChannel {
             } else {
                 request.post(numRead);
             }
+            return false;
 		}
 		
         @Override
@@ -223,42 +403,65 @@ public class AsyncSocketChannel1 extends AsyncSocketChannel {
 	}
 
 	class WriterQueue extends RequestQueue1 {
+	    /** the head request and requests queued after it, written together */
+	    final WriteBatch batch=new WriteBatch();
+
 	    int getSelectionKeyOp() { 
 	        return SelectionKey.OP_WRITE;
 	    }
 
+	    /**
+	     * Writes buffers of all queued requests with one gathering write.
+	     * Requests written completely are completed when they reach the head of the queue.
+	     */
 		@Override
-		protected void act(SocketIORequest<?> request) {
-            ByteBuffer writeBuffer = request.getBuffer();
-            int numWrit;
+		boolean serve(SocketIORequest<?> request) {
+		    batch.setHead(request);
+		    if (batch.isHeadWritten()) {
+		        // written by a previous gathering write
+		        batch.completeHead();
+		        return false;
+		    }
+		    batch.collect(input);
+            long numWrit;
+            batch.beforeWrite();
+            SocketChannel ch=socketChannel;
             try {
-                numWrit = socketChannel.write(writeBuffer);
+                if (ch==null) {
+                    throw new AsynchronousCloseException();
+                }
+                numWrit = ch.write(batch.getBuffers(), 0, batch.bufferCount());
             } catch (IOException exc) {
+                batch.clear();
                 request.postFailure(exc);
                 close();
-                return;
+                return false;
             }
+            batch.afterWrite();
             if (numWrit == -1) {
                 // Remote entity shut the socket down cleanly. Do the
                 // same from our end and cancel the channel.
+                batch.clear();
                 request.post(-1); // TODO define how to signal end of stream
                 close();
-            } else if (!request.getBuffer().hasRemaining()) {
+            } else if (batch.isHeadWritten()) {
                 // all data from buffer written to socket
-                request.post(numWrit);
+                batch.completeHead();
             } else {
                 // not all data from buffer written
                 // put request back into queue,
                 // and order to wait next signal from selector,
-                // then repeat attempt to read to the same buffer
+                // then repeat attempt to write the rest of the batch
                 try {
-                    interestOn();
-                    pushback();
+                    waitNetwork(request);
+                    return true;
                 } catch (ClosedChannelException e) {
+                    batch.clear();
                     request.postFailure(e);
                     close(); // what TODO with the remaining requests?
                 }
             }
+            return false;
 		}
 
         @Override
@@ -277,11 +480,10 @@ public class AsyncSocketChannel1 extends AsyncSocketChannel {
 	            try {
 	                SocketChannel channel = (SocketChannel) key.channel();
 	                channel.finishConnect();
-	                selectorThread.interestOff(channel, SelectionKey.OP_CONNECT);
+	                interestOff(SelectionKey.OP_CONNECT);
 	                init(channel);
 	            } catch (IOException e) {
-	                e.printStackTrace();
-	                AsyncSocketChannel1.this.close(); // TODO send failure
+	                connectFailed((SocketChannel) key.channel(), e);
 	            }
 	        }
 	        if (key.isValid()&& key.isReadable()) {
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.nio;
+
+/**
+ * Binary heap of deadlines, ordered by time.
+ * Each deadline keeps its position in the heap, so it can be removed
+ * in logarithmic time. Not thread-safe: owned by a single selector thread.
+ */
+class DeadlineQueue {
+    private Deadline[] heap=new Deadline[16];
+    private int size=0;
+
+    boolean isEmpty() {
+        return size==0;
+    }
+
+    /**
+     * @return the earliest deadline, or null
+     */
+    Deadline peek() {
+        return size==0? null: heap[0];
+    }
+
+    void add(Deadline deadline) {
+        if (deadline.index>=0) {
+            throw new IllegalStateException("already scheduled");
+        }
+        if (size==heap.length) {
+            Deadline[] newHeap=new Deadline[size*2];
+            System.arraycopy(heap, 0, newHeap, 0, size);
+            heap=newHeap;
+        }
+        siftUp(size++, deadline);
+    }
+
+    /**
+     * @return true if the deadline was in the queue
+     */
+    boolean remove(Deadline deadline) {
+        int index=deadline.index;
+        if (index<0) {
+            return false;
+        }
+        deadline.index=-1;
+        Deadline last=heap[--size];
+        heap[size]=null;
+        if (index!=size) {
+            siftDown(index, last);
+            if (heap[index]==last) {
+                siftUp(index, last);
+            }
+        }
+        return true;
+    }
+
+    private void siftUp(int index, Deadline deadline) {
+        while (index>0) {
+            int parent=(index-1)>>>1;
+            Deadline p=heap[parent];
+            if (p.time-deadline.time<=0) {
+                break;
+            }
+            heap[index]=p;
+            p.index=index;
+            index=parent;
+        }
+        heap[index]=deadline;
+        deadline.index=index;
+    }
+
+    private void siftDown(int index, Deadline deadline) {
+        int half=size>>>1;
+        while (index<half) {
+            int child=(index<<1)+1;
+            Deadline c=heap[child];
+            int right=child+1;
+            if (right<size && c.time-heap[right].time>0) {
+                child=right;
+                c=heap[child];
+            }
+            if (deadline.time-c.time<=0) {
+                break;
+            }
+            heap[index]=c;
+            c.index=index;
+            index=child;
+        }
+        heap[index]=deadline;
+        deadline.index=index;
+    }
+
+    /**
+     * An action to be run by the selector thread at a given time.
+     */
+    static abstract class Deadline {
+        /** System.nanoTime() of expiration */
+        long time;
+        /** position in the heap, -1 if not scheduled */
+        int index=-1;
+
+        boolean isScheduled() {
+            return index>=0;
+        }
+
+        /** called on the selector thread */
+        abstract void expired();
+    }
+}
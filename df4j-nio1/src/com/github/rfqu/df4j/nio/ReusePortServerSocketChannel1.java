@@ -0,0 +1,242 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.nio;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import com.github.rfqu.df4j.core.Callback;
+
+/**
+ * Server socket with several listening sockets bound to the same address with SO_REUSEPORT.
+ * Each listening socket is served by its own selector thread, so connections
+ * are accepted in parallel. All accepted channels are posted to the same acceptor.
+ * <p>
+ * Accept permits granted with {@link #up(int)} are shared by all listening sockets,
+ * and the total number of accepted connections never exceeds them.
+ */
+public class ReusePortServerSocketChannel1 extends AsyncServerSocketChannel {
+    private final Listener[] listeners;
+    /** selector threads to serve accepted channels */
+    private final SelectorThreadPool workers;
+    private volatile boolean closed=false;
+
+    /**
+     * @param acceptors number of listening sockets; they are spread over the threads of workers
+     * @param workers accepted channels are assigned to selector threads of this pool
+     * @throws UnsupportedOperationException if SO_REUSEPORT is not supported
+     */
+    public ReusePortServerSocketChannel1(SocketAddress addr, Callback<AsyncSocketChannel> acceptor,
+            int acceptors, SelectorThreadPool workers) throws IOException
+    {
+        super(addr, acceptor);
+        if (acceptors<=0) {
+            throw new IllegalArgumentException("acceptors="+acceptors);
+        }
+        this.workers=workers;
+        listeners=new Listener[acceptors];
+        try {
+            for (int k=0; k<acceptors; k++) {
+                listeners[k]=new Listener(workers.get(k%workers.size()));
+            }
+        } catch (IOException e) {
+            closeListeners();
+            throw e;
+        } catch (RuntimeException e) {
+            closeListeners();
+            throw e;
+        }
+    }
+
+    public ReusePortServerSocketChannel1(SocketAddress addr, Callback<AsyncSocketChannel> acceptor,
+            int acceptors) throws IOException
+    {
+        this(addr, acceptor, acceptors, SelectorThreadPool.getCurrentSelectorThreadPool());
+    }
+
+    public int getAcceptorCount() {
+        return listeners.length;
+    }
+
+    /**
+     * grants more accept permits, and wakes up the listening sockets
+     */
+    @Override
+    public void up(int delta) {
+        if (delta<0) {
+            throw new IllegalArgumentException();
+        }
+        if (isClosed()) {
+            throw new IllegalStateException();
+        }
+        synchronized (this) {
+            maxConn+=delta;
+        }
+        for (Listener listener: listeners) {
+            listener.selectorThread.execute(listener);
+        }
+    }
+
+    /**
+     * @return true if a permit is taken
+     */
+    synchronized boolean takePermit() {
+        if (maxConn==0) {
+            return false;
+        }
+        maxConn--;
+        return true;
+    }
+
+    synchronized void returnPermit() {
+        maxConn++;
+    }
+
+    synchronized boolean hasPermits() {
+        return maxConn>0;
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed=true;
+        }
+        try {
+            closeListeners();
+        } finally {
+            closeEvent.post(addr);
+        }
+    }
+
+    /**
+     * closes all listeners, even if some of them time out
+     */
+    private void closeListeners() {
+        RuntimeException failure=null;
+        for (Listener listener: listeners) {
+            if (listener==null) {
+                continue;
+            }
+            try {
+                listener.close();
+            } catch (RuntimeException e) {
+                failure=e;
+            }
+        }
+        if (failure!=null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * One listening socket, with its selector thread.
+     * Accepting and closing run on that thread only.
+     */
+    class Listener implements Runnable, SelectorEventListener {
+        final SelectorThread selectorThread;
+        final ServerSocketChannel channel;
+        /** true when registered for OP_ACCEPT; accessed on the selector thread only */
+        boolean registered=false;
+
+        Listener(SelectorThread selectorThread) throws IOException {
+            this.selectorThread=selectorThread;
+            channel=ServerSocketChannel.open();
+            try {
+                channel.configureBlocking(false);
+                ReusePort.enable(channel);
+                channel.socket().bind(addr);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            } catch (RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Accepts connections while there are permits.
+         * A failed accept uses up its permit, as the acceptor is told of the failure,
+         * and stops this round: errors like EMFILE persist, and are retried
+         * on the next selector event only.
+         * @return true if permits are exhausted
+         */
+        boolean tryAccept() {
+            while (takePermit()) {
+                SocketChannel sch;
+                try {
+                    sch = channel.accept();
+                } catch (IOException e) {
+                    if (!channel.isOpen()) {
+                        return true;
+                    }
+                    acceptor.postFailure(e);
+                    return !hasPermits();
+                }
+                if (sch==null) {
+                    returnPermit();
+                    return false;
+                }
+                try {
+                    acceptor.post(new AsyncSocketChannel1(sch, workers.next(), false)); // TCP only
+                } catch (IOException e) {
+                    acceptor.postFailure(e);
+                }
+            }
+            return true;
+        }
+
+        /** permits granted: accept pending connections, then wait for more */
+        @Override
+        public void run() {
+            if (!channel.isOpen()) {
+                return;
+            }
+            boolean exhausted=tryAccept();
+            if (exhausted || registered) {
+                return;
+            }
+            try {
+                selectorThread.registerNow(channel, SelectionKey.OP_ACCEPT, this);
+                registered=true;
+            } catch (ClosedChannelException e) {
+                // closed concurrently
+            }
+        }
+
+        /** new clients want to connect */
+        @Override
+        public void onSelectorEvent(SelectionKey key) {
+            boolean exhausted=tryAccept();
+            if (exhausted && registered && key.isValid() && !hasPermits()) {
+                // stop reporting readiness until permits are granted;
+                // up() reruns this listener after granting
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_ACCEPT);
+                registered=false;
+            }
+        }
+
+        void close() {
+            selectorThread.close(channel);
+        }
+    }
+}
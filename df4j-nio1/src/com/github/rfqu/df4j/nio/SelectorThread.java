@@ -6,29 +6,57 @@ import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
+import com.github.rfqu.df4j.core.CallbackFuture;
 import com.github.rfqu.df4j.core.DFContext;
 import com.github.rfqu.df4j.core.DFContext.ItemKey;
-import com.github.rfqu.df4j.core.DoublyLinkedQueue;
+import com.github.rfqu.df4j.core.MPSCTaskQueue;
+import com.github.rfqu.df4j.core.NodeRegistry;
 import com.github.rfqu.df4j.core.Task;
 
-public class SelectorThread implements Runnable, Executor {
+public class SelectorThread implements Runnable, Executor, NodeRegistry.Introspectable {
     DFContext context;
     private Thread thrd;
 	// The selector we'll be monitoring
 	private Selector selector;
-    private boolean running=false;
-	private DoublyLinkedQueue<Task> tasks=new DoublyLinkedQueue<Task>();
+	private final MPSCTaskQueue tasks=new MPSCTaskQueue();
+    /** 1 when the selector thread is blocked, or is going to block, in select() */
+    private volatile int selecting=0;
+    private static final AtomicIntegerFieldUpdater<SelectorThread> selectingUpdater
+        = AtomicIntegerFieldUpdater.newUpdater(SelectorThread.class, "selecting");
+	/** number of socket channels assigned to this thread */
+	private final AtomicInteger channelCount=new AtomicInteger();
+	/** how long to spin on selectNow() before blocking in select(), 0 to block at once */
+	private volatile long busyPollNanos=0;
+	/** modified by the selector thread only */
+	private volatile long spinHits=0;
+	private volatile long blockingSelects=0;
+	/** request timeouts; accessed by the selector thread only */
+	private final DeadlineQueue deadlines=new DeadlineQueue();
+	/** how long {@link #close(SelectableChannel)} waits for the selector thread */
+	static final long CLOSE_TIMEOUT_MILLIS=1000;
+	/** the selector thread running on the current thread, if any */
+	private static final ThreadLocal<SelectorThread> currentThread=new ThreadLocal<SelectorThread>();
 
     public SelectorThread(DFContext context) throws IOException {
+        this(context, "SelectorThread");
+    }
+
+    public SelectorThread(DFContext context, String name) throws IOException {
         this.context=context;
         // Create a new selector
         this.selector = Selector.open();
 		thrd=new Thread(this);
 		thrd.setDaemon(true);
-		thrd.setName("SelectorThread");
+		thrd.setName(name);
 		thrd.start(); // TODO kill suicide when not used
+		NodeRegistry.registerResource(this);
     }
 
     @Override
@@ -40,33 +68,194 @@ public class SelectorThread implements Runnable, Executor {
                 command.run();
             }
         };
-        boolean doFire;
-        synchronized (this) {
-            tasks.add(task);
-            doFire = !running;
-            running = true;
-        }
-        if (doFire) {
+        tasks.add(task);
+        // wake up only if the loop is blocked, and only once per select()
+        if (selecting==1 && selectingUpdater.compareAndSet(this, 1, 0)) {
             selector.wakeup();
         }
     }
+    
+    /**
+     * Sets busy-poll mode. When there is nothing to do, the thread spins
+     * on {@link Selector#selectNow()} and on its task queue for the given duration,
+     * and only then blocks in {@link Selector#select()}.
+     * This burns a core, but saves latency of blocking and wakeup
+     * for channels served by this thread.
+     * @param duration spin duration; 0 switches busy-poll mode off
+     */
+    public void setBusyPoll(long duration, TimeUnit unit) {
+        busyPollNanos=unit.toNanos(duration);
+    }
+
+    /**
+     * @return busy-poll duration in nanoseconds, 0 if busy-poll mode is off
+     */
+    public long getBusyPollNanos() {
+        return busyPollNanos;
+    }
+
+    /**
+     * @return number of times spinning found a selected key or a task
+     */
+    public long getSpinHits() {
+        return spinHits;
+    }
+
+    /**
+     * @return number of calls to blocking {@link Selector#select()}
+     */
+    public long getBlockingSelects() {
+        return blockingSelects;
+    }
+
+    /**
+     * @return number of open socket channels assigned to this thread
+     */
+    public int getChannelCount() {
+        return channelCount.get();
+    }
+
+    void channelOpened() {
+        channelCount.incrementAndGet();
+    }
+
+    void channelClosed() {
+        channelCount.decrementAndGet();
+    }
 
-    synchronized Task nextTask() {
-        Task task=tasks.poll();
-        if (task==null) {
-            running=false;
+    /**
+     * @return number of registered selection keys and assigned channels,
+     *   presence of pending tasks, and if the thread is blocked in select()
+     */
+    @Override
+    public String getStateDescription() {
+        return "keys="+selector.keys().size()+" channels="+channelCount.get()
+            +" tasks="+(tasks.isEmpty()?"none":"pending")+" selecting="+(selecting==1)
+            +" spinHits="+spinHits+" blockingSelects="+blockingSelects;
+    }
+
+    /**
+     * Schedules the deadline to expire after the timeout, or reschedules it
+     * if it is already scheduled. Must be called on the selector thread.
+     */
+    void schedule(DeadlineQueue.Deadline deadline, long timeoutMillis) {
+        deadlines.remove(deadline);
+        deadline.time=System.nanoTime()+TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        deadlines.add(deadline);
+    }
+
+    /**
+     * Removes the deadline, if scheduled. Must be called on the selector thread.
+     */
+    void cancel(DeadlineQueue.Deadline deadline) {
+        deadlines.remove(deadline);
+    }
+
+    /**
+     * Runs expired deadlines.
+     * @return milliseconds until the next deadline, or 0 if there are none
+     */
+    private long expireDeadlines() {
+        for (;;) {
+            DeadlineQueue.Deadline first=deadlines.peek();
+            if (first==null) {
+                return 0;
+            }
+            long left=first.time-System.nanoTime();
+            if (left>0) {
+                // round up, so that select(timeout) does not return too early
+                return (left+999999)/1000000;
+            }
+            deadlines.remove(first);
+            first.expired();
         }
-        return task;
     }
-    
-    void registerNow(SelectableChannel socket, int ops, SelectorEventListener att) throws ClosedChannelException {
+
+    /**
+     * @return the key of the channel at this selector
+     */
+    SelectionKey registerNow(SelectableChannel socket, int ops, SelectorEventListener att) throws ClosedChannelException {
         SelectionKey key = socket.keyFor(selector);
         if (key==null || !key.isValid()) {
-            socket.register(selector, ops, att);
+            key=socket.register(selector, ops, att);
         } else {
             int interestOps = key.interestOps();
             key.interestOps(ops|interestOps);
         }
+        return key;
+    }
+
+    /**
+     * @return true if called on this selector thread
+     */
+    boolean isCurrentThread() {
+        return Thread.currentThread()==thrd;
+    }
+
+    /**
+     * @return true if called on any selector thread
+     */
+    static boolean isSelectorThread() {
+        return currentThread.get()!=null;
+    }
+
+    /**
+     * Closes a channel registered at this selector.
+     * A registered channel is closed only when its key is deregistered,
+     * which happens at the next select; so the channel is closed on the selector thread,
+     * and the key is deregistered at once, so that, for example, a listening address
+     * can be bound again when this method returns.
+     * When called on the selector thread, the channel is closed at the next select.
+     * When called on another selector thread, the channel is closed asynchronously,
+     * as waiting would stall all channels of the calling thread.
+     * @throws IllegalStateException if the selector thread does not close the channel
+     *    in {@link #CLOSE_TIMEOUT_MILLIS}; the channel is still closed later
+     */
+    void close(final SelectableChannel channel) {
+        if (isCurrentThread()) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        final CallbackFuture<Boolean> closed=new CallbackFuture<Boolean>();
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    channel.close();
+                    flushCancelledKeys();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                closed.post(Boolean.TRUE);
+            }
+        });
+        if (isSelectorThread()) {
+            return;
+        }
+        try {
+            closed.get(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // not posted
+        } catch (TimeoutException e) {
+            throw new IllegalStateException(thrd.getName()+" did not close the channel in "
+                    +CLOSE_TIMEOUT_MILLIS+" ms", e);
+        }
+    }
+
+    /**
+     * Completes deregistration of cancelled keys.
+     * Must be called on the selector thread, not from a selector event listener.
+     */
+    private void flushCancelledKeys() throws IOException {
+        if (selector.selectNow()>0) {
+            processSelectedKeys();
+        }
     }
 
     void interestOff(SelectableChannel socket, int noInterestOps) {
@@ -80,9 +269,10 @@ public class SelectorThread implements Runnable, Executor {
     
 	public void run() {
 	    DFContext.setCurrentContext(context);
+	    currentThread.set(this);
 		while (selector.isOpen() && !Thread.interrupted()) {
             for (;;) {
-                Runnable task=nextTask();
+                Runnable task=tasks.poll();
                 if (task==null) {
                     break;
                 }
@@ -90,30 +280,68 @@ public class SelectorThread implements Runnable, Executor {
             }
 
             try {
-                if (selector.select()==0) {
+                if (select()==0) {
                     continue;
                 }
             } catch (IOException e) {
                 // TODO Auto-generated catch block
                 e.printStackTrace();
             }
+            processSelectedKeys();
+		}
+	}
 
-            // Iterate over the set of keys for which events are available
-            Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
-            while (selectedKeys.hasNext()) {
-                SelectionKey key = selectedKeys.next();
-                selectedKeys.remove();
-
-                if (!key.isValid()) {
-                    continue;
-                }
+    private void processSelectedKeys() {
+        // Iterate over the set of keys for which events are available
+        Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+        while (selectedKeys.hasNext()) {
+            SelectionKey key = selectedKeys.next();
+            selectedKeys.remove();
 
-                // Pass event to the listener
-                ((SelectorEventListener)key.attachment()).onSelectorEvent(key);
+            if (!key.isValid()) {
+                continue;
             }
-		}
-	}
+
+            // Pass event to the listener
+            ((SelectorEventListener)key.attachment()).onSelectorEvent(key);
+        }
+    }
 	
+    /**
+     * @return number of selected keys
+     */
+    private int select() throws IOException {
+        long timeout=expireDeadlines();
+        long spin=busyPollNanos;
+        if (spin>0) {
+            long spinEnd=System.nanoTime()+spin;
+            do {
+                int selected=selector.selectNow();
+                if (selected>0 || !tasks.isEmpty()) {
+                    spinHits++;
+                    return selected;
+                }
+                DeadlineQueue.Deadline first=deadlines.peek();
+                if (first!=null && first.time-System.nanoTime()<=0) {
+                    return 0; // let the loop expire it
+                }
+            } while (System.nanoTime()-spinEnd<0);
+            timeout=expireDeadlines();
+        }
+        // announce blocking before the last check of the queue;
+        // producers add tasks before they check the flag,
+        // so either we see the task, or they see the flag and wake us up
+        selecting=1;
+        if (!tasks.isEmpty()) {
+            selecting=0;
+            return selector.selectNow();
+        }
+        blockingSelects++;
+        int selected=timeout==0? selector.select(): selector.select(timeout);
+        selecting=0;
+        return selected;
+    }
+
     //--------------------- context
     
     private static ItemKey<SelectorThread> selectorThreadKey
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.nio;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.rfqu.df4j.core.DFContext;
+import com.github.rfqu.df4j.core.DFContext.ItemKey;
+
+/**
+ * A fixed set of selector threads, to spread socket channels over several cores.
+ * Each {@link AsyncSocketChannel1} is assigned to one selector thread for its lifetime,
+ * and its request queues run on that thread.
+ * Accepting connections stays on the context's own {@link SelectorThread}.
+ */
+public class SelectorThreadPool {
+    /** assign channels to selector threads in turn */
+    public static final int ROUND_ROBIN=0;
+    /** assign channels to the selector thread with fewest open channels */
+    public static final int LEAST_LOADED=1;
+
+    private final SelectorThread[] selectorThreads;
+    private final int policy;
+    private final AtomicInteger counter=new AtomicInteger();
+
+    /**
+     * @param context context to be set on the selector threads
+     * @param size number of selector threads
+     * @param policy {@link #ROUND_ROBIN} or {@link #LEAST_LOADED}
+     */
+    public SelectorThreadPool(DFContext context, int size, int policy) throws IOException {
+        if (size<=0) {
+            throw new IllegalArgumentException("size="+size);
+        }
+        if (policy!=ROUND_ROBIN && policy!=LEAST_LOADED) {
+            throw new IllegalArgumentException("policy="+policy);
+        }
+        this.policy=policy;
+        selectorThreads=new SelectorThread[size];
+        for (int k=0; k<size; k++) {
+            selectorThreads[k]=new SelectorThread(context, "SelectorThread-"+k);
+        }
+    }
+
+    public int size() {
+        return selectorThreads.length;
+    }
+
+    public SelectorThread get(int index) {
+        return selectorThreads[index];
+    }
+
+    /**
+     * @return selector thread for a new channel
+     */
+    public SelectorThread next() {
+        if (selectorThreads.length==1) {
+            return selectorThreads[0];
+        }
+        if (policy==ROUND_ROBIN) {
+            int index=(counter.getAndIncrement()&Integer.MAX_VALUE)%selectorThreads.length;
+            return selectorThreads[index];
+        }
+        SelectorThread res=selectorThreads[0];
+        int min=res.getChannelCount();
+        for (int k=1; k<selectorThreads.length; k++) {
+            int count=selectorThreads[k].getChannelCount();
+            if (count<min) {
+                min=count;
+                res=selectorThreads[k];
+            }
+        }
+        return res;
+    }
+
+    //--------------------- context
+
+    private static ItemKey<SelectorThreadPool> selectorThreadPoolKey
+        = DFContext.getCurrentContext().new ItemKey<SelectorThreadPool>()
+    {
+        @Override
+        protected SelectorThreadPool initialValue(DFContext context) {
+            try {
+                int nThreads=Runtime.getRuntime().availableProcessors();
+                return new SelectorThreadPool(context, nThreads, ROUND_ROBIN);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+
+    };
+
+    /**
+     * @return the pool used for channels created in the current context;
+     *   by default, a round-robin pool with a selector thread per processor
+     */
+    public static SelectorThreadPool getCurrentSelectorThreadPool() {
+        return selectorThreadPoolKey.get();
+    }
+
+    /**
+     * Replaces the pool for channels created afterwards.
+     * Already created channels stay on their selector threads.
+     */
+    public static void setCurrentSelectorThreadPool(SelectorThreadPool pool) {
+        selectorThreadPoolKey.set(pool);
+    }
+}
@@ -0,0 +1,8 @@
+package com.github.rfqu.df4j.nio.test;
+
+import com.github.rfqu.df4j.nio.AsyncChannelFactory1;
+
+public class AsyncDatagramChannelTest1 extends AsyncDatagramChannelTest {
+    {asyncrSocketFactory=new AsyncChannelFactory1();
+    }
+}
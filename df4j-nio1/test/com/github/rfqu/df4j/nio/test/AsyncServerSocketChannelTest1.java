@@ -1,10 +1,136 @@
 package com.github.rfqu.df4j.nio.test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
 import com.github.rfqu.df4j.nio.AsyncChannelFactory1;
+import com.github.rfqu.df4j.core.Callback;
+import com.github.rfqu.df4j.core.CallbackFuture;
+import com.github.rfqu.df4j.core.DFContext;
+import com.github.rfqu.df4j.nio.AsyncServerSocketChannel;
+import com.github.rfqu.df4j.nio.AsyncSocketChannel;
+import com.github.rfqu.df4j.nio.AsyncSocketChannel1;
+import com.github.rfqu.df4j.nio.SelectorThread;
+import com.github.rfqu.df4j.nio.HeapBufferPool;
+import com.github.rfqu.df4j.nio.UnixDomainSockets;
 import com.github.rfqu.df4j.nio.test.AsyncServerSocketChannelTest;
 
 
 public class AsyncServerSocketChannelTest1 extends AsyncServerSocketChannelTest {
     { asyncrSocketFactory=new AsyncChannelFactory1();
     }
+
+    /**
+     * tests that a read request without a buffer holds no buffer while waiting for data
+     */
+    @Test
+    public void idleLateBoundRead() throws Exception {
+        Server server=new Server(local9990);
+        server.assch.up();
+
+        Connection clconn = newConnection(local9990);
+        Connection serconn = server.allConns.take();
+        HeapBufferPool pool=new HeapBufferPool(BUF_SIZE, 4);
+        serconn.conn.setBufferPool(pool);
+        MyRequest serreq=new MyRequest((ByteBuffer) null);
+        serconn.read(serreq);
+        Thread.sleep(50);
+        assertEquals(0, pool.getBorrowedCount());
+
+        MyRequest clreq=new MyRequest();
+        clreq.clear();
+        clreq.buff.putLong(7);
+        clconn.write(clreq);
+        assertEquals(serreq, serconn.finishedRequests.take());
+        assertEquals(1, pool.getBorrowedCount());
+        serreq.releaseBuffer();
+        assertEquals(0, pool.getBorrowedCount());
+
+        clconn.conn.close();
+        server.close();
+    }
+
+    /**
+     * tests a connection through a Unix domain socket,
+     * and that the socket file is removed when the server socket is closed
+     */
+    @Test
+    public void unixDomain() throws Exception {
+        if (!asyncrSocketFactory.isUnixDomainSupported()) {
+            return;
+        }
+        File file=new File(System.getProperty("java.io.tmpdir"), "df4j-test-"+System.nanoTime()+".sock");
+        SocketAddress addr=UnixDomainSockets.newAddress(file.getPath());
+        final CallbackFuture<AsyncSocketChannel> accepted=new CallbackFuture<AsyncSocketChannel>();
+        AsyncServerSocketChannel assch=asyncrSocketFactory.newAsyncServerSocketChannel(addr, new Callback<AsyncSocketChannel>() {
+            @Override
+            public void post(AsyncSocketChannel channel) {
+                accepted.post(channel);
+            }
+
+            @Override
+            public void postFailure(Throwable exc) {
+                accepted.postFailure(exc);
+            }
+        });
+        assertTrue(file.exists());
+        assch.up();
+        Connection clconn = new Connection(asyncrSocketFactory.newAsyncSocketChannel(addr));
+        clconn.get();
+        Connection serconn = new Connection(accepted.get());
+
+        MyRequest clreq=new MyRequest();
+        clreq.clear();
+        clreq.buff.putLong(11);
+        clconn.write(clreq);
+        MyRequest serreq=new MyRequest();
+        serconn.read(serreq);
+        assertEquals(serreq, serconn.finishedRequests.take());
+        assertEquals(11, serreq.buff.getLong());
+        assertEquals(clreq, clconn.finishedRequests.take());
+
+        clconn.conn.close();
+        serconn.conn.close();
+        assch.close();
+        assertFalse(file.exists());
+    }
+
+    /**
+     * tests that a failed connection is reported to connection listeners,
+     * and the channel is closed and no longer counted by its selector thread
+     */
+    @Test
+    public void failedConnect() throws Exception {
+        SelectorThread selectorThread=new SelectorThread(DFContext.getCurrentContext(), "FailedConnectTest");
+        assertConnectFails(new InetSocketAddress("localhost", 9991), selectorThread); // refused
+        if (asyncrSocketFactory.isUnixDomainSupported()) {
+            File file=new File(System.getProperty("java.io.tmpdir"), "df4j-missing-"+System.nanoTime()+".sock");
+            assertConnectFails(UnixDomainSockets.newAddress(file.getPath()), selectorThread);
+        }
+    }
+
+    private void assertConnectFails(SocketAddress addr, SelectorThread selectorThread) throws Exception {
+        AsyncSocketChannel1 channel=new AsyncSocketChannel1(addr, selectorThread);
+        CallbackFuture<AsyncSocketChannel> connected=channel.addConnListener(new CallbackFuture<AsyncSocketChannel>());
+        try {
+            connected.get(2, TimeUnit.SECONDS);
+            fail("connection to "+addr+" expected to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertTrue(channel.isClosed());
+        assertEquals(0, selectorThread.getChannelCount());
+    }
 }
\ No newline at end of file
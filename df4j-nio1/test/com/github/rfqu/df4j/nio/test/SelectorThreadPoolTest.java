@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.nio.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.junit.Test;
+
+import com.github.rfqu.df4j.core.Callback;
+import com.github.rfqu.df4j.core.CallbackFuture;
+import com.github.rfqu.df4j.core.DFContext;
+import com.github.rfqu.df4j.nio.AsyncServerSocketChannel1;
+import com.github.rfqu.df4j.nio.AsyncSocketChannel;
+import com.github.rfqu.df4j.nio.AsyncSocketChannel1;
+import com.github.rfqu.df4j.nio.SelectorThread;
+import com.github.rfqu.df4j.nio.SelectorThreadPool;
+
+public class SelectorThreadPoolTest {
+    static final InetSocketAddress local9991 = new InetSocketAddress("localhost", 9991);
+
+    @Test
+    public void roundRobinTest() throws Exception {
+        SelectorThreadPool pool=new SelectorThreadPool(DFContext.getCurrentContext(), 2, SelectorThreadPool.ROUND_ROBIN);
+        SelectorThread first=pool.next();
+        SelectorThread second=pool.next();
+        assertNotSame(first, second);
+        assertSame(first, pool.next());
+        assertSame(second, pool.next());
+    }
+
+    /**
+     * accepted channels are spread evenly over selector threads
+     */
+    @Test
+    public void leastLoadedTest() throws Exception {
+        final int nConns=4;
+        SelectorThreadPool pool=new SelectorThreadPool(DFContext.getCurrentContext(), 2, SelectorThreadPool.LEAST_LOADED);
+        final ArrayBlockingQueue<AsyncSocketChannel> accepted=new ArrayBlockingQueue<AsyncSocketChannel>(nConns);
+        AsyncServerSocketChannel1 assch=new AsyncServerSocketChannel1(local9991, new Callback<AsyncSocketChannel>() {
+            @Override
+            public void post(AsyncSocketChannel channel) {
+                accepted.add(channel);
+            }
+
+            @Override
+            public void postFailure(Throwable exc) {
+                exc.printStackTrace();
+            }
+        }, pool);
+        assch.up(nConns);
+        ArrayList<AsyncSocketChannel> clients=new ArrayList<AsyncSocketChannel>();
+        for (int k=0; k<nConns; k++) {
+            AsyncSocketChannel1 client=new AsyncSocketChannel1(local9991);
+            clients.add(client);
+            client.addConnListener(new CallbackFuture<AsyncSocketChannel>()).get();
+        }
+        ArrayList<AsyncSocketChannel1> servers=new ArrayList<AsyncSocketChannel1>();
+        for (int k=0; k<nConns; k++) {
+            servers.add((AsyncSocketChannel1) accepted.take());
+        }
+        assertEquals(nConns/2, pool.get(0).getChannelCount());
+        assertEquals(nConns/2, pool.get(1).getChannelCount());
+        servers.get(0).close();
+        assertEquals(nConns/2-1, servers.get(0).getSelectorThread().getChannelCount());
+        assertSame(servers.get(0).getSelectorThread(), pool.next());
+        for (int k=1; k<nConns; k++) {
+            servers.get(k).close();
+        }
+        for (AsyncSocketChannel client: clients) {
+            client.close();
+        }
+        assch.close();
+    }
+}
@@ -0,0 +1,126 @@
+package com.github.rfqu.df4j.nio.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import com.github.rfqu.df4j.core.CallbackFuture;
+import com.github.rfqu.df4j.core.DFContext;
+import com.github.rfqu.df4j.nio.AsyncServerSocketChannel1;
+import com.github.rfqu.df4j.nio.AsyncSocketChannel;
+import com.github.rfqu.df4j.nio.SelectorThread;
+
+public class SelectorThreadTest {
+
+    /** runs a task on the selector thread and waits for its completion */
+    static void roundTrip(SelectorThread selectorThread) throws Exception {
+        final CallbackFuture<Boolean> done=new CallbackFuture<Boolean>();
+        selectorThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                done.post(Boolean.TRUE);
+            }
+        });
+        done.get(1000);
+    }
+
+    /** blocks the selector thread until the returned latch is released */
+    static CountDownLatch stall(SelectorThread selectorThread) {
+        final CountDownLatch stall=new CountDownLatch(1);
+        selectorThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    stall.await();
+                } catch (InterruptedException e) {
+                }
+            }
+        });
+        return stall;
+    }
+
+    static AsyncServerSocketChannel1 newServer() throws Exception {
+        return new AsyncServerSocketChannel1(new InetSocketAddress("localhost", 0),
+                new CallbackFuture<AsyncSocketChannel>());
+    }
+
+    /**
+     * tests that closing a channel fails if its selector thread does not respond,
+     * and the channel is closed later
+     */
+    @Test
+    public void closeTimeoutTest() throws Exception {
+        SelectorThread selectorThread=SelectorThread.getCurrentSelectorThread();
+        AsyncServerSocketChannel1 server=newServer();
+        CountDownLatch stall=stall(selectorThread);
+        try {
+            server.close();
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        } finally {
+            stall.countDown();
+        }
+        assertTrue(server.isClosed());
+        roundTrip(selectorThread);
+    }
+
+    /**
+     * tests that a selector thread does not wait for another one to close a channel
+     */
+    @Test
+    public void closeOnSelectorThreadTest() throws Exception {
+        SelectorThread selectorThread=SelectorThread.getCurrentSelectorThread();
+        SelectorThread closer=new SelectorThread(DFContext.getCurrentContext(), "CloserThread");
+        final AsyncServerSocketChannel1 server=newServer();
+        CountDownLatch stall=stall(selectorThread);
+        final CallbackFuture<Boolean> closed=new CallbackFuture<Boolean>();
+        try {
+            closer.execute(new Runnable() {
+                @Override
+                public void run() {
+                    server.close();
+                    closed.post(Boolean.TRUE);
+                }
+            });
+            // well before the close timeout
+            closed.get(500);
+        } finally {
+            stall.countDown();
+        }
+        roundTrip(selectorThread);
+    }
+
+    @Test
+    public void busyPollTest() throws Exception {
+        SelectorThread selectorThread=new SelectorThread(DFContext.getCurrentContext(), "BusyPollTest");
+        selectorThread.setBusyPoll(1, TimeUnit.SECONDS);
+        assertEquals(TimeUnit.SECONDS.toNanos(1), selectorThread.getBusyPollNanos());
+        Thread.sleep(10); // let the loop block in select()
+        long blocking=selectorThread.getBlockingSelects();
+        for (int k=0; k<10; k++) {
+            roundTrip(selectorThread);
+            Thread.sleep(1); // let the loop start spinning
+        }
+        // the first task wakes up the blocked loop, the rest are found spinning
+        assertTrue(selectorThread.getStateDescription(), selectorThread.getSpinHits()>=9);
+        assertEquals(blocking, selectorThread.getBlockingSelects());
+
+        selectorThread.setBusyPoll(0, TimeUnit.SECONDS);
+        Thread.sleep(1100); // let the last spin finish
+        long spinHits=selectorThread.getSpinHits();
+        for (int k=0; k<10; k++) {
+            roundTrip(selectorThread);
+            Thread.sleep(1);
+        }
+        assertEquals(spinHits, selectorThread.getSpinHits());
+        assertTrue(selectorThread.getStateDescription(), selectorThread.getBlockingSelects()>blocking);
+    }
+}
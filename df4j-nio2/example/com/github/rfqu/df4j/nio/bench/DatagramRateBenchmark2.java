@@ -0,0 +1,14 @@
+package com.github.rfqu.df4j.nio.bench;
+
+import com.github.rfqu.df4j.nio.AsyncChannelFactory2;
+
+/**
+ * Runs {@link DatagramRateBenchmark} with the NIO.2 backend.
+ */
+public class DatagramRateBenchmark2 {
+
+    public static void main(String[] args) throws Exception {
+        new DatagramRateBenchmark(new AsyncChannelFactory2()).run(args);
+    }
+
+}
@@ -0,0 +1,14 @@
+package com.github.rfqu.df4j.nio.bench;
+
+import com.github.rfqu.df4j.nio.AsyncChannelFactory2;
+
+/**
+ * Runs {@link FrameRateBenchmark} with the NIO.2 backend.
+ */
+public class FrameRateBenchmark2 {
+
+    public static void main(String[] args) throws Exception {
+        new FrameRateBenchmark(new AsyncChannelFactory2()).run(args);
+    }
+
+}
@@ -1,6 +1,10 @@
 package com.github.rfqu.df4j.nio.echo;
 
+import com.github.rfqu.df4j.nio.AsyncChannelFactory2;
+
 public class EchoServerLocTest2 extends EchoServerLocTest {
+    { t.asyncChannelFactory=new AsyncChannelFactory2();
+    }
 
     public static void main(String[] args) throws Exception {
         EchoServerLocTest.main(args);
@@ -0,0 +1,23 @@
+package com.github.rfqu.df4j.nio.echo;
+
+import com.github.rfqu.df4j.nio.AsyncChannelFactory2;
+import com.github.rfqu.df4j.nio.SslChannelFactory;
+import com.github.rfqu.df4j.nio.testutil.TestSslContext;
+
+/**
+ *  Runs tests with {@EchoServer} launched in the same JVM, over TLS on the NIO.2 backend.
+ *  Can be run as Junit tests or as java application.
+ */
+public class EchoServerSslTest2 extends EchoServerLocTest {
+
+    public EchoServerSslTest2() throws Exception {
+        t.asyncChannelFactory=new SslChannelFactory(new AsyncChannelFactory2(), TestSslContext.get());
+    }
+
+    public static void main(String[] args) throws Exception {
+        EchoServerSslTest2 t=new EchoServerSslTest2();
+        t.mediumTest();
+        t.heavyTest();
+    }
+
+}
@@ -20,11 +20,16 @@ import com.github.rfqu.df4j.core.DFContext;
 import com.github.rfqu.df4j.core.DFContext.ItemKey;
 
 /**
- * Provides access to the current {@link java.nio.channels.AsynchronousChannelGroup}
- * supported by the current {@link java.util.concurrent.Executor}.
+ * Provides access to the current {@link java.nio.channels.AsynchronousChannelGroup}.
+ * By default, it is a {@link DedicatedChannelGroup} with as many threads as processors;
+ * the number of threads is set with the system property "df4j.nio2.groupThreads".
+ * If it is 0, or the dedicated group cannot be created, the group falls back
+ * to the current {@link java.util.concurrent.Executor}.
  * @author rfqu
  */
 public class AsyncChannelCroup {
+    public static final String THREADS_PROPERTY="df4j.nio2.groupThreads";
+
     /**
      * sets current group as a thread-local variable
      * 
@@ -41,18 +46,33 @@ public class AsyncChannelCroup {
         return groupKey.get();
     }
 
+    /**
+     * @return a group which runs completion handlers on the context's executor
+     */
+    public static AsynchronousChannelGroup newExecutorGroup(DFContext context) {
+        ExecutorService service = context._getCurrentExecutorService();
+        try {
+            return AsynchronousChannelGroup.withThreadPool(service);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
     private static ItemKey<AsynchronousChannelGroup> groupKey 
         = DFContext.getCurrentContext().new ItemKey<AsynchronousChannelGroup>()
     {
 
         @Override
         protected AsynchronousChannelGroup initialValue(DFContext context) {
-            ExecutorService service = context._getCurrentExecutorService();
-            try {
-                return AsynchronousChannelGroup.withThreadPool(service);
-            } catch (IOException e) {
-                return null;
+            int nThreads=Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors());
+            if (nThreads>0) {
+                try {
+                    return new DedicatedChannelGroup(nThreads, "DF I/O").getGroup();
+                } catch (IOException e) {
+                    // fall back to the executor
+                }
             }
+            return newExecutorGroup(context);
         }
 
     };
@@ -2,6 +2,7 @@ package com.github.rfqu.df4j.nio;
 
 import java.io.IOException;
 import java.net.SocketAddress;
+import java.nio.channels.AsynchronousChannelGroup;
 
 import com.github.rfqu.df4j.core.Callback;
 import com.github.rfqu.df4j.nio.AsyncChannelFactory;
@@ -9,18 +10,64 @@ import com.github.rfqu.df4j.nio.AsyncServerSocketChannel;
 import com.github.rfqu.df4j.nio.AsyncSocketChannel;
 
 public class AsyncChannelFactory2 extends AsyncChannelFactory {
+    /** null means the current group */
+    private final AsynchronousChannelGroup group;
+
+    /**
+     * opens channels in the current group
+     */
+    public AsyncChannelFactory2() {
+        this(null);
+    }
+
+    /**
+     * opens channels in the given group, e.g. of a {@link DedicatedChannelGroup}
+     */
+    public AsyncChannelFactory2(AsynchronousChannelGroup group) {
+        this.group=group;
+    }
+
+    public AsynchronousChannelGroup getGroup() {
+        return group==null? AsyncChannelCroup.getCurrentACGroup(): group;
+    }
 
     @Override
     public AsyncServerSocketChannel newAsyncServerSocketChannel
        (SocketAddress addr, Callback<AsyncSocketChannel> callback)
     throws IOException {
-        return new AsyncServerSocketChannel2(addr, callback);
+        return new AsyncServerSocketChannel2(addr, callback, getGroup());
+    }
+
+    /**
+     * several listening sockets are opened each in a channel group of its own,
+     * owned by the server socket, see {@link ReusePortServerSocketChannel2}
+     */
+    @Override
+    public AsyncServerSocketChannel newAsyncServerSocketChannel
+       (SocketAddress addr, Callback<AsyncSocketChannel> callback, int acceptors)
+    throws IOException {
+        if (acceptors==1) {
+            return new AsyncServerSocketChannel2(addr, callback, getGroup());
+        }
+        if (acceptors<=0) {
+            throw new IllegalArgumentException("acceptors="+acceptors);
+        }
+        return new ReusePortServerSocketChannel2(addr, callback, acceptors);
     }
 
     @Override
     public AsyncSocketChannel newAsyncSocketChannel(SocketAddress addr)
     throws IOException {
-        return new AsyncSocketChannel2(addr);
+        return new AsyncSocketChannel2(addr, getGroup());
+    }
+
+    /**
+     * NIO.2 has no asynchronous datagram channel:
+     * each datagram channel receives on its own thread, see {@link AsyncDatagramChannel2}
+     */
+    @Override
+    public AsyncDatagramChannel newAsyncDatagramChannel(SocketAddress addr) throws IOException {
+        return new AsyncDatagramChannel2(addr);
     }
 
 }
\ No newline at end of file
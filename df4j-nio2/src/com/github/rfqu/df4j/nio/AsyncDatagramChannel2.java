@@ -0,0 +1,210 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.nio;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+
+import com.github.rfqu.df4j.core.DFContext;
+
+/**
+ * Datagram channel for the NIO.2 backend.
+ * NIO.2 has no asynchronous datagram channel, so datagrams are received with blocking calls
+ * on a thread of the channel, and sent with blocking calls by the sending actor,
+ * which return at once unless the socket's send buffer is full.
+ * <p>
+ * The receiving actor hands a request to the thread, and the thread serves
+ * the following queued requests by itself, until the queue is empty.
+ * A receive request without a buffer borrows a pooled buffer while it waits for a datagram.
+ */
+public class AsyncDatagramChannel2 extends AsyncDatagramChannel {
+    private final DatagramChannel channel;
+    private final SocketAddress localAddress;
+
+    /**
+     * @param addr local address; null means an ephemeral port on the wildcard address
+     * @param threadFactory creates the receiving thread
+     */
+    public AsyncDatagramChannel2(SocketAddress addr, ThreadFactory threadFactory) throws IOException {
+        channel=DatagramChannel.open();
+        try {
+            channel.socket().bind(addr);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        localAddress=channel.socket().getLocalSocketAddress();
+        ReceiverQueue receiverQueue=new ReceiverQueue();
+        receiver = receiverQueue;
+        sender = new SenderQueue();
+        receiverQueue.start(threadFactory);
+    }
+
+    /**
+     * the receiving thread runs with the current context
+     */
+    public AsyncDatagramChannel2(SocketAddress addr) throws IOException {
+        this(addr, new IOThreadFactory("df4j-udp"));
+    }
+
+    @Override
+    public SocketAddress getLocalAddress() {
+        return localAddress;
+    }
+
+    public DatagramChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * disallows subsequent posts of requests; already posted requests
+     * fail with {@link AsynchronousCloseException}.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        receiver.close();
+        sender.close();
+        try {
+            // unblocks the receiving thread
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        postCloseEvent();
+    }
+
+    //===================== inner classes
+
+    class ReceiverQueue extends RequestQueue implements Runnable {
+        protected Semafor channelAcc=new Semafor(); // the thread is idle
+        /** request handed from the actor to the thread */
+        private final LinkedBlockingQueue<DatagramIORequest<?>> handoff=new LinkedBlockingQueue<DatagramIORequest<?>>();
+        private Thread thread;
+
+        public ReceiverQueue() {
+            super(null); // immediate executor - act() method
+        }
+
+        void start(ThreadFactory threadFactory) {
+            thread=threadFactory.newThread(this);
+            thread.start();
+            channelAcc.up();
+        }
+
+        @Override
+        public void resume() {
+            channelAcc.up();
+        }
+
+        @Override
+        protected void act(DatagramIORequest<?> request) throws Exception {
+            handoff.add(request);
+        }
+
+        /**
+         * Serves requests handed by the actor, and the requests queued after them,
+         * then lets the actor run again. Exits when interrupted by {@link #complete()}.
+         */
+        @Override
+        public void run() {
+            for (;;) {
+                DatagramIORequest<?> request;
+                try {
+                    request=handoff.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while (request!=null) {
+                    serve(request);
+                    request=input.takeDirect();
+                }
+                channelAcc.up();
+            }
+        }
+
+        void serve(DatagramIORequest<?> request) {
+            if (closed) {
+                request.postFailure(new AsynchronousCloseException());
+                return;
+            }
+            boolean lateBound=!request.isBound();
+            if (lateBound) {
+                request.bindBuffer(getBufferPool());
+            }
+            ByteBuffer buf=request.getBuffer();
+            int start=buf.position();
+            SocketAddress source;
+            try {
+                source=channel.receive(buf);
+            } catch (IOException exc) {
+                if (lateBound) {
+                    request.releaseBuffer();
+                }
+                if (exc instanceof ClosedChannelException) {
+                    request.postFailure(new AsynchronousCloseException());
+                } else {
+                    request.postFailure(exc);
+                }
+                return;
+            }
+            receivedCount++;
+            request.setAddress(source);
+            request.post(buf.position()-start);
+        }
+
+        /** the input is closed and all requests are served: stops the idle thread */
+        @Override
+        protected void complete() throws Exception {
+            if (thread!=null) {
+                thread.interrupt();
+            }
+        }
+    }
+
+    class SenderQueue extends RequestQueue {
+
+        public SenderQueue() {
+            super(DFContext.getCurrentExecutor());
+        }
+
+        @Override
+        public void resume() {
+        }
+
+        @Override
+        protected void act(DatagramIORequest<?> request) throws Exception {
+            if (closed) {
+                request.postFailure(new AsynchronousCloseException());
+                return;
+            }
+            int numSent;
+            try {
+                numSent=channel.send(request.getBuffer(), request.getAddress());
+            } catch (IOException exc) {
+                request.postFailure(exc);
+                return;
+            }
+            sentCount++;
+            request.post(numSent);
+        }
+    }
+}
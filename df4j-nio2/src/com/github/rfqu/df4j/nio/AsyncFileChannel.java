@@ -52,6 +52,24 @@ public class AsyncFileChannel<T extends FileIORequest<T>>
 			request.postFailure(new ClosedChannelException());
 			return;
 		}
+        if (request.isVectored()) {
+            // AsynchronousFileChannel has no scattering/gathering operations
+            request.postFailure(new UnsupportedOperationException("vectored file request"));
+            return;
+        }
+        if (!request.isBound()) {
+            if (!request.isReadOp() || request.getReadLength()==0) {
+                request.postFailure(new IllegalArgumentException("no buffer"));
+                return;
+            }
+            try {
+                request.bindBuffer(BufferPool.getCurrentBufferPool(), request.getReadLength());
+            } catch (IllegalArgumentException e) {
+                request.postFailure(e);
+                return;
+            }
+            request.getBuffer().limit(request.getReadLength());
+        }
         if (request.isReadOp()) {
         	channel.read(request.getBuffer(), request.getPosition(), request, this);
         } else {
@@ -56,6 +56,16 @@ public class AsyncServerSocketChannel2 extends AsyncServerSocketChannel
     
     public AsyncServerSocketChannel2(SocketAddress addr, Callback<AsyncSocketChannel> acceptor)
                 throws IOException
+    {
+        this(addr, acceptor, AsyncChannelCroup.getCurrentACGroup());
+    }
+
+    /**
+     * @param group the group which runs completion handlers of this channel
+     *     and of the accepted channels
+     */
+    public AsyncServerSocketChannel2(SocketAddress addr, Callback<AsyncSocketChannel> acceptor,
+            AsynchronousChannelGroup group) throws IOException
     {
         super(addr, acceptor);
         if (addr==null) {
@@ -63,8 +73,7 @@ public class AsyncServerSocketChannel2 extends AsyncServerSocketChannel
         }
         this.addr=addr;
         this.acceptor=acceptor;
-        AsynchronousChannelGroup acg=AsyncChannelCroup.getCurrentACGroup();
-        channel=AsynchronousServerSocketChannel.open(acg);
+        channel=AsynchronousServerSocketChannel.open(group);
         channel.bind(addr);
     }
     
@@ -110,12 +119,19 @@ public class AsyncServerSocketChannel2 extends AsyncServerSocketChannel
     }
     
     public void close() {
+        AsynchronousServerSocketChannel ch;
+        synchronized (this) {
+            ch=channel;
+            if (ch==null) {
+                return; // closed already, e.g. by a failed pending accept
+            }
+            channel = null;
+        }
         try {
-            channel.close();
+            ch.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
-        channel = null;
         closeEvent.post(addr);
     }
 
@@ -70,8 +70,15 @@ public class AsyncSocketChannel2 extends AsyncSocketChannel
      * @throws IOException
      */
     public AsyncSocketChannel2(SocketAddress addr) throws IOException {
-        AsynchronousChannelGroup acg=AsyncChannelCroup.getCurrentACGroup();
-        channel=AsynchronousSocketChannel.open(acg);
+        this(addr, AsyncChannelCroup.getCurrentACGroup());
+    }
+
+    /**
+     * for client-side socket
+     * @param group the group which runs completion handlers of this channel
+     */
+    public AsyncSocketChannel2(SocketAddress addr, AsynchronousChannelGroup group) throws IOException {
+        channel=AsynchronousSocketChannel.open(group);
         channel.connect(addr, channel, this);
     }
 
@@ -106,6 +113,7 @@ public class AsyncSocketChannel2 extends AsyncSocketChannel
         closed=true;
         reader.close();
         writer.close();
+        postCloseEvent();
     }
 
 /*
@@ -146,13 +154,70 @@ public class AsyncSocketChannel2 extends AsyncSocketChannel
      public void resume() {
          channelAcc.up();
      }
+
+     @Override
+     protected void act(SocketIORequest<?> request) throws Exception {
+         if (!start(request)) {
+             channelAcc.up();
+         }
+     }
+
+     /**
+      * starts the operation
+      * @return false if the request is completed already, and the channel is free
+      */
+     protected abstract boolean start(SocketIORequest<?> request) throws Exception;
+
+     /**
+      * Called by completion handlers while the channel is not free.
+      * Starts the next queued request directly on the I/O thread, without
+      * a hop through the actor, which stays blocked on channelAcc.
+      * The requests are taken from the same input in the same order,
+      * and the closing signal is still processed by the actor, so when
+      * no request is queued, or the actor is running, the channel is freed.
+      * Called after the finished request is posted, so that its result
+      * reaches the listener before the result of the next request,
+      * even if the next request completes inline.
+      */
+     protected void startNext() {
+         for (;;) {
+             SocketIORequest<?> next=input.takeDirect();
+             if (next==null) {
+                 channelAcc.up();
+                 return;
+             }
+             try {
+                 if (start(next)) {
+                     return;
+                 }
+             } catch (Exception e) {
+                 failure(next, e);
+                 return;
+             }
+         }
+     }
+
 		//------------- CompletionHandler's backend
 		
 	 @Override
      public void completed(Integer result, SocketIORequest<?> request) {
 		 currentRequest=null;
-         channelAcc.up();
          request.post(result);
+         startNext();
+     }
+
+     /**
+      * the request could not be started: fails it and frees the channel
+      */
+     @Override
+     protected void failure(SocketIORequest<?> request, Exception e) {
+         if (request==null) {
+             super.failure(request, e); // from complete()
+             return;
+         }
+         currentRequest=null;
+         channelAcc.up();
+         request.postFailure(e);
      }
 
      @Override
@@ -167,17 +232,45 @@ public class AsyncSocketChannel2 extends AsyncSocketChannel
  }
 	
     class ReaderQueue extends RequestQueue2 {
+        /** completion of scattering reads */
+        final CompletionHandler<Long, SocketIORequest<?>> scatterHandler
+            = new CompletionHandler<Long, SocketIORequest<?>>()
+        {
+            @Override
+            public void completed(Long result, SocketIORequest<?> request) {
+                ReaderQueue.this.completed(result.intValue(), request);
+            }
+
+            @Override
+            public void failed(Throwable exc, SocketIORequest<?> request) {
+                ReaderQueue.this.failed(exc, request);
+            }
+        };
+
         //-------------------- Actor's backend
         
+        /**
+         * A request without a buffer gets a pooled buffer before the read is issued,
+         * as asynchronous reads need the buffer in advance.
+         */
         @Override
-        protected void act(SocketIORequest<?> request) throws Exception {
+        protected boolean start(SocketIORequest<?> request) throws Exception {
            currentRequest=request;
-           if (request.isTimed()) {
+           if (!request.isBound()) {
+               request.bindBuffer(getBufferPool());
+           }
+           if (request.isVectored()) {
+               // timeout 0 means no timeout
+               long timeout=request.isTimed()? request.getTimeout(): 0;
+               channel.read(request.getBuffers(), request.getOffset(), request.getLength(),
+                       timeout, TimeUnit.MILLISECONDS, request, scatterHandler);
+           } else if (request.isTimed()) {
                channel.read(request.getBuffer(),
                        request.getTimeout(), TimeUnit.MILLISECONDS, request, this);
            } else {
                channel.read(request.getBuffer(), request, this);
            }
+           return true;
         }
         
    		@Override
@@ -188,17 +281,65 @@ public class AsyncSocketChannel2 extends AsyncSocketChannel
     }
    	
     class WriterQueue extends RequestQueue2 {
+        /** the head request and requests queued after it, written together */
+        final WriteBatch batch=new WriteBatch();
+
+        /** completion of gathering writes */
+        final CompletionHandler<Long, SocketIORequest<?>> batchHandler
+            = new CompletionHandler<Long, SocketIORequest<?>>()
+        {
+            @Override
+            public void completed(Long result, SocketIORequest<?> request) {
+                batch.afterWrite();
+                if (!batch.isHeadWritten()) {
+                    // write the rest; the requests stay in the same order
+                    write(request);
+                    return;
+                }
+                currentRequest=null;
+                batch.completeHead();
+                startNext();
+            }
+
+            @Override
+            public void failed(Throwable exc, SocketIORequest<?> request) {
+                batch.clear();
+                WriterQueue.this.failed(exc, request);
+            }
+        };
+
         //-------------------- Actor's backend
         
+        /**
+         * Writes buffers of all queued requests with one gathering write.
+         * Requests written completely are completed when they reach the head of the queue.
+         */
         @Override
-        protected void act(SocketIORequest<?> request) throws Exception {
-        	currentRequest=request;
-            if (request.isTimed()) {
-                channel.write(request.getBuffer(), request.getTimeout(), TimeUnit.MILLISECONDS,
-                        request, this);
-            } else {
-                channel.write(request.getBuffer(), request, this);
+        protected boolean start(SocketIORequest<?> request) throws Exception {
+            batch.setHead(request);
+            if (batch.isHeadWritten()) {
+                // written by a previous gathering write
+                batch.completeHead();
+                return false;
             }
+        	currentRequest=request;
+        	batch.collect(input);
+        	write(request);
+        	return true;
+        }
+
+        @Override
+        protected void failure(SocketIORequest<?> request, Exception e) {
+            batch.clear();
+            super.failure(request, e);
+        }
+
+        void write(SocketIORequest<?> request) {
+            batch.beforeWrite();
+            // timeout 0 means no timeout
+            long timeout=request.isTimed()? request.getTimeout(): 0;
+            channel.write(batch.getBuffers(), 0, batch.bufferCount(), timeout, TimeUnit.MILLISECONDS,
+                    request, batchHandler);
         }
         
    		@Override
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.nio;
+
+import java.io.IOException;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.rfqu.df4j.core.DFContext;
+import com.github.rfqu.df4j.core.NodeRegistry;
+
+/**
+ * {@link AsynchronousChannelGroup} with its own fixed-size pool of threads,
+ * so that completion handlers do not compete with actors for the threads
+ * of the context's executor.
+ * <p>
+ * The threads run with the {@link DFContext} of the thread which created the group,
+ * so that actors created and fired by completion handlers use the context's executor.
+ * The group measures how long completion handlers wait in the queue of its pool.
+ * <pre><code>DedicatedChannelGroup io=new DedicatedChannelGroup(2, "io");
+ * AsyncChannelFactory factory=new AsyncChannelFactory2(io.getGroup());
+ * </code></pre>
+ * or, to make it the group of all channels opened in the current context:
+ * <pre><code>AsyncChannelCroup.setCurrentACGroup(io.getGroup());
+ * </code></pre>
+ */
+public class DedicatedChannelGroup implements NodeRegistry.Introspectable {
+    private final String name;
+    private final TimedExecutor executor;
+    private final AsynchronousChannelGroup group;
+    private final AtomicLong completionCount=new AtomicLong();
+    private final AtomicLong totalDelay=new AtomicLong();
+    private final AtomicLong maxDelay=new AtomicLong();
+
+    /**
+     * @param nThreads number of threads which run completion handlers
+     * @param threadFactory creates the threads; the context is set by the group
+     */
+    public DedicatedChannelGroup(int nThreads, ThreadFactory threadFactory, String name) throws IOException {
+        this(nThreads, name, new IOThreadFactory(threadFactory));
+    }
+
+    /**
+     * creates daemon threads named after the group
+     */
+    public DedicatedChannelGroup(int nThreads, String name) throws IOException {
+        this(nThreads, name, new IOThreadFactory(name));
+    }
+
+    private DedicatedChannelGroup(int nThreads, String name, IOThreadFactory threadFactory) throws IOException {
+        if (nThreads<=0) {
+            throw new IllegalArgumentException("nThreads="+nThreads);
+        }
+        this.name=name;
+        executor=new TimedExecutor(nThreads, threadFactory);
+        group=AsynchronousChannelGroup.withThreadPool(executor);
+        NodeRegistry.registerResource(this);
+    }
+
+    public AsynchronousChannelGroup getGroup() {
+        return group;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getThreadCount() {
+        return executor.getCorePoolSize();
+    }
+
+    /**
+     * @return number of completion handlers run so far
+     */
+    public long getCompletionCount() {
+        return completionCount.get();
+    }
+
+    /**
+     * @return mean time completion handlers waited for a thread, ns
+     */
+    public long getMeanQueueDelay() {
+        long count=completionCount.get();
+        return count==0? 0: totalDelay.get()/count;
+    }
+
+    /**
+     * @return max time a completion handler waited for a thread, ns
+     */
+    public long getMaxQueueDelay() {
+        return maxDelay.get();
+    }
+
+    /**
+     * @return number of completion handlers waiting for a thread
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public void resetMetrics() {
+        completionCount.set(0);
+        totalDelay.set(0);
+        maxDelay.set(0);
+    }
+
+    /**
+     * closes all channels of the group, and stops its threads
+     */
+    public void shutdownNow() throws IOException {
+        group.shutdownNow();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return group.awaitTermination(timeout, unit);
+    }
+
+    @Override
+    public String getStateDescription() {
+        return "DedicatedChannelGroup "+name+" threads="+getThreadCount()+" completions="+completionCount.get()
+            +" queued="+getQueueDepth()+" meanDelay="+getMeanQueueDelay()/1000+"us maxDelay="+maxDelay.get()/1000+"us";
+    }
+
+    void recordDelay(long delay) {
+        completionCount.incrementAndGet();
+        totalDelay.addAndGet(delay);
+        for (;;) {
+            long max=maxDelay.get();
+            if (delay<=max || maxDelay.compareAndSet(max, delay)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Fixed pool with an unbounded queue, as required by
+     * {@link AsynchronousChannelGroup#withThreadPool}, which timestamps its tasks.
+     */
+    class TimedExecutor extends ThreadPoolExecutor {
+
+        TimedExecutor(int nThreads, ThreadFactory threadFactory) {
+            super(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), threadFactory);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            super.execute(new TimedTask(command));
+        }
+    }
+
+    class TimedTask implements Runnable {
+        private final Runnable command;
+        private final long queued=System.nanoTime();
+
+        TimedTask(Runnable command) {
+            this.command=command;
+        }
+
+        @Override
+        public void run() {
+            recordDelay(System.nanoTime()-queued);
+            command.run();
+        }
+    }
+}
@@ -23,19 +23,62 @@ public class FileIORequest<R extends FileIORequest<R>>
   extends IORequest<R>
 {
     private long position;
+    /** bytes to read into a buffer provided by the channel, 0 if the request has a buffer */
+    private int readLength;
     
+    /**
+     * creates a request without a buffer; bind one with {@link #bindBuffer(com.github.rfqu.df4j.nio.BufferPool, int)},
+     * or let the channel provide one with {@link #prepareRead(long, int)}
+     */
+    public FileIORequest() {
+        super((ByteBuffer) null);
+    }
+
     public FileIORequest(ByteBuffer buf) {
         super(buf);
     }
 
+    /**
+     * creates a vectored request; only {@link MappedFileChannel} serves such requests
+     */
+    public FileIORequest(ByteBuffer[] buffers) {
+        super(buffers);
+    }
+
     public void prepareRead(long position){
         super.prepareRead();
         this.position = position;
+        this.readLength = 0;
+    }
+
+    /**
+     * prepares to read up to readLength bytes into a buffer provided by the channel:
+     * a read-only slice of the mapped file for {@link MappedFileChannel},
+     * a buffer borrowed from the context's pool for {@link AsyncFileChannel}.
+     * The buffer set before is dropped; a borrowed one must be released before.
+     * Call {@link #releaseBuffer()} after the data are consumed.
+     */
+    public void prepareRead(long position, int readLength){
+        if (readLength<=0) {
+            throw new IllegalArgumentException("readLength="+readLength);
+        }
+        setBuffer((ByteBuffer) null);
+        prepareRead(position);
+        this.readLength = readLength;
     }
 
     public void prepareWrite(long position){
         super.prepareWrite();
         this.position = position;
+        this.readLength = 0;
+    }
+
+    /**
+     * @return number of bytes to read into a buffer provided by the channel;
+     *    0 if the request has a buffer of its own
+     */
+    public int getReadLength() {
+        return readLength;
     }
 
     public long getPosition() {
@@ -0,0 +1,413 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link AsyncFileChannel} which serves small requests from memory-mapped regions of the file.
+ * A read or write of at most {@link #getMaxMappedRequest()} bytes is a copy between
+ * the request's buffers and the mapped file, made by the thread which posts the request,
+ * without a system call and without dispatching a completion handler.
+ * Larger requests go through {@link java.nio.channels.AsynchronousFileChannel}.
+ * Data which are not in the page cache block the posting thread for a page fault.
+ * <p>
+ * The file is mapped in regions of {@link #getRegionSize()} bytes, on first access.
+ * A write past the end of the mapped part of a region remaps it at least twice as large,
+ * up to the region size, so that appends remap a region only a few times.
+ * Mapping for writing extends the file ahead of the data: while the channel is open,
+ * the file may be longer than {@link #size()}, and it is trimmed to that size on close.
+ * Vectored requests are supported, if they are small enough.
+ * A read request prepared with {@link FileIORequest#prepareRead(long, int)} gets
+ * a read-only slice of the mapped file instead of a copy.
+ * <p>
+ * Mapped regions stay valid until they are garbage collected. The file must not be truncated
+ * by other programs while the channel is open: access to a mapped page beyond the end of the file
+ * fails with {@link InternalError}.
+ */
+public class MappedFileChannel<T extends FileIORequest<T>> extends AsyncFileChannel<T> {
+    public static final int DEFAULT_REGION_SIZE=64*1024*1024;
+    public static final int DEFAULT_MAX_MAPPED_REQUEST=64*1024;
+
+    /**
+     * when writes to the mapped file are forced to the storage device
+     */
+    public enum ForcePolicy {
+        /** only when {@link MappedFileChannel#force(boolean)} is called */
+        NEVER,
+        /** also when the channel is closed */
+        ON_CLOSE,
+        /**
+         * also after each mapped write, before the request is posted;
+         * whole regions written are forced, so smaller regions make it cheaper
+         */
+        ON_WRITE
+    }
+
+    private final FileChannel fileChannel;
+    private final MapMode mode;
+    private final int regionSize;
+    private volatile int maxMappedRequest=DEFAULT_MAX_MAPPED_REQUEST;
+    private volatile ForcePolicy forcePolicy=ForcePolicy.NEVER;
+    private final AtomicLong mappedCount=new AtomicLong();
+    /** set by mapped writes, cleared when regions are forced */
+    private volatile boolean dirty;
+    /** region k maps the file from k*regionSize up to regionSize bytes; guarded by this */
+    private MappedByteBuffer[] regions=new MappedByteBuffer[0];
+    /** size of the data in the file, known to this channel; guarded by this */
+    private long size;
+    /** size of the file, extended by mappings for writing beyond size; guarded by this */
+    private long fileEnd;
+
+    /**
+     * @param regionSize size of mapped regions; requests are copied from several regions
+     *    if they cross region boundaries
+     */
+    public MappedFileChannel(Path file, Set<? extends OpenOption> options, int regionSize, FileAttribute<?>... attrs)
+            throws IOException
+    {
+        super(file, options, attrs);
+        if (regionSize<=0) {
+            super.close();
+            throw new IllegalArgumentException("regionSize="+regionSize);
+        }
+        this.regionSize=regionSize;
+        // the file exists now; mapping for writing requires both READ and WRITE
+        Set<OpenOption> mapOptions=new HashSet<OpenOption>();
+        mapOptions.add(StandardOpenOption.READ);
+        if (options.contains(StandardOpenOption.WRITE)) {
+            mapOptions.add(StandardOpenOption.WRITE);
+            mode=MapMode.READ_WRITE;
+        } else {
+            mode=MapMode.READ_ONLY;
+        }
+        try {
+            fileChannel=FileChannel.open(file, mapOptions);
+            size=fileChannel.size();
+            fileEnd=size;
+        } catch (IOException e) {
+            super.close();
+            throw e;
+        }
+    }
+
+    public MappedFileChannel(Path file, OpenOption... options) throws IOException {
+        this(file, new HashSet<OpenOption>(Arrays.<OpenOption>asList(options)), DEFAULT_REGION_SIZE,
+                new FileAttribute<?>[0]);
+    }
+
+    @Override
+    public void post(T request) {
+        if (closed) {
+            request.postFailure(new ClosedChannelException());
+            return;
+        }
+        long length=request.isBound()? request.remaining(): request.getReadLength();
+        if (length==0 || length>maxMappedRequest || (!request.isReadOp() && mode==MapMode.READ_ONLY)) {
+            super.post(request);
+            return;
+        }
+        int result;
+        try {
+            if (request.isReadOp()) {
+                result=read(request, (int) length);
+            } else {
+                result=write(request, (int) length);
+            }
+        } catch (IOException e) {
+            request.postFailure(e);
+            return;
+        }
+        mappedCount.incrementAndGet();
+        request.post(result);
+    }
+
+    private int read(T request, int length) throws IOException {
+        long position=request.getPosition();
+        int n=(int) Math.min(length, available(position, length));
+        if (n<=0) {
+            return -1;
+        }
+        if (!request.isBound()) {
+            ByteBuffer slice=slice(position, n);
+            if (slice==null) {
+                // crosses a region boundary
+                slice=ByteBuffer.allocate(n);
+                copy(position, n, slice, true);
+            }
+            // data are read: position after them, the request flips the buffer
+            slice.position(n);
+            request.setBuffer(slice);
+            return n;
+        }
+        transfer(request, position, n, true);
+        return n;
+    }
+
+    private int write(T request, int length) throws IOException {
+        long position=request.getPosition();
+        transfer(request, position, length, false);
+        synchronized (this) {
+            size=Math.max(size, position+length);
+        }
+        dirty=true;
+        if (forcePolicy==ForcePolicy.ON_WRITE) {
+            int last=(int) ((position+length-1)/regionSize);
+            for (int k=(int) (position/regionSize); k<=last; k++) {
+                region(k, 0).force();
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @return number of bytes which can be read at the position, up to length;
+     *    the file size is read again if the request reaches past the known end of data,
+     *    which could be moved by other programs
+     */
+    private synchronized long available(long position, long length) throws IOException {
+        if (position+length>size) {
+            long fileSize=fileChannel.size();
+            if (fileSize>fileEnd) {
+                // not our own extension ahead of the data
+                size=fileSize;
+                fileEnd=fileSize;
+            }
+        }
+        return size-position;
+    }
+
+    /**
+     * @return mapped region k, remapped if it does not cover the file up to end
+     */
+    private synchronized MappedByteBuffer region(int k, long end) throws IOException {
+        if (k>=regions.length) {
+            regions=Arrays.copyOf(regions, k+1);
+        }
+        MappedByteBuffer region=regions[k];
+        long start=(long) k*regionSize;
+        if (region==null || start+region.capacity()<end) {
+            // map as much of the file as the region can hold
+            long length=Math.max(end, mode==MapMode.READ_ONLY? size: fileEnd)-start;
+            if (region!=null && mode==MapMode.READ_WRITE) {
+                // grow geometrically: each mapping stays until it is garbage collected
+                length=Math.max(length, 2L*region.capacity());
+            }
+            length=Math.min(length, regionSize);
+            // mapping for writing extends the file
+            region=fileChannel.map(mode, start, length);
+            regions[k]=region;
+            fileEnd=Math.max(fileEnd, start+length);
+        }
+        return region;
+    }
+
+    /**
+     * @return read-only slice of the mapped file, or null if the range crosses a region boundary
+     */
+    private ByteBuffer slice(long position, int n) throws IOException {
+        int k=(int) (position/regionSize);
+        int offset=(int) (position-(long) k*regionSize);
+        if (offset+n>regionSize) {
+            return null;
+        }
+        ByteBuffer slice=region(k, position+n).asReadOnlyBuffer();
+        slice.limit(offset+n).position(offset);
+        return slice.slice();
+    }
+
+    /**
+     * copies n bytes between the file at position and buf, which has room or data for them
+     */
+    private void copy(long position, int n, ByteBuffer buf, boolean read) throws IOException {
+        while (n>0) {
+            ByteBuffer mapped=mapped(position, n);
+            int chunk=mapped.remaining();
+            if (read) {
+                buf.put(mapped);
+            } else {
+                mapped.put(limited(buf, chunk));
+                buf.position(buf.position()+chunk);
+            }
+            position+=chunk;
+            n-=chunk;
+        }
+    }
+
+    /**
+     * copies n bytes between the file at position and the request's buffers
+     */
+    private void transfer(T request, long position, int n, boolean read) throws IOException {
+        if (!request.isVectored()) {
+            copy(position, n, limited(request.getBuffer(), n), read);
+            request.getBuffer().position(request.getBuffer().position()+n);
+            return;
+        }
+        ByteBuffer[] buffers=request.getBuffers();
+        for (int k=request.getOffset(); n>0; k++) {
+            ByteBuffer buf=buffers[k];
+            int chunk=Math.min(n, buf.remaining());
+            copy(position, chunk, limited(buf, chunk), read);
+            buf.position(buf.position()+chunk);
+            position+=chunk;
+            n-=chunk;
+        }
+    }
+
+    /**
+     * @return view of the mapped file from position up to n bytes, within one region
+     */
+    private ByteBuffer mapped(long position, int n) throws IOException {
+        int k=(int) (position/regionSize);
+        int offset=(int) (position-(long) k*regionSize);
+        int chunk=Math.min(n, regionSize-offset);
+        ByteBuffer view=region(k, position+chunk).duplicate();
+        view.limit(offset+chunk).position(offset);
+        return view;
+    }
+
+    private static ByteBuffer limited(ByteBuffer buf, int n) {
+        ByteBuffer view=buf.duplicate();
+        view.limit(view.position()+n);
+        return view;
+    }
+
+    @Override
+    public void completed(Integer result, T request) {
+        if (!request.isReadOp() && result>0) {
+            synchronized (this) {
+                size=Math.max(size, request.getPosition()+result);
+                fileEnd=Math.max(fileEnd, size);
+            }
+        }
+        super.completed(result, request);
+    }
+
+    /**
+     * drops mapped regions, so that they do not reach past the new end of file
+     */
+    @Override
+    public void truncate(long size) throws IOException {
+        synchronized (this) {
+            super.truncate(size);
+            regions=new MappedByteBuffer[0];
+            this.size=fileChannel.size();
+            fileEnd=this.size;
+        }
+    }
+
+    /**
+     * forces mapped regions, and writes made through the asynchronous channel
+     */
+    @Override
+    public void force(boolean metaData) throws IOException {
+        forceRegions();
+        super.force(metaData);
+    }
+
+    private void forceRegions() {
+        if (!dirty) {
+            return; // forcing a region costs even if nothing was written
+        }
+        dirty=false;
+        MappedByteBuffer[] regions;
+        synchronized (this) {
+            regions=this.regions;
+        }
+        for (MappedByteBuffer region: regions) {
+            if (region!=null) {
+                region.force();
+            }
+        }
+    }
+
+    /**
+     * trims the file to {@link #size()}, if mappings extended it
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed=true;
+        try {
+            if (forcePolicy!=ForcePolicy.NEVER) {
+                forceRegions();
+            }
+            synchronized (this) {
+                regions=new MappedByteBuffer[0];
+                if (fileEnd>size) {
+                    fileChannel.truncate(size);
+                }
+            }
+        } finally {
+            try {
+                fileChannel.close();
+            } finally {
+                super.close();
+            }
+        }
+    }
+
+    /**
+     * @return size of the data in the file, written by this channel or found in the file;
+     *    while the channel is open, the file may be longer
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    public int getRegionSize() {
+        return regionSize;
+    }
+
+    public int getMaxMappedRequest() {
+        return maxMappedRequest;
+    }
+
+    /**
+     * @param maxMappedRequest larger requests go through the asynchronous channel;
+     *    0 sends all requests there
+     */
+    public void setMaxMappedRequest(int maxMappedRequest) {
+        if (maxMappedRequest<0) {
+            throw new IllegalArgumentException("maxMappedRequest="+maxMappedRequest);
+        }
+        this.maxMappedRequest=maxMappedRequest;
+    }
+
+    public ForcePolicy getForcePolicy() {
+        return forcePolicy;
+    }
+
+    public void setForcePolicy(ForcePolicy forcePolicy) {
+        this.forcePolicy=forcePolicy;
+    }
+
+    /**
+     * @return number of requests served from mapped regions
+     */
+    public long getMappedCount() {
+        return mappedCount.get();
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.nio;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+
+import com.github.rfqu.df4j.core.Callback;
+
+/**
+ * Server socket with several listening sockets bound to the same address with SO_REUSEPORT,
+ * each opened in its own {@link AsynchronousChannelGroup}. All accepted channels
+ * are posted to the same acceptor.
+ * <p>
+ * Accept permits granted with {@link #up(int)} are shared by all listening sockets.
+ * Each socket keeps one accept operation pending while there are permits;
+ * as a pending accept cannot be withdrawn, up to (number of sockets - 1) connections
+ * more than permitted may be accepted when permits run out.
+ * A failed accept takes a permit, as the acceptor is told of the failure, and its socket
+ * does not accept again until more permits are granted, so that persistent errors
+ * like EMFILE do not spin.
+ */
+public class ReusePortServerSocketChannel2 extends AsyncServerSocketChannel {
+    private final Listener[] listeners;
+    /** groups created for the listening sockets, shut down on close; null if the groups were given */
+    private final DedicatedChannelGroup[] ownedGroups;
+    private volatile boolean closed=false;
+
+    /**
+     * @param groups a listening socket is opened in each group
+     * @throws UnsupportedOperationException if SO_REUSEPORT is not supported
+     */
+    public ReusePortServerSocketChannel2(SocketAddress addr, Callback<AsyncSocketChannel> acceptor,
+            AsynchronousChannelGroup[] groups) throws IOException
+    {
+        this(addr, acceptor, groups, null);
+    }
+
+    /**
+     * opens each listening socket in a {@link DedicatedChannelGroup} of its own,
+     * which also runs the completion handlers of the connections it accepts.
+     * The groups are shut down when the server socket is closed,
+     * which closes the accepted connections as well.
+     */
+    public ReusePortServerSocketChannel2(SocketAddress addr, Callback<AsyncSocketChannel> acceptor,
+            int acceptors) throws IOException
+    {
+        this(addr, acceptor, newGroups(acceptors));
+    }
+
+    private ReusePortServerSocketChannel2(SocketAddress addr, Callback<AsyncSocketChannel> acceptor,
+            DedicatedChannelGroup[] ownedGroups) throws IOException
+    {
+        this(addr, acceptor, groupsOf(ownedGroups), ownedGroups);
+    }
+
+    private ReusePortServerSocketChannel2(SocketAddress addr, Callback<AsyncSocketChannel> acceptor,
+            AsynchronousChannelGroup[] groups, DedicatedChannelGroup[] ownedGroups) throws IOException
+    {
+        super(addr, acceptor);
+        this.ownedGroups=ownedGroups;
+        if (groups.length==0) {
+            shutdownGroups();
+            throw new IllegalArgumentException("no groups");
+        }
+        listeners=new Listener[groups.length];
+        try {
+            for (int k=0; k<groups.length; k++) {
+                listeners[k]=new Listener(groups[k]);
+            }
+        } catch (IOException e) {
+            closeListeners();
+            shutdownGroups();
+            throw e;
+        } catch (RuntimeException e) {
+            closeListeners();
+            shutdownGroups();
+            throw e;
+        }
+    }
+
+    /**
+     * @return a group per acceptor; the processors are divided among them
+     */
+    private static DedicatedChannelGroup[] newGroups(int acceptors) throws IOException {
+        if (acceptors<=0) {
+            throw new IllegalArgumentException("acceptors="+acceptors);
+        }
+        int nThreads=Math.max(1, Runtime.getRuntime().availableProcessors()/acceptors);
+        DedicatedChannelGroup[] groups=new DedicatedChannelGroup[acceptors];
+        try {
+            for (int k=0; k<acceptors; k++) {
+                groups[k]=new DedicatedChannelGroup(nThreads, "DF acceptor "+k);
+            }
+        } catch (IOException e) {
+            shutdown(groups);
+            throw e;
+        }
+        return groups;
+    }
+
+    private static AsynchronousChannelGroup[] groupsOf(DedicatedChannelGroup[] dedicated) {
+        AsynchronousChannelGroup[] groups=new AsynchronousChannelGroup[dedicated.length];
+        for (int k=0; k<dedicated.length; k++) {
+            groups[k]=dedicated[k].getGroup();
+        }
+        return groups;
+    }
+
+    private void shutdownGroups() {
+        if (ownedGroups!=null) {
+            shutdown(ownedGroups);
+        }
+    }
+
+    private static void shutdown(DedicatedChannelGroup[] groups) {
+        for (DedicatedChannelGroup group: groups) {
+            if (group==null) {
+                continue;
+            }
+            try {
+                group.shutdownNow();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public int getAcceptorCount() {
+        return listeners.length;
+    }
+
+    /**
+     * grants more accept permits, and starts accepting on idle listening sockets
+     */
+    @Override
+    public synchronized void up(int delta) {
+        if (delta<0) {
+            throw new IllegalArgumentException();
+        }
+        if (isClosed()) {
+            throw new IllegalStateException();
+        }
+        maxConn+=delta;
+        if (maxConn==0) {
+            return;
+        }
+        for (Listener listener: listeners) {
+            listener.accept();
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed=true;
+        }
+        closeListeners();
+        shutdownGroups();
+        closeEvent.post(addr);
+    }
+
+    private void closeListeners() {
+        for (Listener listener: listeners) {
+            if (listener!=null) {
+                listener.close();
+            }
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * One listening socket. Guarded by the lock of the enclosing channel.
+     */
+    class Listener implements CompletionHandler<AsynchronousSocketChannel, Void> {
+        final AsynchronousServerSocketChannel channel;
+        /** true when an accept operation is pending */
+        boolean accepting=false;
+
+        Listener(AsynchronousChannelGroup group) throws IOException {
+            channel=AsynchronousServerSocketChannel.open(group);
+            try {
+                ReusePort.enable(channel);
+                channel.bind(addr);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            } catch (RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /** starts an accept operation, unless one is pending; called under the lock */
+        void accept() {
+            if (accepting || closed) {
+                return;
+            }
+            accepting=true;
+            channel.accept(null, this);
+        }
+
+        /** new client connected */
+        @Override
+        public void completed(AsynchronousSocketChannel result, Void attachment) {
+            synchronized (ReusePortServerSocketChannel2.this) {
+                accepting=false;
+                if (maxConn>0) {
+                    maxConn--;
+                }
+                if (maxConn>0) {
+                    accept();
+                }
+            }
+            acceptor.post(new AsyncSocketChannel2(result));
+        }
+
+        /**
+         * new client connection failed: the permit is used up, and accepting
+         * on this socket resumes when permits are granted
+         */
+        @Override
+        public void failed(Throwable exc, Void attachment) {
+            synchronized (ReusePortServerSocketChannel2.this) {
+                accepting=false;
+                if (exc instanceof AsynchronousCloseException) {
+                    return; // channel closed
+                }
+                if (maxConn>0) {
+                    maxConn--;
+                }
+            }
+            acceptor.postFailure(exc);
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.github.rfqu.df4j.nio.test;
+
+import com.github.rfqu.df4j.nio.AsyncChannelFactory2;
+
+public class AsyncDatagramChannelTest2 extends AsyncDatagramChannelTest {
+    {asyncrSocketFactory=new AsyncChannelFactory2();
+    }
+}
@@ -1,9 +1,107 @@
 package com.github.rfqu.df4j.nio.test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
 import com.github.rfqu.df4j.nio.AsyncChannelFactory2;
+import com.github.rfqu.df4j.nio.AsyncSocketChannel;
+import com.github.rfqu.df4j.nio.ReusePort;
 import com.github.rfqu.df4j.nio.test.AsyncServerSocketChannelTest;
 
 public class AsyncServerSocketChannelTest2 extends AsyncServerSocketChannelTest {
     {asyncrSocketFactory=new AsyncChannelFactory2();
     }
-}
\ No newline at end of file
+
+    /**
+     * tests that a read which cannot be started fails, and the channel serves the next read
+     */
+    @Test
+    public void failedStart() throws Exception {
+        Server server=new Server(local9990);
+        server.assch.up();
+
+        Connection clconn = newConnection(local9990);
+        Connection serconn = server.allConns.take();
+        // reading into a read-only buffer is rejected by the channel
+        MyRequest serreq=new MyRequest(ByteBuffer.allocate(8).asReadOnlyBuffer());
+        serconn.read(serreq);
+        assertEquals(serreq, serconn.finishedRequests.poll(2, TimeUnit.SECONDS));
+        assertTrue(serreq.getExc() instanceof IllegalArgumentException);
+
+        serreq=new MyRequest();
+        serconn.read(serreq);
+        MyRequest clreq=new MyRequest();
+        clreq.clear();
+        clreq.buff.putLong(777);
+        clconn.write(clreq);
+        assertEquals(serreq, serconn.finishedRequests.poll(2, TimeUnit.SECONDS));
+        assertEquals(777, serreq.buff.getLong());
+
+        clconn.conn.close();
+        server.close();
+    }
+
+    /**
+     * tests that connections are accepted on the threads of the groups created
+     * for the listening sockets, and the groups are shut down with the server socket
+     */
+    @Test
+    public void acceptorGroups() throws Exception {
+        if (!ReusePort.isAvailable()) {
+            return;
+        }
+        final int nConns=8;
+        final Set<String> threadNames=Collections.synchronizedSet(new HashSet<String>());
+        Server server;
+        try {
+            server=new Server(local9990, 2) {
+                @Override
+                public void post(AsyncSocketChannel channel) {
+                    threadNames.add(Thread.currentThread().getName());
+                    super.post(channel);
+                }
+            };
+        } catch (UnsupportedOperationException e) {
+            return; // not supported by the system
+        }
+        server.assch.up(nConns);
+        Connection[] clconns=new Connection[nConns];
+        for (int k=0; k<nConns; k++) {
+            clconns[k]=newConnection(local9990);
+        }
+        for (int k=0; k<nConns; k++) {
+            assertNotNull(server.allConns.poll(2, TimeUnit.SECONDS));
+        }
+        for (String name: threadNames) {
+            assertTrue(name, name.startsWith("DF acceptor "));
+        }
+
+        server.close();
+        for (int k=0; k<nConns; k++) {
+            clconns[k].conn.close();
+        }
+        for (int k=0; k<100 && acceptorThreadCount()>0; k++) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, acceptorThreadCount());
+    }
+
+    private static int acceptorThreadCount() {
+        int count=0;
+        for (Thread thread: Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && thread.getName().startsWith("DF acceptor ")) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
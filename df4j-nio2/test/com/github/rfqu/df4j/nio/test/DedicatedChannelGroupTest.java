@@ -0,0 +1,68 @@
+package com.github.rfqu.df4j.nio.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.junit.Test;
+
+import com.github.rfqu.df4j.core.DFContext;
+import com.github.rfqu.df4j.nio.AsyncChannelFactory2;
+import com.github.rfqu.df4j.nio.DedicatedChannelGroup;
+
+/**
+ * runs the socket tests with channels opened in a dedicated group
+ */
+public class DedicatedChannelGroupTest extends AsyncServerSocketChannelTest {
+    static final DedicatedChannelGroup group=newGroup();
+
+    static DedicatedChannelGroup newGroup() {
+        try {
+            return new DedicatedChannelGroup(2, "test-io");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    {asyncrSocketFactory=new AsyncChannelFactory2(group.getGroup());
+    }
+
+    /**
+     * tests that completion handlers run on the group's threads,
+     * with the context of the thread which created the group
+     */
+    @Test
+    public void handlerThreads() throws Exception {
+        final ArrayBlockingQueue<Thread> threads=new ArrayBlockingQueue<Thread>(1);
+        final ArrayBlockingQueue<DFContext> contexts=new ArrayBlockingQueue<DFContext>(1);
+        group.resetMetrics();
+        Server server=new Server(local9990);
+        server.assch.up();
+        Connection clconn = newConnection(local9990);
+        Connection serconn = server.allConns.take();
+        MyRequest serreq=new MyRequest() {
+            @Override
+            public synchronized void post(Integer result) {
+                threads.add(Thread.currentThread());
+                contexts.add(DFContext.getCurrentContext());
+                super.post(result);
+            }
+        };
+        serconn.read(serreq);
+        MyRequest clreq=new MyRequest();
+        clreq.clear();
+        clreq.buff.putLong(1);
+        clconn.write(clreq);
+        assertEquals(serreq, serconn.finishedRequests.take());
+        assertTrue(threads.take().getName().startsWith("test-io-"));
+        assertSame(DFContext.getCurrentContext(), contexts.take());
+        assertTrue(group.getStateDescription(), group.getCompletionCount()>=3); // accept, connect, write, read
+        assertTrue(group.getMaxQueueDelay()>=group.getMeanQueueDelay());
+
+        clconn.conn.close();
+        server.close();
+    }
+}
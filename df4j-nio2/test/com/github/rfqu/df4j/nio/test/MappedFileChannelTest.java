@@ -0,0 +1,242 @@
+package com.github.rfqu.df4j.nio.test;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.rfqu.df4j.core.Port;
+import com.github.rfqu.df4j.nio.AsyncFileChannel;
+import com.github.rfqu.df4j.nio.FileIORequest;
+import com.github.rfqu.df4j.nio.MappedFileChannel;
+
+/**
+ * runs the mapped channel with small regions, so that requests cross region boundaries
+ */
+public class MappedFileChannelTest {
+    static final int REGION_SIZE=4096;
+
+    Path path;
+    MappedFileChannel<Req> channel;
+
+    @Before
+    public void open() throws Exception {
+        File file=File.createTempFile("mapped", ".dat");
+        file.deleteOnExit();
+        path=file.toPath();
+        channel=new MappedFileChannel<Req>(path, new HashSet<OpenOption>(Arrays.asList(READ, WRITE)), REGION_SIZE);
+    }
+
+    @After
+    public void close() throws Exception {
+        channel.close();
+        Files.deleteIfExists(path);
+    }
+
+    /**
+     * tests that writes past the end of file extend it, also across region boundaries,
+     * and the data are read back
+     */
+    @Test
+    public void roundtrip() throws Exception {
+        for (int k=0; k<3; k++) {
+            assertEquals(3000, write(k*3000, bytes(k, 3000)));
+        }
+        assertEquals(9000, channel.size());
+        for (int k=0; k<3; k++) {
+            Req req=new Req(ByteBuffer.allocate(3000));
+            assertEquals(3000, read(req, k*3000));
+            assertEquals(ByteBuffer.wrap(bytes(k, 3000)), req.getBuffer());
+        }
+        assertEquals(6, channel.getMappedCount());
+    }
+
+    /**
+     * tests that small appends extend the file ahead of the data,
+     * which is not visible to reads, and the file is trimmed on close
+     */
+    @Test
+    public void appends() throws Exception {
+        for (int k=0; k<100; k++) {
+            assertEquals(100, write(k*100, bytes(k, 100)));
+        }
+        assertEquals(10000, channel.size());
+        assertTrue(Files.size(path)>=10000);
+        Req req=new Req(ByteBuffer.allocate(100));
+        assertEquals(-1, read(req, 10000));
+        channel.close();
+        assertEquals(10000, Files.size(path));
+
+        channel=new MappedFileChannel<Req>(path, new HashSet<OpenOption>(Arrays.asList(READ, WRITE)), REGION_SIZE);
+        assertEquals(10000, channel.size());
+        req=new Req(ByteBuffer.allocate(100));
+        assertEquals(100, read(req, 9900));
+        assertEquals(ByteBuffer.wrap(bytes(99, 100)), req.getBuffer());
+    }
+
+    /**
+     * tests that reads stop at the end of file
+     */
+    @Test
+    public void endOfFile() throws Exception {
+        write(0, bytes(1, 100));
+        Req req=new Req(ByteBuffer.allocate(50));
+        assertEquals(10, read(req, 90));
+        assertEquals(ByteBuffer.wrap(bytes(1, 100), 90, 10), req.getBuffer());
+        assertEquals(-1, read(req, 100));
+        assertEquals(-1, read(req, 5000));
+    }
+
+    /**
+     * tests that reads without a buffer get read-only slices,
+     * or copies if they cross a region boundary
+     */
+    @Test
+    public void slices() throws Exception {
+        byte[] data=bytes(2, 6000);
+        write(0, data);
+        Req req=new Req();
+        req.prepareRead(100, 200);
+        assertEquals(200, post(req));
+        assertTrue(req.getBuffer().isReadOnly());
+        assertEquals(ByteBuffer.wrap(data, 100, 200), req.getBuffer());
+        req.prepareRead(4000, 5000);
+        assertEquals(2000, post(req));
+        assertEquals(ByteBuffer.wrap(data, 4000, 2000), req.getBuffer());
+    }
+
+    /**
+     * tests scattering reads and gathering writes
+     */
+    @Test
+    public void vectored() throws Exception {
+        ByteBuffer[] out={ByteBuffer.wrap(bytes(3, 3000)), ByteBuffer.wrap(bytes(4, 2000))};
+        out[0].position(3000);
+        out[1].position(2000);
+        Req req=new Req(out);
+        req.prepareWrite(1000);
+        assertEquals(5000, post(req));
+        ByteBuffer[] in={ByteBuffer.allocate(1000), ByteBuffer.allocate(5000)};
+        req=new Req(in);
+        assertEquals(5000, read(req, 1000));
+        ByteBuffer expected=ByteBuffer.allocate(6000);
+        expected.put(bytes(3, 3000)).put(bytes(4, 2000)).flip();
+        assertEquals(expected, ByteBuffer.allocate(6000).put(in[0]).put(in[1]).flip());
+    }
+
+    /**
+     * tests that large requests go through the asynchronous channel,
+     * and mapped reads see the data written
+     */
+    @Test
+    public void largeRequests() throws Exception {
+        channel.setMaxMappedRequest(1000);
+        write(0, bytes(5, 3000));
+        assertEquals(0, channel.getMappedCount());
+        Req req=new Req(ByteBuffer.allocate(1000));
+        assertEquals(500, read(req, 2500));
+        assertEquals(ByteBuffer.wrap(bytes(5, 3000), 2500, 500), req.getBuffer());
+        assertEquals(1, channel.getMappedCount());
+    }
+
+    /**
+     * tests that the asynchronous channel binds pooled buffers to reads without a buffer
+     */
+    @Test
+    public void pooledBuffers() throws Exception {
+        write(0, bytes(6, 1000));
+        AsyncFileChannel<Req> async=new AsyncFileChannel<Req>(path, READ);
+        try {
+            Req req=new Req();
+            req.prepareRead(10, 100);
+            async.post(req);
+            assertEquals(100, take(req));
+            assertTrue(req.isBorrowed());
+            assertEquals(ByteBuffer.wrap(bytes(6, 1000), 10, 100), req.getBuffer());
+            req.releaseBuffer();
+            assertFalse(req.isBound());
+        } finally {
+            async.close();
+        }
+    }
+
+    @Test
+    public void closed() throws Exception {
+        channel.close();
+        Req req=new Req(ByteBuffer.allocate(10));
+        req.prepareRead(0);
+        channel.post(req);
+        take(req);
+        assertTrue(req.getExc() instanceof ClosedChannelException);
+    }
+
+    static byte[] bytes(int seed, int length) {
+        byte[] res=new byte[length];
+        for (int k=0; k<length; k++) {
+            res[k]=(byte) (seed*31+k);
+        }
+        return res;
+    }
+
+    int write(long position, byte[] data) throws Exception {
+        ByteBuffer buf=ByteBuffer.wrap(data);
+        buf.position(data.length);
+        Req req=new Req(buf);
+        req.prepareWrite(position);
+        return post(req);
+    }
+
+    int read(Req req, long position) throws Exception {
+        req.prepareRead(position);
+        return post(req);
+    }
+
+    int post(Req req) throws Exception {
+        channel.post(req);
+        return take(req);
+    }
+
+    static int take(Req req) throws Exception {
+        final LinkedBlockingQueue<Req> done=new LinkedBlockingQueue<Req>();
+        req.setListener(new Port<Req>() {
+            @Override
+            public void post(Req req) {
+                done.add(req);
+            }
+        });
+        assertEquals(req, done.poll(2, TimeUnit.SECONDS));
+        if (req.getExc()!=null && !(req.getExc() instanceof ClosedChannelException)) {
+            throw new AssertionError(req.getExc());
+        }
+        return req.getExc()==null? req.getResult(): 0;
+    }
+
+    static class Req extends FileIORequest<Req> {
+        Req() {
+        }
+
+        Req(ByteBuffer buf) {
+            super(buf);
+        }
+
+        Req(ByteBuffer[] bufs) {
+            super(bufs);
+        }
+    }
+}
@@ -9,6 +9,8 @@
  */
 package com.github.rfqu.df4j.nio.test;
 
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
 import static java.nio.file.StandardOpenOption.WRITE;
 
 import java.io.File;
@@ -30,6 +32,7 @@ import com.github.rfqu.df4j.core.*;
 import com.github.rfqu.df4j.nio.*;
 
 public class RandomFileAccess {
+    static final BufferPool directPool=new DirectBufferPool();
     final static int blockSize = 4096*16; // bytes
     final static long numBlocks = 500; // items
     final static long fileSize = blockSize * numBlocks; // bytes
@@ -52,6 +55,9 @@ public class RandomFileAccess {
         tst.testW_IO();
         tst.testW_NIO();
         tst.testW_dffwS();
+        tst.testW_mapped();
+        tst.testR_dffwSD();
+        tst.testR_mapped();
     }
 
     /**
@@ -179,6 +185,44 @@ public class RandomFileAccess {
         testW_dffw(af,direct);
     }
 
+    /**
+     * writes file using memory-mapped regions and direct buffers
+     * @throws Exception
+     */
+    @Test
+    public void testW_mapped() throws Exception {
+        boolean direct=true;
+        out.println("testW_mapped: mapped; direct="+direct);
+        AsyncFileChannel<Request> af = new MappedFileChannel<Request>(testfilePath, CREATE, WRITE);
+        testW_dffw(af,direct);
+    }
+
+    /**
+     * reads file blocks in random order using AsynchronousFileChannel and direct buffers
+     * @throws Exception
+     */
+    @Test
+    public void testR_dffwSD() throws Exception {
+        boolean direct=true;
+        out.println("testR_dffwSD: NIO2; direct="+direct);
+        writeFile();
+        AsyncFileChannel<Request> af = new AsyncFileChannel<Request>(testfilePath, READ);
+        testR_dffw(af,direct);
+    }
+
+    /**
+     * reads file blocks in random order using memory-mapped regions and direct buffers
+     * @throws Exception
+     */
+    @Test
+    public void testR_mapped() throws Exception {
+        boolean direct=true;
+        out.println("testR_mapped: mapped; direct="+direct);
+        writeFile();
+        AsyncFileChannel<Request> af = new MappedFileChannel<Request>(testfilePath, READ);
+        testR_dffw(af,direct);
+    }
+
     /** general dataflow test
      * 
      * @param direct if true, use direct buffers
@@ -188,7 +232,7 @@ public class RandomFileAccess {
         af.truncate(blockSize*numBlocks);
         for (int nb = maxBufNo; nb >0; nb=nb/2) {
             long startTime = System.currentTimeMillis();
-            StarterW command = new StarterW(af, nb, direct);
+            StarterW command = new StarterW(af, nb, direct, false);
             int res = command.sink.get();
             af.force(true);
             float etime = System.currentTimeMillis() - startTime;
@@ -201,27 +245,66 @@ public class RandomFileAccess {
         af.close();
     }
 
+    /** reads the file in random order, when it is in the page cache
+     * 
+     * @param direct if true, use direct buffers
+     * @throws Exception
+     */
+    public void testR_dffw(AsyncFileChannel<Request> af, boolean direct) throws Exception {
+        for (int nb = maxBufNo; nb >0; nb=nb/2) {
+            long startTime = System.currentTimeMillis();
+            StarterW command = new StarterW(af, nb, direct, true);
+            int res = command.sink.get();
+            float etime = System.currentTimeMillis() - startTime;
+            out.println("res="+res+" num bufs=" + nb + " elapsed=" + etime / 1000 + " sec; throughput=" + (etime / numBlocks) + " ms");
+            if (res!=0) {
+                out.println("ERROR:"+res);
+            }
+        }
+        af.close();
+    }
+
+    /**
+     * writes the whole file, so that reads find the data in the page cache
+     */
+    void writeFile() throws IOException {
+        RandomAccessFile rf = new RandomAccessFile(testfile, "rw");
+        rf.setLength(0);
+        byte[] block = new byte[blockSize];
+        for (int i = 0; i < numBlocks; i++) {
+            rf.write(block);
+        }
+        rf.close();
+    }
+
     /** starting task
      * creates the Writer actor and sends it empty buffers
-     *
+     * (or full buffers to the Reader, if read is set)
      */
     static class StarterW extends Actor<Request>{
         AsyncFileChannel<Request> af;
         int nb;
         boolean direct;
+        boolean read;
         long started=0;
         long finished=0;
         AtomicLong accTime=new AtomicLong();
         CallbackFuture<Integer> sink = new CallbackFuture<Integer>();
 
-        public StarterW(AsyncFileChannel<Request> af, int nb, boolean direct) {
+        public StarterW(AsyncFileChannel<Request> af, int nb, boolean direct, boolean read) {
             this.af = af;
             this.nb = nb;
             this.direct = direct;
+            this.read = read;
             try {
                 for (int k = 0; k < nb; k++) {
-                    ByteBuffer buf = direct?ByteBuffer.allocateDirect(blockSize):ByteBuffer.allocate(blockSize);
-                    Request req = new Request(buf);
+                    Request req;
+                    if (direct) {
+                        req = new Request();
+                        req.bindBuffer(directPool, blockSize);
+                    } else {
+                        req = new Request(ByteBuffer.allocate(blockSize));
+                    }
                     write(req);
                 }
             } catch (Exception e) {
@@ -233,12 +316,18 @@ public class RandomFileAccess {
             if (started < numBlocks) { // has all io requests been launched?
                 req.clear();
                 long blockId = getBlockId(numBlocks, started);
-                fillBuf(req.getBuffer(), blockId);
                 Port<Request> port=this;
-				req.prepareWrite(blockId * blockSize);
+                if (read) {
+                    req.prepareRead(blockId * blockSize);
+                } else {
+                    fillBuf(req.getBuffer(), blockId);
+                    req.prepareWrite(blockId * blockSize);
+                }
 				req.setListener(port);
 				af.post(req);
                 started++;
+            } else {
+                req.releaseBuffer(); // no more blocks to write
             }
         }
         
@@ -270,6 +359,9 @@ public class RandomFileAccess {
 			super(buf);
 		}
 
+		public Request() {
+		}
+
         @Override
 	    public void prepareRead(long position) {
 			super.prepareRead(position);
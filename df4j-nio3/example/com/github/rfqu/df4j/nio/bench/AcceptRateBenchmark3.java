@@ -0,0 +1,14 @@
+package com.github.rfqu.df4j.nio.bench;
+
+import com.github.rfqu.df4j.nio.AsyncChannelFactory3;
+
+/**
+ * Runs {@link AcceptRateBenchmark} with the blocking backend on virtual threads.
+ */
+public class AcceptRateBenchmark3 {
+
+    public static void main(String[] args) throws Exception {
+        new AcceptRateBenchmark(new AsyncChannelFactory3()).run(args);
+    }
+
+}
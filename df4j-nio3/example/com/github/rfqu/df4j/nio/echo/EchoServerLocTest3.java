@@ -0,0 +1,20 @@
+package com.github.rfqu.df4j.nio.echo;
+
+import com.github.rfqu.df4j.nio.AsyncChannelFactory3;
+
+/**
+ *  Runs tests with {@EchoServer} on blocking sockets served by virtual threads,
+ *  launched in the same JVM. Compare with {@link EchoServerLocTest1} and {@link EchoServerLocTest2}.
+ *  Can be run as Junit tests or as java application.
+ */
+public class EchoServerLocTest3 extends EchoServerLocTest {
+    { t.asyncChannelFactory=new AsyncChannelFactory3();
+    }
+
+    public static void main(String[] args) throws Exception {
+        EchoServerLocTest3 t=new EchoServerLocTest3();
+        t.mediumTest();
+        t.heavyTest();
+    }
+
+}
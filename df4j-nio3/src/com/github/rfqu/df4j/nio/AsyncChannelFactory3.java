@@ -0,0 +1,63 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.nio;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.concurrent.ThreadFactory;
+
+import com.github.rfqu.df4j.core.Callback;
+
+/**
+ * Blocking I/O on virtual threads: each connection is served by a thread per direction.
+ * On runtimes without virtual threads, platform threads are used.
+ */
+public class AsyncChannelFactory3 extends AsyncChannelFactory {
+    private final ThreadFactory threadFactory;
+
+    /**
+     * @param threadFactory creates the threads of all channels opened by this factory
+     */
+    public AsyncChannelFactory3(ThreadFactory threadFactory) {
+        this.threadFactory=threadFactory;
+    }
+
+    /**
+     * threads run with the current context
+     */
+    public AsyncChannelFactory3() {
+        this(VirtualThreads.newThreadFactory());
+    }
+
+    @Override
+    public AsyncServerSocketChannel newAsyncServerSocketChannel
+       (SocketAddress addr, Callback<AsyncSocketChannel> callback)
+            throws IOException
+    {
+        return new AsyncServerSocketChannel3(addr, callback, 1, threadFactory);
+    }
+
+    /**
+     * each listening socket is served by its own thread
+     */
+    @Override
+    public AsyncServerSocketChannel newAsyncServerSocketChannel
+       (SocketAddress addr, Callback<AsyncSocketChannel> callback, int acceptors)
+            throws IOException
+    {
+        return new AsyncServerSocketChannel3(addr, callback, acceptors, threadFactory);
+    }
+
+    @Override
+    public AsyncSocketChannel newAsyncSocketChannel(SocketAddress addr) throws IOException {
+        return new AsyncSocketChannel3(addr, threadFactory);
+    }
+
+}
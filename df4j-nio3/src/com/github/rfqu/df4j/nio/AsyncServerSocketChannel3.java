@@ -0,0 +1,210 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.nio;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+import com.github.rfqu.df4j.core.Callback;
+
+/**
+ * Accepts connections with blocking calls, on one thread per listening socket.
+ * <p>
+ * Several listening sockets may be bound to the same address with SO_REUSEPORT.
+ * Accept permits granted with {@link #up(int)} are shared by all of them exactly.
+ * A thread waits until there are permits, then accepts, and takes a permit only when it has
+ * a connection, so that a thread blocked in accept on an idle socket holds no permit.
+ * When another thread took the last permit meanwhile, the accepted connection waits
+ * for the next permit before it is posted to the acceptor.
+ * A failed accept also takes a permit, as the acceptor is told of the failure,
+ * so persistent errors like EMFILE are retried only when more permits are granted.
+ */
+public class AsyncServerSocketChannel3 extends AsyncServerSocketChannel {
+    private final ThreadFactory threadFactory;
+    private final ServerSocketChannel[] channels;
+    private final Thread[] listeners;
+    private final Semaphore permits=new Semaphore(0);
+    private volatile boolean closed=false;
+
+    /**
+     * @param acceptors number of listening sockets; more than 1 requires SO_REUSEPORT
+     * @param threadFactory creates threads for listening sockets and accepted connections
+     * @throws UnsupportedOperationException if several sockets are requested and SO_REUSEPORT is not supported
+     */
+    public AsyncServerSocketChannel3(SocketAddress addr, Callback<AsyncSocketChannel> acceptor,
+            int acceptors, ThreadFactory threadFactory) throws IOException
+    {
+        super(addr, acceptor);
+        if (addr==null) {
+            throw new NullPointerException();
+        }
+        if (acceptors<=0) {
+            throw new IllegalArgumentException("acceptors="+acceptors);
+        }
+        this.threadFactory=threadFactory;
+        channels=new ServerSocketChannel[acceptors];
+        try {
+            for (int k=0; k<acceptors; k++) {
+                ServerSocketChannel channel=ServerSocketChannel.open();
+                channels[k]=channel;
+                if (acceptors>1) {
+                    ReusePort.enable(channel);
+                }
+                channel.socket().bind(addr);
+            }
+        } catch (IOException e) {
+            closeChannels();
+            throw e;
+        } catch (RuntimeException e) {
+            closeChannels();
+            throw e;
+        }
+        listeners=new Thread[acceptors];
+        for (int k=0; k<acceptors; k++) {
+            listeners[k]=threadFactory.newThread(new Listener(channels[k]));
+            listeners[k].start();
+        }
+    }
+
+    public AsyncServerSocketChannel3(SocketAddress addr, Callback<AsyncSocketChannel> acceptor) throws IOException {
+        this(addr, acceptor, 1, VirtualThreads.newThreadFactory());
+    }
+
+    public int getAcceptorCount() {
+        return channels.length;
+    }
+
+    @Override
+    public void up(int delta) {
+        if (delta<0) {
+            throw new IllegalArgumentException();
+        }
+        if (isClosed()) {
+            throw new IllegalStateException();
+        }
+        permits.release(delta);
+    }
+
+    /**
+     * Closes the listening sockets, and waits until the listener threads exit:
+     * a socket closed while a thread is blocked in accept is released by that thread,
+     * so only then the address is free.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed=true;
+        }
+        closeChannels();
+        // wake up listeners waiting for a permit
+        permits.release(channels.length);
+        for (Thread listener: listeners) {
+            if (listener==Thread.currentThread()) {
+                continue;
+            }
+            try {
+                listener.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        closeEvent.post(addr);
+    }
+
+    private void closeChannels() {
+        for (ServerSocketChannel channel: channels) {
+            if (channel==null) {
+                continue;
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    class Listener implements Runnable {
+        final ServerSocketChannel channel;
+
+        Listener(ServerSocketChannel channel) {
+            this.channel=channel;
+        }
+
+        @Override
+        public void run() {
+            for (;;) {
+                try {
+                    // wait for a permit, without holding it
+                    permits.acquire();
+                    permits.release();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (closed) {
+                    return;
+                }
+                SocketChannel accepted;
+                try {
+                    accepted=channel.accept();
+                } catch (IOException exc) {
+                    if (closed) {
+                        return;
+                    }
+                    try {
+                        permits.acquire();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    acceptor.postFailure(exc);
+                    continue;
+                }
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    closeAccepted(accepted);
+                    return;
+                }
+                if (closed) {
+                    closeAccepted(accepted);
+                    return;
+                }
+                try {
+                    acceptor.post(new AsyncSocketChannel3(accepted, threadFactory));
+                } catch (IOException exc) {
+                    acceptor.postFailure(exc);
+                }
+            }
+        }
+
+        private void closeAccepted(SocketChannel accepted) {
+            try {
+                accepted.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.nio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.InterruptedByTimeoutException;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Executes I/O socket requests with blocking calls,
+ * on one thread for reading and one thread for writing, preferably virtual threads.
+ * <p>
+ * As in other implementations, requests are queued by 2 actors, one for reading requests
+ * and one for writing requests. The actor hands a request to its thread, and the thread
+ * serves the following queued requests by itself, until the queue is empty.
+ * Timeouts are supported for read requests only.
+ */
+public class AsyncSocketChannel3 extends AsyncSocketChannel {
+    private final ThreadFactory threadFactory;
+    protected volatile SocketChannel socketChannel;
+    /** stream of the socket, for timed reads; created on demand */
+    private InputStream timedInput;
+
+    /**
+     * for server-side socket
+     * @param channel accepted socket in blocking mode
+     * @param threadFactory creates threads to serve the requests
+     */
+    public AsyncSocketChannel3(SocketChannel channel, ThreadFactory threadFactory) throws IOException {
+        this.threadFactory=threadFactory;
+        reader = new ReaderQueue();
+        writer = new WriterQueue();
+        init(channel);
+    }
+
+    public AsyncSocketChannel3(SocketChannel channel) throws IOException {
+        this(channel, VirtualThreads.newThreadFactory());
+    }
+
+    /**
+     * for client-side socket
+     * Starts connection to a server on a new thread.
+     * IO requests can be queued immediately,
+     * but will be executed only after connection completes.
+     */
+    public AsyncSocketChannel3(final SocketAddress addr, ThreadFactory threadFactory) throws IOException {
+        this.threadFactory=threadFactory;
+        reader = new ReaderQueue();
+        writer = new WriterQueue();
+        final SocketChannel channel=SocketChannel.open();
+        threadFactory.newThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    channel.connect(addr);
+                    init(channel);
+                } catch (IOException e) {
+                    connEvent.postFailure(e);
+                    try {
+                        channel.close();
+                    } catch (IOException e1) {
+                    }
+                    close();
+                }
+            }
+        }).start();
+    }
+
+    public AsyncSocketChannel3(SocketAddress addr) throws IOException {
+        this(addr, VirtualThreads.newThreadFactory());
+    }
+
+    void init(SocketChannel channel) throws IOException {
+        channel.socket().setTcpNoDelay(true);
+        socketChannel = channel;
+        ((RequestQueue3) reader).start();
+        ((RequestQueue3) writer).start();
+        connEvent.post(this);
+    }
+
+    public SocketChannel getChannel() {
+        return socketChannel;
+    }
+
+    /**
+     * disallows subsequent posts of requests; already posted requests
+     * fail with {@link java.nio.channels.ClosedChannelException}.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        reader.close();
+        writer.close();
+        SocketChannel channel=socketChannel;
+        if (channel!=null) {
+            try {
+                // unblocks the threads
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        postCloseEvent();
+    }
+
+    /**
+     * reads with a timeout through the socket's stream,
+     * into the first buffer with free space
+     */
+    int timedRead(SocketIORequest<?> request) throws IOException {
+        ByteBuffer buf=request.getBuffer();
+        if (request.isVectored()) {
+            ByteBuffer[] bufs=request.getBuffers();
+            int k=request.getOffset();
+            while (!bufs[k].hasRemaining()) {
+                k++;
+            }
+            buf=bufs[k];
+        }
+        Socket socket=socketChannel.socket();
+        socket.setSoTimeout((int) Math.max(1, request.getTimeout()));
+        if (timedInput==null) {
+            timedInput=socket.getInputStream();
+        }
+        int numRead;
+        if (buf.hasArray()) {
+            numRead=timedInput.read(buf.array(), buf.arrayOffset()+buf.position(), buf.remaining());
+            if (numRead>0) {
+                buf.position(buf.position()+numRead);
+            }
+        } else {
+            byte[] bytes=new byte[buf.remaining()];
+            numRead=timedInput.read(bytes);
+            if (numRead>0) {
+                buf.put(bytes, 0, numRead);
+            }
+        }
+        return numRead;
+    }
+
+    //===================== inner classes
+
+    abstract class RequestQueue3 extends RequestQueue implements Runnable {
+        protected Semafor channelAcc=new Semafor(); // the thread is idle
+        /** request handed from the actor to the thread */
+        private final LinkedBlockingQueue<SocketIORequest<?>> handoff=new LinkedBlockingQueue<SocketIORequest<?>>();
+        private Thread thread;
+
+        public RequestQueue3() {
+            super(null); // immediate executor - act() method
+        }
+
+        void start() {
+            thread=threadFactory.newThread(this);
+            thread.start();
+            channelAcc.up();
+        }
+
+        @Override
+        public void resume() {
+            channelAcc.up();
+        }
+
+        @Override
+        protected void act(SocketIORequest<?> request) throws Exception {
+            handoff.add(request);
+        }
+
+        /**
+         * Serves requests handed by the actor, and the requests queued after them,
+         * then lets the actor run again. Exits when interrupted by {@link #complete()}.
+         * Requests are completed on this thread: an exception thrown by their listeners
+         * goes to {@link #handleException(Throwable)}, and the actor hands the next request.
+         */
+        @Override
+        public void run() {
+            for (;;) {
+                SocketIORequest<?> request;
+                try {
+                    request=handoff.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while (request!=null) {
+                    try {
+                        serve(request);
+                        request=input.takeDirect();
+                    } catch (Throwable e) {
+                        handleException(e);
+                        request=null;
+                    }
+                }
+                channelAcc.up();
+            }
+        }
+
+        /**
+         * serves the request with blocking calls and completes it
+         */
+        abstract void serve(SocketIORequest<?> request);
+
+        /** the input is closed and all requests are served: stops the idle thread */
+        void stop() {
+            if (thread!=null) {
+                thread.interrupt();
+            }
+        }
+    }
+
+    class ReaderQueue extends RequestQueue3 {
+
+        @Override
+        void serve(SocketIORequest<?> request) {
+            boolean lateBound=!request.isBound();
+            if (lateBound) {
+                request.bindBuffer(getBufferPool());
+            }
+            int numRead;
+            try {
+                if (request.isTimed()) {
+                    numRead=timedRead(request);
+                } else if (request.isVectored()) {
+                    // scattering read
+                    numRead=(int) socketChannel.read(request.getBuffers(), request.getOffset(), request.getLength());
+                } else {
+                    numRead=socketChannel.read(request.getBuffer());
+                }
+            } catch (SocketTimeoutException exc) {
+                if (lateBound) {
+                    request.releaseBuffer();
+                }
+                request.postFailure(new InterruptedByTimeoutException());
+                return;
+            } catch (IOException exc) {
+                if (lateBound) {
+                    request.releaseBuffer();
+                }
+                request.postFailure(exc);
+                AsyncSocketChannel3.this.close();
+                return;
+            }
+            if (lateBound && numRead<=0) {
+                request.releaseBuffer();
+            }
+            request.post(numRead);
+            if (numRead==-1) {
+                AsyncSocketChannel3.this.close();
+            }
+        }
+
+        @Override
+        protected void complete() throws Exception {
+            stop();
+            completer.getReaderFinished().up();
+        }
+    }
+
+    class WriterQueue extends RequestQueue3 {
+        /** the head request and requests queued after it, written together */
+        final WriteBatch batch=new WriteBatch();
+
+        /**
+         * Writes buffers of all queued requests with gathering writes.
+         * Requests written completely are completed when they reach the head of the queue.
+         */
+        @Override
+        void serve(SocketIORequest<?> request) {
+            batch.setHead(request);
+            if (batch.isHeadWritten()) {
+                // written by a previous gathering write
+                batch.completeHead();
+                return;
+            }
+            batch.collect(input);
+            try {
+                do {
+                    batch.beforeWrite();
+                    socketChannel.write(batch.getBuffers(), 0, batch.bufferCount());
+                    batch.afterWrite();
+                } while (!batch.isHeadWritten());
+            } catch (IOException exc) {
+                batch.clear();
+                request.postFailure(exc);
+                AsyncSocketChannel3.this.close();
+                return;
+            }
+            batch.completeHead();
+        }
+
+        @Override
+        protected void complete() throws Exception {
+            stop();
+            completer.getWriterFinished().up();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2013 by Alexei Kaigorodov
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.github.rfqu.df4j.nio;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+import com.github.rfqu.df4j.core.DFContext;
+
+/**
+ * Creates virtual threads, if the runtime has them (Java 21 and higher).
+ * They are looked up by reflection, so that the library can be compiled
+ * and run on older runtimes; there, daemon platform threads are created instead.
+ */
+public class VirtualThreads {
+    /** factory of virtual threads, null if the runtime has none */
+    private static final ThreadFactory virtualFactory=lookup();
+
+    private static ThreadFactory lookup() {
+        try {
+            Object builder=Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass=Class.forName("java.lang.Thread$Builder");
+            builder=builderClass.getMethod("name", String.class, long.class).invoke(builder, "df4j-io-", 0L);
+            Method factory=builderClass.getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    public static boolean isAvailable() {
+        return virtualFactory!=null;
+    }
+
+    /**
+     * @return factory of threads which run with the current {@link DFContext}:
+     *    virtual threads if available, daemon platform threads otherwise
+     */
+    public static ThreadFactory newThreadFactory() {
+        return virtualFactory!=null? new IOThreadFactory(virtualFactory): new IOThreadFactory("df4j-io");
+    }
+}
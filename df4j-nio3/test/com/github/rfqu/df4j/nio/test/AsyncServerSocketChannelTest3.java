@@ -0,0 +1,59 @@
+package com.github.rfqu.df4j.nio.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.github.rfqu.df4j.core.Port;
+import com.github.rfqu.df4j.nio.AsyncChannelFactory3;
+import com.github.rfqu.df4j.nio.test.AsyncServerSocketChannelTest;
+
+public class AsyncServerSocketChannelTest3 extends AsyncServerSocketChannelTest {
+    { asyncrSocketFactory=new AsyncChannelFactory3();
+    }
+
+    /**
+     * tests that a request listener which throws does not stop the thread serving the channel
+     */
+    @Test
+    public void failingListener() throws Exception {
+        Server server=new Server(local9990);
+        server.assch.up();
+
+        Connection clconn = newConnection(local9990);
+        Connection serconn = server.allConns.take();
+        MyRequest serreq=new MyRequest();
+        serconn.conn.read(serreq);
+        final CountDownLatch failed=new CountDownLatch(1);
+        serreq.setListener(new Port<MyRequest>() {
+            @Override
+            public void post(MyRequest request) {
+                failed.countDown();
+                throw new IllegalStateException("listener failed");
+            }
+        });
+        write(clconn, 1);
+        assertTrue(failed.await(2, TimeUnit.SECONDS));
+
+        serreq=new MyRequest();
+        serconn.read(serreq);
+        write(clconn, 2);
+        assertEquals(serreq, serconn.finishedRequests.poll(2, TimeUnit.SECONDS));
+        assertEquals(2, serreq.buff.getLong());
+
+        clconn.conn.close();
+        server.close();
+    }
+
+    private static void write(Connection conn, long value) throws InterruptedException {
+        MyRequest req=new MyRequest();
+        req.clear();
+        req.buff.putLong(value);
+        conn.write(req);
+        assertEquals(req, conn.finishedRequests.poll(2, TimeUnit.SECONDS));
+    }
+}